@@ -0,0 +1,206 @@
+import java.io.IOException;
+
+/**
+ * A block of the BWT, as used by $SubstringIterator$: a string that supports $access$
+ * and the batched rank query $multirank$. Blocks are built from the characters of
+ * the block and from the number of occurrences of each character, and the
+ * representation is selected with $build$, either explicitly or from the statistics
+ * of the block (see $ADAPTIVE$).
+ */
+public abstract class BWTBlock {
+	/**
+	 * Representations
+	 */
+	public static final int HUFFMAN_WAVELET_TREE = 0;
+	public static final int DNA_OCCURRENCE_TABLE = 1;  // See $DNABlock$.
+	public static final int WAVELET_MATRIX = 2;  // See $WaveletMatrix$.
+	public static final int PACKED_ARRAY = 3;  // See $PackedBlock$.
+	public static final int RUN_LENGTH = 4;  // See $RunLengthBlock$.
+	public static final int SINGLE_SYMBOL = 5;  // See $SingleSymbolBlock$.
+	public static final int N_TYPES = 6;
+
+	/**
+	 * Not a representation: asks $build$ to choose the representation of each block
+	 * with $chooseType$.
+	 */
+	public static final int ADAPTIVE = -1;
+
+	/**
+	 * Estimated number of bits of a node of $HuffmanWaveletTree$ that do not depend on
+	 * the length of the block: object headers, pointers, and the minimum size of the
+	 * counts of the rank data structure.
+	 */
+	private static final int HUFFMAN_NODE_BITS = 512;
+
+
+	/**
+	 * @param alphabet only the distinct symbols that occur in $string$, sorted
+	 * lexicographically;
+	 * @param counts number of occurrences in $string$ of each symbol in $alphabet$;
+	 * @param type representation of the block, or $ADAPTIVE$; if the representation does
+	 * not support $string$ (e.g. $DNA_OCCURRENCE_TABLE$ with a symbol greater than 3, or
+	 * $SINGLE_SYMBOL$ with more than one symbol), a $HUFFMAN_WAVELET_TREE$ is built
+	 * instead.
+	 */
+	public static final BWTBlock build(IntArray string, int[] alphabet, IntArray counts, int type) {
+		if (type==ADAPTIVE) type=chooseType(string,alphabet,counts);
+		if (type==DNA_OCCURRENCE_TABLE && DNABlock.supports(string,alphabet)) return new DNABlock(string);
+		if (type==WAVELET_MATRIX) return new WaveletMatrix(string,alphabet);
+		if (type==PACKED_ARRAY) return new PackedBlock(string,alphabet);
+		if (type==RUN_LENGTH) return new RunLengthBlock(string,alphabet);
+		if (type==SINGLE_SYMBOL && alphabet.length==1) return new SingleSymbolBlock(string.length(),alphabet[0]);
+		return new HuffmanWaveletTree(string,alphabet,counts);
+	}
+
+
+	/**
+	 * Chooses the representation of a block from its length, its number of runs and
+	 * the empirical entropy of its characters: a block with one symbol is a
+	 * $SINGLE_SYMBOL$ block; otherwise the procedure picks the smallest among
+	 * $PACKED_ARRAY$ and $RUN_LENGTH$ whose estimated size is at most
+	 * $Constants.SLOW_BLOCK_MAX_SIZE_RATIO$ times the estimated size of a
+	 * $HUFFMAN_WAVELET_TREE$, and whose estimated $multirank$ time is at most
+	 * $Constants.SLOW_BLOCK_MAX_RANK_COST_RATIO$ times the estimated $multirank$ time of
+	 * the wavelet tree; and a $HUFFMAN_WAVELET_TREE$ if there is no such representation.
+	 *
+	 * The wavelet tree is estimated to take $|string| \max(H_0,1)$ bits, i.e. ignoring the
+	 * redundancy of the Huffman code, plus a constant per node, and to contain
+	 * $\rho \max(H_0,1)$ runs of equal bits, where $\rho$ is the number of runs of
+	 * $string$. Its nodes are assumed to be $RRRBitVector$s iff such bits and runs compress
+	 * enough (see $RankDataStructure.buildCompressible$), and $multirank$ is assumed to
+	 * perform one rank query per internal node. Times are in units of $Rank9.rank$ (see
+	 * e.g. $PackedBlock.estimateRankCost$). Every estimate takes one scan of $string$ at
+	 * most.
+	 *
+	 * @param alphabet,counts as in $build$.
+	 */
+	public static final int chooseType(IntArray string, int[] alphabet, IntArray counts) {
+		final int alphabetLength = alphabet.length;
+		final long length = string.length();
+		boolean compressed;
+		int k, type;
+		long bits, nRuns, huffman, packed, runLength, best;
+		double entropy, p, huffmanCost;
+
+		if (alphabetLength==1) return SINGLE_SYMBOL;
+		entropy=0.0;
+		for (k=0; k<alphabetLength; k++) {
+			p=((double)counts.getElementAt(k))/length;
+			if (p>0) entropy-=p*Math.log(p);
+		}
+		entropy=Math.max(entropy/Math.log(2),1.0);
+		nRuns=RunLengthBlock.nRuns(string);
+		bits=(long)(length*entropy);
+		huffman=RRRBitVector.estimateBits(bits,(long)(nRuns*entropy));
+		compressed=Constants.RRR_MAX_SIZE_RATIO>0 && huffman<=Constants.RRR_MAX_SIZE_RATIO*RankDataStructure.UNCOMPRESSED_BITS_PER_BIT*bits;
+		if (!compressed) huffman=(long)(bits*RankDataStructure.UNCOMPRESSED_BITS_PER_BIT);
+		huffman+=(alphabetLength-1)*HUFFMAN_NODE_BITS;
+		huffmanCost=(alphabetLength-1)*(compressed?RRRBitVector.RANK_COST:1)*Constants.SLOW_BLOCK_MAX_RANK_COST_RATIO;
+		type=HUFFMAN_WAVELET_TREE; best=(long)(Constants.SLOW_BLOCK_MAX_SIZE_RATIO*huffman);
+		packed=PackedBlock.estimateBits(length,alphabetLength);
+		if (packed<=best && PackedBlock.estimateRankCost()<=huffmanCost) {
+			type=PACKED_ARRAY;
+			best=packed;
+		}
+		runLength=RunLengthBlock.estimateBits(length,alphabetLength,nRuns);
+		if (runLength<=best && (type!=PACKED_ARRAY || runLength<packed) && RunLengthBlock.estimateRankCost(nRuns)<=huffmanCost) type=RUN_LENGTH;
+		return type;
+	}
+
+
+	/**
+	 * @return the minimum number of rows of the $stack$ matrix of $multirank$ and
+	 * $sparseMultirank$, for every representation.
+	 */
+	public static final int multirankStackRows(int fullAlphabetLength) {
+		return Math.max(Math.max(fullAlphabetLength-1,Utils.bitsToEncode(fullAlphabetLength-1)+1),1);
+	}
+
+
+	/**
+	 * @return the representation of this block.
+	 */
+	public abstract int type();
+
+
+	/**
+	 * @param position a valid position in the string of the block;
+	 * @return the character at $position$.
+	 */
+	public abstract int access(long position);
+
+
+	/**
+	 * Computes the number of occurrences of every symbol in $[0..fullAlphabetLength]$
+	 * before each position of a list of distinct positions relative to the string of
+	 * the block. The contract of the arguments is the one of
+	 * $HuffmanWaveletTree.multirank$, except that $stack$ must have at least
+	 * $multirankStackRows(fullAlphabetLength)$ rows.
+	 */
+	public abstract void multirank(int fullAlphabetLength, int nPositions, long[][] stack, long[][] output, long[] ones);
+
+
+	/**
+	 * Like $multirank$, but reports just the characters that occur in the block between
+	 * the first and the last position, i.e. in $[stack[0][1]..stack[0][nPositions]-1]$.
+	 * Every other character has the same rank at all positions, thus it does not occur
+	 * in any interval whose endpoints are in the list. Positions must be sorted, but they
+	 * need not be distinct. This implementation calls $multirank$ and compacts its
+	 * output, thus it takes time proportional to $fullAlphabetLength$: representations
+	 * for large alphabets should override it.
+	 *
+	 * @param characters output array: the reported characters, in increasing order;
+	 * @param output output matrix: row $k$ contains the ranks of $characters[k]$ before
+	 * each position; it need not be initialized, and it must have at least
+	 * $fullAlphabetLength$ rows;
+	 * @return the number of reported characters.
+	 */
+	public int sparseMultirank(int fullAlphabetLength, int nPositions, long[][] stack, int[] characters, long[][] output, long[] ones) {
+		int c, j, n;
+		for (c=0; c<fullAlphabetLength; c++) {
+			for (j=0; j<nPositions; j++) output[c][j]=0;
+		}
+		multirank(fullAlphabetLength,nPositions,stack,output,ones);
+		n=0;
+		for (c=0; c<fullAlphabetLength; c++) {
+			if (output[c][nPositions-1]==output[c][0]) continue;
+			characters[n]=c;
+			if (n!=c) System.arraycopy(output[c],0,output[n],0,nPositions);
+			n++;
+		}
+		return n;
+	}
+
+
+	/**
+	 * Appends to $file$ the data structures of the block, without its type.
+	 */
+	protected abstract void writeData(IndexFile file) throws IOException;
+
+
+	/**
+	 * Appends to $file$ the type of the block, followed by its data structures.
+	 */
+	public final void write(IndexFile file) throws IOException {
+		file.writeLong(type());
+		writeData(file);
+	}
+
+
+	/**
+	 * Inverse of $write$.
+	 */
+	public static final BWTBlock read(IndexFile file) throws IOException {
+		final int type = (int)file.readLong();
+		switch (type) {
+			case HUFFMAN_WAVELET_TREE: return HuffmanWaveletTree.readData(file);
+			case DNA_OCCURRENCE_TABLE: return DNABlock.readData(file);
+			case WAVELET_MATRIX: return WaveletMatrix.readData(file);
+			case PACKED_ARRAY: return PackedBlock.readData(file);
+			case RUN_LENGTH: return RunLengthBlock.readData(file);
+			case SINGLE_SYMBOL: return SingleSymbolBlock.readData(file);
+			default: throw new IOException("Unknown BWT block type: "+type);
+		}
+	}
+
+}
@@ -0,0 +1,911 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * Microbenchmarks of single phases of construction and traversal, which print
+ * wall-clock times to standard output. The first argument selects the benchmark:
+ *
+ * measure <path> <stringLength> <maxThreads>: thread scaling of the measuring phase of
+ * $Suffixes.blockwiseBWT$ (procedure $Suffixes.blockwiseBWT_measureBlocks$), with
+ * $1,2,4,...,maxThreads$ threads and the same splitters in every run.
+ *
+ * sort <path> <stringLength>: time of $Suffixes.blockwiseBWT$ with each value of
+ * $Constants.SUFFIX_SORTING$, and whether $SAIS$ fits in $Constants.MAX_MEMORY$.
+ *
+ * plan <path> <stringLength> <heapFraction>: block size and number of threads chosen by
+ * $ConstructionPlan$ with $Constants.HEAP_FRACTION=heapFraction$, and predicted versus
+ * actual peak memory of each phase of $Suffixes.blockwiseBWT$ (a single run).
+ *
+ * append <path> <stringLength> <newLength>: time of $SubstringIterator.appendAndRebuild$
+ * of a random string of length $newLength$ to the index of the string, and number of
+ * blocks rebuilt, versus the time of building the index of the concatenation from
+ * scratch (a single run each).
+ *
+ * traverse <path> <stringLength> [blockType]: construction time of $SubstringIterator$
+ * with every representation of BWT blocks (see $BWTBlock$), including
+ * $BWTBlock.ADAPTIVE$, or just with $blockType$, and time of a traversal of all the
+ * right-maximal substrings of the string.
+ *
+ * engine <path> <stringLength> <maxThreads>: time of a traversal of all the
+ * right-maximal substrings of the string with $1,2,4,...,maxThreads$ threads, with
+ * $SubstringIteratorThread$s that lock their stacks, with $SubstringIteratorThread$s
+ * that steal lock-free (see $Constants.LOCK_FREE_STEALING$), and with tasks (see
+ * $Constants.TASK_TRAVERSAL$), and the average time in which a thread is idle.
+ *
+ * balance <path> <stringLength> <maxThreads>: load balance of a traversal of all the
+ * right-maximal substrings of the string with $8,16,...,maxThreads$
+ * $SubstringIteratorThread$s, with stealing by number of short substrings and by
+ * estimated cost (see $Constants.COST_BASED_STEALING$), both starting from a single
+ * stack, and with stealing by estimated cost after seeding all stacks (see
+ * $Constants.SEEDS_PER_THREAD$): time, ratio between the maximum and the average number
+ * of substrings extended by a thread, and average idle time per thread.
+ *
+ * alphabet <stringLength> <alphabetLength>: like $traverse$, with $HUFFMAN_WAVELET_TREE$
+ * and $WAVELET_MATRIX$ blocks, on a random string of length $stringLength$ on alphabet
+ * $[0..alphabetLength-1]$, in which character $\lfloor alphabetLength*x^3 \rfloor$ is
+ * drawn for $x$ uniform in $[0..1)$, so that character frequencies are skewed like in
+ * proteins and in byte text.
+ *
+ * rank <path> <stringLength> <nPositions>: average time of $BWTBlock.multirank$ per
+ * position, with every representation of BWT blocks and every value of
+ * $Constants.RANK_LAYOUT$, on $nPositions$ random positions of the BWT of the string,
+ * ranked in batches of $RANK_BATCH$ sorted positions.
+ *
+ * compression <path> <stringLength> <nPositions>: size in bits per character and
+ * average time of $multirank$ per position (as in $rank$) of a $HuffmanWaveletTree$ of
+ * the BWT of the string, with several values of $Constants.RRR_MAX_SIZE_RATIO$, from no
+ * compression to compressing every node.
+ *
+ * blocks <path> <stringLength> <blockLength> <nPositions>: number of blocks of each
+ * representation chosen by $BWTBlock.ADAPTIVE$ on the BWT of the string cut into
+ * blocks of $blockLength$ characters, and average time of $multirank$ per position
+ * (as in $rank$) with such blocks and with $HUFFMAN_WAVELET_TREE$ blocks.
+ *
+ * layout <nBits> <nPositions>: average time of $RankDataStructure.rank$ per position,
+ * with every value of $Constants.RANK_LAYOUT$, on $nPositions$ random positions of a
+ * random bitvector of $nBits$ bits, with density $1/2$ (like a node of a wavelet tree)
+ * and $2^{-16}$ (like a bitvector that flags the starts of BWT blocks).
+ *
+ * vector <nBits> <nPositions>: average time per position of
+ * $RankDataStructure.rank(positions,...)$ on a $Rank9$ with and without
+ * $RankKernel.VECTOR$, on batches of sorted random positions of several sizes of a
+ * random bitvector of $nBits$ bits with density $1/2$; then average time of $multirank$
+ * per position (as in $rank$) of a $HuffmanWaveletTree$ of a random DNA string of length
+ * $nBits$, with and without the kernel. Run with $--add-modules jdk.incubator.vector$
+ * to load the kernel (see README).
+ *
+ * lookup <bwtLength> <nBlocks> <nPositions>: average time per position of finding the
+ * block that contains $nPositions$ random positions of a BWT of length $bwtLength$, cut
+ * into $nBlocks$ blocks of approximately the same size, with $BlockLookup.block$ and
+ * with $RankDataStructure.rank$ on a bitvector that flags block starts, with every
+ * value of $Constants.RANK_LAYOUT$; and the space of each data structure.
+ *
+ * select <nBits> <nPositions>: average time of $SimpleSelect.select$ per query, with
+ * every value of $Constants.RANK_LAYOUT$, on $nPositions$ random ranks of the ones of
+ * random bitvectors of $nBits$ bits with decreasing density, and the space of
+ * $SimpleSelect$ in bits per bit of the bitvector; then average time of
+ * $HuffmanWaveletTree.select$ and of $HuffmanWaveletTree.access$ on a random string of
+ * length $nBits$ on alphabet $\{0,1,2,3\}$, with character frequencies $1/2,1/4,1/8,1/8$.
+ *
+ * load <path> <maxThreads>: throughput of $FastaLoader.load$ with $1,2,4,...,maxThreads$
+ * threads, versus the throughput of $Utils.loadDNA$, on the FASTA file at $path$.
+ *
+ * If $path$ equals $random$, the string is a uniformly random DNA string of length
+ * $stringLength$; if $path$ equals $repetitive$, the string is the concatenation of
+ * mutated copies of a random DNA string of length $stringLength/REPETITIVE_COPIES$,
+ * in which every character is replaced with probability $REPETITIVE_MUTATION$;
+ * otherwise, the string is the prefix of length $stringLength$ of the FASTA file at
+ * $path$, loaded with $FastaLoader.load$.
+ *
+ * Remark: every measurement is the minimum over $N_REPETITIONS$ runs, after one
+ * warm-up run that lets the JIT compile the measured code.
+ */
+public class Benchmarks {
+
+	private static final int N_REPETITIONS = 5;
+	private static final int REPETITIVE_COPIES = 64;
+	private static final double REPETITIVE_MUTATION = 0.001;
+	private static final int RANK_BATCH = 8;
+
+
+	public static void main(String[] args) throws IOException {
+		if (args[0].equals("measure")) measure(args[1],Integer.parseInt(args[2]),Integer.parseInt(args[3]));
+		else if (args[0].equals("sort")) sort(args[1],Integer.parseInt(args[2]));
+		else if (args[0].equals("append")) append(args[1],Integer.parseInt(args[2]),Integer.parseInt(args[3]));
+		else if (args[0].equals("traverse")) traverse(args[1],Integer.parseInt(args[2]),args.length>3?Integer.parseInt(args[3]):BWTBlock.N_TYPES);
+		else if (args[0].equals("engine")) engine(args[1],Integer.parseInt(args[2]),Integer.parseInt(args[3]));
+		else if (args[0].equals("balance")) balance(args[1],Integer.parseInt(args[2]),Integer.parseInt(args[3]));
+		else if (args[0].equals("alphabet")) alphabet(Integer.parseInt(args[1]),Integer.parseInt(args[2]));
+		else if (args[0].equals("rank")) rank(args[1],Integer.parseInt(args[2]),Integer.parseInt(args[3]));
+		else if (args[0].equals("compression")) compression(args[1],Integer.parseInt(args[2]),Integer.parseInt(args[3]));
+		else if (args[0].equals("blocks")) blocks(args[1],Integer.parseInt(args[2]),Integer.parseInt(args[3]),Integer.parseInt(args[4]));
+		else if (args[0].equals("vector")) vector(Long.parseLong(args[1]),Integer.parseInt(args[2]));
+		else if (args[0].equals("lookup")) lookup(Long.parseLong(args[1]),Integer.parseInt(args[2]),Integer.parseInt(args[3]));
+		else if (args[0].equals("layout")) layout(Long.parseLong(args[1]),Integer.parseInt(args[2]));
+		else if (args[0].equals("select")) select(Long.parseLong(args[1]),Integer.parseInt(args[2]));
+		else if (args[0].equals("load")) load(args[1],Integer.parseInt(args[2]));
+		else if (args[0].equals("plan")) plan(args[1],Integer.parseInt(args[2]),Double.parseDouble(args[3]));
+		else {
+			System.err.println("Unknown benchmark: "+args[0]);
+			System.exit(1);
+		}
+	}
+
+
+	private static final IntArray loadString(String path, int stringLength) throws IOException {
+		final int seedLength;
+		int i;
+		IntArray out, prefix;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		if (path.equals("random")) {
+			out = new IntArray(stringLength,2);
+			for (i=0; i<stringLength; i++) out.push(random.nextInt(4));
+			return out;
+		}
+		if (path.equals("repetitive")) {
+			seedLength=Math.max(stringLength/REPETITIVE_COPIES,1);
+			out = new IntArray(stringLength,2);
+			for (i=0; i<seedLength; i++) out.push(random.nextInt(4));
+			for (i=seedLength; i<stringLength; i++) {
+				if (random.nextDouble()<REPETITIVE_MUTATION) out.push(random.nextInt(4));
+				else out.push(out.getElementAt(i-seedLength));
+			}
+			return out;
+		}
+		out=FastaLoader.load(path);
+		if (out.length()<=stringLength) return out;
+		prefix = new IntArray(stringLength,2);
+		for (i=0; i<stringLength; i++) prefix.push(out.getElementAt(i));
+		return prefix;
+	}
+
+
+	private static final void load(String path, int maxThreads) throws IOException {
+		final long fileLength = new File(path).length();
+		final double megabytes = fileLength/1000000.0;
+		int i, nThreads;
+		long time, min, stringLength;
+		IntArray string;
+
+		string=FastaLoader.load(path,1,FastaLoader.DEFAULT_CHUNK_BYTES);
+		stringLength=string.length();
+		System.out.println("fileLength (MB)="+megabytes+" stringLength="+stringLength);
+		System.out.println("loader\tnThreads\ttime (ms)\tMB/s");
+		min=Long.MAX_VALUE;
+		for (i=0; i<=N_REPETITIONS; i++) {
+			time=System.nanoTime();
+			string=Utils.loadDNA(path,(int)fileLength,1000);  // Upper bound, since $loadDNA$ also loads header characters.
+			time=System.nanoTime()-time;
+			if (i>0 && time<min) min=time;
+		}
+		System.out.println("loadDNA\t1\t"+(min/1000000.0)+"\t"+(megabytes*1000000000.0/min));
+		for (nThreads=1; nThreads<=maxThreads; nThreads<<=1) {
+			min=Long.MAX_VALUE;
+			for (i=0; i<=N_REPETITIONS; i++) {
+				time=System.nanoTime();
+				string=FastaLoader.load(path,nThreads,FastaLoader.DEFAULT_CHUNK_BYTES);
+				time=System.nanoTime()-time;
+				if (i>0 && time<min) min=time;
+			}
+			System.out.println("FastaLoader\t"+nThreads+"\t"+(min/1000000.0)+"\t"+(megabytes*1000000000.0/min));
+		}
+	}
+
+
+	private static final void measure(String path, int stringLength, int maxThreads) throws IOException {
+		final int log2stringLength;
+		int i, nThreads, nSplitters;
+		long blockSize, time, min, single;
+		IntArray string, splitters_byPosition, splitters_bySuffix, binarySearchCache, suffixBlocks;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		string=loadString(path,stringLength);
+		stringLength=(int)string.length();
+		log2stringLength=Utils.log2(stringLength);
+		Constants.N_THREADS=maxThreads;
+		blockSize=Suffixes.blockwiseBWT_getBlockSize(stringLength,log2stringLength,2);
+		splitters_byPosition=Suffixes.buildSplitters(stringLength,log2stringLength,blockSize,random);
+		nSplitters=(int)( splitters_byPosition.length() );
+		splitters_bySuffix=splitters_byPosition.clone();
+		Suffixes.sort(splitters_bySuffix,string,random);
+		binarySearchCache=Suffixes.buildBinarySearchCache(splitters_bySuffix,string);
+		suffixBlocks = new IntArray(stringLength,Utils.bitsToEncode(nSplitters+1),true);
+		System.out.println("stringLength="+stringLength+" blockSize="+blockSize+" nSplitters="+nSplitters);
+		System.out.println("nThreads\ttime (ms)\tspeedup");
+
+		single=-1;
+		for (nThreads=1; nThreads<=maxThreads; nThreads<<=1) {
+			Constants.N_THREADS=nThreads;
+			Suffixes.blockwiseBWT_measureBlocks(string,splitters_bySuffix,splitters_byPosition,binarySearchCache,suffixBlocks,nThreads);
+			min=Long.MAX_VALUE;
+			for (i=0; i<N_REPETITIONS; i++) {
+				time=System.nanoTime();
+				Suffixes.blockwiseBWT_measureBlocks(string,splitters_bySuffix,splitters_byPosition,binarySearchCache,suffixBlocks,nThreads);
+				time=System.nanoTime()-time;
+				if (time<min) min=time;
+			}
+			if (single==-1) single=min;
+			System.out.println(nThreads+"\t"+(min/1000000.0)+"\t"+(((double)single)/min));
+		}
+	}
+
+
+	private static final void sort(String path, int stringLength) throws IOException {
+		final int log2stringLength;
+		int i, strategy;
+		long blockSize, time, min;
+		int[] alphabet = new int[] {0,1,2,3};
+		IntArray string, bwt;
+
+		string=loadString(path,stringLength);
+		stringLength=(int)string.length();
+		log2stringLength=Utils.log2(stringLength);
+		blockSize=Suffixes.blockwiseBWT_getBlockSize(stringLength,log2stringLength,2);
+		System.out.println("stringLength="+stringLength+" blockSize="+blockSize+" nThreads="+Constants.N_THREADS);
+		System.out.println("SUFFIX_SORTING\tSAIS used\ttime (ms)");
+		for (strategy=0; strategy<=1; strategy++) {
+			Constants.SUFFIX_SORTING=strategy;
+			bwt = new IntArray(stringLength+1,2,true);
+			Suffixes.blockwiseBWT(string,alphabet,4,2,blockSize,bwt,null,null,null,null,null);
+			min=Long.MAX_VALUE;
+			for (i=0; i<N_REPETITIONS; i++) {
+				time=System.nanoTime();
+				Suffixes.blockwiseBWT(string,alphabet,4,2,blockSize,bwt,null,null,null,null,null);
+				time=System.nanoTime()-time;
+				if (time<min) min=time;
+			}
+			System.out.println(strategy+"\t"+Suffixes.blockwiseBWT_useSAIS(stringLength,Constants.MAX_MEMORY)+"\t"+(min/1000000.0));
+		}
+	}
+
+
+
+	private static final void plan(String path, int stringLength, double heapFraction) throws IOException {
+		final long nBlocks;
+		long time;
+		int[] alphabet = new int[] {0,1,2,3};
+		long[] sharp = new long[3];
+		IntArray string, blockStarts, bitVector;
+		BWTBlock[] waveletTrees;
+		IntArray[] localBlockCounts;
+		ConstructionPlan plan;
+
+		string=loadString(path,stringLength);
+		stringLength=(int)string.length();
+		Constants.HEAP_FRACTION=heapFraction;
+		plan=ConstructionPlan.build(stringLength,2);
+		plan.measure=true;
+		nBlocks=Math.max(Suffixes.blockwiseBWT_maxBlocks(stringLength,plan.blockSize),4);
+		waveletTrees = new BWTBlock[(int)nBlocks];
+		blockStarts = new IntArray(nBlocks,Utils.log2(stringLength+1),false);
+		localBlockCounts = new IntArray[(int)nBlocks];
+		bitVector = new IntArray(stringLength+1,1,true);
+		time=System.nanoTime();
+		Suffixes.blockwiseBWT(string,alphabet,4,2,plan.blockSize,null,waveletTrees,blockStarts,bitVector,localBlockCounts,sharp,plan);
+		time=System.nanoTime()-time;
+		System.out.println("stringLength="+stringLength+" nBlocks="+blockStarts.length()+" time (ms)="+(time/1000000.0));
+		plan.print(System.out);
+	}
+
+
+
+	private static final void append(String path, int stringLength, int newLength) throws IOException {
+		int i, nRebuilt;
+		long time;
+		int[] alphabet = new int[] {0,1,2,3};
+		IntArray string, newString, concatenation;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		SubstringIterator iterator;
+
+		string=loadString(path,stringLength);
+		stringLength=(int)string.length();
+		newString = new IntArray(newLength,2,false);
+		for (i=0; i<newLength; i++) newString.push(random.nextInt(4));
+		concatenation = new IntArray(newLength+stringLength,2,false);
+		for (i=0; i<stringLength; i++) concatenation.push(string.getElementAt(i));
+		for (i=0; i<newLength; i++) concatenation.push(newString.getElementAt(i));
+		System.out.println("stringLength="+stringLength+" newLength="+newLength);
+		iterator = new SubstringIterator(string,alphabet,4,null);
+		time=System.nanoTime();
+		nRebuilt=iterator.appendAndRebuild(newString,null);
+		time=System.nanoTime()-time;
+		System.out.println("append (ms)\t"+(time/1000000.0)+"\trebuilt blocks\t"+nRebuilt+"/"+iterator.nBlocks());
+		iterator=null;
+		time=System.nanoTime();
+		iterator = new SubstringIterator(concatenation,alphabet,4,null);
+		time=System.nanoTime()-time;
+		System.out.println("rebuild (ms)\t"+(time/1000000.0));
+	}
+
+
+
+	/**
+	 * @param onlyType if in $[BWTBlock.ADAPTIVE..BWTBlock.N_TYPES-1]$, only this
+	 * representation is measured.
+	 */
+	private static final void traverse(String path, int stringLength, int onlyType) throws IOException {
+		int i, type;
+		long time, min;
+		int[] alphabet = new int[] {0,1,2,3};
+		IntArray string;
+		SubstringIterator iterator;
+
+		string=loadString(path,stringLength);
+		stringLength=(int)string.length();
+		System.out.println("stringLength="+stringLength+" nThreads="+Constants.N_THREADS);
+		System.out.println("blockType\tconstruction (ms)\ttraversal (ms)");
+		for (type=BWTBlock.ADAPTIVE; type<BWTBlock.N_TYPES; type++) {
+			if (onlyType<BWTBlock.N_TYPES && type!=onlyType) continue;
+			if (type==BWTBlock.SINGLE_SYMBOL) continue;  // Equivalent to $HUFFMAN_WAVELET_TREE$ on blocks with more than one symbol
+			time=System.nanoTime();
+			iterator = new SubstringIterator(string,alphabet,4,new RightMaximalSubstring(4,2,Utils.bitsToEncode(4),stringLength+1,Utils.log2(stringLength+1),Utils.bitsToEncode(stringLength+1)),type);
+			time=System.nanoTime()-time;
+			System.out.print(type+"\t"+(time/1000000.0)+"\t");
+			iterator.run();
+			min=Long.MAX_VALUE;
+			for (i=0; i<N_REPETITIONS; i++) {
+				time=System.nanoTime();
+				iterator.run();
+				time=System.nanoTime()-time;
+				if (time<min) min=time;
+			}
+			System.out.println(min/1000000.0);
+		}
+	}
+
+
+	private static final void engine(String path, int stringLength, int maxThreads) throws IOException {
+		final int backupThreads = Constants.N_THREADS;
+		final boolean backupTasks = Constants.TASK_TRAVERSAL;
+		final boolean backupLockFree = Constants.LOCK_FREE_STEALING;
+		int i, j, t, nThreads;
+		long time;
+		int[] alphabet = new int[] {0,1,2,3};
+		long[] min = new long[3];
+		long[] idle = new long[2];  // Average idle time per thread in the fastest run
+		IntArray string;
+		SubstringIterator iterator;
+
+		string=loadString(path,stringLength);
+		stringLength=(int)string.length();
+		iterator = new SubstringIterator(string,alphabet,4,new RightMaximalSubstring(4,2,Utils.bitsToEncode(4),stringLength+1,Utils.log2(stringLength+1),Utils.bitsToEncode(stringLength+1)));
+		System.out.println("stringLength="+stringLength);
+		System.out.println("nThreads\tthreads (ms)\tlock-free threads (ms)\ttasks (ms)\tidle per thread (ms)\tidle per lock-free thread (ms)");
+		for (nThreads=1; nThreads<=maxThreads; nThreads<<=1) {
+			Constants.N_THREADS=nThreads;
+			for (t=0; t<=2; t++) {
+				Constants.LOCK_FREE_STEALING=t==1;
+				Constants.TASK_TRAVERSAL=t==2;
+				iterator.run();
+				min[t]=Long.MAX_VALUE;
+				for (i=0; i<N_REPETITIONS; i++) {
+					time=System.nanoTime();
+					iterator.run();
+					time=System.nanoTime()-time;
+					if (time<min[t]) {
+						min[t]=time;
+						if (t<2) {
+							idle[t]=0;
+							for (j=0; j<nThreads; j++) idle[t]+=iterator.idleTimes()[j];
+							idle[t]/=nThreads;
+						}
+					}
+				}
+			}
+			System.out.println(nThreads+"\t"+(min[0]/1000000.0)+"\t"+(min[1]/1000000.0)+"\t"+(min[2]/1000000.0)+"\t"+(idle[0]/1000000.0)+"\t"+(idle[1]/1000000.0));
+		}
+		Constants.N_THREADS=backupThreads;
+		Constants.TASK_TRAVERSAL=backupTasks;
+		Constants.LOCK_FREE_STEALING=backupLockFree;
+	}
+
+
+	private static final void balance(String path, int stringLength, int maxThreads) throws IOException {
+		final int backupThreads = Constants.N_THREADS;
+		final boolean backupCost = Constants.COST_BASED_STEALING;
+		final int backupSeeds = Constants.SEEDS_PER_THREAD;
+		int i, j, t, nThreads;
+		long time, max, idle;
+		int[] alphabet = new int[] {0,1,2,3};
+		long[] min = new long[3];
+		double[] imbalance = new double[3];  // In the fastest run
+		double[] averageIdle = new double[3];  // In the fastest run
+		IntArray string;
+		SubstringIterator iterator;
+
+		string=loadString(path,stringLength);
+		stringLength=(int)string.length();
+		iterator = new SubstringIterator(string,alphabet,4,new RightMaximalSubstring(4,2,Utils.bitsToEncode(4),stringLength+1,Utils.log2(stringLength+1),Utils.bitsToEncode(stringLength+1)));
+		System.out.println("stringLength="+stringLength);
+		System.out.println("nThreads\tby count (ms)\tby cost (ms)\tseeded (ms)\tmax/avg extended, by count\tmax/avg extended, by cost\tmax/avg extended, seeded\tidle per thread, by count (ms)\tidle per thread, by cost (ms)\tidle per thread, seeded (ms)");
+		for (nThreads=8; nThreads<=maxThreads; nThreads<<=1) {
+			Constants.N_THREADS=nThreads;
+			for (t=0; t<=2; t++) {
+				Constants.COST_BASED_STEALING=t>=1;
+				Constants.SEEDS_PER_THREAD=t==2?backupSeeds:0;
+				iterator.run();
+				min[t]=Long.MAX_VALUE;
+				for (i=0; i<N_REPETITIONS; i++) {
+					time=System.nanoTime();
+					iterator.run();
+					time=System.nanoTime()-time;
+					if (time<min[t]) {
+						min[t]=time;
+						max=0; idle=0;
+						for (j=0; j<nThreads; j++) {
+							max=Math.max(max,iterator.nExtendedByThread()[j]);
+							idle+=iterator.idleTimes()[j];
+						}
+						imbalance[t]=((double)max)*nThreads/iterator.nExtended();
+						averageIdle[t]=idle/(nThreads*1000000.0);
+					}
+				}
+			}
+			System.out.println(nThreads+"\t"+(min[0]/1000000.0)+"\t"+(min[1]/1000000.0)+"\t"+(min[2]/1000000.0)+"\t"+imbalance[0]+"\t"+imbalance[1]+"\t"+imbalance[2]+"\t"+averageIdle[0]+"\t"+averageIdle[1]+"\t"+averageIdle[2]);
+		}
+		Constants.N_THREADS=backupThreads;
+		Constants.COST_BASED_STEALING=backupCost;
+		Constants.SEEDS_PER_THREAD=backupSeeds;
+	}
+
+
+	private static final void alphabet(int stringLength, int alphabetLength) {
+		final int[] types = new int[] {BWTBlock.HUFFMAN_WAVELET_TREE,BWTBlock.WAVELET_MATRIX};
+		int i, type, log2alphabetLength;
+		long time, min;
+		int[] alphabet;
+		IntArray string;
+		SubstringIterator iterator;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		log2alphabetLength=Utils.log2(alphabetLength);
+		alphabet = new int[alphabetLength];
+		for (i=0; i<alphabetLength; i++) alphabet[i]=i;
+		string = new IntArray(stringLength,log2alphabetLength);
+		for (i=0; i<stringLength; i++) string.push((int)(alphabetLength*Math.pow(random.nextDouble(),3)));
+		System.out.println("stringLength="+stringLength+" alphabetLength="+alphabetLength+" nThreads="+Constants.N_THREADS);
+		System.out.println("blockType\tconstruction (ms)\ttraversal (ms)");
+		for (type=0; type<types.length; type++) {
+			time=System.nanoTime();
+			iterator = new SubstringIterator(string,alphabet,alphabetLength,new RightMaximalSubstring(alphabetLength,log2alphabetLength,Utils.bitsToEncode(alphabetLength),stringLength+1,Utils.log2(stringLength+1),Utils.bitsToEncode(stringLength+1)),types[type]);
+			time=System.nanoTime()-time;
+			System.out.print(types[type]+"\t"+(time/1000000.0)+"\t");
+			iterator.run();
+			min=Long.MAX_VALUE;
+			for (i=0; i<N_REPETITIONS; i++) {
+				time=System.nanoTime();
+				iterator.run();
+				time=System.nanoTime()-time;
+				if (time<min) min=time;
+			}
+			System.out.println(min/1000000.0);
+		}
+	}
+
+
+	/**
+	 * @return the BWT of $string$, on alphabet $\{0,1,2,3\}$.
+	 */
+	private static final IntArray getBWT(IntArray string) {
+		final int stringLength = (int)string.length();
+		int[] alphabet = new int[] {0,1,2,3};
+		IntArray bwt = new IntArray(stringLength+1,2,true);
+		Suffixes.blockwiseBWT(string,alphabet,4,2,Suffixes.blockwiseBWT_getBlockSize(stringLength,Utils.log2(stringLength),2),bwt,null,null,null,null,null);
+		return bwt;
+	}
+
+
+	/**
+	 * @return a block of type $type$ that contains all of $bwt$.
+	 */
+	private static final BWTBlock buildBlock(IntArray bwt, int type) {
+		final long bwtLength = bwt.length();
+		int c, j, effectiveAlphabetLength;
+		long i;
+		int[] effectiveAlphabet;
+		long[] counts = new long[4];
+		IntArray effectiveCounts;
+
+		for (i=0; i<bwtLength; i++) counts[(int)bwt.getElementAt(i)]++;
+		effectiveAlphabetLength=0;
+		for (c=0; c<4; c++) {
+			if (counts[c]!=0) effectiveAlphabetLength++;
+		}
+		effectiveAlphabet = new int[effectiveAlphabetLength];
+		effectiveCounts = new IntArray(effectiveAlphabetLength,Utils.bitsToEncode(bwtLength),false);
+		j=0;
+		for (c=0; c<4; c++) {
+			if (counts[c]!=0) {
+				effectiveAlphabet[j++]=c;
+				effectiveCounts.push(counts[c]);
+			}
+		}
+		return BWTBlock.build(bwt,effectiveAlphabet,effectiveCounts,type);
+	}
+
+
+	/**
+	 * @return the minimum time, in nanoseconds, of $multirank$ on $block$ over all
+	 * $positions$, in batches of $RANK_BATCH$; $checksum[0]$ is set to a value that
+	 * depends on the output.
+	 */
+	private static final long timeMultirank(BWTBlock block, long[] positions, long[] checksum) {
+		final int nPositions = positions.length;
+		int i, j;
+		long time, min;
+		long[] ones = new long[RANK_BATCH];
+		long[][] stack = new long[3][1+RANK_BATCH];
+		long[][] output = new long[4][RANK_BATCH];
+
+		min=Long.MAX_VALUE;
+		for (j=0; j<=N_REPETITIONS; j++) {
+			checksum[0]=0;
+			time=System.nanoTime();
+			for (i=0; i+RANK_BATCH<=nPositions; i+=RANK_BATCH) {
+				System.arraycopy(positions,i,stack[0],1,RANK_BATCH);
+				block.multirank(4,RANK_BATCH,stack,output,ones);
+				checksum[0]+=output[0][0]+output[3][RANK_BATCH-1];
+			}
+			time=System.nanoTime()-time;
+			if (j>0 && time<min) min=time;
+		}
+		return min;
+	}
+
+
+	/**
+	 * @return random positions in $[0..bwtLength]$, sorted inside each batch of
+	 * $RANK_BATCH$ positions.
+	 */
+	private static final long[] getPositions(long bwtLength, int nPositions) {
+		int i;
+		long[] positions = new long[nPositions];
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		for (i=0; i<nPositions; i++) positions[i]=(long)(random.nextDouble()*(bwtLength+1));
+		for (i=0; i+RANK_BATCH<=nPositions; i+=RANK_BATCH) Arrays.sort(positions,i,i+RANK_BATCH);
+		return positions;
+	}
+
+
+	private static final void rank(String path, int stringLength, int nPositions) throws IOException {
+		int k, type;
+		long min;
+		long[] positions;
+		long[] checksum = new long[1];
+		IntArray string, bwt;
+		BWTBlock block;
+
+		string=loadString(path,stringLength);
+		stringLength=(int)string.length();
+		bwt=getBWT(string);
+		positions=getPositions(bwt.length(),nPositions);
+		System.out.println("stringLength="+stringLength+" nPositions="+nPositions+" batch="+RANK_BATCH);
+		System.out.println("blockType\tRANK_LAYOUT\tns per position\tchecksum");
+		for (k=0; k<BWTBlock.N_TYPES*2; k++) {
+			type=k>>>1;
+			Constants.RANK_LAYOUT=k&1;
+			if (type==BWTBlock.DNA_OCCURRENCE_TABLE && Constants.RANK_LAYOUT!=0) continue;  // No rank data structure
+			block=buildBlock(bwt,type);
+			min=timeMultirank(block,positions,checksum);
+			System.out.println(type+"\t"+Constants.RANK_LAYOUT+"\t"+(((double)min)/nPositions)+"\t"+checksum[0]);
+		}
+	}
+
+
+	private static final void compression(String path, int stringLength, int nPositions) throws IOException {
+		final double[] ratios = new double[] {0,0.5,1,Double.MAX_VALUE};
+		int i, r, nCompressed;
+		long min, bits;
+		long[] positions;
+		long[] checksum = new long[1];
+		IntArray string, bwt;
+		HuffmanWaveletTree tree;
+
+		string=loadString(path,stringLength);
+		stringLength=(int)string.length();
+		bwt=getBWT(string);
+		positions=getPositions(bwt.length(),nPositions);
+		System.out.println("stringLength="+stringLength+" nPositions="+nPositions+" batch="+RANK_BATCH);
+		System.out.println("RRR_MAX_SIZE_RATIO\tcompressed nodes\tbits per character\tns per position\tchecksum");
+		for (r=0; r<ratios.length; r++) {
+			Constants.RRR_MAX_SIZE_RATIO=ratios[r];
+			tree=(HuffmanWaveletTree)buildBlock(bwt,BWTBlock.HUFFMAN_WAVELET_TREE);
+			bits=0; nCompressed=0;
+			for (i=0; i<tree.rankDataStructures.length; i++) {
+				bits+=tree.rankDataStructures[i].sizeInBits();
+				if (tree.rankDataStructures[i].type()==RankDataStructure.RRR) nCompressed++;
+			}
+			min=timeMultirank(tree,positions,checksum);
+			System.out.println(ratios[r]+"\t"+nCompressed+"/"+tree.rankDataStructures.length+"\t"+(((double)bits)/bwt.length())+"\t"+(((double)min)/nPositions)+"\t"+checksum[0]);
+		}
+	}
+
+
+	private static final void select(long nBits, int nPositions) {
+		int i, j, d, layout, c;
+		long time, min, checksum;
+		long[] ranks;
+		double[] densities = new double[] {0.5,0.02,1.0/(1<<10),1.0/(1<<16)};
+		int[] alphabet = new int[] {0,1,2,3};
+		long[] nOccurrences = new long[4];
+		IntArray bitVector, string, counts;
+		RankDataStructure rank;
+		SimpleSelect select;
+		HuffmanWaveletTree tree;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		ranks = new long[nPositions];
+		System.out.println("nBits="+nBits+" nPositions="+nPositions);
+		System.out.println("density\tRANK_LAYOUT\tns per select\tbits per bit\tchecksum");
+		for (d=0; d<densities.length; d++) {
+			bitVector = new IntArray(nBits,1,false);
+			for (i=0; i<nBits; i++) bitVector.pushFromRight(random.nextDouble()<densities[d]?1:0);
+			for (layout=0; layout<=1; layout++) {
+				Constants.RANK_LAYOUT=layout;
+				rank=RankDataStructure.build(bitVector);
+				select = new SimpleSelect(rank,true);
+				for (i=0; i<nPositions; i++) ranks[i]=(long)(random.nextDouble()*select.count);
+				min=Long.MAX_VALUE; checksum=0;
+				for (j=0; j<=N_REPETITIONS; j++) {
+					checksum=0;
+					time=System.nanoTime();
+					for (i=0; i<nPositions; i++) checksum+=select.select(ranks[i]);
+					time=System.nanoTime()-time;
+					if (j>0 && time<min) min=time;
+				}
+				System.out.println(densities[d]+"\t"+layout+"\t"+(((double)min)/nPositions)+"\t"+(((double)select.numBits())/nBits)+"\t"+checksum);
+			}
+		}
+		bitVector=null; rank=null; select=null;
+
+		// Wavelet tree
+		Constants.RANK_LAYOUT=0;
+		string = new IntArray(nBits,2,false);
+		for (i=0; i<nBits; i++) {
+			c=random.nextDouble()<0.5?0:(random.nextDouble()<0.5?1:(random.nextDouble()<0.5?2:3));
+			nOccurrences[c]++;
+			string.push(c);
+		}
+		counts = new IntArray(4,Utils.bitsToEncode(nBits),false);
+		for (c=0; c<4; c++) counts.push(nOccurrences[c]);
+		tree = new HuffmanWaveletTree(string,alphabet,counts);
+		tree.buildSelect();
+		for (i=0; i<nPositions; i++) ranks[i]=(long)(random.nextDouble()*nBits);
+		System.out.println("operation\tns per query\tchecksum");
+		min=Long.MAX_VALUE; checksum=0;
+		for (j=0; j<=N_REPETITIONS; j++) {
+			checksum=0;
+			time=System.nanoTime();
+			for (i=0; i<nPositions; i++) checksum+=tree.access(ranks[i]);
+			time=System.nanoTime()-time;
+			if (j>0 && time<min) min=time;
+		}
+		System.out.println("access\t"+(((double)min)/nPositions)+"\t"+checksum);
+		for (i=0; i<nPositions; i++) {
+			c=i&3;
+			ranks[i]=(((long)(random.nextDouble()*nOccurrences[c]))<<2)|c;
+		}
+		min=Long.MAX_VALUE; checksum=0;
+		for (j=0; j<=N_REPETITIONS; j++) {
+			checksum=0;
+			time=System.nanoTime();
+			for (i=0; i<nPositions; i++) checksum+=tree.select((int)(ranks[i]&3),ranks[i]>>>2);
+			time=System.nanoTime()-time;
+			if (j>0 && time<min) min=time;
+		}
+		System.out.println("select\t"+(((double)min)/nPositions)+"\t"+checksum);
+	}
+
+
+	private static final void blocks(String path, int stringLength, int blockLength, int nPositions) throws IOException {
+		final int[] types = new int[] {BWTBlock.HUFFMAN_WAVELET_TREE,BWTBlock.ADAPTIVE};
+		int i, j, b, t, c, nBlocks, effectiveAlphabetLength;
+		long time, min, checksum, start;
+		int[] effectiveAlphabet, nOfType;
+		long[] ones, positions;
+		long[] counts = new long[4];
+		long[][] stack, output;
+		IntArray string, bwt, bwtBlock, effectiveCounts;
+		BWTBlock[] blocks;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		string=loadString(path,stringLength);
+		stringLength=(int)string.length();
+		bwt=getBWT(string);
+		nBlocks=(int)Utils.divideAndRoundUp(bwt.length(),blockLength);
+		blocks = new BWTBlock[nBlocks];
+		positions = new long[nPositions];
+		for (i=0; i+RANK_BATCH<=nPositions; i+=RANK_BATCH) {
+			b=random.nextInt(nBlocks);
+			start=((long)b)*blockLength;
+			positions[i]=b;  // Block of the batch, followed by sorted positions in the block
+			for (j=1; j<RANK_BATCH; j++) positions[i+j]=(long)(random.nextDouble()*(Math.min(start+blockLength,bwt.length())-start+1));
+			Arrays.sort(positions,i+1,i+RANK_BATCH);
+		}
+		stack = new long[BWTBlock.multirankStackRows(4)][RANK_BATCH];
+		output = new long[4][RANK_BATCH-1];
+		ones = new long[RANK_BATCH-1];
+		System.out.println("stringLength="+stringLength+" blockLength="+blockLength+" nBlocks="+nBlocks+" nPositions="+nPositions);
+		System.out.println("blockType\tblocks of each type\tns per position\tchecksum");
+		for (t=0; t<types.length; t++) {
+			nOfType = new int[BWTBlock.N_TYPES];
+			bwtBlock = new IntArray(blockLength,2);
+			for (b=0; b<nBlocks; b++) {
+				bwtBlock.clear();
+				Arrays.fill(counts,0);
+				start=((long)b)*blockLength;
+				for (i=0; i<blockLength && start+i<bwt.length(); i++) {
+					c=(int)bwt.getElementAt(start+i);
+					bwtBlock.push(c);
+					counts[c]++;
+				}
+				effectiveAlphabetLength=0;
+				for (c=0; c<4; c++) {
+					if (counts[c]!=0) effectiveAlphabetLength++;
+				}
+				effectiveAlphabet = new int[effectiveAlphabetLength];
+				effectiveCounts = new IntArray(effectiveAlphabetLength,Utils.bitsToEncode(blockLength),false);
+				j=0;
+				for (c=0; c<4; c++) {
+					if (counts[c]!=0) {
+						effectiveAlphabet[j++]=c;
+						effectiveCounts.push(counts[c]);
+					}
+				}
+				blocks[b]=BWTBlock.build(bwtBlock,effectiveAlphabet,effectiveCounts,types[t]);
+				nOfType[blocks[b].type()]++;
+			}
+			min=Long.MAX_VALUE; checksum=0;
+			for (j=0; j<=N_REPETITIONS; j++) {
+				checksum=0;
+				time=System.nanoTime();
+				for (i=0; i+RANK_BATCH<=nPositions; i+=RANK_BATCH) {
+					System.arraycopy(positions,i+1,stack[0],1,RANK_BATCH-1);
+					for (c=0; c<4; c++) Arrays.fill(output[c],0);
+					blocks[(int)positions[i]].multirank(4,RANK_BATCH-1,stack,output,ones);
+					checksum+=output[0][0]+output[3][RANK_BATCH-2];
+				}
+				time=System.nanoTime()-time;
+				if (j>0 && time<min) min=time;
+			}
+			System.out.println(types[t]+"\t"+Arrays.toString(nOfType)+"\t"+(((double)min)/(nPositions-nPositions/RANK_BATCH))+"\t"+checksum);
+		}
+	}
+
+
+	private static final void layout(long nBits, int nPositions) {
+		int i, j, d, layout;
+		long time, min, checksum;
+		long[] positions;
+		double[] densities = new double[] {0.5,1.0/(1<<16)};
+		IntArray bitVector;
+		RankDataStructure rank;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		positions = new long[nPositions];
+		for (i=0; i<nPositions; i++) positions[i]=(long)(random.nextDouble()*(nBits+1));
+		System.out.println("nBits="+nBits+" nPositions="+nPositions);
+		System.out.println("density\tRANK_LAYOUT\tns per position\tchecksum");
+		for (d=0; d<densities.length; d++) {
+			bitVector = new IntArray(nBits,1,false);
+			for (i=0; i<nBits; i++) bitVector.pushFromRight(random.nextDouble()<densities[d]?1:0);
+			for (layout=0; layout<=1; layout++) {
+				Constants.RANK_LAYOUT=layout;
+				rank=RankDataStructure.build(bitVector);
+				min=Long.MAX_VALUE; checksum=0;
+				for (j=0; j<=N_REPETITIONS; j++) {
+					checksum=0;
+					time=System.nanoTime();
+					for (i=0; i<nPositions; i++) checksum+=rank.rank(positions[i]);
+					time=System.nanoTime()-time;
+					if (j>0 && time<min) min=time;
+				}
+				System.out.println(densities[d]+"\t"+layout+"\t"+(((double)min)/nPositions)+"\t"+checksum);
+			}
+		}
+	}
+
+
+
+	private static final void vector(long nBits, int nPositions) {
+		final int[] batchSizes = new int[] {8,16,64,512};
+		final boolean backupVectorRank = Constants.VECTOR_RANK;
+		int i, j, b, v, batchSize;
+		long time, min, checksum;
+		long[] positions, out;
+		long[] multirankChecksum = new long[1];
+		IntArray bitVector, string;
+		RankDataStructure rank;
+		BWTBlock block;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		System.out.println("nBits="+nBits+" nPositions="+nPositions+" kernel="+(RankKernel.VECTOR==null?"none":RankKernel.VECTOR.nLanes()+" lanes"));
+		System.out.println("structure\tbatch\tVECTOR_RANK\tns per position\tchecksum");
+		bitVector = new IntArray(nBits,1,false);
+		for (i=0; i<nBits; i++) bitVector.pushFromRight(random.nextInt(2));
+		rank = new Rank9(bitVector);
+		positions = new long[nPositions];
+		out = new long[batchSizes[batchSizes.length-1]];
+		for (i=0; i<nPositions; i++) positions[i]=(long)(random.nextDouble()*(nBits+1));
+		for (b=0; b<batchSizes.length; b++) {
+			batchSize=batchSizes[b];
+			for (i=0; i+batchSize<=nPositions; i+=batchSize) Arrays.sort(positions,i,i+batchSize);
+			for (v=0; v<=1; v++) {
+				Constants.VECTOR_RANK=v==1;
+				min=Long.MAX_VALUE; checksum=0;
+				for (j=0; j<=N_REPETITIONS; j++) {
+					checksum=0;
+					time=System.nanoTime();
+					for (i=0; i+batchSize<=nPositions; i+=batchSize) {
+						rank.rank(positions,i,batchSize,out);
+						checksum+=out[0]+out[batchSize-1];
+					}
+					time=System.nanoTime()-time;
+					if (j>0 && time<min) min=time;
+				}
+				System.out.println("Rank9\t"+batchSize+"\t"+Constants.VECTOR_RANK+"\t"+(((double)min)/nPositions)+"\t"+checksum);
+			}
+		}
+		string = new IntArray(nBits,2);
+		for (i=0; i<nBits; i++) string.push(random.nextInt(4));
+		block=buildBlock(getBWT(string),BWTBlock.HUFFMAN_WAVELET_TREE);
+		positions=getPositions(nBits+1,nPositions);
+		for (v=0; v<=1; v++) {
+			Constants.VECTOR_RANK=v==1;
+			min=timeMultirank(block,positions,multirankChecksum);
+			System.out.println("HuffmanWaveletTree\t"+RANK_BATCH+"\t"+Constants.VECTOR_RANK+"\t"+(((double)min)/nPositions)+"\t"+multirankChecksum[0]);
+		}
+		Constants.VECTOR_RANK=backupVectorRank;
+	}
+
+
+	private static final void lookup(long bwtLength, int nBlocks, int nPositions) {
+		final long blockSize = bwtLength/nBlocks;
+		int i, j, layout;
+		long time, min, checksum, start;
+		long[] positions;
+		IntArray blockStarts, bitVector;
+		RankDataStructure rank;
+		BlockLookup lookup;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		blockStarts = new IntArray(nBlocks,Utils.bitsToEncode(bwtLength),false);
+		bitVector = new IntArray(bwtLength+1,1,true);
+		for (i=0; i<nBlocks; i++) {
+			start=i==0?0:i*blockSize+(long)((random.nextDouble()-0.5)*blockSize/5);  // Sizes within 20% of $blockSize$
+			blockStarts.push(start);
+			bitVector.setElementFromRightAt(start,1);
+		}
+		positions = new long[nPositions];
+		for (i=0; i<nPositions; i++) positions[i]=(long)(random.nextDouble()*bwtLength);
+		System.out.println("bwtLength="+bwtLength+" nBlocks="+nBlocks+" nPositions="+nPositions);
+		System.out.println("structure\tns per position\tbits\tchecksum");
+		for (layout=0; layout<=1; layout++) {
+			Constants.RANK_LAYOUT=layout;
+			rank=RankDataStructure.build(bitVector);
+			min=Long.MAX_VALUE; checksum=0;
+			for (j=0; j<=N_REPETITIONS; j++) {
+				checksum=0;
+				time=System.nanoTime();
+				for (i=0; i<nPositions; i++) checksum+=rank.rank(positions[i]+1)-1;
+				time=System.nanoTime()-time;
+				if (j>0 && time<min) min=time;
+			}
+			System.out.println("RANK_LAYOUT="+layout+"\t"+(((double)min)/nPositions)+"\t"+rank.sizeInBits()+"\t"+checksum);
+		}
+		Constants.RANK_LAYOUT=0;
+		lookup = new BlockLookup(blockStarts,bwtLength);
+		min=Long.MAX_VALUE; checksum=0;
+		for (j=0; j<=N_REPETITIONS; j++) {
+			checksum=0;
+			time=System.nanoTime();
+			for (i=0; i<nPositions; i++) checksum+=lookup.block(positions[i]);
+			time=System.nanoTime()-time;
+			if (j>0 && time<min) min=time;
+		}
+		System.out.println("BlockLookup\t"+(((double)min)/nPositions)+"\t"+lookup.sizeInBits()+"\t"+checksum);
+	}
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Maps a position of the BWT to the BWT block that contains it, using $O(nBlocks)$
+ * words, rather than a rank data structure over a bitvector of $bwtLength+1$ bits that
+ * flags the starting position of every block.
+ *
+ * Positions are partitioned into buckets of $2^{shift}$ consecutive positions, where
+ * $shift$ is the smallest value such that there are at most $BUCKETS_PER_BLOCK*nBlocks$
+ * buckets. $firstBlock[t]$ is the number of blocks that start before bucket $t$, thus the
+ * block that contains a position in bucket $t$ is in $[firstBlock[t]-1..firstBlock[t+1]-1]$,
+ * and it is found by binary search in $starts$ (a copy of the starting positions as
+ * longs) inside this range. Blocks have approximately the same size, thus the range
+ * contains at most two or three blocks in practice, and a query reads a constant number
+ * of cells of two small arrays, which typically stay in cache.
+ */
+public class BlockLookup {
+
+	private static final int BUCKETS_PER_BLOCK = 2;
+
+	private final int shift;
+	private final long[] starts;
+	private final int[] firstBlock;
+
+
+	/**
+	 * @param blockStarts starting position of every block, in increasing order, with
+	 * $blockStarts[0]=0$;
+	 * @param bwtLength the lookup supports positions in $[0..bwtLength]$.
+	 */
+	public BlockLookup(IntArray blockStarts, long bwtLength) {
+		final int nBlocks = (int)blockStarts.length();
+		int t, b, nBuckets;
+		long bucketStart;
+
+		starts = new long[nBlocks];
+		for (b=0; b<nBlocks; b++) starts[b]=blockStarts.getElementAt(b);
+		t=0;
+		while ((bwtLength>>>t)+1>((long)BUCKETS_PER_BLOCK)*Math.max(nBlocks,1)) t++;
+		shift=t;
+		nBuckets=(int)(bwtLength>>>shift)+1;
+		firstBlock = new int[nBuckets+1];
+		b=0;
+		for (t=0; t<=nBuckets; t++) {
+			bucketStart=((long)t)<<shift;
+			while (b<nBlocks && starts[b]<bucketStart) b++;
+			firstBlock[t]=b;
+		}
+	}
+
+
+	/**
+	 * @param position in $[0..bwtLength]$;
+	 * @return the largest $b$ such that $blockStarts[b] \leq position$.
+	 */
+	public final int block(long position) {
+		final int bucket = (int)(position>>>shift);
+		int first, last, mid;
+		first=Math.max(firstBlock[bucket]-1,0);
+		last=firstBlock[bucket+1]-1;
+		while (first<last) {
+			mid=(first+last+1)>>>1;
+			if (starts[mid]<=position) first=mid;
+			else last=mid-1;
+		}
+		return first;
+	}
+
+
+	/**
+	 * @return the number of bits used by this data structure.
+	 */
+	public final long sizeInBits() {
+		return ((long)starts.length)*64+((long)firstBlock.length)*32;
+	}
+
+}
@@ -17,6 +17,43 @@ public class Constants {
 	public static int STOP_QUICKSORT_AT_SIZE = 40;
 	public static int DISTINGUISHING_PREFIX = 3;
 
+	/**
+	 * Partitions of $Suffixes.quicksort$ with more than this number of elements are
+	 * sorted by distinct fork-join tasks during $Suffixes.blockwiseBWT$, using 64 bits
+	 * per suffix in addition to the cache. $Integer.MAX_VALUE$ makes sorting sequential
+	 * inside each block.
+	 */
+	public static int PARALLEL_QUICKSORT_THRESHOLD = 1<<16;
+
+	/**
+	 * Where $Suffixes.blockwiseBWT$ keeps the suffixes of each block before sorting them:
+	 * 0=in memory if they take at most $MAX_MEMORY$ bytes, in a temporary file otherwise;
+	 * 1=always in memory; 2=always in a temporary file.
+	 */
+	public static int BUCKETS_LOCATION = 0;
+
+	/**
+	 * $Suffixes.blockwiseBWT$ draws $SPLITTER_OVERSAMPLING$ times more random splitters
+	 * than blocks, and it merges the resulting blocks greedily. Blocks that are still
+	 * larger than the target size are refined by drawing new splitters inside them, for
+	 * at most $MAX_SPLITTER_REFINEMENTS$ rounds, each of which scans the whole string.
+	 * Larger values decrease the maximum block size, at the cost of more memory for
+	 * splitters and of more time for measuring blocks.
+	 */
+	public static int SPLITTER_OVERSAMPLING = 4;
+	public static int MAX_SPLITTER_REFINEMENTS = 4;
+
+	/**
+	 * How $Suffixes.blockwiseBWT$ sorts suffixes: 0=sampling splitters, and sorting each
+	 * block with $Suffixes.sort$; 1=building the suffix array of the whole string with
+	 * $SAIS$, and cutting it into blocks. Strategy 1 takes linear time on every string,
+	 * including highly repetitive ones, but it needs $33*(stringLength+1)$ bits at once:
+	 * it is used only if they fit in $MAX_MEMORY$ (or in the budget of
+	 * $ConstructionPlan$) and if $stringLength<Integer.MAX_VALUE$, otherwise strategy 0
+	 * is used (see $Suffixes.blockwiseBWT_useSAIS$).
+	 */
+	public static int SUFFIX_SORTING = 0;
+
 
 
 
@@ -28,28 +65,66 @@ public class Constants {
 	 */
 	public static long MAX_MEMORY = 15000000;
 
+	/**
+	 * Fraction of the free heap that $ConstructionPlan$ allows construction to use. Values
+	 * close to one give larger blocks (up to the block size implied by $MAX_MEMORY$) and
+	 * faster construction, at the risk of running out of memory if the cost model
+	 * underestimates a phase. If zero, the budget is $MAX_MEMORY$.
+	 */
+	public static double HEAP_FRACTION = 0.5;
 
+	/**
+	 * Layout of the rank data structures of the nodes of wavelet trees and of the block
+	 * boundaries, used when they are built: 0=$Rank9$ (counts and bits in distinct
+	 * arrays); 1=$InterleavedRank9$ (counts next to the bits of every superblock).
+	 */
+	public static int RANK_LAYOUT = 0;
 
+	/**
+	 * A node of a wavelet tree is stored as an $RRRBitVector$ iff its size is at most
+	 * this fraction of the size of $RANK_LAYOUT$ (see $RankDataStructure.buildCompressible$).
+	 * Rank on an $RRRBitVector$ is several times slower, thus the default only compresses
+	 * nodes that shrink to at most one half, which happens on repetitive strings. Zero
+	 * disables compression.
+	 */
+	public static double RRR_MAX_SIZE_RATIO = 0.5;
 
-	// ------------------------ SubstringIteratorThread ----------------------------------
 	/**
-	 * Number of longs allocated to each region of the stack (a power of two).
-	 * Balances between space and time.
+	 * Ranks all the positions at a node of a wavelet tree with $RankKernel.VECTOR$, if
+	 * available (see $Rank9.rank(positions,...)$).
 	 */
-	public static int LONGS_PER_REGION = 4;
-	public static int LONGS_PER_REGION_CHARACTERSTACK = 1;  // Must be tuned experimentally
-	public static int LONGS_PER_REGION_POINTERSTACK = 1;  // Must be tuned experimentally
+	public static boolean VECTOR_RANK = true;
+
+	/**
+	 * $BWTBlock.ADAPTIVE$ represents a block with more than one symbol as a
+	 * $PackedBlock$ or as a $RunLengthBlock$ only if its estimated size is at most this
+	 * fraction of the estimated size of a $HuffmanWaveletTree$ (see
+	 * $BWTBlock.chooseType$). Zero always builds wavelet trees.
+	 */
+	public static double SLOW_BLOCK_MAX_SIZE_RATIO = 0.5;
 
 	/**
-	 * Number of work-stealing attempts performed by each thread before terminating.
+	 * $BWTBlock.ADAPTIVE$ represents a block with more than one symbol as a
+	 * $PackedBlock$ or as a $RunLengthBlock$ only if its estimated $multirank$ time is at
+	 * most this multiple of the estimated $multirank$ time of a $HuffmanWaveletTree$ (see
+	 * $BWTBlock.chooseType$). With the default, such representations are built only
+	 * where they are not slower than the wavelet tree, e.g. on blocks with long runs,
+	 * whose wavelet tree would have compressed nodes: thus $BWTBlock.ADAPTIVE$ is the
+	 * default representation (see $Benchmarks.traverse$).
 	 */
-	public static int N_STEALING_ATTEMPTS = 10;
+	public static double SLOW_BLOCK_MAX_RANK_COST_RATIO = 1.0;
+
+
+
 
+	// ------------------------ SubstringIteratorThread ----------------------------------
 	/**
-	 * Maximum time (in ms) a thread has to wait before the next stealing attempt.
-	 * The real waiting time is chosen uniformly at random.
+	 * Number of longs allocated to each region of the stack (a power of two).
+	 * Balances between space and time.
 	 */
-	public static long MAX_WAITING_TIME = 1000;
+	public static int LONGS_PER_REGION = 4;
+	public static int LONGS_PER_REGION_CHARACTERSTACK = 1;  // Must be tuned experimentally
+	public static int LONGS_PER_REGION_POINTERSTACK = 1;  // Must be tuned experimentally
 
 	/**
 	 * Only strings of length at most $MAX_STRING_LENGTH_FOR_SPLIT$ are stolen from
@@ -69,6 +144,70 @@ public class Constants {
 	 */
 	public static int DONOR_STACK_LOWERBOUND = 2;
 
+	/**
+	 * Before starting $SubstringIteratorThread$s, $SubstringIterator.run$ explores
+	 * sequentially the substrings shorter than the smallest length $k$ such that there
+	 * are at least $SEEDS_PER_THREAD*N_THREADS$ strings of length $k$ on the alphabet,
+	 * and it distributes the subtrees of the substrings of length $k$ to the threads,
+	 * balanced by estimated cost (see $SubstringIterator.seed$). Zero starts just one
+	 * thread from $\epsilon$, and makes all other threads start by stealing. The length
+	 * $k$ is at most $MAX_STRING_LENGTH_FOR_SPLIT$, so that seeded stacks can be stolen
+	 * from: with many threads, there can be fewer seeds than $SEEDS_PER_THREAD$ per
+	 * thread. Strings on an alphabet of one character are not seeded.
+	 */
+	public static int SEEDS_PER_THREAD = 16;
+
+	/**
+	 * TRUE: a receiver chooses its donor, and the part of the donor stack to be copied,
+	 * by the sum of $Substring.estimatedCost$ over the short substrings that have not
+	 * been extended; FALSE: by their number.
+	 *
+	 * Remark: in the $balance$ benchmark, cost-based stealing balanced the load worse
+	 * than count-based stealing from 16 threads up, thus it is disabled by default until
+	 * a multicore measurement shows a gain.
+	 */
+	public static boolean COST_BASED_STEALING = false;
+
+	/**
+	 * TRUE: $SubstringIterator.run$ explores the trie with tasks in a work-stealing pool
+	 * (see $SubstringIterator.SubtreeTask$); FALSE: with $SubstringIteratorThread$s,
+	 * which steal work explicitly. Both start from the same seeds (see
+	 * $SEEDS_PER_THREAD$), and both hand off half of the short substrings of a stack, or
+	 * half of their estimated cost (see $COST_BASED_STEALING$), if the stack has at least
+	 * $DONOR_STACK_LOWERBOUND$ of them. Tasks differ from threads in that: seeds are
+	 * not assigned to workers in advance, but stolen in order of decreasing cost; a task
+	 * is split by its own worker, only when the queue of that worker is empty, rather
+	 * than by an idle receiver; an idle worker steals from a worker chosen by
+	 * $ForkJoinPool$, rather than from one of the largest stacks; $LOCK_FREE_STEALING$
+	 * does not apply; and idle times and substrings extended per thread are not
+	 * measured.
+	 */
+	public static boolean TASK_TRAVERSAL = false;
+
+	/**
+	 * TRUE: while another thread is idle, every $SubstringIteratorThread$ publishes the
+	 * substrings of its stack that have not been extended, and that have length at most
+	 * $MAX_STRING_LENGTH_FOR_SPLIT$, in a lock-free deque, from which other threads steal
+	 * them one at a time without stopping the owner (see
+	 * $SubstringIterator.StealableSubstrings$); FALSE: a thread
+	 * locks its stack at every extension, and a receiver copies a prefix of the stack of
+	 * the donor while holding the lock (see $SubstringIteratorThread.stealWork$).
+	 */
+	public static boolean LOCK_FREE_STEALING = false;
+
+	/**
+	 * Maximum number of substrings published by a thread at any time, if
+	 * $LOCK_FREE_STEALING$ is true. Every published substring costs a copy of its
+	 * ancestors and of the cache: since only substrings of length at most
+	 * $MAX_STRING_LENGTH_FOR_SPLIT$ are published, a copy contains at most
+	 * $MAX_STRING_LENGTH_FOR_SPLIT+1+CACHE_SIZE$ substrings, and it is made at most once
+	 * per substring pushed by the owner, only if the substring is still in the stack when
+	 * another thread is idle. The copies that are alive at any time take
+	 * $O(MAX_STEALABLE_SUBSTRINGS*(MAX_STRING_LENGTH_FOR_SPLIT+CACHE_SIZE))$ substrings
+	 * per thread.
+	 */
+	public static int MAX_STEALABLE_SUBSTRINGS = 64;
+
 
 	public static boolean TRACK_STACK = false;
 	public static boolean TRACK_HITS = false;
@@ -0,0 +1,367 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses the block size and the number of threads of $Suffixes.blockwiseBWT$ from the
+ * heap that is actually available to the JVM, rather than from the static
+ * $Constants.MAX_MEMORY$, using a cost model of the peak memory of each phase of the
+ * construction. The model is refined during construction with the measured size of the
+ * largest block, and the actual peak memory of each phase is recorded, so that it can
+ * be compared with the prediction (see $print$).
+ *
+ * The budget is $Constants.HEAP_FRACTION$ times the heap that is free when the plan is
+ * built (i.e. $Runtime.maxMemory$ minus the memory used by the string and by every
+ * other live object). Since a larger block size reduces the number of splitters, and
+ * thus the time for sorting and measuring them, the plan uses the largest block size
+ * whose predicted peak fits in the budget, but no larger than
+ * $\ceil{(stringLength+1)/nThreads}$, so that every thread has a block to sort, and no
+ * larger than the block size of the static model of
+ * $Suffixes.blockwiseBWT_getBlockSize$, so that blocks keep the size assumed by the
+ * fixed-block compression of $SubstringIterator$, rather than becoming a few huge
+ * blocks. Increasing $Constants.HEAP_FRACTION$ trades memory for speed up to this
+ * block size, which grows with $Constants.MAX_MEMORY$. If $Constants.HEAP_FRACTION=0$,
+ * the budget is $Constants.MAX_MEMORY$.
+ *
+ * Remark: actual peaks are measured only if $measure=true$, with the heap memory pools
+ * of the JVM, and they are relative to the heap in use when $Suffixes.blockwiseBWT$
+ * starts. Garbage is collected at the beginning of every phase, so that each peak
+ * includes only the garbage produced by its own phase. Predictions model live data,
+ * while actual peaks are footprints that include garbage not yet reclaimed (e.g. the
+ * cache of $Suffixes.sort$ of every block sorted so far), thus they match only for
+ * phases that produce little garbage.
+ */
+public class ConstructionPlan {
+	/**
+	 * Phases of $Suffixes.blockwiseBWT$
+	 */
+	public static final int PHASE_SPLITTERS = 0;  // Sorting and measuring splitters, or building the suffix array with $SAIS$.
+	public static final int PHASE_DISTRIBUTION = 1;  // Distributing suffixes to buckets.
+	public static final int PHASE_BLOCKS = 2;  // Sorting blocks and building their BWT.
+	public static final int N_PHASES = 3;
+	private static final String[] PHASE_NAMES = new String[] {"splitters","distribution","blocks"};
+
+	public final long stringLength;
+	public final int log2stringLength, log2alphabetLength;
+	private final int bitsPerSuffix, bitsPerCharacter;  // Bits actually used by an $IntArray$
+
+	/**
+	 * Maximum number of bytes to be used during construction, in addition to the heap
+	 * in use before construction.
+	 */
+	public final long budget;
+
+	/**
+	 * Number of suffixes in a block, and number of threads, chosen by $build$.
+	 */
+	public long blockSize;
+	public int nThreads;
+
+	/**
+	 * Number of threads used in $PHASE_BLOCKS$, which might be smaller than $nThreads$
+	 * if the largest block turns out to be larger than expected (see
+	 * $setMaxBlockSize$).
+	 */
+	public int nBlockThreads;
+
+	/**
+	 * Representation of the BWT blocks built in $PHASE_BLOCKS$ (see $BWTBlock.build$),
+	 * by default $BWTBlock.ADAPTIVE$. The model assumes that all
+	 * representations take approximately the same space.
+	 */
+	public int blockType;
+
+	/**
+	 * TRUE iff $Suffixes.blockwiseBWT$ cuts blocks from the suffix array of the whole
+	 * string built by $SAIS$ (see $Suffixes.blockwiseBWT_useSAIS$). This happens only if
+	 * the suffix array fits in $budget$ together with the buckets: otherwise $build$
+	 * falls back to sorting blocks one by one.
+	 */
+	public boolean useSAIS;
+
+	/**
+	 * TRUE iff the plan is for the external-memory construction of
+	 * $SubstringIterator.buildIndex$, which keeps the buckets and the block of every
+	 * suffix in temporary files (see $Suffixes.blockwiseBWT(...,treeFile)$).
+	 */
+	public final boolean external;
+
+	/**
+	 * Predicted and measured peak memory of each phase, in bytes. $actual[i]=-1$ if phase
+	 * $i$ has not been executed.
+	 */
+	public final long[] predicted, actual;
+
+	/**
+	 * TRUE iff $Suffixes.blockwiseBWT$ should measure the actual peak memory of each
+	 * phase. Measuring triggers a full garbage collection per phase.
+	 */
+	public boolean measure;
+
+	private long baseline;  // Heap in use when construction starts, in bytes.
+	private List<MemoryPoolMXBean> heapPools;
+
+
+	private ConstructionPlan(long stringLength, int log2alphabetLength, long budget, boolean external) {
+		this.stringLength=stringLength;
+		this.external=external;
+		log2stringLength=Utils.log2(stringLength);
+		this.log2alphabetLength=log2alphabetLength;
+		bitsPerSuffix=Utils.closestPowerOfTwo(log2stringLength);
+		bitsPerCharacter=Utils.closestPowerOfTwo(log2alphabetLength);
+		this.budget=budget;
+		blockType=BWTBlock.ADAPTIVE;
+		useSAIS=Suffixes.blockwiseBWT_useSAIS(stringLength,budget);
+		predicted = new long[N_PHASES];
+		actual = new long[N_PHASES];
+		for (int i=0; i<N_PHASES; i++) actual[i]=-1;
+	}
+
+
+	/**
+	 * Builds a plan for a string of length $stringLength$ with at most
+	 * $Constants.N_THREADS$ threads. The number of threads is reduced only if no block
+	 * size fits in the budget with $Constants.N_THREADS$ threads, but some block size
+	 * fits with fewer threads. If no block size fits even with one thread, the plan uses
+	 * $Constants.N_THREADS$ threads, and the smaller between the block size that
+	 * minimizes the predicted peak and the block size of the static model of
+	 * $Suffixes.blockwiseBWT_getBlockSize$ (which is two if the budget is tiny).
+	 */
+	public static final ConstructionPlan build(long stringLength, int log2alphabetLength) {
+		return build(stringLength,log2alphabetLength,false);
+	}
+
+
+	/**
+	 * @param external see $external$.
+	 */
+	public static final ConstructionPlan build(long stringLength, int log2alphabetLength, boolean external) {
+		final Runtime runtime = Runtime.getRuntime();
+		long budget, free;
+		if (Constants.HEAP_FRACTION>0) {
+			free=runtime.maxMemory()-(runtime.totalMemory()-runtime.freeMemory());
+			budget=(long)(free*Constants.HEAP_FRACTION);
+		}
+		else budget=Constants.MAX_MEMORY;
+		ConstructionPlan out = new ConstructionPlan(stringLength,log2alphabetLength,budget,external);
+		out.fit();
+		if (out.blockSize<=0 && out.useSAIS) {
+			// The suffix array fits, but not together with the buckets
+			out.useSAIS=false;
+			out.fit();
+		}
+		if (out.blockSize<=0) {
+			out.nThreads=Constants.N_THREADS;
+			out.blockSize=Math.min(out.smallestPeakBlockSize(),Suffixes.blockwiseBWT_getBlockSize(stringLength,out.log2stringLength,log2alphabetLength));
+		}
+		out.nBlockThreads=out.nThreads;
+		out.predict(out.blockSize);
+		return out;
+	}
+
+
+	/**
+	 * Sets $nThreads$ to the largest number of threads, at most $Constants.N_THREADS$,
+	 * for which some block size fits in the budget, and $blockSize$ to the largest such
+	 * block size. $blockSize=-1$ if no block size fits even with one thread.
+	 */
+	private final void fit() {
+		for (nThreads=Constants.N_THREADS; nThreads>=1; nThreads--) {
+			blockSize=largestBlockSize(nThreads);
+			if (blockSize>0) return;
+		}
+	}
+
+
+	/**
+	 * @return the largest block size in $[2..\min\{\ceil{(stringLength+1)/nThreads},
+	 * Suffixes.blockwiseBWT_getBlockSize\}]$ whose predicted peak memory fits in
+	 * $budget$, or -1 if no such block size exists. The
+	 * peak of $PHASE_BLOCKS$ is increasing in the block size, and the peak of
+	 * $PHASE_SPLITTERS$ is decreasing, thus the largest feasible block size is found by
+	 * binary search over the former, and it is then checked against the latter.
+	 */
+	private final long largestBlockSize(int nThreads) {
+		long left, right, mid;
+		left=2; right=Math.max(Math.min(Utils.divideAndRoundUp(stringLength+1,nThreads),Suffixes.blockwiseBWT_getBlockSize(stringLength,log2stringLength,log2alphabetLength)),2);
+		if (predictBlocks(left,left,nThreads)>budget) return -1;
+		while (left<right) {
+			mid=left+((right-left+1)>>>1);
+			if (predictBlocks(mid,mid,nThreads)<=budget) left=mid;
+			else right=mid-1;
+		}
+		if (predictSplitters(left,nThreads)>budget || predictDistribution(left)>budget) return -1;
+		return left;
+	}
+
+
+	/**
+	 * Used when no block size fits in the budget with one thread.
+	 *
+	 * @return the block size that minimizes the maximum predicted peak over all phases,
+	 * i.e. approximately the largest block size at which the peak of $PHASE_BLOCKS$ does
+	 * not exceed the peaks of the other phases.
+	 */
+	private final long smallestPeakBlockSize() {
+		long left, right, mid;
+		left=2; right=Math.max(stringLength+1,2);
+		while (left<right) {
+			mid=left+((right-left+1)>>>1);
+			if (predictBlocks(mid,mid,1)<=Math.max(predictSplitters(mid,1),predictDistribution(mid))) left=mid;
+			else right=mid-1;
+		}
+		return left;
+	}
+
+
+	private final void predict(long blockSize) {
+		predicted[PHASE_SPLITTERS]=predictSplitters(blockSize,nThreads);
+		predicted[PHASE_DISTRIBUTION]=predictDistribution(blockSize);
+		predicted[PHASE_BLOCKS]=predictBlocks(blockSize,blockSize,nBlockThreads);
+	}
+
+
+	/**
+	 * @return TRUE iff the buckets of $Suffixes.blockwiseBWT$ are kept in memory.
+	 */
+	public final boolean bucketsInMemory() {
+		return !external && Constants.BUCKETS_LOCATION==1 || (Constants.BUCKETS_LOCATION==0 && ((stringLength*log2stringLength)>>>3)<=budget);
+	}
+
+
+	/**
+	 * Bits of the buckets of $Suffixes.blockwiseBWT$: one packed array, or one write
+	 * buffer per block if buckets are kept in a file.
+	 */
+	private final long bucketBits(long blockSize) {
+		if (bucketsInMemory()) return stringLength*bitsPerSuffix;
+		return Suffixes.blockwiseBWT_maxBlocks(stringLength,blockSize)*Suffixes.BUCKET_BUFFER_LONGS*64;
+	}
+
+
+	/**
+	 * Bits of the block of every suffix in $Suffixes.blockwiseBWT$: one packed array, or
+	 * one chunk buffer per thread if the blocks are kept in a file.
+	 */
+	private final long suffixBlocksBits(long nSplitters, int nThreads) {
+		if (external) return nThreads*Suffixes.SUFFIX_BLOCKS_CHUNK*bits(Utils.bitsToEncode(nSplitters+1));
+		return stringLength*bits(Utils.bitsToEncode(nSplitters+1));
+	}
+
+
+	/**
+	 * @return the number of bits per element of an $IntArray$ with $nBits$ bits per
+	 * element.
+	 *
+	 * Remark: every $IntArray$ uses a power of two bits per element.
+	 */
+	private static final long bits(long nBits) {
+		return Utils.closestPowerOfTwo((int)nBits);
+	}
+
+
+	/**
+	 * Peak of $PHASE_SPLITTERS$ in bytes: the two copies of the splitters, the 64-bit
+	 * cache of $Suffixes.sort$, the binary search cache, $suffixBlocks$, and the
+	 * histogram of each thread. With $useSAIS$: the suffix array and the types of the
+	 * suffixes.
+	 */
+	private final long predictSplitters(long blockSize, int nThreads) {
+		final long nSplitters = Constants.SPLITTER_OVERSAMPLING*Utils.divideAndRoundUp(stringLength,blockSize);
+		if (useSAIS) return (33*(stringLength+1))>>>3;
+		return ( 4*nSplitters*bitsPerSuffix + nSplitters*64 +
+				 suffixBlocksBits(nSplitters,nThreads) +
+				 nThreads*(nSplitters+1)*64 )>>>3;
+	}
+
+
+	/**
+	 * Peak of $PHASE_DISTRIBUTION$ in bytes: $suffixBlocks$, the splitters, $blockMap$,
+	 * and the buckets. With $useSAIS$: the suffix array and the buckets.
+	 */
+	private final long predictDistribution(long blockSize) {
+		final long nSplitters = Constants.SPLITTER_OVERSAMPLING*Utils.divideAndRoundUp(stringLength,blockSize);
+		if (useSAIS) return (32*(stringLength+1)+bucketBits(blockSize))>>>3;
+		return ( suffixBlocksBits(nSplitters,1) +
+				 2*nSplitters*bitsPerSuffix +
+				 nSplitters*32 +
+				 bucketBits(blockSize) )>>>3;
+	}
+
+
+	/**
+	 * Peak of $PHASE_BLOCKS$ in bytes: the buckets; the suffixes, the BWT and the 64-bit
+	 * cache of $Suffixes.sort$ of the block of each thread, plus a 64-bit copy of the
+	 * block for parallel sorting; and the wavelet trees built so far (approximated by
+	 * the size of a packed BWT plus the $1/4$ overhead of $Rank9$).
+	 */
+	private final long predictBlocks(long blockSize, long maxBlockSize, int nThreads) {
+		long out = bucketBits(blockSize) +
+				   nThreads*maxBlockSize*(bitsPerSuffix+bitsPerCharacter+64) +
+				   stringLength*log2alphabetLength+((stringLength*log2alphabetLength)>>>2);
+		if (nThreads>1 && maxBlockSize>Constants.PARALLEL_QUICKSORT_THRESHOLD) out+=nThreads*maxBlockSize*64;
+		return out>>>3;
+	}
+
+
+	/**
+	 * Updates the model with the size of the largest block measured by
+	 * $Suffixes.blockwiseBWT$, and reduces $nBlockThreads$ if the peak of
+	 * $PHASE_BLOCKS$ would exceed the budget with $nThreads$ threads but not with fewer.
+	 */
+	public final void setMaxBlockSize(long maxBlockSize) {
+		for (nBlockThreads=nThreads; nBlockThreads>=1; nBlockThreads--) {
+			if (predictBlocks(blockSize,maxBlockSize,nBlockThreads)<=budget) break;
+		}
+		if (nBlockThreads==0) nBlockThreads=nThreads;
+		predicted[PHASE_BLOCKS]=predictBlocks(blockSize,maxBlockSize,nBlockThreads);
+	}
+
+
+
+
+	// ------------------------------ MEASUREMENT ----------------------------------------
+
+	/**
+	 * Remembers the heap in use before construction.
+	 */
+	public final void start() {
+		if (!measure) return;
+		System.gc();
+		heapPools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType()==MemoryType.HEAP && pool.isValid()) heapPools.add(pool);
+		}
+		baseline=0;
+		for (MemoryPoolMXBean pool : heapPools) baseline+=pool.getUsage().getUsed();
+	}
+
+
+	public final void startPhase(int phase) {
+		if (!measure) return;
+		System.gc();
+		for (MemoryPoolMXBean pool : heapPools) pool.resetPeakUsage();
+	}
+
+
+	public final void endPhase(int phase) {
+		if (!measure) return;
+		long peak = 0;
+		for (MemoryPoolMXBean pool : heapPools) peak+=pool.getPeakUsage().getUsed();
+		actual[phase]=Math.max(peak-baseline,0);
+	}
+
+
+	/**
+	 * Prints the plan, and the predicted and actual peak memory of each phase, in MB.
+	 */
+	public final void print(PrintStream out) {
+		out.println("budget="+(budget/1000000.0)+"MB blockSize="+blockSize+" nThreads="+nThreads+" nBlockThreads="+nBlockThreads+" useSAIS="+useSAIS+" external="+external);
+		out.println("phase\tpredicted (MB)\tactual (MB)");
+		for (int i=0; i<N_PHASES; i++) out.println(PHASE_NAMES[i]+"\t"+(predicted[i]/1000000.0)+"\t"+(actual[i]==-1?"-":""+(actual[i]/1000000.0)));
+	}
+
+}
@@ -0,0 +1,169 @@
+import java.io.IOException;
+
+/**
+ * Occurrence table of a BWT block on the alphabet $\{0,1,2,3\}$, organized in lines of
+ * $LINE_LONGS=8$ longs (64 bytes, the size of a cache line), like the miniblocks of
+ * $indexed_DNA5_seq$ in the C implementation $bwtman$. Each line stores
+ * $CHARACTERS_PER_LINE$ characters packed at two bits each, and the number of
+ * occurrences of every character before the middle of the line. Thus $multirank$
+ * computes the number of occurrences of all four characters before a position by
+ * reading a single line, rather than one $Rank9$ per internal node of a wavelet tree,
+ * at the cost of $2*LINE_LONGS/(LINE_LONGS-HEADER_LONGS)$ bits per character.
+ *
+ * Line $i$ is stored in $lines[i*LINE_LONGS..(i+1)*LINE_LONGS-1]$: longs $0..2$ contain
+ * the first half of the characters, longs $3$ and $4$ contain the counts of characters
+ * $0,1$ and $2,3$ in their most and least significant 32 bits, and longs $5..7$
+ * contain the second half of the characters. Character $j$ of a long occupies its bits
+ * $2j$ and $2j+1$. Storing the counts in the middle halves the number of characters
+ * that must be counted in the worst case: a position in the first half of a line
+ * subtracts the characters between it and the middle, and a position in the second
+ * half adds the characters between the middle and it. Characters are counted with one
+ * population count per bit of their code.
+ *
+ * Remark: Java does not allow aligning an array to a cache line, thus a line might
+ * straddle two cache lines. Counts take 32 bits, thus a block must contain fewer than
+ * $MAX_LENGTH$ characters. The last line is padded with character 0, and the counts in
+ * its middle include the padding that precedes the middle.
+ */
+public class DNABlock extends BWTBlock {
+
+	public static final int LINE_LONGS = 8;
+	private static final int HEADER_LONGS = 2;
+	private static final int HALF_LONGS = (LINE_LONGS-HEADER_LONGS)>>>1;
+	private static final int HALF_CHARACTERS = HALF_LONGS<<5;
+	public static final int CHARACTERS_PER_LINE = HALF_CHARACTERS<<1;
+	public static final long MAX_LENGTH = 1L<<32;
+	private static final long EVEN_BITS = 0x5555555555555555L;
+
+	private final long length;
+	private final long[] lines;
+
+
+	/**
+	 * @return TRUE iff all characters of $string$, whose distinct characters are
+	 * $alphabet$, can be stored in a $DNABlock$.
+	 */
+	public static final boolean supports(IntArray string, int[] alphabet) {
+		return alphabet[alphabet.length-1]<=3 && string.length()<MAX_LENGTH;
+	}
+
+
+	public DNABlock(IntArray string) {
+		int i, j, k, c;
+		long p;
+		long[] counts = new long[4];
+		length=string.length();
+		lines = new long[(int)( (length/CHARACTERS_PER_LINE+1)*LINE_LONGS )];
+		p=0;
+		for (i=0; i<lines.length; i+=LINE_LONGS) {
+			for (j=0; j<LINE_LONGS; j++) {
+				if (j==HALF_LONGS) {
+					lines[i+j]=(counts[0]<<32)|counts[1];
+					lines[i+j+1]=(counts[2]<<32)|counts[3];
+					j++;
+					continue;
+				}
+				for (k=0; k<64; k+=2) {
+					c=p<length?(int)string.getElementAt(p):0;
+					lines[i+j]|=((long)c)<<k;
+					counts[c]++;
+					p++;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Used by $readData$.
+	 */
+	private DNABlock(long length, long[] lines) {
+		this.length=length;
+		this.lines=lines;
+	}
+
+
+	public final int type() {
+		return DNA_OCCURRENCE_TABLE;
+	}
+
+
+	protected final void writeData(IndexFile file) throws IOException {
+		file.writeLong(length);
+		file.writeLongArray(lines);
+	}
+
+
+	/**
+	 * Inverse of $writeData$.
+	 */
+	public static final DNABlock readData(IndexFile file) {
+		final long length = file.readLong();
+		return new DNABlock(length,file.readLongArray());
+	}
+
+
+	public final int access(long position) {
+		final int line = (int)(position/CHARACTERS_PER_LINE);
+		final int offset = (int)(position-((long)line)*CHARACTERS_PER_LINE);
+		final int word = line*LINE_LONGS+(offset>>>5)+(offset<HALF_CHARACTERS?0:HEADER_LONGS);
+		return (int)( (lines[word]>>>((offset&31)<<1))&3L );
+	}
+
+
+	/**
+	 * Each position is ranked by reading a single line, and by counting the characters
+	 * between the position and the middle of the line. If $lo$ and $hi$ are the low and
+	 * high bits of the codes of such characters, the number of occurrences of character
+	 * 3 is $|lo \wedge hi|$, of character 1 is $|lo|-|lo \wedge hi|$, and of character 2 is
+	 * $|hi|-|lo \wedge hi|$. The count of character 0 is derived from the others.
+	 * $ones$ and all rows of $stack$ except the first are not used.
+	 */
+	public final void multirank(int fullAlphabetLength, int nPositions, long[][] stack, long[][] output, long[] ones) {
+		int i, j, line, offset, first, last, nCharacters;
+		long position, lo, hi, mask, c0, c1, c2, n1, n2, n3;
+		for (j=0; j<nPositions; j++) {
+			position=stack[0][1+j];
+			line=(int)(position/CHARACTERS_PER_LINE);
+			offset=(int)(position-((long)line)*CHARACTERS_PER_LINE);
+			first=line*LINE_LONGS;
+			n1=0; n2=0; n3=0;
+			if (offset<HALF_CHARACTERS) {
+				// Counting the characters in $[offset..HALF_CHARACTERS-1]$
+				nCharacters=HALF_CHARACTERS-offset;
+				mask=EVEN_BITS&(-1L<<((offset&31)<<1));
+				last=first+HALF_LONGS;
+				for (i=first+(offset>>>5); i<last; i++) {
+					lo=lines[i]&mask;
+					hi=(lines[i]>>>1)&mask;
+					n3+=Long.bitCount(lo&hi); n1+=Long.bitCount(lo); n2+=Long.bitCount(hi);
+					mask=EVEN_BITS;
+				}
+				n1-=n3; n2-=n3;
+				c0=(lines[last]>>>32)-(nCharacters-n1-n2-n3);
+				c1=(lines[last]&0xFFFFFFFFL)-n1;
+				c2=(lines[last+1]>>>32)-n2;
+			}
+			else {
+				// Counting the characters in $[HALF_CHARACTERS..offset-1]$
+				nCharacters=offset-HALF_CHARACTERS;
+				last=first+HALF_LONGS+HEADER_LONGS+(nCharacters>>>5);
+				for (i=first+HALF_LONGS+HEADER_LONGS; i<=last; i++) {
+					mask=i<last?EVEN_BITS:EVEN_BITS&((1L<<((nCharacters&31)<<1))-1);
+					lo=lines[i]&mask;
+					hi=(lines[i]>>>1)&mask;
+					n3+=Long.bitCount(lo&hi); n1+=Long.bitCount(lo); n2+=Long.bitCount(hi);
+				}
+				n1-=n3; n2-=n3;
+				c0=(lines[first+HALF_LONGS]>>>32)+(nCharacters-n1-n2-n3);
+				c1=(lines[first+HALF_LONGS]&0xFFFFFFFFL)+n1;
+				c2=(lines[first+HALF_LONGS+1]>>>32)+n2;
+			}
+			output[0][j]=c0;
+			if (fullAlphabetLength>1) output[1][j]=c1;
+			if (fullAlphabetLength>2) output[2][j]=c2;
+			if (fullAlphabetLength>3) output[3][j]=position-c0-c1-c2;
+		}
+	}
+
+}
@@ -0,0 +1,376 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Parallel loader of DNA strings from FASTA and multi-FASTA files. The output is the
+ * concatenation of all sequences in the file, encoded as in $Utils.loadDNA$
+ * ($a,c,g,t \mapsto 0,1,2,3$, case-insensitive), in a packed $IntArray$ of 2 bits per
+ * character. Lines that start with $>$ are headers and are skipped entirely; every
+ * other character that is not $a,c,g,t$ (e.g. $n$, carriage returns) is discarded.
+ *
+ * The file is memory-mapped and split into chunks of $chunkBytes$ bytes, which are
+ * claimed by $nThreads$ threads in two passes: the first pass counts the characters of
+ * each chunk, so that the output can be allocated with its exact length and every chunk
+ * knows its offset in the output; the second pass translates every chunk into its
+ * interval of the output. Inside a sequence line, each byte is translated with a
+ * lookup table and without branches.
+ *
+ * Remark: A chunk might start inside a header. Since headers are short, each thread
+ * resolves this by scanning the file backwards from the first byte of its chunk to the
+ * previous newline.
+ *
+ * Remark: Consecutive chunks might write to the same 64-bit cell of the output. Thus,
+ * every thread writes just the cells that belong entirely to its chunk, and it keeps the
+ * characters of its first and last cell in a small buffer, which is written to the
+ * output sequentially after all threads have completed.
+ */
+public class FastaLoader {
+
+	public static final int DEFAULT_CHUNK_BYTES = 1<<22;
+	private static final int REGION_BYTES = 1<<30;
+	private static final int LOG2_REGION_BYTES = 30;
+	private static final byte NEWLINE = '\n';
+	private static final byte HEADER = '>';
+
+	/**
+	 * $CODE[b]$ is the 2-bit code of byte $b$ if it is a DNA character, and an arbitrary
+	 * value otherwise; $IS_DNA[b]$ is one iff byte $b$ is a DNA character.
+	 */
+	private static final byte[] CODE = new byte[256];
+	private static final byte[] IS_DNA = new byte[256];
+	static {
+		CODE['a']=0; CODE['A']=0; IS_DNA['a']=1; IS_DNA['A']=1;
+		CODE['c']=1; CODE['C']=1; IS_DNA['c']=1; IS_DNA['C']=1;
+		CODE['g']=2; CODE['G']=2; IS_DNA['g']=1; IS_DNA['G']=1;
+		CODE['t']=3; CODE['T']=3; IS_DNA['t']=1; IS_DNA['T']=1;
+	}
+
+
+	public static final IntArray load(String path) throws IOException {
+		return load(path,Constants.N_THREADS,DEFAULT_CHUNK_BYTES);
+	}
+
+
+	/**
+	 * @param chunkBytes a power of two at most $REGION_BYTES$, so that no chunk crosses
+	 * the boundary between two mapped regions.
+	 */
+	public static final IntArray load(String path, int nThreads, int chunkBytes) throws IOException {
+		int i, nChunks;
+		long fileLength, total;
+		long[] offsets;
+		MappedByteBuffer[] regions;
+		IntArray out;
+		RandomAccessFile file;
+		FileChannel channel;
+		LoaderThread[] threads;
+
+		file = new RandomAccessFile(path,"r");
+		channel=file.getChannel();
+		fileLength=channel.size();
+		regions=map(channel,fileLength);
+		nChunks=(int)( Utils.divideAndRoundUp(fileLength,chunkBytes) );
+		threads = new LoaderThread[nThreads];
+
+		// Counting
+		offsets = new long[nChunks+1];
+		total=count(threads,regions,fileLength,chunkBytes,nChunks,offsets);
+
+		// Translating
+		out = new IntArray(total,2,true);
+		runThreads(threads,regions,fileLength,chunkBytes,nChunks,offsets,out);
+		for (i=0; i<nThreads; i++) threads[i].flushBoundaries(out);
+		channel.close(); file.close();
+		return out;
+	}
+
+
+	/**
+	 * Writes the string of the FASTA file at $path$ to a new file at $textPath$, as an
+	 * $IndexFile$ that contains just an $IntArray$ of 2 bits per character, without ever
+	 * holding the string in the heap: characters are counted in parallel as in $load$,
+	 * and then they are packed sequentially, 32 per word, while scanning the file once
+	 * more. The output can be indexed with $SubstringIterator.buildIndex(textPath,...)$.
+	 *
+	 * @return the length of the string.
+	 */
+	public static final long pack(String path, String textPath) throws IOException {
+		return pack(path,textPath,Constants.N_THREADS,DEFAULT_CHUNK_BYTES);
+	}
+
+
+	/**
+	 * @param chunkBytes see $load$.
+	 */
+	public static final long pack(String path, String textPath, int nThreads, int chunkBytes) throws IOException {
+		int i, b, length, nChunks, nCodes;
+		long fileLength, total, first, word;
+		boolean lineStart, inHeader;
+		byte[] buffer;
+		long[] offsets;
+		MappedByteBuffer region;
+		MappedByteBuffer[] regions;
+		RandomAccessFile file;
+		FileChannel channel;
+		IndexFile out;
+
+		file = new RandomAccessFile(path,"r");
+		channel=file.getChannel();
+		fileLength=channel.size();
+		regions=map(channel,fileLength);
+		nChunks=(int)( Utils.divideAndRoundUp(fileLength,chunkBytes) );
+		offsets = new long[nChunks+1];
+		total=count(new LoaderThread[nThreads],regions,fileLength,chunkBytes,nChunks,offsets);
+		offsets=null;
+
+		// Packing
+		out=IndexFile.create(textPath,total,path);
+		out.writeLong(2);
+		out.writeLong(total);
+		out.writeLong((total>>>5)+1);
+		buffer = new byte[chunkBytes];
+		lineStart=true; inHeader=false; word=0L; nCodes=0;
+		for (first=0; first<fileLength; first+=chunkBytes) {
+			length=(int)Math.min(chunkBytes,fileLength-first);
+			region=regions[(int)(first>>>LOG2_REGION_BYTES)].duplicate();
+			region.position((int)(first&(REGION_BYTES-1)));
+			region.get(buffer,0,length);
+			for (i=0; i<length; i++) {
+				b=buffer[i]&0xFF;
+				if (b==NEWLINE) {
+					lineStart=true; inHeader=false;
+					continue;
+				}
+				if (lineStart) {
+					inHeader=b==HEADER;
+					lineStart=false;
+				}
+				if (inHeader || IS_DNA[b]==0) continue;
+				word=(word<<2)|CODE[b];
+				if (++nCodes==32) {
+					out.writeLong(word);
+					word=0L; nCodes=0;
+				}
+			}
+		}
+		out.writeLong(nCodes==0?0L:word<<(64-(nCodes<<1)));  // Last cell, possibly empty
+		out.close();
+		channel.close(); file.close();
+		return total;
+	}
+
+
+	private static final MappedByteBuffer[] map(FileChannel channel, long fileLength) throws IOException {
+		final int nRegions = (int)( Utils.divideAndRoundUp(fileLength,REGION_BYTES) );
+		long regionLength;
+		MappedByteBuffer[] out = new MappedByteBuffer[nRegions];
+		for (int i=0; i<nRegions; i++) {
+			regionLength=Math.min(REGION_BYTES,fileLength-(((long)i)<<LOG2_REGION_BYTES));
+			out[i]=channel.map(FileChannel.MapMode.READ_ONLY,((long)i)<<LOG2_REGION_BYTES,regionLength);
+		}
+		return out;
+	}
+
+
+	/**
+	 * First pass of $load$: sets $offsets[i]$ to the number of characters before chunk
+	 * $i$, and $offsets[nChunks]$ to the total.
+	 *
+	 * @return the total number of characters.
+	 */
+	private static final long count(LoaderThread[] threads, MappedByteBuffer[] regions, long fileLength, int chunkBytes, int nChunks, long[] offsets) {
+		long total = 0;
+		runThreads(threads,regions,fileLength,chunkBytes,nChunks,offsets,null);
+		for (int i=0; i<nChunks; i++) {
+			total+=offsets[i];
+			offsets[i]=total-offsets[i];
+		}
+		offsets[nChunks]=total;
+		return total;
+	}
+
+
+	private static final void runThreads(LoaderThread[] threads, MappedByteBuffer[] regions, long fileLength, int chunkBytes, int nChunks, long[] offsets, IntArray out) {
+		final int nThreads = threads.length;
+		int i;
+		AtomicInteger chunkGenerator = new AtomicInteger();
+		CountDownLatch latch = new CountDownLatch(nThreads);
+		for (i=0; i<nThreads; i++) {
+			threads[i] = new LoaderThread(regions,fileLength,chunkBytes,nChunks,chunkGenerator,offsets,out,latch);
+			threads[i].start();
+		}
+		try { latch.await(); }
+		catch(InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+
+	private static class LoaderThread extends Thread {
+		private final long fileLength;
+		private final int chunkBytes, nChunks;
+		private MappedByteBuffer[] regions;
+		private AtomicInteger chunkGenerator;
+		private CountDownLatch latch;
+		private long[] offsets;  // Counts per chunk in the first pass, offsets in the second.
+		private IntArray out;  // NULL in the first pass
+		private byte[] buffer, codes;
+
+		/**
+		 * Characters of the output cells that might be shared with other chunks:
+		 * $boundaryCodes[i]$ must be written at position $boundaryPositions[i]$.
+		 */
+		private long[] boundaryPositions;
+		private byte[] boundaryCodes;
+		private int nBoundaries;
+
+		public LoaderThread(MappedByteBuffer[] regions, long fileLength, int chunkBytes, int nChunks, AtomicInteger chunkGenerator, long[] offsets, IntArray out, CountDownLatch latch) {
+			this.regions=regions;
+			this.fileLength=fileLength;
+			this.chunkBytes=chunkBytes;
+			this.nChunks=nChunks;
+			this.chunkGenerator=chunkGenerator;
+			this.offsets=offsets;
+			this.out=out;
+			this.latch=latch;
+			buffer = new byte[chunkBytes];
+			if (out!=null) {
+				codes = new byte[chunkBytes];
+				boundaryPositions = new long[64];
+				boundaryCodes = new byte[64];
+			}
+		}
+
+		public void run() {
+			int chunk, length;
+			long first;
+			while (true) {
+				chunk=chunkGenerator.getAndIncrement();
+				if (chunk>=nChunks) break;
+				first=((long)chunk)*chunkBytes;
+				length=(int)Math.min(chunkBytes,fileLength-first);
+				read(first,length);
+				if (out==null) offsets[chunk]=count(length,inHeader(first));
+				else write(translate(length,inHeader(first)),offsets[chunk]);
+			}
+			buffer=null; codes=null;
+			latch.countDown();
+		}
+
+		/**
+		 * Copies $file[first..first+length-1]$ into $buffer$.
+		 */
+		private final void read(long first, int length) {
+			MappedByteBuffer region = regions[(int)(first>>>LOG2_REGION_BYTES)].duplicate();
+			region.position((int)(first&(REGION_BYTES-1)));
+			region.get(buffer,0,length);
+		}
+
+		private final byte byteAt(long position) {
+			return regions[(int)(position>>>LOG2_REGION_BYTES)].get((int)(position&(REGION_BYTES-1)));
+		}
+
+		/**
+		 * @return TRUE iff byte $first$ of the file belongs to a header line and it is
+		 * not the first byte of that line.
+		 */
+		private final boolean inHeader(long first) {
+			long i = first-1;
+			while (i>=0 && byteAt(i)!=NEWLINE) i--;
+			return i+1<first && byteAt(i+1)==HEADER;
+		}
+
+		/**
+		 * @return the number of DNA characters in $buffer[0..length-1]$ that do not
+		 * belong to a header.
+		 */
+		private final long count(int length, boolean inHeader) {
+			int i = 0;
+			long out = 0;
+			if (inHeader) {
+				while (i<length && buffer[i]!=NEWLINE) i++;
+			}
+			while (i<length) {
+				if (buffer[i]==HEADER) {
+					while (i<length && buffer[i]!=NEWLINE) i++;
+					continue;
+				}
+				while (i<length && buffer[i]!=NEWLINE) out+=IS_DNA[buffer[i++]&0xFF];
+				i++;
+			}
+			return out;
+		}
+
+		/**
+		 * Like $count$, but stores the codes of the DNA characters in $codes$.
+		 *
+		 * @return the number of codes stored.
+		 */
+		private final int translate(int length, boolean inHeader) {
+			int i = 0, out = 0, b;
+			if (inHeader) {
+				while (i<length && buffer[i]!=NEWLINE) i++;
+			}
+			while (i<length) {
+				if (buffer[i]==HEADER) {
+					while (i<length && buffer[i]!=NEWLINE) i++;
+					continue;
+				}
+				while (i<length && buffer[i]!=NEWLINE) {
+					b=buffer[i++]&0xFF;
+					codes[out]=CODE[b];
+					out+=IS_DNA[b];
+				}
+				i++;
+			}
+			return out;
+		}
+
+		/**
+		 * Writes $codes[0..length-1]$ to $out[offset..offset+length-1]$. The characters in
+		 * the first and in the last cell of the interval are appended to the boundary
+		 * buffer; every other cell is assembled in a register and stored with one write.
+		 */
+		private final void write(int length, long offset) {
+			if (length==0) return;
+			final int headEnd = (int)Math.min(length,(((offset>>>5)+1)<<5)-offset);
+			final int tailStart = (int)Math.max(headEnd,((offset+length-1)&0xFFFFFFFFFFFFFFE0L)-offset);
+			int i, j, cell;
+			long word;
+			for (i=0; i<headEnd; i++) pushBoundary(offset+i,codes[i]);
+			cell=(int)((offset+headEnd)>>>5);
+			for (i=headEnd; i<tailStart; cell++) {
+				word=0L;
+				for (j=0; j<32; j++) word=(word<<2)|codes[i++];
+				out.array[cell]=word;
+			}
+			for (i=tailStart; i<length; i++) pushBoundary(offset+i,codes[i]);
+		}
+
+		private final void pushBoundary(long position, byte code) {
+			if (nBoundaries==boundaryPositions.length) {
+				boundaryPositions=Arrays.copyOf(boundaryPositions,nBoundaries<<1);
+				boundaryCodes=Arrays.copyOf(boundaryCodes,nBoundaries<<1);
+			}
+			boundaryPositions[nBoundaries]=position;
+			boundaryCodes[nBoundaries]=code;
+			nBoundaries++;
+		}
+
+		/**
+		 * Writes the boundary buffer to $out$. Must be called after all threads have
+		 * completed.
+		 */
+		protected final void flushBoundaries(IntArray out) {
+			for (int i=0; i<nBoundaries; i++) out.setElementAt(boundaryPositions[i],boundaryCodes[i]);
+			boundaryPositions=null; boundaryCodes=null;
+		}
+	}
+
+}
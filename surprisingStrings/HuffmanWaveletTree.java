@@ -1,9 +1,12 @@
 import java.util.Arrays;
+import java.io.IOException;
 
 /**
  * Simplistic implementation of a Huffman-shaped wavelet tree with pointers, using
  * Sebastiano Vigna's $Rank9$ data structure \cite{vigna2008broadword} to support rank
- * operations inside a node.
+ * operations inside a node, and $SimpleSelect$ to support select operations on demand.
+ * The layout of each node is chosen by $RankDataStructure.buildCompressible$, thus
+ * nodes that compress well are stored as an $RRRBitVector$.
  *
  * Remark: We try to optimize time rather than space. We allow construction to use
  * $|s|(H_0(s)+1)$ bits of additional space, where $s$ is the input string, i.e. we don't
@@ -15,7 +18,7 @@ import java.util.Arrays;
  * BWT. We don't implement the wavelet matrix \cite{claude2012wavelet} because it is
  * useful in practice only for large alphabets.
  */
-public class HuffmanWaveletTree {
+public class HuffmanWaveletTree extends BWTBlock {
 
 	/*
 	 * The symbols that occur in $string$, sorted lexicographically.
@@ -29,7 +32,13 @@ public class HuffmanWaveletTree {
 	 * in the arrays. A negative value $c$ identifies position $-1-c$ in $alphabet$.
 	 */
 	private int[] leftChild, rightChild, nodeParent, leafParent;
-	protected Rank9[] rankDataStructures;
+	protected RankDataStructure[] rankDataStructures;
+
+	/**
+	 * Select data structures over the zeros and over the ones of each node. They are
+	 * not built by the constructor nor serialized: see $buildSelect$.
+	 */
+	private SimpleSelect[] selectZeros, selectOnes;
 
 	/**
 	 * Maximum number of bits in the Huffman code
@@ -92,25 +101,73 @@ public class HuffmanWaveletTree {
 			node=alphabetLength-2;
 			for (k=length-1; k>=0; k--) {
 				if (codes[j][k]) {
-					bitVectors[node].pushFromRight(1);  // $Rank9$ stores bits from right to left
+					bitVectors[node].pushFromRight(1);  // $RankDataStructure$ reads bits from right to left
 					node=rightChild[node];
 				}
 				else {
-					bitVectors[node].pushFromRight(0);  // $Rank9$ stores bits from right to left
+					bitVectors[node].pushFromRight(0);  // $RankDataStructure$ reads bits from right to left
 					node=leftChild[node];
 				}
 			}
 		}
 		codes=null; codeLengths=null;
-		rankDataStructures = new Rank9[alphabetLength-1];
+		rankDataStructures = new RankDataStructure[alphabetLength-1];
 		for (i=0; i<alphabetLength-1; i++) {
-			rankDataStructures[i] = new Rank9(bitVectors[i]);
+			rankDataStructures[i]=RankDataStructure.buildCompressible(bitVectors[i]);
 			bitVectors[i]=null;
 		}
 		bitVectors=null;
 	}
 
 
+	/**
+	 * Used by $readData$.
+	 */
+	private HuffmanWaveletTree(int[] alphabet, int maxCodeLength) {
+		this.alphabet=alphabet;
+		alphabetLength=alphabet.length;
+		log2AlphabetLength=alphabetLength==1?0:Utils.log2(alphabetLength);
+		this.maxCodeLength=maxCodeLength;
+	}
+
+
+	public final int type() {
+		return HUFFMAN_WAVELET_TREE;
+	}
+
+
+	/**
+	 * Appends to $file$ the tree topology and the rank data structure of every node.
+	 */
+	protected final void writeData(IndexFile file) throws IOException {
+		file.writeIntArray(alphabet);
+		file.writeLong(maxCodeLength);
+		if (alphabetLength==1) return;
+		file.writeIntArray(leftChild);
+		file.writeIntArray(rightChild);
+		file.writeIntArray(nodeParent);
+		file.writeIntArray(leafParent);
+		for (int i=0; i<alphabetLength-1; i++) rankDataStructures[i].write(file);
+	}
+
+
+	/**
+	 * Inverse of $writeData$.
+	 */
+	public static final HuffmanWaveletTree readData(IndexFile file) throws IOException {
+		final int[] alphabet = file.readIntArray();
+		HuffmanWaveletTree out = new HuffmanWaveletTree(alphabet,(int)file.readLong());
+		if (alphabet.length==1) return out;
+		out.leftChild=file.readIntArray();
+		out.rightChild=file.readIntArray();
+		out.nodeParent=file.readIntArray();
+		out.leafParent=file.readIntArray();
+		out.rankDataStructures = new RankDataStructure[alphabet.length-1];
+		for (int i=0; i<alphabet.length-1; i++) out.rankDataStructures[i]=RankDataStructure.read(file);
+		return out;
+	}
+
+
 	/**
 	 * @param frequencies relative frequency of each symbol in $alphabet$; they are
 	 * assumed to sum to one;
@@ -219,10 +276,8 @@ public class HuffmanWaveletTree {
 	public final int access(long position) {
 		if (alphabetLength==1) return alphabet[0];
 		int node = alphabetLength-2;
-		long effectivePosition;
 		while (node>=0) {
-			effectivePosition=(position/64)*64 + (64-(position%64)-1);
-			if (rankDataStructures[node].bitVector.getElementAt(effectivePosition)==0) {
+			if (rankDataStructures[node].getBit(position)==0) {
 				position-=rankDataStructures[node].rank(position);
 				node=leftChild[node];
 				if (node<0) return alphabet[-1-node];
@@ -237,6 +292,45 @@ public class HuffmanWaveletTree {
 	}
 
 
+	/**
+	 * Builds the data structures used by $select$. Since they take about 1.25 bits per
+	 * bit of the wavelet tree (see $SimpleSelect$), i.e. five times the space of the
+	 * rank data structures, they are built only if a client needs them.
+	 */
+	public final void buildSelect() {
+		if (alphabetLength==1 || selectOnes!=null) return;
+		selectZeros = new SimpleSelect[alphabetLength-1];
+		selectOnes = new SimpleSelect[alphabetLength-1];
+		for (int i=0; i<alphabetLength-1; i++) {
+			selectZeros[i] = new SimpleSelect(rankDataStructures[i],false);
+			selectOnes[i] = new SimpleSelect(rankDataStructures[i],true);
+		}
+	}
+
+
+	/**
+	 * Inverse of rank: climbs from the leaf of $c$ to the root, selecting at each node the
+	 * bit that leads to the current child. Requires $buildSelect$ to have been called.
+	 *
+	 * @param c a character in $alphabet$;
+	 * @param i in $[0..n_c-1]$, where $n_c$ is the number of occurrences of $c$ in
+	 * $string$;
+	 * @return the position of the $i$-th occurrence (from zero) of $c$ in $string$.
+	 */
+	public final long select(int c, long i) {
+		if (alphabetLength==1) return i;
+		int node, child;
+		child=-1-Arrays.binarySearch(alphabet,c);
+		node=leafParent[-1-child];
+		while (node>=0) {
+			i=leftChild[node]==child?selectZeros[node].select(i):selectOnes[node].select(i);
+			child=node;
+			node=nodeParent[node];
+		}
+		return i;
+	}
+
+
 	/**
 	 * Computes the number of occurrences of every symbol in $[0..fullAlphabetLength]$
 	 * before each position of a list of distinct positions relative to $string$.
@@ -274,7 +368,7 @@ public class HuffmanWaveletTree {
 		currentBlock=0; lastBlock=0;
 		while (currentBlock<=lastBlock) {
 			node=(int)stack[currentBlock][0];
-			for (i=0; i<nPositions; i++) ones[i]=rankDataStructures[node].rank(stack[currentBlock][1+i]);
+			rankDataStructures[node].rank(stack[currentBlock],1,nPositions,ones);
 			address=leftChild[node];
 			if (address<0) {
 				for (i=0; i<nPositions; i++) output[alphabet[-1-address]][i]=stack[currentBlock][1+i]-ones[i];
@@ -315,7 +409,8 @@ public class HuffmanWaveletTree {
 
 		System.out.println("bitvectors: ");
 		for (int i=0; i<alphabetLength-1; i++) {
-			rankDataStructures[i].bitVector.printBits(); System.out.println();
+			for (long j=0; j<rankDataStructures[i].length(); j++) System.out.print(rankDataStructures[i].getBit(j));
+			System.out.println();
 		}
 	}
 
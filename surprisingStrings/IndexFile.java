@@ -0,0 +1,328 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Versioned on-disk representation of the BWT index used by $SubstringIterator$, so that
+ * the index of a string can be built once and loaded by every subsequent run.
+ *
+ * The file is a sequence of little-endian 64-bit words: a header with $MAGIC$,
+ * $VERSION$, the size and the last-modified time of the source file of the string (-1 if
+ * unknown), and the length of the indexed string, followed by the serialized objects in
+ * the order in which they were written. Every scalar (including $int$s) occupies a
+ * full word, so that arrays of longs are always aligned and can be copied in bulk.
+ *
+ * Remark: Reading memory-maps the file with $FileChannel.map$ and copies each array of
+ * longs with a single bulk $LongBuffer.get$, thus loading an index costs just page faults
+ * and a memory copy, rather than suffix sorting. We do not make $IntArray$ and $Rank9$
+ * read directly from the mapped buffer, since this would add an indirection and a bounds
+ * check to every rank query in the hot loop of $SubstringIterator.extendLeft$. The only
+ * exception is a string that does not fit in the heap, which is read from the mapped
+ * file during construction (see $readMappedIntArray$).
+ *
+ * Remark: The size and the last-modified time of the source file allow $isUpToDate$ to
+ * detect an index built from an older version of the file, which would otherwise be
+ * loaded silently and give wrong results. We do not store a checksum, since computing it
+ * would require reading the whole source file at every run.
+ *
+ * Remark: A single mapping cannot exceed $Integer.MAX_VALUE$ bytes, thus the file is
+ * mapped as a sequence of regions of $REGION_BYTES$ bytes each. Since $REGION_BYTES$ is a
+ * multiple of 8, no word crosses a region boundary.
+ */
+public class IndexFile {
+
+	public static final long MAGIC = 0x5355525052495345L;  // "SURPRISE" in ASCII
+	public static final long VERSION = 4;
+	private static final int REGION_BYTES = 1<<30;
+	private static final int LOG2_REGION_BYTES = 30;
+	private static final int BUFFER_BYTES = 1<<20;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	/**
+	 * Writing
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Reading
+	 */
+	private MappedByteBuffer[] regions;
+	private LongBuffer[] longRegions;
+	private long position;  // In bytes
+	private long sourceLength, sourceModified;
+
+
+	private IndexFile() { }
+
+
+	/**
+	 * Creates a new index file at $path$, overwriting any existing file, and writes its
+	 * header.
+	 *
+	 * @param sourcePath file from which the string was loaded, or NULL if the string
+	 * does not come from a file.
+	 */
+	public static final IndexFile create(String path, long stringLength, String sourcePath) throws IOException {
+		IndexFile out = new IndexFile();
+		out.file = new RandomAccessFile(path,"rw");
+		out.file.setLength(0);
+		out.channel=out.file.getChannel();
+		out.buffer=ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		out.writeLong(MAGIC);
+		out.writeLong(VERSION);
+		if (sourcePath==null) {
+			out.writeLong(-1);
+			out.writeLong(-1);
+		}
+		else {
+			File source = new File(sourcePath);
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+		}
+		out.writeLong(stringLength);
+		return out;
+	}
+
+
+	/**
+	 * Memory-maps an existing index file and checks its header.
+	 */
+	public static final IndexFile open(String path) throws IOException {
+		int i, nRegions;
+		long fileLength, regionLength;
+		IndexFile out = new IndexFile();
+		out.file = new RandomAccessFile(path,"r");
+		out.channel=out.file.getChannel();
+		fileLength=out.channel.size();
+		nRegions=(int)( Utils.divideAndRoundUp(fileLength,REGION_BYTES) );
+		out.regions = new MappedByteBuffer[nRegions];
+		out.longRegions = new LongBuffer[nRegions];
+		for (i=0; i<nRegions; i++) {
+			regionLength=Math.min(REGION_BYTES,fileLength-(((long)i)<<LOG2_REGION_BYTES));
+			out.regions[i]=out.channel.map(FileChannel.MapMode.READ_ONLY,((long)i)<<LOG2_REGION_BYTES,regionLength);
+			out.regions[i].order(ByteOrder.LITTLE_ENDIAN);
+			out.longRegions[i]=out.regions[i].asLongBuffer();
+		}
+		out.position=0;
+		if (fileLength<40 || out.readLong()!=MAGIC) {
+			out.close();
+			throw new IOException(path+" is not an index file");
+		}
+		if (out.readLong()!=VERSION) {
+			out.close();
+			throw new IOException(path+" has an unsupported index version (expected "+VERSION+")");
+		}
+		out.sourceLength=out.readLong();
+		out.sourceModified=out.readLong();
+		return out;
+	}
+
+
+	/**
+	 * @return TRUE iff $path$ is an index file of the current version, built from the
+	 * current version of file $sourcePath$, i.e. iff the size and the last-modified time
+	 * of $sourcePath$ equal those stored in the header. Callers should rebuild the index
+	 * otherwise.
+	 */
+	public static final boolean isUpToDate(String path, String sourcePath) {
+		final File source = new File(sourcePath);
+		final boolean out;
+		IndexFile file;
+
+		if (!new File(path).exists() || !source.exists()) return false;
+		try {
+			file=open(path);
+			out=file.sourceLength==source.length() && file.sourceModified==source.lastModified();
+			file.close();
+		}
+		catch (IOException e) { return false; }  // Not an index, or an older version
+		return out;
+	}
+
+
+	/**
+	 * @return the length of the string indexed by the file at $path$, read from its
+	 * header.
+	 */
+	public static final long stringLength(String path) throws IOException {
+		IndexFile file = open(path);
+		long out = file.readLong();
+		file.close();
+		return out;
+	}
+
+
+	/**
+	 * Flushes pending writes, if any, and releases the file.
+	 */
+	public final void close() throws IOException {
+		if (buffer!=null) {
+			flush();
+			buffer=null;
+		}
+		regions=null; longRegions=null;
+		channel.close(); channel=null;
+		file.close(); file=null;
+	}
+
+
+
+
+	// ------------------------------------ WRITING --------------------------------------
+
+	private final void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+
+	public final void writeLong(long value) throws IOException {
+		if (buffer.remaining()<8) flush();
+		buffer.putLong(value);
+	}
+
+
+	/**
+	 * Writes $array[from..from+n-1]$ in bulk.
+	 */
+	public final void writeLongs(long[] array, int from, int n) throws IOException {
+		int k;
+		while (n>0) {
+			if (buffer.remaining()<8) flush();
+			k=Math.min(n,buffer.remaining()>>>3);
+			buffer.asLongBuffer().put(array,from,k);
+			buffer.position(buffer.position()+(k<<3));
+			from+=k; n-=k;
+		}
+	}
+
+
+	/**
+	 * Writes the length of $array$ followed by its elements. A null $array$ is encoded
+	 * with length -1.
+	 */
+	public final void writeLongArray(long[] array) throws IOException {
+		if (array==null) {
+			writeLong(-1);
+			return;
+		}
+		writeLong(array.length);
+		writeLongs(array,0,array.length);
+	}
+
+
+	/**
+	 * Writes the length of $array$ followed by its elements, one per word. A null
+	 * $array$ is encoded with length -1.
+	 */
+	public final void writeIntArray(int[] array) throws IOException {
+		if (array==null) {
+			writeLong(-1);
+			return;
+		}
+		writeLong(array.length);
+		for (int i=0; i<array.length; i++) writeLong(array[i]);
+	}
+
+
+
+
+	// ------------------------------------ READING --------------------------------------
+
+	public final long readLong() {
+		final long out = regions[(int)(position>>>LOG2_REGION_BYTES)].getLong((int)(position&(REGION_BYTES-1)));
+		position+=8;
+		return out;
+	}
+
+
+	/**
+	 * Reads $n$ words into $array[from..from+n-1]$ in bulk.
+	 */
+	public final void readLongs(long[] array, int from, int n) {
+		int k, region, offset;
+		LongBuffer source;
+		while (n>0) {
+			region=(int)(position>>>LOG2_REGION_BYTES);
+			offset=(int)(position&(REGION_BYTES-1));
+			source=longRegions[region];
+			source.position(offset>>>3);
+			k=Math.min(n,source.remaining());
+			source.get(array,from,k);
+			position+=((long)k)<<3;
+			from+=k; n-=k;
+		}
+	}
+
+
+	/**
+	 * Like $IntArray.read$, but the returned array is a read-only view of the mapped
+	 * file rather than a copy in the heap: only $getElementAt(long)$, $load63$, $lcp$
+	 * and $lcp63$ can be used on it. The view remains valid after $close$. This allows
+	 * $Suffixes.blockwiseBWT$ to index a string that does not fit in the heap.
+	 */
+	public final IntArray readMappedIntArray() {
+		final int bpi = (int)readLong();
+		final long length = readLong();
+		final int nCells = (int)readLong();
+		IntArray out = new MappedIntArray(length,bpi,longRegions,position>>>3);
+		position+=((long)nCells)<<3;
+		return out;
+	}
+
+
+	/**
+	 * Inverse of $writeLongArray$.
+	 */
+	public final long[] readLongArray() {
+		final long length = readLong();
+		if (length==-1) return null;
+		long[] out = new long[(int)length];
+		readLongs(out,0,(int)length);
+		return out;
+	}
+
+
+	/**
+	 * Inverse of $writeIntArray$.
+	 */
+	public final int[] readIntArray() {
+		final long length = readLong();
+		if (length==-1) return null;
+		int[] out = new int[(int)length];
+		for (int i=0; i<length; i++) out[i]=(int)readLong();
+		return out;
+	}
+
+
+	/**
+	 * Read-only $IntArray$ whose cells are the words of a mapped file, starting from
+	 * word $firstWord$.
+	 */
+	private static final class MappedIntArray extends IntArray {
+		private static final int LOG2_REGION_LONGS = LOG2_REGION_BYTES-3;
+		private static final int REGION_LONGS_MINUS_ONE = (REGION_BYTES>>>3)-1;
+		private final LongBuffer[] regions;
+		private final long firstWord;
+
+		public MappedIntArray(long length, int bpi, LongBuffer[] regions, long firstWord) {
+			super(length,bpi,true,false);
+			this.regions=regions;
+			this.firstWord=firstWord;
+		}
+
+		protected long readCell(int i) {
+			final long word = firstWord+i;
+			return regions[(int)(word>>>LOG2_REGION_LONGS)].get((int)(word&REGION_LONGS_MINUS_ONE));
+		}
+	}
+
+}
@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 /**
  * A rigid array of integers, encoded each in a fixed number of bits that equals a power
  * of two. In what follows, we denote with $v$ the bit string that results from the
@@ -34,6 +36,15 @@ public class IntArray {
 	 * @param fillWithZeros inserts $maxLength$ zeros in the array.
 	 */
 	public IntArray(long maxLength, int bpi, boolean fillWithZeros) {
+		this(maxLength,bpi,fillWithZeros,true);
+	}
+
+
+	/**
+	 * @param allocate FALSE=$array$ is left null, for subclasses that store cells
+	 * elsewhere and override $readCell$.
+	 */
+	protected IntArray(long maxLength, int bpi, boolean fillWithZeros, boolean allocate) {
 		int nCells;
 		bitsPerInt=Utils.closestPowerOfTwo(bpi);
 		sixtyFourMinusBitsPerInt=64-bitsPerInt;
@@ -48,7 +59,7 @@ public class IntArray {
 			default: log2BitsPerInt=0; intsPerLong=64; oneSelectors=Utils.oneSelectors1; zeroSelectors=Utils.zeroSelectors1; break;
 		}
 		nCells=(int)( ((maxLength<<log2BitsPerInt)>>6)+1 );
-		array = new long[nCells];
+		array=allocate?new long[nCells]:null;
 		if (fillWithZeros) {
 			nElements=maxLength;
 			totalBits=maxLength<<log2BitsPerInt;
@@ -121,6 +132,32 @@ public class IntArray {
 	}
 
 
+	/**
+	 * Appends to $file$ the elements of this array, but not its capacity nor the state
+	 * of its pointer. The array is assumed to have been filled by pushes from an empty
+	 * state, i.e. not after a call to $clear(forceLastOffset)$ with nonzero offset.
+	 */
+	public final void write(IndexFile file) throws IOException {
+		file.writeLong(bitsPerInt);
+		file.writeLong(nElements);
+		file.writeLong(lastCell+1);
+		file.writeLongs(array,0,lastCell+1);
+	}
+
+
+	/**
+	 * Inverse of $write$. The capacity of the returned array equals its length.
+	 */
+	public static final IntArray read(IndexFile file) {
+		final int bpi = (int)file.readLong();
+		final long length = file.readLong();
+		final int nCells = (int)file.readLong();
+		IntArray out = new IntArray(length,bpi,true);
+		file.readLongs(out.array,0,nCells);
+		return out;
+	}
+
+
 	public final long length() {
 		return nElements;
 	}
@@ -286,19 +323,19 @@ public class IntArray {
 		int offset = (int)( i&Utils.LAST_6_BITS );
 		if (cell>lastCell || (cell==lastCell&&offset>=lastOffset)) return 0x0L;
 		if (offset==0) {
-			long out = array[cell];
+			long out = readCell(cell);
 			if (cell==lastCell) out&=Utils.shiftOnesLeft[64-lastOffset];
 			return out>>>1;
 		}
 		if (offset==1) {
-			long out = array[cell]&Utils.zeroSelectors1[63];
+			long out = readCell(cell)&Utils.zeroSelectors1[63];
 			if (cell==lastCell) out&=Utils.shiftOnesLeft[64-lastOffset];
 			return out;
 		}
 		int sixtyFourMinusOffset = 64-offset;
-		long out = (array[cell]<<(offset-1))&Utils.zeroSelectors1[63];
+		long out = (readCell(cell)<<(offset-1))&Utils.zeroSelectors1[63];
 		if (cell<lastCell) {
-			out|=array[cell+1]>>>(sixtyFourMinusOffset+1);
+			out|=readCell(cell+1)>>>(sixtyFourMinusOffset+1);
 			if (cell==lastCell-1) {
 				int measure = 1+sixtyFourMinusOffset+lastOffset;
 				if (measure<64) out&=Utils.shiftOnesLeft[64-measure];
@@ -308,9 +345,19 @@ public class IntArray {
 	}
 
 
+	/**
+	 * The only access to $array$ made by $getElementAt(long)$, $load63$ and the $lcp$
+	 * family, which are the methods used to read a string while building its BWT.
+	 * Subclasses can override it to read a string that does not fit in the heap.
+	 */
+	protected long readCell(int i) {
+		return array[i];
+	}
+
+
 	public final long getElementAt(long i) {
 		i<<=log2BitsPerInt;
-		return (array[(int)(i>>>6)]>>>64-(int)(i&Utils.LAST_6_BITS_LONG)-bitsPerInt)&oneSelectors[0];
+		return (readCell((int)(i>>>6))>>>64-(int)(i&Utils.LAST_6_BITS_LONG)-bitsPerInt)&oneSelectors[0];
 	}
 
 
@@ -670,6 +717,28 @@ public class IntArray {
 	}
 
 
+	/**
+	 * @return a new array with the elements of $x$ and $y$ in sorted order, assuming
+	 * that both $x$ and $y$ are sorted.
+	 */
+	public static final IntArray merge(IntArray x, IntArray y) {
+		final long xLength = x.length();
+		final long yLength = y.length();
+		long i, j, xValue, yValue;
+		IntArray out = new IntArray(xLength+yLength,Math.max(x.bitsPerInt,y.bitsPerInt));
+		i=0; j=0;
+		while (i<xLength && j<yLength) {
+			xValue=x.getElementAt(i);
+			yValue=y.getElementAt(j);
+			if (xValue<=yValue) { out.push(xValue); i++; }
+			else { out.push(yValue); j++; }
+		}
+		while (i<xLength) out.push(x.getElementAt(i++));
+		while (j<yLength) out.push(y.getElementAt(j++));
+		return out;
+	}
+
+
 	/**
 	 * Longest common prefix between suffix $v[x..]$ and suffix $v[y..]$.
 	 *
@@ -686,15 +755,15 @@ public class IntArray {
 		final int yCell = (int)( y>>>6 );
 		final int yOffset = (int)( y&Utils.LAST_6_BITS );
 		long xBuffer, yBuffer;
-		if (xOffset==0) xBuffer=array[xCell];
+		if (xOffset==0) xBuffer=readCell(xCell);
 		else {
-			xBuffer=array[xCell]<<xOffset;
-			if (xCell<lastCell) xBuffer|=array[xCell+1]>>>(64-xOffset);
+			xBuffer=readCell(xCell)<<xOffset;
+			if (xCell<lastCell) xBuffer|=readCell(xCell+1)>>>(64-xOffset);
 		}
-		if (yOffset==0) yBuffer=array[yCell];
+		if (yOffset==0) yBuffer=readCell(yCell);
 		else {
-			yBuffer=array[yCell]<<yOffset;
-			if (yCell<lastCell) yBuffer|=array[yCell+1]>>>(64-yOffset);
+			yBuffer=readCell(yCell)<<yOffset;
+			if (yCell<lastCell) yBuffer|=readCell(yCell+1)>>>(64-yOffset);
 		}
 		return lcp(xCell,xOffset,yCell,yOffset,xSmallerThanY,order,xBuffer,yBuffer,false);
 	}
@@ -783,15 +852,15 @@ public class IntArray {
 				if (order&&xLexGreaterThanY) lcpBits|=Utils.MSB_LONG_ONE;
 				return lcpBits;
 			}
-			if (xOffset==0) xBuffer=array[xCell];
+			if (xOffset==0) xBuffer=readCell(xCell);
 			else {
-				xBuffer=array[xCell]<<xOffset;
-				if (xCell<lastCell) xBuffer|=array[xCell+1]>>>(64-xOffset);
+				xBuffer=readCell(xCell)<<xOffset;
+				if (xCell<lastCell) xBuffer|=readCell(xCell+1)>>>(64-xOffset);
 			}
-			if (yOffset==0) yBuffer=array[yCell];
+			if (yOffset==0) yBuffer=readCell(yCell);
 			else {
-				yBuffer=array[yCell]<<yOffset;
-				if (yCell<lastCell) yBuffer|=array[yCell+1]>>>(64-yOffset);
+				yBuffer=readCell(yCell)<<yOffset;
+				if (yCell<lastCell) yBuffer|=readCell(yCell+1)>>>(64-yOffset);
 			}
 		}
 
@@ -826,15 +895,15 @@ public class IntArray {
 			xCell++; yCell++;
 			if (xCell>lastCell || (xCell==lastCell&&xOffset>=lastOffset)) break;
 			if (yCell>lastCell || (yCell==lastCell&&yOffset>=lastOffset)) break;
-			if (xOffset==0) xBuffer=array[xCell];
+			if (xOffset==0) xBuffer=readCell(xCell);
 			else {
-				xBuffer=array[xCell]<<xOffset;
-				if (xCell<lastCell) xBuffer|=array[xCell+1]>>>(64-xOffset);
+				xBuffer=readCell(xCell)<<xOffset;
+				if (xCell<lastCell) xBuffer|=readCell(xCell+1)>>>(64-xOffset);
 			}
-			if (yOffset==0) yBuffer=array[yCell];
+			if (yOffset==0) yBuffer=readCell(yCell);
 			else {
-				yBuffer=array[yCell]<<yOffset;
-				if (yCell<lastCell) yBuffer|=array[yCell+1]>>>(64-yOffset);
+				yBuffer=readCell(yCell)<<yOffset;
+				if (yCell<lastCell) yBuffer|=readCell(yCell+1)>>>(64-yOffset);
 			}
 		}
 		lcpBits>>>=log2BitsPerInt;
@@ -0,0 +1,111 @@
+import java.io.IOException;
+
+/**
+ * The counts of $Rank9$ \cite{vigna2008broadword}, interleaved with the bits they
+ * refer to. $Rank9$ stores the bits and the counts in two distinct arrays, thus a rank
+ * query touches two distant cache lines. Here every superblock of 512 bits is stored in
+ * $SUPERBLOCK_LONGS=10$ consecutive longs: the number of ones before the superblock,
+ * the seven 9-bit relative counts of its words (in the format of $Rank9$), and its
+ * eight words of bits. Thus a rank query reads 80 consecutive bytes, which span at most
+ * two adjacent cache lines. Space is the same as $Rank9$.
+ *
+ * Remark: Java does not allow aligning an array to a cache line, thus a superblock is
+ * not aligned to a cache line even if it spans just one line.
+ */
+public class InterleavedRank9 extends RankDataStructure {
+
+	private static final int WORDS_PER_SUPERBLOCK = 8;
+	private static final int SUPERBLOCK_LONGS = WORDS_PER_SUPERBLOCK+2;
+
+	private final long length;
+	private final long[] superblocks;
+
+
+	public InterleavedRank9(IntArray bitVector) {
+		final long[] bits = bitVector.array;
+		final int numWords;
+		int i, j, base;
+		long count, relative, word;
+
+		length=bitVector.length();
+		numWords=(int)((length+63)>>>6);
+		superblocks = new long[(numWords/WORDS_PER_SUPERBLOCK+1)*SUPERBLOCK_LONGS];  // With room for $rank(length)$
+		count=0;
+		for (i=0, base=0; base<superblocks.length; i+=WORDS_PER_SUPERBLOCK, base+=SUPERBLOCK_LONGS) {
+			superblocks[base]=count;
+			relative=0;
+			for (j=0; j<WORDS_PER_SUPERBLOCK; j++) {
+				if (j>0) superblocks[base+1]|=relative<<(9*(j-1));
+				word=i+j<numWords?bits[i+j]:0L;
+				superblocks[base+2+j]=word;
+				relative+=Long.bitCount(word);
+			}
+			count+=relative;
+		}
+	}
+
+
+	/**
+	 * Used by $readData$.
+	 */
+	private InterleavedRank9(long length, long[] superblocks) {
+		this.length=length;
+		this.superblocks=superblocks;
+	}
+
+
+	public final int type() {
+		return INTERLEAVED_RANK9;
+	}
+
+
+	public final long length() {
+		return length;
+	}
+
+
+	public final int getBit(long pos) {
+		final int word = (int)(pos>>>6);
+		return (int)( superblocks[(word>>>3)*SUPERBLOCK_LONGS+2+(word&7)]>>>(pos&63) )&1;
+	}
+
+
+	public final long sizeInBits() {
+		return ((long)superblocks.length)<<6;
+	}
+
+
+	public final long getWord(int i) {
+		return superblocks[(i>>>3)*SUPERBLOCK_LONGS+2+(i&7)];
+	}
+
+
+	/**
+	 * As in $Rank9$, the relative count of the first word of a superblock is read from
+	 * bit 63 of the relative counts, which is always zero.
+	 */
+	public final long rank(long pos) {
+		final int word = (int)(pos>>>6);
+		final int base = (word>>>3)*SUPERBLOCK_LONGS;
+		final int offset = (word&7)-1;
+		return superblocks[base] +
+			   ( superblocks[base+1]>>>(offset+(offset>>>28&8))*9 & 0x1FF ) +
+			   Long.bitCount( superblocks[base+2+(word&7)]&((1L<<(pos&63))-1) );
+	}
+
+
+	protected final void writeData(IndexFile file) throws IOException {
+		file.writeLong(length);
+		file.writeLongArray(superblocks);
+	}
+
+
+	/**
+	 * Inverse of $writeData$.
+	 */
+	public static final InterleavedRank9 readData(IndexFile file) {
+		final long length = file.readLong();
+		return new InterleavedRank9(length,file.readLongArray());
+	}
+
+}
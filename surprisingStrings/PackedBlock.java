@@ -0,0 +1,150 @@
+import java.util.Arrays;
+import java.io.IOException;
+
+/**
+ * A BWT block stored as a plain array of codes, where the code of a character is its
+ * position in $alphabet$, with the number of occurrences of every character of
+ * $alphabet$ before every multiple of $SAMPLING_RATE$. $multirank$ starts from the
+ * closest sample to a position, and it counts the characters between the sample and
+ * the position, i.e. at most $SAMPLING_RATE/2$ characters.
+ *
+ * The block takes $\lceil\log_2|alphabet|\rceil$ bits per character (rounded up to a
+ * power of two by $IntArray$) plus $64|alphabet|/SAMPLING_RATE$ bits per character for
+ * the samples, and a constant number of objects. Thus it is useful for tiny blocks,
+ * where the fixed cost of the nodes of $HuffmanWaveletTree$ dominates, and for blocks
+ * whose characters are nearly uniformly distributed on a small alphabet.
+ */
+public class PackedBlock extends BWTBlock {
+
+	private static final int LOG2_SAMPLING_RATE = 7;
+	public static final int SAMPLING_RATE = 1<<LOG2_SAMPLING_RATE;
+
+	/**
+	 * The symbols that occur in the block, sorted lexicographically.
+	 */
+	private final int[] alphabet;
+	private final long length;
+	private final IntArray codes;
+
+	/**
+	 * $samples[s*|alphabet|+k]$ is the number of occurrences of $alphabet[k]$ before
+	 * position $s*SAMPLING_RATE$, for all $s \in [0..length/SAMPLING_RATE]$.
+	 */
+	private final long[] samples;
+
+
+	/**
+	 * @return the number of bits that a $PackedBlock$ of a string of length $length$ with
+	 * $alphabetLength$ distinct characters would take, without building it.
+	 */
+	public static final long estimateBits(long length, int alphabetLength) {
+		return length*Utils.closestPowerOfTwo(bitsPerCode(alphabetLength))+((length>>>LOG2_SAMPLING_RATE)+1)*alphabetLength*64;
+	}
+
+
+	/**
+	 * @return the approximate time of $multirank$ per position, in units of the time of
+	 * $Rank9.rank$: $multirank$ scans $SAMPLING_RATE/4$ contiguous codes on average, and
+	 * reading a code takes about half the time of a rank query (see $Benchmarks.rank$).
+	 */
+	public static final int estimateRankCost() {
+		return SAMPLING_RATE>>>3;
+	}
+
+
+	private static final int bitsPerCode(int alphabetLength) {
+		return Math.max(Utils.bitsToEncode(alphabetLength-1),1);
+	}
+
+
+	/**
+	 * @param alphabet only the distinct symbols that occur in $string$, sorted
+	 * lexicographically.
+	 */
+	public PackedBlock(IntArray string, int[] alphabet) {
+		final int alphabetLength = alphabet.length;
+		int k, code;
+		long i;
+		int[] map;
+		long[] counts = new long[alphabetLength];
+
+		this.alphabet=alphabet;
+		length=string.length();
+		codes = new IntArray(length,bitsPerCode(alphabetLength));
+		samples = new long[(int)((length>>>LOG2_SAMPLING_RATE)+1)*alphabetLength];
+		map = new int[alphabet[alphabetLength-1]+1];
+		for (k=0; k<alphabetLength; k++) map[alphabet[k]]=k;
+		for (i=0; i<length; i++) {
+			if ((i&(SAMPLING_RATE-1))==0) System.arraycopy(counts,0,samples,(int)(i>>>LOG2_SAMPLING_RATE)*alphabetLength,alphabetLength);
+			code=map[(int)string.getElementAt(i)];
+			codes.push(code);
+			counts[code]++;
+		}
+		if ((length&(SAMPLING_RATE-1))==0) System.arraycopy(counts,0,samples,(int)(length>>>LOG2_SAMPLING_RATE)*alphabetLength,alphabetLength);
+	}
+
+
+	/**
+	 * Used by $readData$.
+	 */
+	private PackedBlock(int[] alphabet, long length, IntArray codes, long[] samples) {
+		this.alphabet=alphabet;
+		this.length=length;
+		this.codes=codes;
+		this.samples=samples;
+	}
+
+
+	public final int type() {
+		return PACKED_ARRAY;
+	}
+
+
+	protected final void writeData(IndexFile file) throws IOException {
+		file.writeIntArray(alphabet);
+		file.writeLong(length);
+		codes.write(file);
+		file.writeLongArray(samples);
+	}
+
+
+	/**
+	 * Inverse of $writeData$.
+	 */
+	public static final PackedBlock readData(IndexFile file) {
+		final int[] alphabet = file.readIntArray();
+		final long length = file.readLong();
+		final IntArray codes = IntArray.read(file);
+		return new PackedBlock(alphabet,length,codes,file.readLongArray());
+	}
+
+
+	public final int access(long position) {
+		return alphabet[(int)codes.getElementAt(position)];
+	}
+
+
+	/**
+	 * $ones$ and all rows of $stack$ except the first are not used.
+	 */
+	public final void multirank(int fullAlphabetLength, int nPositions, long[][] stack, long[][] output, long[] ones) {
+		final int alphabetLength = alphabet.length;
+		int j, k, sample, base;
+		long i, position, samplePosition;
+
+		for (j=0; j<nPositions; j++) {
+			position=stack[0][1+j];
+			sample=(int)Math.min((position+(SAMPLING_RATE>>>1))>>>LOG2_SAMPLING_RATE,length>>>LOG2_SAMPLING_RATE);
+			samplePosition=((long)sample)<<LOG2_SAMPLING_RATE;
+			base=sample*alphabetLength;
+			for (k=0; k<alphabetLength; k++) output[alphabet[k]][j]=samples[base+k];
+			if (samplePosition<=position) {
+				for (i=samplePosition; i<position; i++) output[alphabet[(int)codes.getElementAt(i)]][j]++;
+			}
+			else {
+				for (i=position; i<samplePosition; i++) output[alphabet[(int)codes.getElementAt(i)]][j]--;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,289 @@
+import java.io.IOException;
+
+/**
+ * Compressed bitvector of \cite{raman2007succinct} (RRR), which takes about
+ * $nH_0+0.54n$ bits on a bitvector of $n$ bits with zero-order entropy $H_0$, and much
+ * less on bitvectors with long runs, like the nodes of a wavelet tree of the BWT of a
+ * repetitive string.
+ *
+ * The bitvector is split into blocks of $BLOCK_BITS=15$ bits. Every block is encoded by
+ * its \emph{class}, i.e. its number of ones $c$, stored in 4 bits, and by its
+ * \emph{offset}, i.e. its position among all blocks of class $c$ in increasing order,
+ * stored in $WIDTH[c]=\lceil\log_2{15 \choose c}\rceil$ bits; blocks of all zeros or all
+ * ones have no offset. Offsets are concatenated in a bit stream. Every
+ * $SUPERBLOCK_BLOCKS$ blocks, $samples$ stores the number of ones before the block and
+ * the position of its offset in the stream. A rank query adds the classes of the
+ * blocks between the previous sample and its block, and it decodes its block with a
+ * table lookup; thus it is several times slower than $Rank9$.
+ */
+public class RRRBitVector extends RankDataStructure {
+
+	private static final int BLOCK_BITS = 15;
+	private static final int SUPERBLOCK_BLOCKS = 32;
+	private static final int LOG2_SUPERBLOCK_BLOCKS = 5;
+
+	/**
+	 * Approximate time of $rank$, in units of the time of $Rank9.rank$ (see
+	 * $Benchmarks.compression$).
+	 */
+	public static final int RANK_COST = 6;
+
+	/**
+	 * Average number of bits of the offset of a block that contains the end of a run, i.e.
+	 * about the average of $WIDTH[1..14]$.
+	 */
+	private static final int MIXED_BLOCK_BITS = 10;
+
+	/**
+	 * $WIDTH[c]$: number of bits of the offset of a block of class $c$;
+	 * $CLASS_START[c]$: position in $DECODE$ of the first block of class $c$;
+	 * $DECODE[CLASS_START[c]+o]$: block of class $c$ and offset $o$;
+	 * $OFFSET[b]$: offset of block $b$ in its class.
+	 */
+	private static final int[] WIDTH = new int[BLOCK_BITS+1];
+	private static final int[] CLASS_START = new int[BLOCK_BITS+2];
+	private static final char[] DECODE = new char[1<<BLOCK_BITS];
+	private static final char[] OFFSET = new char[1<<BLOCK_BITS];
+	static {
+		int b, c;
+		int[] next = new int[BLOCK_BITS+1];
+		for (b=0; b<(1<<BLOCK_BITS); b++) CLASS_START[Integer.bitCount(b)+1]++;
+		for (c=0; c<=BLOCK_BITS; c++) {
+			WIDTH[c]=Utils.bitsToEncode(CLASS_START[c+1]-1);
+			CLASS_START[c+1]+=CLASS_START[c];
+			next[c]=CLASS_START[c];
+		}
+		for (b=0; b<(1<<BLOCK_BITS); b++) {
+			c=Integer.bitCount(b);
+			DECODE[next[c]]=(char)b;
+			OFFSET[b]=(char)(next[c]-CLASS_START[c]);
+			next[c]++;
+		}
+	}
+
+	private final long length;
+	private final long nBlocks;
+	private final long[] classes;  // 16 classes per long, from the right
+	private final long[] offsets;  // Bit stream, from the right
+	private final long[] samples;  // Number of ones and offset pointer, for each superblock
+
+
+	public RRRBitVector(IntArray bitVector) {
+		final long[] bits = bitVector.array;
+		int c;
+		long i, ones, pointer, block;
+
+		length=bitVector.length();
+		nBlocks=Utils.divideAndRoundUp(length,BLOCK_BITS);
+		classes = new long[(int)Utils.divideAndRoundUp(nBlocks,16)];
+		offsets = new long[(int)Utils.divideAndRoundUp(offsetBits(bitVector),64)+1];
+		samples = new long[(int)((nBlocks>>>LOG2_SUPERBLOCK_BLOCKS)+1)<<1];
+		ones=0; pointer=0;
+		for (i=0; i<nBlocks; i++) {
+			if ((i&(SUPERBLOCK_BLOCKS-1))==0) {
+				samples[(int)(i>>>LOG2_SUPERBLOCK_BLOCKS)<<1]=ones;
+				samples[((int)(i>>>LOG2_SUPERBLOCK_BLOCKS)<<1)+1]=pointer;
+			}
+			block=getBlock(bits,i,length);
+			c=Long.bitCount(block);
+			classes[(int)(i>>>4)]|=((long)c)<<((i&15)<<2);
+			writeBits(offsets,pointer,WIDTH[c],OFFSET[(int)block]);
+			ones+=c; pointer+=WIDTH[c];
+		}
+		if ((nBlocks&(SUPERBLOCK_BLOCKS-1))==0) {
+			samples[(int)(nBlocks>>>LOG2_SUPERBLOCK_BLOCKS)<<1]=ones;
+			samples[((int)(nBlocks>>>LOG2_SUPERBLOCK_BLOCKS)<<1)+1]=pointer;
+		}
+	}
+
+
+	/**
+	 * Used by $readData$.
+	 */
+	private RRRBitVector(long length, long[] classes, long[] offsets, long[] samples) {
+		this.length=length;
+		nBlocks=Utils.divideAndRoundUp(length,BLOCK_BITS);
+		this.classes=classes;
+		this.offsets=offsets;
+		this.samples=samples;
+	}
+
+
+	/**
+	 * @return the number of bits that an $RRRBitVector$ of $bitVector$ would take, without
+	 * building it.
+	 */
+	public static final long estimateBits(IntArray bitVector) {
+		final long length = bitVector.length();
+		final long nBlocks = Utils.divideAndRoundUp(length,BLOCK_BITS);
+		return offsetBits(bitVector)+(nBlocks<<2)+((nBlocks>>>LOG2_SUPERBLOCK_BLOCKS)+1)*128;
+	}
+
+
+	/**
+	 * Like $estimateBits(bitVector)$, but without the bitvector: assumes that it has
+	 * $length$ bits and $nRuns$ maximal runs of equal bits, and that every run ends in a
+	 * distinct block.
+	 */
+	public static final long estimateBits(long length, long nRuns) {
+		final long nBlocks = Utils.divideAndRoundUp(length,BLOCK_BITS);
+		return Math.min(nRuns,nBlocks)*MIXED_BLOCK_BITS+(nBlocks<<2)+((nBlocks>>>LOG2_SUPERBLOCK_BLOCKS)+1)*128;
+	}
+
+
+	/**
+	 * @return the number of bits in the stream of offsets of $bitVector$.
+	 */
+	private static final long offsetBits(IntArray bitVector) {
+		final long[] bits = bitVector.array;
+		final long length = bitVector.length();
+		final long nBlocks = Utils.divideAndRoundUp(length,BLOCK_BITS);
+		long i, out;
+		out=0;
+		for (i=0; i<nBlocks; i++) out+=WIDTH[Long.bitCount(getBlock(bits,i,length))];
+		return out;
+	}
+
+
+	/**
+	 * @return block $i$ of a bitvector of $length$ bits stored in $bits$ from the right;
+	 * bits after the end of the bitvector are set to zero.
+	 */
+	private static final long getBlock(long[] bits, long i, long length) {
+		final long first = i*BLOCK_BITS;
+		final int n = (int)Math.min(BLOCK_BITS,length-first);
+		return readBits(bits,first,n);
+	}
+
+
+	/**
+	 * @return the $n \leq 57$ bits of $array$ that start at bit $position$, from the
+	 * right.
+	 */
+	private static final long readBits(long[] array, long position, int n) {
+		final int cell = (int)(position>>>6);
+		final int offset = (int)(position&63);
+		long out;
+		if (n==0) return 0L;
+		out=array[cell]>>>offset;
+		if (offset+n>64) out|=array[cell+1]<<(64-offset);
+		return out&((1L<<n)-1);
+	}
+
+
+	/**
+	 * Writes the $n$ least significant bits of $value$ at bit $position$ of $array$, from
+	 * the right. The bits of $array$ are assumed to be zero.
+	 */
+	private static final void writeBits(long[] array, long position, int n, long value) {
+		final int cell = (int)(position>>>6);
+		final int offset = (int)(position&63);
+		if (n==0) return;
+		array[cell]|=value<<offset;
+		if (offset+n>64) array[cell+1]|=value>>>(64-offset);
+	}
+
+
+	private final int getClass(long block) {
+		return (int)(classes[(int)(block>>>4)]>>>((block&15)<<2))&15;
+	}
+
+
+	/**
+	 * @return the position in $offsets$ of the offset of block $block$.
+	 */
+	private final long getPointer(long block) {
+		final int superblock = (int)(block>>>LOG2_SUPERBLOCK_BLOCKS);
+		long i, pointer;
+		pointer=samples[(superblock<<1)+1];
+		for (i=((long)superblock)<<LOG2_SUPERBLOCK_BLOCKS; i<block; i++) pointer+=WIDTH[getClass(i)];
+		return pointer;
+	}
+
+
+	/**
+	 * @return the bits of block $block$, whose offset starts at $pointer$.
+	 */
+	private final long decode(long block, long pointer) {
+		final int c = getClass(block);
+		return DECODE[CLASS_START[c]+(int)readBits(offsets,pointer,WIDTH[c])];
+	}
+
+
+	public final int type() {
+		return RRR;
+	}
+
+
+	public final long length() {
+		return length;
+	}
+
+
+	public final long sizeInBits() {
+		return (((long)classes.length)+offsets.length+samples.length)<<6;
+	}
+
+
+	public final int getBit(long pos) {
+		final long block = pos/BLOCK_BITS;
+		return (int)(decode(block,getPointer(block))>>>(pos-block*BLOCK_BITS))&1;
+	}
+
+
+	/**
+	 * Decodes all blocks that overlap the word.
+	 */
+	public final long getWord(int i) {
+		final long first = ((long)i)<<6;
+		final long last = Math.min(first+63,length-1);
+		long block, pointer, start, out;
+		block=first/BLOCK_BITS;
+		pointer=getPointer(block);
+		out=0;
+		for (start=block*BLOCK_BITS; start<=last; start+=BLOCK_BITS) {
+			if (start<first) out|=decode(block,pointer)>>>(first-start);
+			else out|=decode(block,pointer)<<(start-first);
+			pointer+=WIDTH[getClass(block)];
+			block++;
+		}
+		return out;
+	}
+
+
+	public final long rank(long pos) {
+		final long block = pos/BLOCK_BITS;
+		final int superblock = (int)(block>>>LOG2_SUPERBLOCK_BLOCKS);
+		final int bit = (int)(pos-block*BLOCK_BITS);
+		long i, ones, pointer;
+		int c;
+		ones=samples[superblock<<1];
+		pointer=samples[(superblock<<1)+1];
+		for (i=((long)superblock)<<LOG2_SUPERBLOCK_BLOCKS; i<block; i++) {
+			c=getClass(i);
+			ones+=c; pointer+=WIDTH[c];
+		}
+		if (bit==0) return ones;
+		return ones+Long.bitCount(decode(block,pointer)&((1L<<bit)-1));
+	}
+
+
+	protected final void writeData(IndexFile file) throws IOException {
+		file.writeLong(length);
+		file.writeLongArray(classes);
+		file.writeLongArray(offsets);
+		file.writeLongArray(samples);
+	}
+
+
+	/**
+	 * Inverse of $writeData$.
+	 */
+	public static final RRRBitVector readData(IndexFile file) {
+		final long length = file.readLong();
+		final long[] classes = file.readLongArray();
+		final long[] offsets = file.readLongArray();
+		return new RRRBitVector(length,classes,offsets,file.readLongArray());
+	}
+
+}
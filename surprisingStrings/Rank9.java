@@ -18,6 +18,7 @@
  *
  */
 
+import java.io.IOException;
 
 /** A <code>rank9</code> implementation.
  *
@@ -26,7 +27,7 @@
  * and providing exceptionally fast ranking (on an Opteron at 2800 MHz this class
  * ranks a million-bit array in less than 8 nanoseconds). */
 
-public class Rank9 {
+public class Rank9 extends RankDataStructure {
 	//Commented by FC> private static final boolean ASSERTS = false;
 	//Commented by FC> private static final long serialVersionUID = 1L;
 
@@ -34,6 +35,7 @@ public class Rank9 {
 	final protected IntArray bitVector;
 	final protected long[] count;
 	final protected int numWords;
+	final protected long length;  // Number of bits (FC)
 	final protected long numOnes;
 	final protected long lastOne;
 
@@ -41,7 +43,7 @@ public class Rank9 {
 	public Rank9( final IntArray bitVector ) {
 		this.bitVector = bitVector;
 		this.bits = bitVector.array;
-		final long length = bitVector.length();
+		length = bitVector.length();
 		numWords = (int)( ( length + Long.SIZE - 1 ) / Long.SIZE );
 
 		final int numCounts = (int)( ( length + 8 * Long.SIZE - 1 ) / ( 8 * Long.SIZE ) ) * 2;
@@ -69,6 +71,79 @@ public class Rank9 {
 	}
 
 
+	/**
+	 * Used by $readData$ (FC).
+	 */
+	private Rank9( final IntArray bitVector, final long[] count, final long lastOne ) {
+		this.bitVector = bitVector;
+		this.bits = bitVector.array;
+		length = bitVector.length();
+		numWords = (int)( ( length + Long.SIZE - 1 ) / Long.SIZE );
+		this.count = count;
+		numOnes = count[ count.length - 1 ];
+		this.lastOne = lastOne;
+	}
+
+
+	/**
+	 * Appends to $file$ the bitvector and its counts, in the format of $IntArray.write$.
+	 * Uses $bits$ rather than $bitVector.array$, since the caller might have deallocated
+	 * $bitVector$ after construction (FC).
+	 */
+	protected void writeData( final IndexFile file ) throws IOException {
+		file.writeLong( bitVector.bitsPerInt );
+		file.writeLong( bitVector.length() );
+		file.writeLong( bitVector.lastCell + 1 );
+		file.writeLongs( bits, 0, bitVector.lastCell + 1 );
+		file.writeLongArray( count );
+		file.writeLong( lastOne );
+	}
+
+
+	/**
+	 * Inverse of $writeData$ (FC).
+	 */
+	public static Rank9 readData( final IndexFile file ) {
+		final IntArray bitVector = IntArray.read( file );
+		final long[] count = file.readLongArray();
+		return new Rank9( bitVector, count, file.readLong() );
+	}
+
+
+	public int type() {
+		return RANK9;
+	}
+
+
+	public long length() {
+		return length;
+	}
+
+
+	/**
+	 * (FC)
+	 */
+	public int getBit( long pos ) {
+		return (int)( bits[ (int)( pos / 64 ) ] >>> ( pos % 64 ) ) & 1;
+	}
+
+
+	/**
+	 * (FC)
+	 */
+	public long sizeInBits() {
+		return ( (long)numWords + count.length ) * Long.SIZE;
+	}
+
+
+	/**
+	 * (FC)
+	 */
+	public long getWord( int i ) {
+		return bits[ i ];
+	}
+
+
 	public long rank( long pos ) {
 		//Commented by FC> if ( ASSERTS ) assert pos >= 0;
 		//Commented by FC> if ( ASSERTS ) assert pos <= bitVector.length();
@@ -81,6 +156,17 @@ public class Rank9 {
 		return count[ block ] + ( count[ block + 1 ] >>> ( offset + ( offset >>> 32 - 4 & 0x8 ) ) * 9 & 0x1FF ) + Long.bitCount( bits[ word ] & ( ( 1L << pos % 64 ) - 1 ) );
 	}
 
+	/**
+	 * Uses $RankKernel.VECTOR$ if it is available, if $Constants.VECTOR_RANK$ is true,
+	 * and if there are enough positions to fill its lanes at least twice, since with
+	 * fewer positions the kernel is not faster than scalar code (FC).
+	 */
+	public void rank( final long[] positions, final int first, final int nPositions, final long[] out ) {
+		final RankKernel kernel = RankKernel.VECTOR;
+		if ( Constants.VECTOR_RANK && kernel != null && numWords > 0 && nPositions >= kernel.nLanes() << 1 ) kernel.rank9( bits, count, lastOne, numOnes, positions, first, nPositions, out );
+		else for( int i = 0; i < nPositions; i++ ) out[ i ] = rank( positions[ first + i ] );
+	}
+
 	public long numBits() {
 		return count.length * (long)Long.SIZE;
 	}
@@ -0,0 +1,123 @@
+import java.io.IOException;
+
+/**
+ * A static bitvector that supports rank, as used by the nodes of $HuffmanWaveletTree$
+ * and by the block boundaries of $SubstringIterator$. The layout is selected by $build$
+ * with $Constants.RANK_LAYOUT$, or by $buildCompressible$ with a cost model.
+ *
+ * Bits are read from an $IntArray$ of one bit per element, which is assumed to have
+ * been filled with $IntArray.pushFromRight$ or $IntArray.setElementFromRightAt$, i.e.
+ * bit $i$ is bit $i \bmod 64$ (from the right) of cell $i/64$.
+ */
+public abstract class RankDataStructure {
+	/**
+	 * Layouts
+	 */
+	public static final int RANK9 = 0;  // See $Rank9$.
+	public static final int INTERLEAVED_RANK9 = 1;  // See $InterleavedRank9$.
+	public static final int RRR = 2;  // See $RRRBitVector$.
+
+	/**
+	 * Bits per bit of the uncompressed layouts
+	 */
+	public static final double UNCOMPRESSED_BITS_PER_BIT = 1.25;
+
+
+	public static final RankDataStructure build(IntArray bitVector) {
+		if (Constants.RANK_LAYOUT==INTERLEAVED_RANK9) return new InterleavedRank9(bitVector);
+		return new Rank9(bitVector);
+	}
+
+
+	/**
+	 * Like $build$, but builds an $RRRBitVector$ if its size is at most
+	 * $Constants.RRR_MAX_SIZE_RATIO$ times the size of the uncompressed layout. I.e. the
+	 * slower rank of $RRRBitVector$ is paid only by bitvectors that compress well, and
+	 * $Constants.RRR_MAX_SIZE_RATIO$ sets the trade-off between space and speed: zero
+	 * never compresses, one compresses whenever it saves space.
+	 */
+	public static final RankDataStructure buildCompressible(IntArray bitVector) {
+		if (Constants.RRR_MAX_SIZE_RATIO>0 && RRRBitVector.estimateBits(bitVector)<=Constants.RRR_MAX_SIZE_RATIO*UNCOMPRESSED_BITS_PER_BIT*bitVector.length()) return new RRRBitVector(bitVector);
+		return build(bitVector);
+	}
+
+
+	/**
+	 * @return the layout of this data structure.
+	 */
+	public abstract int type();
+
+
+	/**
+	 * @return the number of bits in the bitvector.
+	 */
+	public abstract long length();
+
+
+	/**
+	 * @return the number of bits used by the data structure, including the bitvector.
+	 */
+	public abstract long sizeInBits();
+
+
+	/**
+	 * @return bit $pos$ of the bitvector.
+	 */
+	public abstract int getBit(long pos);
+
+
+	/**
+	 * @param i in $[0..(length()-1)/64]$;
+	 * @return bits $[64i..64i+63]$ of the bitvector, where bit $64i+j$ is bit $j$ of the
+	 * long from the right. Bits after the end of the bitvector are undefined.
+	 */
+	public abstract long getWord(int i);
+
+
+	/**
+	 * @param pos in $[0..length()]$;
+	 * @return the number of ones in positions $[0..pos-1]$ of the bitvector.
+	 */
+	public abstract long rank(long pos);
+
+
+	/**
+	 * Stores in $out[i]$ the rank of $positions[first+i]$, for all $i \in
+	 * [0..nPositions-1]$. This is the loop that $HuffmanWaveletTree.multirank$ runs at
+	 * every node, on positions in increasing order: layouts can override it with a
+	 * data-parallel version (see $RankKernel$).
+	 */
+	public void rank(long[] positions, int first, int nPositions, long[] out) {
+		for (int i=0; i<nPositions; i++) out[i]=rank(positions[first+i]);
+	}
+
+
+	/**
+	 * Appends to $file$ the bits and the counts, without the layout.
+	 */
+	protected abstract void writeData(IndexFile file) throws IOException;
+
+
+	/**
+	 * Appends to $file$ the layout, followed by the bits and the counts.
+	 */
+	public final void write(IndexFile file) throws IOException {
+		file.writeLong(type());
+		writeData(file);
+	}
+
+
+	/**
+	 * Inverse of $write$.
+	 */
+	public static final RankDataStructure read(IndexFile file) throws IOException {
+		final int type = (int)file.readLong();
+		switch (type) {
+			case RANK9: return Rank9.readData(file);
+			case INTERLEAVED_RANK9: return InterleavedRank9.readData(file);
+			case RRR: return RRRBitVector.readData(file);
+			default: throw new IOException("Unknown rank layout: "+type);
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+/**
+ * A data-parallel implementation of $RankDataStructure.rank(positions,...)$, i.e. of
+ * the rank of many positions of the same bitvector, which processes one position per
+ * lane of a SIMD register.
+ *
+ * The implementation based on the Vector API of the JDK is $VectorRankKernel$, in
+ * directory $vector$: since the API is in the incubating module $jdk.incubator.vector$,
+ * it is compiled separately, and it is used only if the JVM is started with
+ * $--add-modules jdk.incubator.vector$ (see README). Otherwise $VECTOR$ is null, and
+ * callers use scalar code.
+ */
+public abstract class RankKernel {
+
+	public static final RankKernel VECTOR = load();
+
+
+	private static final RankKernel load() {
+		try { return (RankKernel)Class.forName("VectorRankKernel").getDeclaredConstructor().newInstance(); }
+		catch (Throwable e) { return null; }  // Not compiled, or module not available
+	}
+
+
+	/**
+	 * @return the number of positions ranked in parallel. Calls with fewer positions
+	 * use just scalar code.
+	 */
+	public abstract int nLanes();
+
+
+	/**
+	 * Batched version of $Rank9.rank$ on the arrays of a $Rank9$, with the semantics of
+	 * $RankDataStructure.rank(positions,first,nPositions,out)$. Assumes $bits$ to contain
+	 * at least one word.
+	 */
+	public abstract void rank9(long[] bits, long[] count, long lastOne, long numOnes, long[] positions, int first, int nPositions, long[] out);
+
+}
@@ -94,6 +94,17 @@ public class RightMaximalSubstring extends Substring {
 	}
 
 
+	/**
+	 * Every left-extension of $v$ that is explored is right-maximal, i.e. it is an
+	 * internal node of the suffix tree of $s$ whose occurrences are a subset of those of
+	 * $v$. If $s$ is not highly repetitive, the number of such nodes is proportional to
+	 * the frequency of $v$, and it does not depend on $|v|$.
+	 */
+	protected double estimatedCost() {
+		return frequency();
+	}
+
+
 	public String toString() {
 		String out = super.toString()+" | ";
 		out+="rightContext="+rightContext+" ";
@@ -0,0 +1,193 @@
+import java.io.IOException;
+
+/**
+ * A run-length encoded BWT block, for blocks of the BWT of repetitive strings, which
+ * consist of few long runs of equal characters. Run $r$ starts at $runStarts[r]$ and
+ * consists of character $alphabet[runCodes[r]]$, and $runStarts[nRuns]$ is the length
+ * of the block. Every $SAMPLING_RATE$ runs, $samples$ stores the number of occurrences
+ * of every character of $alphabet$ before the run.
+ *
+ * $multirank$ finds the run that contains a position by binary search, starting from
+ * the run of the previous position since positions are sorted, and it adds the lengths
+ * of at most $SAMPLING_RATE-1$ runs to the closest previous sample. The block takes
+ * $O(\rho(\log n+\log|alphabet|+64|alphabet|/SAMPLING_RATE))$ bits, where $\rho$ is the
+ * number of runs and $n$ is the length of the block.
+ */
+public class RunLengthBlock extends BWTBlock {
+
+	private static final int LOG2_SAMPLING_RATE = 4;
+	public static final int SAMPLING_RATE = 1<<LOG2_SAMPLING_RATE;
+
+	/**
+	 * The symbols that occur in the block, sorted lexicographically.
+	 */
+	private final int[] alphabet;
+	private final long nRuns;
+	private final IntArray runStarts, runCodes;
+
+	/**
+	 * $samples[s*|alphabet|+k]$ is the number of occurrences of $alphabet[k]$ before run
+	 * $s*SAMPLING_RATE$, for all $s \in [0..nRuns/SAMPLING_RATE]$.
+	 */
+	private final long[] samples;
+
+
+	/**
+	 * @return the number of maximal runs of equal characters in $string$.
+	 */
+	public static final long nRuns(IntArray string) {
+		final long length = string.length();
+		long i, c, previous, out;
+		out=0; previous=-1;
+		for (i=0; i<length; i++) {
+			c=string.getElementAt(i);
+			if (c!=previous) {
+				out++;
+				previous=c;
+			}
+		}
+		return out;
+	}
+
+
+	/**
+	 * @return the number of bits that a $RunLengthBlock$ of a string of length $length$,
+	 * with $alphabetLength$ distinct characters and $nRuns$ runs, would take, without
+	 * building it.
+	 */
+	public static final long estimateBits(long length, int alphabetLength, long nRuns) {
+		return (nRuns+1)*Utils.closestPowerOfTwo(Utils.bitsToEncode(length)) +
+			   nRuns*Utils.closestPowerOfTwo(Math.max(Utils.bitsToEncode(alphabetLength-1),1)) +
+			   ((nRuns>>>LOG2_SAMPLING_RATE)+1)*alphabetLength*64;
+	}
+
+
+	/**
+	 * @return the approximate time of $multirank$ per position on a block with $nRuns$
+	 * runs, in units of the time of $Rank9.rank$: $findRun$ reads $\log_2 nRuns$ run
+	 * starts, and $multirank$ adds the lengths of $SAMPLING_RATE/2$ runs on average,
+	 * reading two contiguous cells per run in about the time of one rank query (see
+	 * $Benchmarks.rank$).
+	 */
+	public static final int estimateRankCost(long nRuns) {
+		return (SAMPLING_RATE>>>1)+Utils.bitsToEncode(nRuns);
+	}
+
+
+	/**
+	 * @param alphabet only the distinct symbols that occur in $string$, sorted
+	 * lexicographically.
+	 */
+	public RunLengthBlock(IntArray string, int[] alphabet) {
+		final int alphabetLength = alphabet.length;
+		final long length = string.length();
+		int k, code, previous;
+		long i, r, start;
+		int[] map;
+		long[] counts = new long[alphabetLength];
+
+		this.alphabet=alphabet;
+		nRuns=nRuns(string);
+		runStarts = new IntArray(nRuns+1,Utils.bitsToEncode(length));
+		runCodes = new IntArray(nRuns,Math.max(Utils.bitsToEncode(alphabetLength-1),1));
+		samples = new long[(int)((nRuns>>>LOG2_SAMPLING_RATE)+1)*alphabetLength];
+		map = new int[alphabet[alphabetLength-1]+1];
+		for (k=0; k<alphabetLength; k++) map[alphabet[k]]=k;
+		r=0; start=0; previous=-1;
+		for (i=0; i<=length; i++) {
+			code=i<length?map[(int)string.getElementAt(i)]:-1;
+			if (i>0 && code==previous) continue;
+			if (previous!=-1) {
+				counts[previous]+=i-start;
+				r++;
+			}
+			if ((r&(SAMPLING_RATE-1))==0) System.arraycopy(counts,0,samples,(int)(r>>>LOG2_SAMPLING_RATE)*alphabetLength,alphabetLength);
+			runStarts.push(i);
+			if (code!=-1) runCodes.push(code);
+			start=i; previous=code;
+		}
+	}
+
+
+	/**
+	 * Used by $readData$.
+	 */
+	private RunLengthBlock(int[] alphabet, IntArray runStarts, IntArray runCodes, long[] samples) {
+		this.alphabet=alphabet;
+		this.runStarts=runStarts;
+		this.runCodes=runCodes;
+		this.samples=samples;
+		nRuns=runCodes.length();
+	}
+
+
+	public final int type() {
+		return RUN_LENGTH;
+	}
+
+
+	protected final void writeData(IndexFile file) throws IOException {
+		file.writeIntArray(alphabet);
+		runStarts.write(file);
+		runCodes.write(file);
+		file.writeLongArray(samples);
+	}
+
+
+	/**
+	 * Inverse of $writeData$.
+	 */
+	public static final RunLengthBlock readData(IndexFile file) {
+		final int[] alphabet = file.readIntArray();
+		final IntArray runStarts = IntArray.read(file);
+		final IntArray runCodes = IntArray.read(file);
+		return new RunLengthBlock(alphabet,runStarts,runCodes,file.readLongArray());
+	}
+
+
+	/**
+	 * @return the largest $r \geq first$ such that $runStarts[r] \leq position$.
+	 */
+	private final long findRun(long position, long first) {
+		long last, mid;
+		last=nRuns;
+		while (first<last) {
+			mid=(first+last+1)>>>1;
+			if (runStarts.getElementAt(mid)<=position) first=mid;
+			else last=mid-1;
+		}
+		return first;
+	}
+
+
+	public final int access(long position) {
+		return alphabet[(int)runCodes.getElementAt(findRun(position,0))];
+	}
+
+
+	/**
+	 * $ones$ and all rows of $stack$ except the first are not used.
+	 */
+	public final void multirank(int fullAlphabetLength, int nPositions, long[][] stack, long[][] output, long[] ones) {
+		final int alphabetLength = alphabet.length;
+		int j, k, base;
+		long r, q, run, position, start, next;
+
+		run=0;
+		for (j=0; j<nPositions; j++) {
+			position=stack[0][1+j];
+			run=findRun(position,run);
+			base=(int)(run>>>LOG2_SAMPLING_RATE)*alphabetLength;
+			for (k=0; k<alphabetLength; k++) output[alphabet[k]][j]=samples[base+k];
+			q=run&(-1L<<LOG2_SAMPLING_RATE);
+			start=runStarts.getElementAt(q);
+			for (r=q; r<run; r++) {
+				next=runStarts.getElementAt(r+1);
+				output[alphabet[(int)runCodes.getElementAt(r)]][j]+=next-start;
+				start=next;
+			}
+			if (run<nRuns) output[alphabet[(int)runCodes.getElementAt(run)]][j]+=position-start;
+		}
+	}
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Linear-time suffix array construction by induced sorting (SA-IS), as described in
+ * \cite{nong2009linear}. The time of this procedure does not depend on the LCPs between
+ * suffixes, thus it is an alternative to $Suffixes.sort$ for highly repetitive strings.
+ *
+ * The first level of the recursion reads the packed $IntArray$ string directly, and
+ * appends to it a virtual sentinel smaller than every character; deeper levels work on
+ * reduced strings of $int$s that are stored inside the suffix array itself, as in the
+ * reference implementation of \cite{nong2009linear}. Types of suffixes are stored in a
+ * bitvector. Thus, the procedure uses $32*(n+1)+(n+1)$ bits in addition to the input,
+ * plus one bucket array per level.
+ *
+ * Remark: since the output is an array of $int$s, the string must have length less
+ * than $Integer.MAX_VALUE$.
+ */
+public class SAIS {
+
+	/**
+	 * @param alphabetLength all characters of $string$ are assumed to be in
+	 * $[0..alphabetLength-1]$;
+	 * @return the suffix array of $string \cdot #$, an array of $string.length()+1$
+	 * elements whose first element is always $string.length()$.
+	 */
+	public static final int[] buildSuffixArray(IntArray string, int alphabetLength) {
+		final int n = (int)( string.length()+1 );
+		int[] suffixArray = new int[n];
+		if (n==1) return suffixArray;
+		sais(string,null,0,suffixArray,n,alphabetLength);
+		return suffixArray;
+	}
+
+
+	/**
+	 * Character $i$ of the string at the current level of the recursion: $string$ with
+	 * characters shifted by one and with a zero appended, if $string!=null$; otherwise,
+	 * $text[textOffset..textOffset+n-1]$.
+	 */
+	private static final int chr(IntArray string, int[] text, int textOffset, int n, int i) {
+		if (string!=null) return i==n-1?0:(int)string.getElementAt(i)+1;
+		return text[textOffset+i];
+	}
+
+
+	/**
+	 * @param types bitvector that stores one iff the corresponding suffix is of type S.
+	 */
+	private static final boolean isS(long[] types, int i) {
+		return (types[i>>>6]&(1L<<(i&63)))!=0;
+	}
+
+
+	private static final boolean isLMS(long[] types, int i) {
+		return i>0 && isS(types,i) && !isS(types,i-1);
+	}
+
+
+	/**
+	 * Sorts all suffixes of a string of length $n$ on alphabet $[0..maxCharacter]$,
+	 * whose last character is zero and occurs exactly once.
+	 */
+	private static final void sais(IntArray string, int[] text, int textOffset, int[] suffixArray, int n, int maxCharacter) {
+		int i, j, c, d, p, nLMS, name, previous, position;
+		boolean different;
+		int[] buckets;
+		long[] types;
+
+		// Classifying suffixes
+		types = new long[(n>>>6)+1];
+		types[(n-1)>>>6]|=1L<<((n-1)&63);
+		for (i=n-3; i>=0; i--) {
+			c=chr(string,text,textOffset,n,i);
+			d=chr(string,text,textOffset,n,i+1);
+			if (c<d || (c==d && isS(types,i+1))) types[i>>>6]|=1L<<(i&63);
+		}
+
+		// Sorting LMS substrings
+		buckets = new int[maxCharacter+1];
+		getBuckets(string,text,textOffset,n,buckets,true);
+		for (i=0; i<n; i++) suffixArray[i]=-1;
+		for (i=1; i<n; i++) {
+			if (isLMS(types,i)) suffixArray[--buckets[chr(string,text,textOffset,n,i)]]=i;
+		}
+		induceL(string,text,textOffset,n,suffixArray,types,buckets);
+		induceS(string,text,textOffset,n,suffixArray,types,buckets);
+
+		// Naming LMS substrings, and compacting names at the end of $suffixArray$
+		nLMS=0;
+		for (i=0; i<n; i++) {
+			if (isLMS(types,suffixArray[i])) suffixArray[nLMS++]=suffixArray[i];
+		}
+		for (i=nLMS; i<n; i++) suffixArray[i]=-1;
+		name=0; previous=-1;
+		for (i=0; i<nLMS; i++) {
+			position=suffixArray[i];
+			different=false;
+			for (d=0; d<n; d++) {
+				if (previous==-1 || chr(string,text,textOffset,n,position+d)!=chr(string,text,textOffset,n,previous+d) || isS(types,position+d)!=isS(types,previous+d)) {
+					different=true;
+					break;
+				}
+				else if (d>0 && (isLMS(types,position+d) || isLMS(types,previous+d))) break;
+			}
+			if (different) {
+				name++;
+				previous=position;
+			}
+			suffixArray[nLMS+(position>>>1)]=name-1;
+		}
+		for (i=n-1, j=n-1; i>=nLMS; i--) {
+			if (suffixArray[i]>=0) suffixArray[j--]=suffixArray[i];
+		}
+
+		// Sorting the reduced string, stored in $suffixArray[n-nLMS..n-1]$. Its suffix
+		// array is stored in $suffixArray[0..nLMS-1]$.
+		if (name<nLMS) sais(null,suffixArray,n-nLMS,suffixArray,nLMS,name-1);
+		else {
+			for (i=0; i<nLMS; i++) suffixArray[suffixArray[n-nLMS+i]]=i;
+		}
+
+		// Inducing the order of all suffixes from the order of LMS suffixes
+		getBuckets(string,text,textOffset,n,buckets,true);
+		for (i=1, j=n-nLMS; i<n; i++) {
+			if (isLMS(types,i)) suffixArray[j++]=i;
+		}
+		for (i=0; i<nLMS; i++) suffixArray[i]=suffixArray[n-nLMS+suffixArray[i]];
+		for (i=nLMS; i<n; i++) suffixArray[i]=-1;
+		for (i=nLMS-1; i>=0; i--) {
+			p=suffixArray[i];
+			suffixArray[i]=-1;
+			suffixArray[--buckets[chr(string,text,textOffset,n,p)]]=p;
+		}
+		induceL(string,text,textOffset,n,suffixArray,types,buckets);
+		induceS(string,text,textOffset,n,suffixArray,types,buckets);
+	}
+
+
+	/**
+	 * Stores in $buckets$ the first position (if $ends=false$) or the last position plus
+	 * one (if $ends=true$) of the bucket of each character in the suffix array.
+	 */
+	private static final void getBuckets(IntArray string, int[] text, int textOffset, int n, int[] buckets, boolean ends) {
+		int i, sum;
+		for (i=0; i<buckets.length; i++) buckets[i]=0;
+		for (i=0; i<n; i++) buckets[chr(string,text,textOffset,n,i)]++;
+		sum=0;
+		for (i=0; i<buckets.length; i++) {
+			sum+=buckets[i];
+			buckets[i]=ends?sum:sum-buckets[i];
+		}
+	}
+
+
+	private static final void induceL(IntArray string, int[] text, int textOffset, int n, int[] suffixArray, long[] types, int[] buckets) {
+		int i, j;
+		getBuckets(string,text,textOffset,n,buckets,false);
+		for (i=0; i<n; i++) {
+			j=suffixArray[i]-1;
+			if (j>=0 && !isS(types,j)) suffixArray[buckets[chr(string,text,textOffset,n,j)]++]=j;
+		}
+	}
+
+
+	private static final void induceS(IntArray string, int[] text, int textOffset, int n, int[] suffixArray, long[] types, int[] buckets) {
+		int i, j;
+		getBuckets(string,text,textOffset,n,buckets,true);
+		for (i=n-1; i>=0; i--) {
+			j=suffixArray[i]-1;
+			if (j>=0 && isS(types,j)) suffixArray[--buckets[chr(string,text,textOffset,n,j)]]=j;
+		}
+	}
+
+}
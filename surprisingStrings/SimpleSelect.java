@@ -0,0 +1,229 @@
+import java.util.Arrays;
+
+/**
+ * Constant-time select over the bitvector of a $RankDataStructure$, in the spirit of
+ * $simple-select$ and $select9$ \cite{vigna2008broadword}. The structure selects either
+ * the ones or the zeros of the bitvector (we call them \emph{selected bits}), and it
+ * reads the bitvector one word at a time with $RankDataStructure.getWord$, thus it
+ * works with every layout and it does not duplicate the bits.
+ *
+ * The selected bits are partitioned into blocks of $BITS_PER_INVENTORY=512$
+ * consecutive selected bits, and the position of the first selected bit of every block
+ * is stored in $inventory$. Let the span of a block be the distance between its first
+ * selected bit and the first selected bit of the next block. If the span is at least
+ * $MAX_DENSE_SPAN=2^{16}$, the block is \emph{sparse} and the positions of all its
+ * selected bits are stored explicitly, using at most $512*64/2^{16}=0.5$ bits per bit
+ * of the bitvector. Otherwise, the block is partitioned into groups of
+ * $BITS_PER_GROUP=16$ selected bits, and the 16-bit offset of the first selected bit of
+ * every group from the start of the block is stored in $subinventory$. If the distance
+ * between the first and the last selected bit of a group is at least
+ * $MAX_GROUP_SPAN=2^{10}$, the 16-bit offsets of all its selected bits are stored in
+ * $spill$, using at most $16*16/2^{10}=0.25$ bits per bit of the bitvector; otherwise a
+ * query scans at most $MAX_GROUP_SPAN/64+1$ words from the first selected bit of the
+ * group, and it selects inside the last word with broadword operations.
+ */
+public class SimpleSelect {
+
+	private static final int LOG2_BITS_PER_INVENTORY = 9;
+	private static final int BITS_PER_INVENTORY = 1<<LOG2_BITS_PER_INVENTORY;
+	private static final int LOG2_BITS_PER_GROUP = 4;
+	private static final int BITS_PER_GROUP = 1<<LOG2_BITS_PER_GROUP;
+	private static final int GROUPS_PER_INVENTORY = BITS_PER_INVENTORY/BITS_PER_GROUP;
+	private static final int MAX_DENSE_SPAN = 1<<16;
+	private static final int MAX_GROUP_SPAN = 1<<10;
+	private static final long ONES_STEP_8 = 0x0101010101010101L;
+	private static final long MSBS_STEP_8 = 0x8080808080808080L;
+
+	/**
+	 * $SELECT_IN_BYTE[(r<<8)|b]$ is the position of the $r$-th one (from zero) in byte
+	 * $b$, from the right.
+	 */
+	private static final byte[] SELECT_IN_BYTE = new byte[8*256];
+	static {
+		int b, r, p;
+		for (b=0; b<256; b++) {
+			r=0;
+			for (p=0; p<8; p++) {
+				if ((b&(1<<p))!=0) SELECT_IN_BYTE[(r++<<8)|b]=(byte)p;
+			}
+		}
+	}
+
+	private final RankDataStructure bitVector;
+	private final boolean ones;  // TRUE iff selecting ones
+	private final int lastWord;
+	private final long lastWordMask;  // Bits of the last word that belong to the bitvector
+
+	/**
+	 * Number of selected bits.
+	 */
+	public final long count;
+
+	private final long[] inventory;  // One element per block, plus the length of the bitvector.
+	private final int[] pointers;  // Position in $sparse$ or in $spill$ of the data of each block
+	private final int[] spilledGroups;  // Bit $g$ is one iff group $g$ of a dense block is in $spill$
+	private final char[] subinventory;
+	private long[] sparse;
+	private char[] spill;
+
+
+	/**
+	 * @param ones TRUE to select the ones of $bitVector$, FALSE to select its zeros.
+	 */
+	public SimpleSelect(RankDataStructure bitVector, boolean ones) {
+		final long length = bitVector.length();
+		final int nBlocks;
+		int i, block, nPositions, lastSparse, lastSpill, pointer;
+		long word;
+		long[] positions;
+
+		this.bitVector=bitVector;
+		this.ones=ones;
+		lastWord=(int)((length-1)>>>6);
+		lastWordMask=(length&63)==0?0xFFFFFFFFFFFFFFFFL:(1L<<(length&63))-1;
+		count=ones?bitVector.rank(length):length-bitVector.rank(length);
+		nBlocks=(int)( Utils.divideAndRoundUp(count,BITS_PER_INVENTORY) );
+		inventory = new long[nBlocks+1];
+		pointers = new int[nBlocks];
+		spilledGroups = new int[nBlocks];
+		subinventory = new char[nBlocks*GROUPS_PER_INVENTORY];
+		sparse = new long[BITS_PER_INVENTORY];
+		spill = new char[BITS_PER_GROUP];
+		lastSparse=0; lastSpill=0;
+		positions = new long[BITS_PER_INVENTORY+1];
+
+		// Collecting the first position of each block
+		inventory[nBlocks]=length;
+		nPositions=0;
+		for (i=0; i<=lastWord && length>0; i++) {
+			word=getWord(i);
+			while (word!=0) {
+				if ((nPositions&(BITS_PER_INVENTORY-1))==0) inventory[nPositions>>>LOG2_BITS_PER_INVENTORY]=(((long)i)<<6)+Long.numberOfTrailingZeros(word);
+				word&=word-1;
+				nPositions++;
+			}
+		}
+
+		// Filling sparse blocks, subinventories and spills
+		block=0; nPositions=0;
+		for (i=0; i<=lastWord && length>0; i++) {
+			word=getWord(i);
+			while (word!=0) {
+				positions[nPositions++]=(((long)i)<<6)+Long.numberOfTrailingZeros(word);
+				word&=word-1;
+				if (nPositions<BITS_PER_INVENTORY) continue;
+				pointer=emitBlock(block,positions,nPositions,lastSparse,lastSpill);
+				if (inventory[block+1]-inventory[block]>=MAX_DENSE_SPAN) lastSparse=pointer;
+				else lastSpill=pointer;
+				block++; nPositions=0;
+			}
+		}
+		if (nPositions>0) emitBlock(block,positions,nPositions,lastSparse,lastSpill);
+		positions=null;
+	}
+
+
+	/**
+	 * Stores the positions of the selected bits of block $block$, which are in
+	 * $positions[0..nPositions-1]$.
+	 *
+	 * @param lastSparse,lastSpill first free element of $sparse$ and $spill$;
+	 * @return the first free element of $sparse$ if the block is sparse, or of $spill$
+	 * otherwise, after the block has been stored.
+	 */
+	private final int emitBlock(int block, long[] positions, int nPositions, int lastSparse, int lastSpill) {
+		final long start = positions[0];
+		int g, j, first, last, mask;
+
+		if (inventory[block+1]-start>=MAX_DENSE_SPAN) {
+			if (lastSparse+nPositions>sparse.length) sparse=Arrays.copyOf(sparse,Math.max(sparse.length<<1,lastSparse+nPositions));
+			pointers[block]=lastSparse;
+			System.arraycopy(positions,0,sparse,lastSparse,nPositions);
+			return lastSparse+nPositions;
+		}
+		pointers[block]=lastSpill;
+		mask=0;
+		for (g=0; g*BITS_PER_GROUP<nPositions; g++) {
+			first=g*BITS_PER_GROUP;
+			last=Math.min(first+BITS_PER_GROUP,nPositions)-1;
+			subinventory[block*GROUPS_PER_INVENTORY+g]=(char)(positions[first]-start);
+			if (positions[last]-positions[first]<MAX_GROUP_SPAN) continue;
+			mask|=1<<g;
+			if (lastSpill+BITS_PER_GROUP>spill.length) spill=Arrays.copyOf(spill,spill.length<<1);
+			for (j=first; j<=last; j++) spill[lastSpill+j-first]=(char)(positions[j]-start);
+			lastSpill+=BITS_PER_GROUP;
+		}
+		spilledGroups[block]=mask;
+		return lastSpill;
+	}
+
+
+	/**
+	 * @return the number of bits used by this data structure, excluding the bitvector.
+	 */
+	public final long numBits() {
+		return ((long)inventory.length)*64+((long)pointers.length)*32+((long)spilledGroups.length)*32+((long)subinventory.length)*16+((long)sparse.length)*64+((long)spill.length)*16;
+	}
+
+
+	/**
+	 * @return word $i$ of the bitvector, complemented if selecting zeros, and with the
+	 * bits after the end of the bitvector set to zero.
+	 */
+	private final long getWord(int i) {
+		final long word = ones?bitVector.getWord(i):~bitVector.getWord(i);
+		return i==lastWord?word&lastWordMask:word;
+	}
+
+
+	/**
+	 * @param i in $[0..count-1]$;
+	 * @return the position of the $i$-th selected bit (from zero), i.e. the position $p$
+	 * such that bit $p$ is selected and there are exactly $i$ selected bits in
+	 * $[0..p-1]$.
+	 */
+	public final long select(long i) {
+		final int block = (int)(i>>>LOG2_BITS_PER_INVENTORY);
+		final int offset = (int)(i&(BITS_PER_INVENTORY-1));
+		final int group = offset>>>LOG2_BITS_PER_GROUP;
+		final long start = inventory[block];
+		final int mask;
+		int word, remaining, c;
+		long position, bits;
+
+		if (inventory[block+1]-start>=MAX_DENSE_SPAN) return sparse[pointers[block]+offset];
+		mask=spilledGroups[block];
+		if ((mask&(1<<group))!=0) return start+spill[pointers[block]+(Integer.bitCount(mask&((1<<group)-1))<<LOG2_BITS_PER_GROUP)+(offset&(BITS_PER_GROUP-1))];
+		position=start+subinventory[block*GROUPS_PER_INVENTORY+group];
+		remaining=offset&(BITS_PER_GROUP-1);
+		word=(int)(position>>>6);
+		bits=getWord(word)&(-1L<<(position&63));
+		while (true) {
+			c=Long.bitCount(bits);
+			if (remaining<c) return (((long)word)<<6)+selectInWord(bits,remaining);
+			remaining-=c;
+			bits=getWord(++word);
+		}
+	}
+
+
+	/**
+	 * Broadword select inside a word \cite{vigna2008broadword}: the cumulative number
+	 * of ones in each byte is computed with one multiplication, and the byte that
+	 * contains the one is found by a parallel comparison of all bytes with $rank+1$.
+	 *
+	 * @param rank in $[0..Long.bitCount(word)-1]$;
+	 * @return the position, from the right, of the $rank$-th one (from zero) of $word$.
+	 */
+	public static final int selectInWord(long word, int rank) {
+		long s;
+		int byteOffset, byteRank;
+		s=word-((word>>>1)&0x5555555555555555L);
+		s=(s&0x3333333333333333L)+((s>>>2)&0x3333333333333333L);
+		s=((s+(s>>>4))&0x0F0F0F0F0F0F0F0FL)*ONES_STEP_8;  // Byte $j$ counts the ones in bytes $[0..j]$
+		byteOffset=Long.numberOfTrailingZeros(((s|MSBS_STEP_8)-(rank+1)*ONES_STEP_8)&MSBS_STEP_8)&~7;
+		byteRank=rank-(int)(((s<<8)>>>byteOffset)&0xFF);
+		return byteOffset+SELECT_IN_BYTE[(byteRank<<8)|(int)((word>>>byteOffset)&0xFF)];
+	}
+
+}
@@ -25,8 +25,12 @@ public class SimpleStream {
 	}
 
 
+	/**
+	 * Remark: $pop$ deallocates the first region when the stack becomes empty, thus
+	 * the first region is allocated again if necessary.
+	 */
 	public void clear(boolean deallocate) {
-		if (deallocate) regions = new long[1][LONGS_PER_REGION];
+		if (deallocate || regions[0]==null) regions = new long[1][LONGS_PER_REGION];
 		topRegion=0; topPointer=-1;
 		nElements=0;
 	}
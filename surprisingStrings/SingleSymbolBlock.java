@@ -0,0 +1,61 @@
+import java.io.IOException;
+
+/**
+ * A BWT block that consists of a single run of one symbol, e.g. a block inside a long
+ * run of the BWT of a repetitive string. The rank of the symbol at a position is the
+ * position itself, thus the block takes constant space and $multirank$ touches no
+ * data structure.
+ */
+public class SingleSymbolBlock extends BWTBlock {
+
+	private final long length;
+	private final int symbol;
+
+
+	public SingleSymbolBlock(long length, int symbol) {
+		this.length=length;
+		this.symbol=symbol;
+	}
+
+
+	public final int type() {
+		return SINGLE_SYMBOL;
+	}
+
+
+	protected final void writeData(IndexFile file) throws IOException {
+		file.writeLong(length);
+		file.writeLong(symbol);
+	}
+
+
+	/**
+	 * Inverse of $writeData$.
+	 */
+	public static final SingleSymbolBlock readData(IndexFile file) {
+		final long length = file.readLong();
+		return new SingleSymbolBlock(length,(int)file.readLong());
+	}
+
+
+	public final int access(long position) {
+		return symbol;
+	}
+
+
+	/**
+	 * $ones$ and all rows of $stack$ except the first are not used.
+	 */
+	public final void multirank(int fullAlphabetLength, int nPositions, long[][] stack, long[][] output, long[] ones) {
+		System.arraycopy(stack[0],1,output[symbol],0,nPositions);
+	}
+
+
+	public final int sparseMultirank(int fullAlphabetLength, int nPositions, long[][] stack, int[] characters, long[][] output, long[] ones) {
+		if (stack[0][nPositions]==stack[0][1]) return 0;
+		characters[0]=symbol;
+		System.arraycopy(stack[0],1,output[0],0,nPositions);
+		return 1;
+	}
+
+}
@@ -286,6 +286,25 @@ public class Substring {
 	}
 
 
+	/**
+	 * @return an estimate, up to a constant factor, of the time $SubstringIterator$ takes
+	 * to explore all the left-extensions of $v$, used for load balancing: by seeding
+	 * (see $SubstringIterator.seed$), and by stealing only if
+	 * $Constants.COST_BASED_STEALING$ is true. Estimates are compared only
+	 * among substrings of the same class. Invoked only on substrings that have not been
+	 * extended, when $bwtIntervals$, $nIntervals$ and $length$ are valid.
+	 *
+	 * This class extends every occurrence of $v$ to the left until the beginning of $s$,
+	 * thus an occurrence at position $i$ generates at most $i$ left-extensions: we assume
+	 * occurrences to be uniformly distributed in $[0..|s|-|v|]$, and we charge every
+	 * left-extension with the ranking of its $nIntervals$ intervals. Subclasses that
+	 * explore fewer substrings should override this method.
+	 */
+	protected double estimatedCost() {
+		return frequency()*((textLength-length+1)/2.0)*Math.max(nIntervals,1);
+	}
+
+
 
 /*                            _____ _             _
                              /  ___| |           | |
@@ -1,6 +1,12 @@
 import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Iterates in parallel over all the distinct substrings of positive length of a given
@@ -13,8 +19,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  * this class has been constructed.
  *
  * Remark: The BWT is implemented as a sequence of Huffman-shaped wavelet trees, one per
- * BWT block. All BWT blocks have approximately the same size (determined by the memory
- * available during construction), so the total size of all wavelet trees is approximately
+ * BWT block (or of other representations of BWT blocks, see $BWTBlock$). All BWT blocks
+ * have approximately the same size (determined by the memory available during
+ * construction), so the total size of all wavelet trees is approximately
  * $|s|*H_k(s)+blockSize*alphabetLength^k$ bits for any given $k$, where $H_k(s)$ is the
  * $k$-th order entropy of $s$ \cite{karkkainen2011fixed}. This can be significantly
  * smaller than $|s|*\log_2(alphabetLength)$ if $s$ is compressible. The number of blocks
@@ -29,18 +36,32 @@ public class SubstringIterator {
 	 * Constants
 	 */
 	private final int alphabetLength, log2alphabetLength;
+	private long stringLength;
 	private int nBlocks;
 	private Substring SUBSTRING_CLASS;  // Subclass of $Substring$ to be used during navigation
 
 	/**
 	 * BWT index
 	 */
-	private HuffmanWaveletTree[] waveletTrees;
+	private BWTBlock[] waveletTrees;
+	private int blockType;  // Representation of the BWT blocks, see $BWTBlock.build$.
 	private IntArray[] blockCounts;  // Number of occurrences of each character before the beginning of each block, excluding $#$.
 	private IntArray blockStarts;  // Starting position of each block
-	private Rank9 blockBoundaries;  // Dense representation of a sparse bitvector, for speed.
+	private BlockLookup blockLookup;  // Block of each position of the BWT
 	private long[] C;  // The $C$ array in backward search (excludes $#$).
 
+	/**
+	 * The metadata of each block that is read by $extendLeft$, interleaved in a single
+	 * array so that it spans just one or two cache lines per block rather than distinct
+	 * objects: $blockMetadata[b*metadataStride]=blockStarts[b]$, and
+	 * $blockMetadata[b*metadataStride+1+c]=C[c]+blockCounts[b][c]$, i.e. the value to be
+	 * added to a rank inside block $b$ to get a position of the BWT. Built by
+	 * $buildBlockMetadata$ from $blockStarts$, $blockCounts$ and $C$, which are kept for
+	 * $appendAndRebuild$ and $store$.
+	 */
+	private long[] blockMetadata;
+	private int metadataStride;
+
 	/**
 	 * $sharp[0]$: position of the sharp character in the BWT;
 	 * $sharp[1]$: BWT block containing the sharp character;
@@ -48,52 +69,540 @@ public class SubstringIterator {
 	 */
 	private long[] sharp;
 
+	private long nExtended;  // Number of substrings extended by the last call to $run$
+	private long[] idleTimes;  // Idle time of every thread in the last call to $run$
+	private long[] nExtendedByThread;  // Substrings extended by every thread in the last call to $run$
+
 
 	/**
 	 * @param substringClass subclass of $Substring$ to be used during navigation.
 	 */
 	public SubstringIterator(IntArray string, int[] alphabet, int alphabetLength, Substring substringClass) {
-		final long stringLength = string.length();
+		this(string,alphabet,alphabetLength,substringClass,BWTBlock.ADAPTIVE);
+	}
+
+
+	/**
+	 * @param blockType representation of the BWT blocks, e.g.
+	 * $BWTBlock.DNA_OCCURRENCE_TABLE$ for DNA strings, or $BWTBlock.ADAPTIVE$ (the
+	 * default) to choose it for each block (see $BWTBlock.build$), which saves space on
+	 * repetitive strings without making traversal slower (see
+	 * $Constants.SLOW_BLOCK_MAX_RANK_COST_RATIO$).
+	 */
+	public SubstringIterator(IntArray string, int[] alphabet, int alphabetLength, Substring substringClass, int blockType) {
+		stringLength=string.length();
 		final int log2stringLength = Utils.log2(stringLength);
 		final int log2stringLengthPlusOne = Utils.log2(stringLength+1);
 		this.alphabetLength=alphabetLength;
 		log2alphabetLength=Utils.log2(alphabetLength);
-		long blockSize = Suffixes.blockwiseBWT_getBlockSize(stringLength,log2stringLength,log2alphabetLength);
+		ConstructionPlan plan = ConstructionPlan.build(stringLength,log2alphabetLength);
+		plan.blockType=blockType;
+		this.blockType=blockType;
+		long blockSize = plan.blockSize;
 //blockSize=10;
-		long nb = Utils.divideAndRoundUp(stringLength,blockSize);  // This value is just an upper bound: $Suffixes.blockwiseBWT$ will set the effective number of blocks.
+		long nb = Suffixes.blockwiseBWT_maxBlocks(stringLength,blockSize);  // This value is just an upper bound: $Suffixes.blockwiseBWT$ will set the effective number of blocks.
 		if (nb<4) nBlocks=4;
 		else if (nb>Integer.MAX_VALUE) nBlocks=Integer.MAX_VALUE;
 		else nBlocks=(int)nb;
-		waveletTrees = new HuffmanWaveletTree[nBlocks];
+		waveletTrees = new BWTBlock[nBlocks];
 		blockStarts = new IntArray(nBlocks,log2stringLengthPlusOne,false);
 		sharp = new long[3];
 		IntArray[] localBlockCounts = new IntArray[nBlocks];
-		IntArray bitVector = new IntArray(stringLength+1,1,true);
-		Suffixes.blockwiseBWT(string,alphabet,alphabetLength,log2alphabetLength,blockSize,null,waveletTrees,blockStarts,bitVector,localBlockCounts,sharp);
-		blockBoundaries = new Rank9(bitVector);
-		bitVector.deallocate(); bitVector=null;
+		Suffixes.blockwiseBWT(string,alphabet,alphabetLength,log2alphabetLength,blockSize,null,waveletTrees,blockStarts,null,localBlockCounts,sharp,plan);
 		nBlocks=(int)( blockStarts.length() );  // Setting the effective number of blocks
+		blockLookup = new BlockLookup(blockStarts,stringLength+1);
 		SUBSTRING_CLASS=substringClass;
 
-		// Building $blockCounts$ and $C$
+		C = new long[alphabetLength];
+		blockCounts=buildBlockCounts(localBlockCounts,nBlocks,alphabetLength,C);
+		buildBlockMetadata();
+	}
+
+
+	/**
+	 * Builds the BWT index of $string$ directly into file $path$, in the format of
+	 * $store$, without keeping all wavelet trees in memory: see
+	 * $Suffixes.blockwiseBWT(...,treeFile)$. The index can then be loaded with $load$.
+	 * This is useful for strings whose index does not fit in the heap: the buckets and
+	 * the block of every suffix are kept in temporary files, thus the memory used by this
+	 * procedure is dominated by $string$ and by at most $2*Constants.N_THREADS$ blocks.
+	 * $string$ can be kept out of the heap as well: see $buildIndex(textPath,...)$.
+	 *
+	 * @param sourcePath see $store$.
+	 */
+	public static final void buildIndex(IntArray string, int[] alphabet, int alphabetLength, String path, String sourcePath) throws IOException {
+		final long stringLength = string.length();
+		final int log2alphabetLength = Utils.log2(alphabetLength);
+		final int nBlocks;
+		long nb;
+		long[] C = new long[alphabetLength];
+		long[] sharp = new long[3];
+		IntArray blockStarts;
+		IntArray[] localBlockCounts, blockCounts;
+		BWTBlock[] waveletTrees;
+		ConstructionPlan plan;
+		IndexFile file;
+
+		plan=ConstructionPlan.build(stringLength,log2alphabetLength,true);
+		nb=Math.max(Suffixes.blockwiseBWT_maxBlocks(stringLength,plan.blockSize),4);
+		if (nb>Integer.MAX_VALUE) nb=Integer.MAX_VALUE;
+		waveletTrees = new BWTBlock[(int)nb];
+		blockStarts = new IntArray(nb,Utils.log2(stringLength+1),false);
+		localBlockCounts = new IntArray[(int)nb];
+		file=IndexFile.create(path,stringLength,sourcePath);
+		file.writeLong(alphabetLength);
+		Suffixes.blockwiseBWT(string,alphabet,alphabetLength,log2alphabetLength,plan.blockSize,null,waveletTrees,blockStarts,null,localBlockCounts,sharp,plan,file);
+		waveletTrees=null;
+		nBlocks=(int)( blockStarts.length() );
+		blockCounts=buildBlockCounts(localBlockCounts,nBlocks,alphabetLength,C);
+		localBlockCounts=null;
+		for (int i=0; i<nBlocks; i++) blockCounts[i].write(file);
+		blockStarts.write(file);
+		file.writeLongArray(C);
+		file.writeLongArray(sharp);
+		file.close();
+	}
+
+
+	/**
+	 * Like $buildIndex(string,...)$, but the string is read from the file at $textPath$,
+	 * written by $FastaLoader.pack$ or by $IntArray.write$ after an $IndexFile$ header,
+	 * through a memory mapping rather than from the heap. Thus the heap needs to hold just
+	 * the blocks under construction.
+	 */
+	public static final void buildIndex(String textPath, int[] alphabet, int alphabetLength, String path, String sourcePath) throws IOException {
+		final IndexFile text = IndexFile.open(textPath);
+		final IntArray string;
+		text.readLong();  // String length
+		string=text.readMappedIntArray();
+		text.close();
+		buildIndex(string,alphabet,alphabetLength,path,sourcePath);
+	}
+
+
+	/**
+	 * @param localBlockCounts number of occurrences of each character in each block,
+	 * excluding $#$, as computed by $Suffixes.blockwiseBWT$;
+	 * @param C output array of $alphabetLength$ cells, which is set to the $C$ array of
+	 * backward search (excluding $#$);
+	 * @return the number of occurrences of each character before the beginning of each
+	 * block, excluding $#$.
+	 */
+	private static final IntArray[] buildBlockCounts(IntArray[] localBlockCounts, int nBlocks, int alphabetLength, long[] C) {
 		int i, j;
 		long max;
 		long[] characterCounts = new long[alphabetLength];
-		blockCounts = new IntArray[nBlocks];
-		blockCounts[0] = new IntArray(alphabetLength,1,true);
+		IntArray[] out = new IntArray[nBlocks];
+		out[0] = new IntArray(alphabetLength,1,true);
 		for (i=1; i<nBlocks; i++) {
 			max=0;
 			for (j=0; j<alphabetLength; j++) {
 				characterCounts[j]+=localBlockCounts[i-1].getElementAt(j);
 				if (characterCounts[j]>max) max=characterCounts[j];
 			}
-			blockCounts[i] = new IntArray(alphabetLength,Utils.bitsToEncode(max));
-			for (j=0; j<alphabetLength; j++) blockCounts[i].setElementAt(j,characterCounts[j]);
+			out[i] = new IntArray(alphabetLength,Utils.bitsToEncode(max));
+			for (j=0; j<alphabetLength; j++) out[i].setElementAt(j,characterCounts[j]);
 		}
 		for (j=0; j<alphabetLength; j++) characterCounts[j]+=localBlockCounts[nBlocks-1].getElementAt(j);
-		C = new long[alphabetLength];
 		C[0]=1;
 		for (j=1; j<alphabetLength; j++) C[j]=C[j-1]+characterCounts[j-1];
+		return out;
+	}
+
+
+	/**
+	 * Fills $blockMetadata$ from $blockStarts$, $blockCounts$ and $C$.
+	 */
+	private final void buildBlockMetadata() {
+		int b, c, base;
+		metadataStride=alphabetLength+1;
+		blockMetadata = new long[nBlocks*metadataStride];
+		for (b=0; b<nBlocks; b++) {
+			base=b*metadataStride;
+			blockMetadata[base]=blockStarts.getElementAt(b);
+			for (c=0; c<alphabetLength; c++) blockMetadata[base+1+c]=C[c]+blockCounts[b].getElementAt(c);
+		}
+	}
+
+
+	/**
+	 * Used by $load$.
+	 */
+	private SubstringIterator(int alphabetLength, Substring substringClass) {
+		this.alphabetLength=alphabetLength;
+		log2alphabetLength=Utils.log2(alphabetLength);
+		SUBSTRING_CLASS=substringClass;
+	}
+
+
+	/**
+	 * Writes the BWT index to file $path$ in the format of $IndexFile$, so that it can be
+	 * reused by $load$ without rebuilding it from the string.
+	 *
+	 * If writing fails, the partial file is deleted, since its header would make it look
+	 * up to date to $IndexFile.isUpToDate$. The iterator is not affected.
+	 *
+	 * @param sourcePath file from which the string was loaded, recorded in the header to
+	 * be checked by $IndexFile.isUpToDate$; NULL if the string does not come from a file.
+	 */
+	public final void store(String path, String sourcePath) throws IOException {
+		int i;
+		IndexFile file = IndexFile.create(path,stringLength,sourcePath);
+		try {
+			file.writeLong(alphabetLength);
+			file.writeLong(nBlocks);
+			for (i=0; i<nBlocks; i++) {
+				if (waveletTrees[i]==null) file.writeLong(0);
+				else {
+					file.writeLong(1);
+					waveletTrees[i].write(file);
+				}
+			}
+			for (i=0; i<nBlocks; i++) blockCounts[i].write(file);
+			blockStarts.write(file);
+			file.writeLongArray(C);
+			file.writeLongArray(sharp);
+			file.close();
+		}
+		catch (IOException e) {
+			new File(path).delete();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Factory that builds an iterator from a BWT index written by $store$, without
+	 * reading the original string. The length of the original string can be retrieved
+	 * in advance with $IndexFile.stringLength$, e.g. to initialize $substringClass$.
+	 *
+	 * @param substringClass subclass of $Substring$ to be used during navigation.
+	 */
+	public static final SubstringIterator load(String path, Substring substringClass) throws IOException {
+		int i, type;
+		IndexFile file = IndexFile.open(path);
+		final long stringLength = file.readLong();
+		SubstringIterator out = new SubstringIterator((int)file.readLong(),substringClass);
+		out.stringLength=stringLength;
+		out.nBlocks=(int)file.readLong();
+		out.waveletTrees = new BWTBlock[out.nBlocks];
+		out.blockType=-2;
+		for (i=0; i<out.nBlocks; i++) {
+			if (file.readLong()!=0) {
+				out.waveletTrees[i]=BWTBlock.read(file);
+				type=out.waveletTrees[i].type();
+				if (out.blockType==-2 && type!=BWTBlock.SINGLE_SYMBOL) out.blockType=type;
+				else if (out.blockType!=type) out.blockType=BWTBlock.ADAPTIVE;  // Single-symbol blocks are built only by $BWTBlock.ADAPTIVE$
+			}
+		}
+		if (out.blockType==-2) out.blockType=BWTBlock.ADAPTIVE;
+		out.blockCounts = new IntArray[out.nBlocks];
+		for (i=0; i<out.nBlocks; i++) out.blockCounts[i]=IntArray.read(file);
+		out.blockStarts=IntArray.read(file);
+		out.blockLookup = new BlockLookup(out.blockStarts,stringLength+1);
+		out.C=file.readLongArray();
+		out.sharp=file.readLongArray();
+		file.close();
+		out.buildBlockMetadata();
+		return out;
+	}
+
+
+	/**
+	 * Updates the index of string $s$ to the index of $s \cdot string$. This is a faster
+	 * rebuild, not an incremental update: it avoids sorting the suffixes of $s$, which
+	 * dominates construction, but every BWT block that receives or loses a suffix is
+	 * rebuilt from scratch, thus a batch whose suffixes spread over all blocks (e.g. any
+	 * random batch with $m \gg nBlocks$, where $m=string.length()$) rebuilds the whole
+	 * BWT: see $Benchmarks.append$.
+	 *
+	 * Appending changes the relative order only of the suffixes of $s$ that are prefixes
+	 * of other suffixes of $s$. Let $\ell$ be the length of the longest suffix of $s$ that
+	 * occurs at least twice in $s$: the suffixes $s[i..] \cdot string \cdot #$ with
+	 * $|s[i..]|>\ell$ keep the order of $s[i..] \cdot #$ in the old index, since their
+	 * comparisons are decided before the end of $s$. The procedure finds $\ell$, the
+	 * last $\ell+1$ characters of $s$, and the rows of the $\ell+1$ old suffixes that
+	 * move, by backward search from the row of $#$; it sorts the suffixes of
+	 * $x=s[|s|-\ell..] \cdot string$ with $SAIS$; and it places every suffix of $x \cdot #$
+	 * among the suffixes that do not move by backward search on the old index, from
+	 * right to left. The only suffix that does not move and whose successor moves,
+	 * $s[|s|-\ell-1..]$, is placed using the order of the suffixes of $x$. Thus the
+	 * procedure takes $O((\ell+m)\log(\ell+m))$ time, plus $O(\ell+m)$ $multirank$ and
+	 * $access$ calls, plus time linear in the total size of the rebuilt blocks. $\ell$ is
+	 * small in practice, but it is $\Theta(|s|)$ on highly periodic strings.
+	 *
+	 * Blocks are not split, thus they can grow beyond the block size of construction;
+	 * blocks that lose all their suffixes are removed. $blockCounts$, $blockStarts$, $C$
+	 * and $sharp$ are updated, and $blockLookup$ is rebuilt, in time proportional to the
+	 * number of blocks.
+	 *
+	 * @param string characters in $[0..alphabetLength-1]$; $\ell+m$ must be less than
+	 * $Integer.MAX_VALUE$;
+	 * @param substringClass subclass of $Substring$ to be used during navigation, since
+	 * it depends on the length of the text;
+	 * @return the number of blocks that were rebuilt.
+	 */
+	public final int appendAndRebuild(IntArray string, Substring substringClass) {
+		final int m = (int)string.length();
+		final long oldSharpPosition = sharp[0];
+		final int oldSharpBlock = (int)sharp[1];
+		final int tailLength, nMoving, nExcluded, nFixed;
+		int i, j, b, c, t, e, effectiveAlphabetLength, nRebuilt, nNonEmpty;
+		long r, f, g, lo, hi, qStar, blockStart, blockEnd, pointer, count, bwtBlockLength;
+		int[] tail, suffixArray, inverse, firstNew, effectiveAlphabet;
+		long[] excluded, gRow, fixedStarts, newBlockStarts, newBlockLengths, lowCounts, highCounts;
+		long[][] multirankStack, multirankOutput;
+		long[] multirankOnes;
+		boolean[] isAffected;
+		IntArray x, bwtBlock, effectiveCounts;
+		IntArray[] localBlockCounts;
+		BWTBlock[] newTrees;
+		if (m==0) return 0;
+		multirankStack = new long[BWTBlock.multirankStackRows(alphabetLength)][2];
+		multirankOutput = new long[alphabetLength][1];
+		multirankOnes = new long[1];
+		lowCounts = new long[alphabetLength];
+		highCounts = new long[alphabetLength];
+
+		// Backward search for longer and longer suffixes of $s$, until the suffix occurs
+		// just once. $tail[k]=s[|s|-1-k]$; $excluded$: rows of the old suffixes that move,
+		// i.e. of $s[k..] \cdot #$ for all $k \geq |s|-\ell$.
+		tail = new int[16];
+		excluded = new long[16];
+		excluded[0]=0;  // Row of $#$
+		i=1; j=0;
+		lo=0; hi=stringLength;
+		while (true) {
+			c=bwtCharacter(lo);
+			rankAll(lo,lowCounts,multirankStack,multirankOutput,multirankOnes);
+			rankAll(hi+1,highCounts,multirankStack,multirankOutput,multirankOnes);
+			lo=C[c]+lowCounts[c];
+			hi=C[c]+highCounts[c]-1;
+			if (j==tail.length) tail=Arrays.copyOf(tail,j<<1);
+			tail[j++]=c;
+			if (lo==hi) break;
+			if (i==excluded.length) excluded=Arrays.copyOf(excluded,i<<1);
+			excluded[i++]=lo;
+		}
+		tailLength=j-1;  // $\ell$
+		qStar=lo;  // Row of $s[|s|-\ell-1..] \cdot #$
+		nExcluded=i;
+		nFixed=(int)(stringLength+1-nExcluded);
+
+		// Order of the suffixes of $x \cdot #$
+		nMoving=tailLength+m+1;
+		x = new IntArray(nMoving-1,log2alphabetLength,false);
+		for (i=tailLength-1; i>=0; i--) x.push(tail[i]);
+		for (i=0; i<m; i++) x.push(string.getElementAt(i));
+		suffixArray=SAIS.buildSuffixArray(x,alphabetLength);
+		inverse = new int[nMoving];
+		for (i=0; i<nMoving; i++) inverse[suffixArray[i]]=i;
+
+		// Position of every suffix of $x \cdot #$ among the old suffixes that do not move:
+		// $gRow[t]$ is an old row such that every non-moving row smaller than $gRow[t]$ is
+		// smaller than $x[t..] \cdot #$, and every other non-moving row is larger.
+		gRow = new long[nMoving];
+		gRow[nMoving-1]=0;
+		for (t=nMoving-2; t>=0; t--) {
+			c=(int)x.getElementAt(t);
+			rankAll(gRow[t+1],lowCounts,multirankStack,multirankOutput,multirankOnes);
+			g=C[c]+lowCounts[c];
+			if (c==tail[tailLength]) {
+				// Row $qStar$ was placed by comparing the old row of $x \cdot #$ with
+				// $gRow[t+1]$, which is meaningful only for rows that do not move.
+				if (excluded[tailLength]<gRow[t+1]) {
+					if (inverse[0]>inverse[t+1]) g=qStar;
+				}
+				else if (inverse[0]<inverse[t+1]) g=qStar+1;
+			}
+			gRow[t]=g;
+		}
+		inverse=null;
+		Arrays.sort(excluded,0,nExcluded);
+		for (t=0; t<nMoving; t++) gRow[t]-=countSmaller(excluded,nExcluded,gRow[t]);  // Now the number of non-moving rows before $x[t..] \cdot #$
+
+		// Assigning suffixes of $x \cdot #$ to blocks. A suffix is placed just before the
+		// first non-moving row that is larger than it, thus it belongs to the block of
+		// that row, or to the last block if no such row exists.
+		fixedStarts = new long[nBlocks+1];
+		for (b=0; b<nBlocks; b++) {
+			blockStart=blockStarts.getElementAt(b);
+			fixedStarts[b]=blockStart-countSmaller(excluded,nExcluded,blockStart);
+		}
+		fixedStarts[nBlocks]=nFixed;
+		firstNew = new int[nBlocks+1];  // Rank of the first suffix of $x \cdot #$ of each block
+		i=0;
+		for (b=0; b<nBlocks; b++) {
+			while (i<nMoving && gRow[suffixArray[i]]<fixedStarts[b]) i++;
+			firstNew[b]=i;
+		}
+		firstNew[nBlocks]=nMoving;
+		isAffected = new boolean[nBlocks];
+		newBlockStarts = new long[nBlocks];
+		newBlockLengths = new long[nBlocks];
+		for (b=0; b<nBlocks; b++) {
+			blockEnd=b<nBlocks-1?blockStarts.getElementAt(b+1):stringLength+1;
+			newBlockStarts[b]=fixedStarts[b]+firstNew[b];
+			newBlockLengths[b]=fixedStarts[b+1]-fixedStarts[b]+firstNew[b+1]-firstNew[b];
+			isAffected[b]=firstNew[b+1]>firstNew[b] || fixedStarts[b+1]-fixedStarts[b]<blockEnd-blockStarts.getElementAt(b);
+		}
+
+		// Local counts of unaffected blocks, from $blockCounts$ and $C$
+		localBlockCounts = new IntArray[nBlocks];
+		for (b=0; b<nBlocks; b++) {
+			localBlockCounts[b] = new IntArray(alphabetLength,64,true);
+			if (isAffected[b]) continue;
+			for (c=0; c<alphabetLength; c++) {
+				if (b<nBlocks-1) count=blockCounts[b+1].getElementAt(c)-blockCounts[b].getElementAt(c);
+				else count=(c<alphabetLength-1?C[c+1]:stringLength+1)-C[c]-blockCounts[b].getElementAt(c);
+				localBlockCounts[b].setElementAt(c,count);
+			}
+		}
+
+		// Rebuilding affected blocks, by merging their non-moving rows with the suffixes
+		// of $x \cdot #$ that belong to them.
+		newTrees = new BWTBlock[nBlocks];
+		nRebuilt=0; e=0;
+		for (b=0; b<nBlocks; b++) {
+			blockStart=blockStarts.getElementAt(b);
+			blockEnd=b<nBlocks-1?blockStarts.getElementAt(b+1):stringLength+1;
+			if (!isAffected[b]) {
+				newTrees[b]=waveletTrees[b];
+				if (b==oldSharpBlock) {
+					sharp[0]=newBlockStarts[b]+oldSharpPosition-blockStart;
+					sharp[2]=oldSharpPosition-blockStart;
+				}
+				continue;
+			}
+			nRebuilt++;
+			bwtBlock = new IntArray(newBlockLengths[b],log2alphabetLength);
+			while (e<nExcluded && excluded[e]<blockStart) e++;
+			j=firstNew[b];
+			r=blockStart; f=fixedStarts[b];
+			pointer=newBlockStarts[b];
+			while (r<blockEnd || j<firstNew[b+1]) {
+				if (r<blockEnd && e<nExcluded && excluded[e]==r) {
+					r++; e++;
+					continue;
+				}
+				if (j<firstNew[b+1] && (r==blockEnd || gRow[suffixArray[j]]<=f)) {
+					t=suffixArray[j++];
+					c=t==0?tail[tailLength]:(int)x.getElementAt(t-1);
+				}
+				else {
+					if (r==oldSharpPosition) {
+						sharp[0]=pointer;
+						sharp[2]=pointer-newBlockStarts[b];
+						pointer++; r++; f++;
+						continue;
+					}
+					c=waveletTrees[b].access(r-blockStart-(b==oldSharpBlock&&r>oldSharpPosition?1:0));
+					r++; f++;
+				}
+				bwtBlock.push(c);
+				localBlockCounts[b].incrementElementAt(c);
+				pointer++;
+			}
+			bwtBlockLength=bwtBlock.length();
+			if (bwtBlockLength==0) continue;
+			effectiveAlphabetLength=0;
+			for (c=0; c<alphabetLength; c++) {
+				if (localBlockCounts[b].getElementAt(c)!=0) effectiveAlphabetLength++;
+			}
+			effectiveAlphabet = new int[effectiveAlphabetLength];
+			effectiveCounts = new IntArray(effectiveAlphabetLength,Utils.bitsToEncode(bwtBlockLength),false);
+			j=0;
+			for (c=0; c<alphabetLength; c++) {
+				count=localBlockCounts[b].getElementAt(c);
+				if (count!=0) {
+					effectiveAlphabet[j++]=c;
+					effectiveCounts.push(count);
+				}
+			}
+			newTrees[b]=BWTBlock.build(bwtBlock,effectiveAlphabet,effectiveCounts,blockType);
+			bwtBlock.deallocate();
+		}
+
+		// Removing empty blocks, and updating the rest of the index
+		nNonEmpty=0;
+		for (b=0; b<nBlocks; b++) {
+			if (newBlockLengths[b]==0) continue;
+			if (b==oldSharpBlock) sharp[1]=nNonEmpty;
+			newTrees[nNonEmpty]=newTrees[b];
+			localBlockCounts[nNonEmpty]=localBlockCounts[b];
+			newBlockStarts[nNonEmpty]=newBlockStarts[b];
+			nNonEmpty++;
+		}
+		nBlocks=nNonEmpty;
+		waveletTrees=Arrays.copyOf(newTrees,nBlocks);
+		stringLength+=m;
+		blockStarts = new IntArray(nBlocks,Utils.log2(stringLength+1),false);
+		for (b=0; b<nBlocks; b++) blockStarts.push(newBlockStarts[b]);
+		blockCounts=buildBlockCounts(localBlockCounts,nBlocks,alphabetLength,C);
+		blockLookup = new BlockLookup(blockStarts,stringLength+1);
+		buildBlockMetadata();
+		SUBSTRING_CLASS=substringClass;
+		return nRebuilt;
+	}
+
+
+	/**
+	 * @return the character at position $row$ of the BWT, which must not be the
+	 * position of $#$.
+	 */
+	private final int bwtCharacter(long row) {
+		final int b = blockLookup.block(row);
+		long local = row-blockMetadata[b*metadataStride];
+		if (b==sharp[1] && row>sharp[0]) local--;  // The wavelet tree does not contain $#$
+		return waveletTrees[b].access(local);
+	}
+
+
+	/**
+	 * @return the number of elements of $sorted[0..n-1]$ that are smaller than $value$.
+	 */
+	private static final int countSmaller(long[] sorted, int n, long value) {
+		int left = 0, right = n, mid;
+		while (left<right) {
+			mid=(left+right)>>>1;
+			if (sorted[mid]<value) left=mid+1;
+			else right=mid;
+		}
+		return left;
+	}
+
+
+	/**
+	 * @return the number of BWT blocks of the index.
+	 */
+	public final int nBlocks() {
+		return nBlocks;
+	}
+
+
+	/**
+	 * Stores in $out[c]$ the number of occurrences of every character $c$ in
+	 * $BWT[0..position-1]$, excluding $#$.
+	 *
+	 * @param position in $[0..stringLength+1]$.
+	 */
+	private final void rankAll(long position, long[] out, long[][] multirankStack, long[][] multirankOutput, long[] multirankOnes) {
+		int b, c, base;
+		long local;
+		if (position==stringLength+1) {
+			for (c=0; c<alphabetLength; c++) out[c]=(c<alphabetLength-1?C[c+1]:stringLength+1)-C[c];
+			return;
+		}
+		b=blockLookup.block(position);
+		base=b*metadataStride;
+		local=position-blockMetadata[base];
+		if (b==sharp[1] && position>sharp[0]) local--;  // The wavelet tree does not contain $#$
+		for (c=0; c<alphabetLength; c++) multirankOutput[c][0]=0;
+		if (waveletTrees[b]!=null) {
+			multirankStack[0][1]=local;
+			waveletTrees[b].multirank(alphabetLength,1,multirankStack,multirankOutput,multirankOnes);
+		}
+		for (c=0; c<alphabetLength; c++) out[c]=blockMetadata[base+1+c]-C[c]+multirankOutput[c][0];
 	}
 
 
@@ -105,6 +614,13 @@ public class SubstringIterator {
 	 * and they are pushed onto $stack$ if their method $shouldBeExtendedLeft$ returns
 	 * true.
 	 *
+	 * Remark: ranking the interval endpoints of $w$ together with those of other
+	 * non-extended substrings of $stack$, grouped by block, was slower than ranking $w$
+	 * alone for every number of substrings from 2 to 64: on 3M characters with one
+	 * thread, 1.30M (8 substrings) and 1.23M (64 substrings) extensions per second
+	 * versus 1.38M on a FASTA file, and 0.78M and 0.67M versus 0.81M on a repetitive
+	 * string.
+	 *
 	 * @param stack the stream pointer is assumed to be at the first bit of the serialized
 	 * substring at the top of $stack$;
 	 * @param w non-null temporary, reused container representing the string at the top of
@@ -115,34 +631,59 @@ public class SubstringIterator {
 	 * @param positions $w.nIntervals*2$ non-null temporary, reused containers of the
 	 * interval positions of $w$;
 	 * @param multirankStack temporary, reused space with $1+w.nIntervals*2$ columns and
-	 * $alphabetLength-1$ rows used by $HuffmanWaveletTree.multirank$;
+	 * $alphabetLength-1$ rows used by $BWTBlock.multirank$;
 	 * @param multirankOutput temporary, reused space with $alphabetLength+1$ rows and
-	 * $w.nIntervals*2$ columns used by $HuffmanWaveletTree.multirank$;
+	 * $w.nIntervals*2$ columns used by $BWTBlock.multirank$;
 	 * @param multirankOnes temporary, reused space with $w.nIntervals*2$ cells used by
-	 * $HuffmanWaveletTree.multirank$;
+	 * $BWTBlock.multirank$;
 	 * @param out cell 0: the (possibly negative) variation in the total number of strings
 	 * present in $stack$, induced by this call to $extendLeft$;
 	 * cell 1: the variation $-1 \leq \delta < alphabetLength+1$ in the number of
 	 * \emph{non-extended} strings $v$ in $stack$, induced by this call to $extendLeft$;
-	 * cell 2: as in cell 1, but only for strings with $|v| \leq maxStringLengthToReport$.
+	 * cell 2: as in cell 1, but only for strings with $|v| \leq maxStringLengthToReport$;
+	 * cell 3: one if a substring has been extended, zero otherwise.
+	 * @param work output array: cell 0 contains the variation in the sum of
+	 * $Substring.estimatedCost$ over the strings counted by cell 2 of $out$.
 	 * @param extensionBuffer reused memory area that contains messages for initializing
 	 * the left extensions of $w$. We assume $buffer[i]=-1$ for all $i$. The procedure
 	 * restores $buffer$ to its input state before terminating.
 	 * @param shouldBeExtendedLeft reused memory area with at least $alphabetLength+1$
 	 * cells, initialized to FALSE. This procedure restores the vector to its input
 	 * state before terminating.
+	 * @param characters temporary, reused space with $alphabetLength$ cells used by
+	 * $BWTBlock.sparseMultirank$;
+	 * @param nonEmpty reused list of the left-extensions that might be nonempty: cell 0
+	 * contains the size of the list, and cells $1..nonEmpty[0]$ the indexes in
+	 * $leftExtensions$, in increasing order. Every left-extension not in the list has
+	 * frequency zero. The procedure updates the list to the left-extensions of $w$; the
+	 * first call must receive a list that contains all indexes;
+	 * @param isCandidate reused memory area with at least $alphabetLength+1$ cells,
+	 * initialized to FALSE. This procedure restores the vector to its input state before
+	 * terminating;
+	 * @param stealable substrings of $stack$ that other threads can steal without
+	 * locking $stack$, or NULL. A substring that has been stolen from $stealable$ is
+	 * popped and discarded, like a substring marked as stolen.
 	 */
-	private final void extendLeft(Stream stack, RigidStream characterStack, SimpleStream pointerStack, Substring w, Substring[] leftExtensions, Position[] positions, long[][] multirankStack, long[][] multirankOutput, long[] multirankOnes, int maxStringLengthToReport, long[] out, int[] extensionBuffer, boolean[] shouldBeExtendedLeft, Substring[] cache) {
+	private final void extendLeft(Stream stack, RigidStream characterStack, SimpleStream pointerStack, Substring w, Substring[] leftExtensions, Position[] positions, long[][] multirankStack, long[][] multirankOutput, long[] multirankOnes, int maxStringLengthToReport, long[] out, double[] work, int[] extensionBuffer, boolean[] shouldBeExtendedLeft, int[] characters, int[] nonEmpty, boolean[] isCandidate, Substring[] cache, StealableSubstrings stealable) {
 		final boolean isShort;
-		boolean pushed;
-		int i, j, c, p, windowFirst, windowSize, block, previousBlock, nPositions, maxExtension;
+		boolean pushed, sparse;
+		int i, k, c, p, windowFirst, windowSize, block, previousBlock, nPositions, maxExtension, nCandidates;
 		long pos, previous, frequency, maxFrequency;
 		Substring extension;
 
 		// Reading the top of $stack$
-		out[0]=0; out[1]=0; out[2]=0;
+		out[0]=0; out[1]=0; out[2]=0; out[3]=0;
+		work[0]=0;
 		w.read(stack,cache,true,true,true);
-		while (w.hasBeenExtended || w.hasBeenStolen) {
+		while (w.hasBeenExtended || w.hasBeenStolen || (stealable!=null && !stealable.claim(w.address))) {
+			if (!w.hasBeenExtended && !w.hasBeenStolen) {
+				// Stolen from $stealable$: the thief could not update the counters.
+				out[1]--;
+				if (w.length<=maxStringLengthToReport) {
+					out[2]--;
+					work[0]-=w.estimatedCost();
+				}
+			}
 			previous=w.previousAddress;
 			w.pop(stack,cache);
 			if (w.hasBeenExtended) {
@@ -159,57 +700,61 @@ public class SubstringIterator {
 		// Putting the positions of $w.bwtIntervals$ in block order, and sequentially
 		// inside each block. Since this iterator is generic, we do not assume the
 		// positions in $w.bwtIntervals$ to be already sorted.
+		sparse=true;
 		for (i=0; i<w.nIntervals; i++) {
 			p=i<<1; pos=w.bwtIntervals[i][0];
 			positions[p].position=pos; positions[p].row=i; positions[p].column=0;
-			positions[p].block=(int)blockBoundaries.rank(pos+1)-1;
+			positions[p].block=blockLookup.block(pos);
 			p=(i<<1)+1; pos=w.bwtIntervals[i][1]+1;
 			positions[p].position=pos; positions[p].row=i; positions[p].column=1;
-			positions[p].block=(int)blockBoundaries.rank(pos+1)-1;
+			positions[p].block=blockLookup.block(pos);
+			if (positions[p].block!=positions[p-1].block) sparse=false;
 		}
 		if (!w.BWT_INTERVALS_ARE_SORTED) Arrays.sort(positions);
 		nPositions=w.nIntervals<<1;
 
-		// Ranking all positions in the same block using exactly one $multirank$ call
-		for (i=0; i<=alphabetLength; i++) leftExtensions[i].nIntervals=w.nIntervals;
+		// Ranking all positions in the same block using exactly one $multirank$ call.
+		// If every interval of $w$ lies inside a single block, only the left-extensions
+		// whose characters occur in some block are initialized.
+		if (sparse) {
+			for (k=1; k<=nonEmpty[0]; k++) {
+				extension=leftExtensions[nonEmpty[k]];
+				for (i=0; i<Math.max(extension.nIntervals,1); i++) {
+					extension.bwtIntervals[i][0]=0;
+					extension.bwtIntervals[i][1]=-1;
+				}
+			}
+			leftExtensions[0].nIntervals=w.nIntervals;
+			isCandidate[0]=true;
+			nonEmpty[0]=1; nonEmpty[1]=0;
+		}
+		else {
+			for (i=0; i<=alphabetLength; i++) leftExtensions[i].nIntervals=w.nIntervals;
+		}
 		windowFirst=0; windowSize=1;
 		previousBlock=positions[windowFirst].block;
-		multirankStack[0][1]=positions[windowFirst].position-blockStarts.getElementAt(previousBlock);
+		multirankStack[0][1]=positions[windowFirst].position-blockMetadata[previousBlock*metadataStride];
 		for (p=1; p<nPositions; p++) {
 			block=positions[p].block;
 			if (block==previousBlock) {
 				windowSize++;
-				multirankStack[0][windowSize]=positions[p].position-blockStarts.getElementAt(block);
+				multirankStack[0][windowSize]=positions[p].position-blockMetadata[block*metadataStride];
 			}
 			else {
-				for (i=0; i<multirankOutput.length; i++) {
-					for (j=0; j<multirankOutput[i].length; j++) multirankOutput[i][j]=0;
-				}
-				handleLeftExtensionsBySharp(positions,windowFirst,windowSize,previousBlock,leftExtensions,multirankStack);
-				if (waveletTrees[previousBlock]!=null) {
-					// There can be exactly one block with null elements in $waveletTrees$:
-					// it corresponds to a splitter at the position of $#$ in the BWT,
-					// preceded by another splitter.
-					waveletTrees[previousBlock].multirank(alphabetLength,windowSize,multirankStack,multirankOutput,multirankOnes);
-				}
-				for (c=0; c<alphabetLength; c++) {
-					for (i=0; i<windowSize; i++) leftExtensions[c+1].bwtIntervals[positions[windowFirst+i].row][positions[windowFirst+i].column]=C[c]+(blockCounts[previousBlock].getElementAt(c)+multirankOutput[c][i])+(positions[windowFirst+i].column==0?0:-1);
-				}
+				rankWindow(positions,windowFirst,windowSize,previousBlock,w,leftExtensions,multirankStack,multirankOutput,multirankOnes,sparse,characters,nonEmpty,isCandidate);
 				windowFirst=p; windowSize=1; previousBlock=block;
-				multirankStack[0][1]=positions[p].position-blockStarts.getElementAt(block);
+				multirankStack[0][1]=positions[p].position-blockMetadata[block*metadataStride];
 			}
 		}
-		// Last block
-		handleLeftExtensionsBySharp(positions,windowFirst,windowSize,previousBlock,leftExtensions,multirankStack);
-		for (i=0; i<multirankOutput.length; i++) {
-			for (j=0; j<multirankOutput[i].length; j++) multirankOutput[i][j]=0;
-		}
-		if (waveletTrees[previousBlock]!=null) waveletTrees[previousBlock].multirank(alphabetLength,windowSize,multirankStack,multirankOutput,multirankOnes);
-		for (c=0; c<alphabetLength; c++) {
-			for (i=0; i<windowSize; i++) leftExtensions[c+1].bwtIntervals[positions[windowFirst+i].row][positions[windowFirst+i].column]=C[c]+(blockCounts[previousBlock].getElementAt(c)+multirankOutput[c][i])+(positions[windowFirst+i].column==0?0:-1);
+		rankWindow(positions,windowFirst,windowSize,previousBlock,w,leftExtensions,multirankStack,multirankOutput,multirankOnes,sparse,characters,nonEmpty,isCandidate);
+		if (sparse) {
+			Arrays.sort(nonEmpty,1,nonEmpty[0]+1);
+			for (k=1; k<=nonEmpty[0]; k++) isCandidate[nonEmpty[k]]=false;
 		}
 
+
 		// Initializing $w$
+		if (w.length>0 && w.length<=maxStringLengthToReport) work[0]-=w.estimatedCost();
 		if (w.length>0) {
 			characterStack.push(w.firstCharacter);
 			pointerStack.push(w.address);
@@ -221,10 +766,14 @@ public class SubstringIterator {
 		extension=null; pushed=false;
 		w.fillBuffer(extensionBuffer,true);
 		maxFrequency=0; maxExtension=-1;
-		for (c=0; c<alphabetLength+1; c++) {
+		nCandidates=sparse?nonEmpty[0]:alphabetLength+1;
+		nonEmpty[0]=0;
+		for (k=0; k<nCandidates; k++) {
+			c=sparse?nonEmpty[1+k]:k;
 			extension=leftExtensions[c];
 			frequency=extension.frequency();
 			if (frequency>0) {
+				nonEmpty[++nonEmpty[0]]=c;
 				extension.initAfterExtending(w,c-1,characterStack,extensionBuffer);
 				if (extension.shouldBeExtendedLeft()) {
 					pushed=true;
@@ -243,7 +792,7 @@ public class SubstringIterator {
 		w.markAsExtended(stack);
 		w.popTails(stack,cache);
 		w.pushAppendix(stack,cache);
-		out[1]--;
+		out[1]--; out[3]=1;
 		if (w.length<=maxStringLengthToReport) out[2]--;
 
 		// Pushing the left-extensions of $w$ onto $stack$ using the stack trick described
@@ -257,9 +806,10 @@ public class SubstringIterator {
 			extension.push(stack,cache);
 			previous=extension.address;
 			out[0]++; out[1]++;
-			if (isShort) out[2]++;
+			if (isShort) { out[2]++; work[0]+=extension.estimatedCost(); }
 			// Pushing all other left-extensions
-			for (c=0; c<alphabetLength+1; c++) {
+			for (k=1; k<=nonEmpty[0]; k++) {
+				c=nonEmpty[k];
 				if (shouldBeExtendedLeft[c]) {
 					shouldBeExtendedLeft[c]=false;  // Cleaning up $shouldBeExtendedLeft$
 					if (c==maxExtension) continue;
@@ -268,7 +818,7 @@ public class SubstringIterator {
 					extension.push(stack,cache);
 					previous=extension.address;
 					out[0]++; out[1]++;
-					if (isShort) out[2]++;
+					if (isShort) { out[2]++; work[0]+=extension.estimatedCost(); }
 				}
 			}
 		}
@@ -278,6 +828,55 @@ public class SubstringIterator {
 	}
 
 
+	/**
+	 * Ranks the positions $positions[windowFirst..windowFirst+windowSize-1]$, which belong
+	 * to block $block$ and are also stored in $multirankStack[0][1..windowSize]$, and
+	 * writes the corresponding endpoints of the intervals of the left-extensions in
+	 * $extendLeft$. If $sparse$ is TRUE, only the characters reported by
+	 * $BWTBlock.sparseMultirank$ are written, and the left-extensions that are met for the
+	 * first time are emptied and appended to $nonEmpty$ (see $extendLeft$).
+	 */
+	private final void rankWindow(Position[] positions, int windowFirst, int windowSize, int block, Substring w, Substring[] leftExtensions, long[][] multirankStack, long[][] multirankOutput, long[] multirankOnes, boolean sparse, int[] characters, int[] nonEmpty, boolean[] isCandidate) {
+		final int base = block*metadataStride+1;
+		int i, j, c, k, n;
+		long offset;
+		Substring extension;
+
+		handleLeftExtensionsBySharp(positions,windowFirst,windowSize,block,leftExtensions,multirankStack);
+		if (sparse) {
+			// There can be exactly one block with null elements in $waveletTrees$: it
+			// corresponds to a splitter at the position of $#$ in the BWT, preceded by
+			// another splitter.
+			if (waveletTrees[block]==null) return;
+			n=waveletTrees[block].sparseMultirank(alphabetLength,windowSize,multirankStack,characters,multirankOutput,multirankOnes);
+			for (k=0; k<n; k++) {
+				c=characters[k];
+				extension=leftExtensions[c+1];
+				if (!isCandidate[c+1]) {
+					isCandidate[c+1]=true;
+					nonEmpty[++nonEmpty[0]]=c+1;
+					extension.nIntervals=w.nIntervals;
+					for (i=0; i<w.nIntervals; i++) {
+						extension.bwtIntervals[i][0]=0;
+						extension.bwtIntervals[i][1]=-1;
+					}
+				}
+				offset=blockMetadata[base+c];
+				for (i=0; i<windowSize; i++) extension.bwtIntervals[positions[windowFirst+i].row][positions[windowFirst+i].column]=offset+multirankOutput[k][i]+(positions[windowFirst+i].column==0?0:-1);
+			}
+			return;
+		}
+		for (i=0; i<multirankOutput.length; i++) {
+			for (j=0; j<multirankOutput[i].length; j++) multirankOutput[i][j]=0;
+		}
+		if (waveletTrees[block]!=null) waveletTrees[block].multirank(alphabetLength,windowSize,multirankStack,multirankOutput,multirankOnes);
+		for (c=0; c<alphabetLength; c++) {
+			offset=blockMetadata[base+c];
+			for (i=0; i<windowSize; i++) leftExtensions[c+1].bwtIntervals[positions[windowFirst+i].row][positions[windowFirst+i].column]=offset+multirankOutput[c][i]+(positions[windowFirst+i].column==0?0:-1);
+		}
+	}
+
+
 	private static class Position implements Comparable {
 		protected long position;
 		protected int block, row, column;
@@ -325,6 +924,229 @@ public class SubstringIterator {
 
 
 
+	/**
+	 * The temporary space of $extendLeft$, which is reused by all the calls of a thread.
+	 */
+	private class Workspace {
+		protected Substring w;
+		protected Substring[] leftExtensions;
+		protected Position[] positions;
+		protected long[][] multirankStack, multirankOutput;
+		protected long[] multirankOnes;
+		protected int[] characters, nonEmpty, extensionBuffer;
+		protected boolean[] isCandidate, shouldBeExtendedLeft;
+		protected long[] out;  // Output of $extendLeft$
+		protected double[] work;  // Output of $extendLeft$
+		protected StealableSubstrings stealable;  // Set by the owner of the stacks, if any
+
+		public Workspace() {
+			final int maxPositions = SUBSTRING_CLASS.MAX_INTERVALS<<1;
+			int i;
+
+			leftExtensions = new Substring[alphabetLength+1];
+			for (i=0; i<alphabetLength+1; i++) leftExtensions[i]=SUBSTRING_CLASS.getInstance();
+			positions = new Position[maxPositions];
+			for (i=0; i<maxPositions; i++) positions[i] = new Position();
+			multirankStack = new long[BWTBlock.multirankStackRows(alphabetLength)][1+maxPositions];
+			multirankOutput = new long[alphabetLength][maxPositions];
+			multirankOnes = new long[maxPositions];
+			characters = new int[alphabetLength];
+			nonEmpty = new int[alphabetLength+2];
+			nonEmpty[0]=alphabetLength+1;
+			for (i=0; i<=alphabetLength; i++) nonEmpty[1+i]=i;
+			isCandidate = new boolean[alphabetLength+1];
+			out = new long[4];
+			work = new double[1];
+			extensionBuffer = new int[alphabetLength+1];
+			for (i=0; i<=alphabetLength; i++) extensionBuffer[i]=-1;
+			shouldBeExtendedLeft = new boolean[alphabetLength+1];
+			for (i=0; i<=alphabetLength; i++) shouldBeExtendedLeft[i]=false;
+			w=SUBSTRING_CLASS.getInstance();
+		}
+
+		/**
+		 * Calls $extendLeft$ on the given stacks, writing its output in $out$.
+		 */
+		protected final void extendLeft(Stream stack, RigidStream characterStack, SimpleStream pointerStack, Substring[] cache) {
+			SubstringIterator.this.extendLeft(stack,characterStack,pointerStack,w,leftExtensions,positions,multirankStack,multirankOutput,multirankOnes,Constants.MAX_STRING_LENGTH_FOR_SPLIT,out,work,extensionBuffer,shouldBeExtendedLeft,characters,nonEmpty,isCandidate,cache,stealable);
+		}
+	}
+
+	/**
+	 * The substrings of the stack of a $SubstringIteratorThread$ that can be stolen by
+	 * other threads without locking the stack, and without stopping its owner
+	 * \cite{chase2005dynamic}. Every such substring $v$ has not been extended, it has
+	 * length in $[1..Constants.MAX_STRING_LENGTH_FOR_SPLIT]$, and it is published as a
+	 * $SubtreeRecord$ in $deque$, which thieves pop from the top, i.e. from the bottom
+	 * of the stack. Records are pushed by increasing address in the stack, and the owner
+	 * claims them from the bottom of $deque$ when it reaches them (see $claim$).
+	 *
+	 * Remark: a record copies the ancestors of $v$ and the cache, thus substrings are
+	 * published lazily: only when another thread is idle and $deque$ is empty, by
+	 * scanning the stack for the oldest substrings that have not been published (see
+	 * $publish$). A traversal in which no thread becomes idle builds no record.
+	 *
+	 * Remark: $addresses$, which is accessed only by the owner, contains the addresses in
+	 * the stack of the published substrings that have not been claimed by the owner, in
+	 * increasing order. It also contains the substrings that have been stolen, since the
+	 * owner discovers that they have been stolen only when it reaches them in the stack.
+	 * When $deque$ is empty, all of them are known to have been stolen, and they are
+	 * stored as $-1-address$.
+	 */
+	private class StealableSubstrings {
+		protected WorkStealingDeque<SubtreeRecord> deque;
+		private long[] addresses;
+		private int nAddresses;
+		private long[] newAddresses;  // Temporary space of $publish$
+		private Substring w;  // Temporary space of $publish$
+
+		public StealableSubstrings() {
+			deque = new WorkStealingDeque<SubtreeRecord>();
+			addresses = new long[Constants.MAX_STEALABLE_SUBSTRINGS+1];
+			nAddresses=0;
+			newAddresses = new long[Constants.MAX_STEALABLE_SUBSTRINGS+1];
+			w=SUBSTRING_CLASS.getInstance();
+		}
+
+		/**
+		 * Publishes the oldest $Constants.MAX_STEALABLE_SUBSTRINGS$ substrings of $stack$
+		 * that have not been extended, that have length at most
+		 * $Constants.MAX_STRING_LENGTH_FOR_SPLIT$, and that have not been published
+		 * before. To be called by the owner only when $deque$ is empty.
+		 *
+		 * Remark: every substring of $stack$ that has not been extended is a child of a
+		 * substring in $pointerStack$, thus the scan starts from the ancestor of length
+		 * $Constants.MAX_STRING_LENGTH_FOR_SPLIT$, if any, since all substrings above it
+		 * are longer. The scan visits $O(Constants.MAX_STRING_LENGTH_FOR_SPLIT \cdot
+		 * alphabetLength)$ substrings.
+		 */
+		protected final void publish(Stream stack, RigidStream characterStack, SimpleStream pointerStack, Substring[] cache) {
+			final int maxLength = Constants.MAX_STRING_LENGTH_FOR_SPLIT;
+			final long backupPointer = stack.getPosition();
+			int i, j, n, p, nPublished;
+			long address;
+
+			for (i=0; i<nAddresses; i++) {
+				if (addresses[i]>=0) addresses[i]=-1-addresses[i];
+			}
+
+			// Collecting the addresses to be published, by decreasing value
+			address=pointerStack.nElements()>=maxLength?pointerStack.getElementAt(maxLength-1):backupPointer;
+			n=0; i=nAddresses-1;
+			while (address>0) {
+				stack.setPosition(address);
+				w.read(stack,null,true,true,true);
+				while (i>=0 && -1-addresses[i]>address) i--;
+				if (!w.hasBeenExtended && w.length<=maxLength && (i<0 || -1-addresses[i]!=address)) {
+					if (n==newAddresses.length) {
+						long[] newArray = new long[newAddresses.length<<1];
+						System.arraycopy(newAddresses,0,newArray,0,n);
+						newAddresses=newArray;
+					}
+					newAddresses[n++]=address;
+				}
+				address=w.previousAddress;
+			}
+			nPublished=Math.min(n,Constants.MAX_STEALABLE_SUBSTRINGS);
+			if (nPublished==0) {
+				stack.setPosition(backupPointer);
+				return;
+			}
+
+			// Merging with $addresses$
+			if (nAddresses+nPublished>addresses.length) {
+				long[] newArray = new long[(nAddresses+nPublished)<<1];
+				System.arraycopy(addresses,0,newArray,0,nAddresses);
+				addresses=newArray;
+			}
+			i=nAddresses-1; j=n-nPublished;
+			nAddresses+=nPublished;
+			for (p=nAddresses-1; p>=0; p--) {
+				if (j<n && (i<0 || newAddresses[j]>-1-addresses[i])) addresses[p]=newAddresses[j++];
+				else addresses[p]=addresses[i--];
+			}
+
+			for (j=n-1; j>=n-nPublished; j--) deque.push(new SubtreeRecord(stack,characterStack,pointerStack,cache,newAddresses[j],w));
+			stack.setPosition(backupPointer);
+		}
+
+		/**
+		 * Called by the owner before extending the substring at $address$.
+		 *
+		 * @return FALSE iff the substring has been published and stolen.
+		 */
+		protected final boolean claim(long address) {
+			if (nAddresses==0) return true;
+			if (addresses[nAddresses-1]==address) {
+				nAddresses--;
+				return deque.take()!=null;
+			}
+			if (addresses[nAddresses-1]==-1-address) {
+				nAddresses--;
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * An immutable copy of the stacks of a thread, restricted to a substring $v$ that has
+	 * not been extended and to all its ancestors, i.e. the substrings that a receiver
+	 * needs in order to explore the subtree of $v$.
+	 */
+	private class SubtreeRecord implements Comparable<SubtreeRecord> {
+		protected Stream stack;  // $\epsilon$, the ancestors of $v$ by increasing length, and $v$.
+		protected RigidStream characterStack;
+		protected Substring[] cache;
+		protected int nSubstrings;
+		protected double cost;  // $Substring.estimatedCost$ of $v$, used just by $buildSeeds$ and $seed$
+
+		/**
+		 * @param address of $v$ in $stack$;
+		 * @param w temporary, reused container.
+		 */
+		public SubtreeRecord(Stream stack, RigidStream characterStack, SimpleStream pointerStack, Substring[] cache, long address, Substring w) {
+			final long length;
+			long i, previous;
+
+			this.stack = new Stream(Constants.LONGS_PER_REGION);
+			this.characterStack = new RigidStream(log2alphabetLength,Constants.LONGS_PER_REGION_CHARACTERSTACK);
+			stack.setPosition(address);
+			w.read(stack,null,false,true,false);
+			length=w.length;
+			previous=0; nSubstrings=0;
+			for (i=0; i<=length; i++) {
+				if (i<length) {
+					// $\epsilon$ is at address zero, and the ancestor of length $i>0$ is in
+					// $pointerStack$, since $v$ has not been extended.
+					stack.setPosition(i==0?0:pointerStack.getElementAt(i-1));
+					w.read(stack,null,false,true,false);
+					if (i>0) this.characterStack.push(characterStack.getElementAt(i-1));
+				}
+				else {
+					stack.setPosition(address);
+					w.read(stack,null,false,true,false);
+				}
+				w.previousAddress=previous;
+				w.push(this.stack,null);  // Not altering the cache
+				previous=w.address;
+				nSubstrings++;
+			}
+			this.cache = new Substring[Constants.CACHE_SIZE];
+			for (int j=0; j<Constants.CACHE_SIZE; j++) {
+				this.cache[j]=SUBSTRING_CLASS.getInstance();
+				cache[j].clone(this.cache[j]);
+			}
+		}
+
+		/**
+		 * Sorts records by decreasing $cost$.
+		 */
+		public int compareTo(SubtreeRecord other) {
+			return Double.compare(other.cost,cost);
+		}
+	}
+
 /*                      _____ _                        _
                        |_   _| |                      | |
                          | | | |__  _ __ ___  __ _  __| |___
@@ -332,29 +1154,39 @@ public class SubstringIterator {
                          | | | | | | | |  __/ (_| | (_| \__ \
                          \_/ |_| |_|_|  \___|\__,_|\__,_|___/                           */
 	/**
-	 * @param nThreads maximum number of threads to be used during traversal.
+	 * Traverses the trie with $Constants.N_THREADS$ $SubstringIteratorThread$s, or with
+	 * $runTasks$ if $Constants.TASK_TRAVERSAL$ is true.
 	 */
 	public void run() {
+		if (Constants.TASK_TRAVERSAL) {
+			runTasks();
+			return;
+		}
 		int i, nCharacters;
 		long previous;
 		SubstringIteratorThread[] threads = new SubstringIteratorThread[Constants.N_THREADS];
 		AtomicInteger donorGenerator = new AtomicInteger();
 		CountDownLatch latch = new CountDownLatch(Constants.N_THREADS);
-		for (i=0; i<Constants.N_THREADS; i++) threads[i] = new SubstringIteratorThread(threads,i,donorGenerator,latch);
-
-		// Initializing the stack of $threads[0]$ with an artificial substring followed by
-		// $\epsilon$. The artificial substring is pushed in order to detect when the
-		// stack becomes empty by issuing $stack.getPosition()>0$, since we cannot store
-		// negative numbers in the stack. Thus, a stack always contains at least the
-		// artificial string, except for the stacks of threads different from $threads[0]$
-		// immediately after their creation.
-		Substring epsilon = SUBSTRING_CLASS.getEpsilon(C);
-		epsilon.push(threads[0].stack,null);
-		threads[0].stack.setPosition(0);
-		epsilon.deallocate(); epsilon=null;
-		threads[0].nStrings=1;
-		threads[0].nStringsNotExtended=1;
-		threads[0].nShortStringsNotExtended=0;
+		IdleThreads idleThreads = new IdleThreads(Constants.N_THREADS);
+		for (i=0; i<Constants.N_THREADS; i++) threads[i] = new SubstringIteratorThread(threads,i,donorGenerator,latch,idleThreads);
+
+		if (Constants.N_THREADS>1 && Constants.SEEDS_PER_THREAD>0 && alphabetLength>1 && Constants.MAX_STRING_LENGTH_FOR_SPLIT>0) nExtended=seed(threads);
+		else {
+			// Initializing the stack of $threads[0]$ with an artificial substring followed
+			// by $\epsilon$. The artificial substring is pushed in order to detect when the
+			// stack becomes empty by issuing $stack.getPosition()>0$, since we cannot
+			// store negative numbers in the stack. Thus, a stack always contains at least
+			// the artificial string, except for the stacks of threads different from
+			// $threads[0]$ immediately after their creation.
+			Substring epsilon = SUBSTRING_CLASS.getEpsilon(C);
+			epsilon.push(threads[0].stack,null);
+			threads[0].stack.setPosition(0);
+			epsilon.deallocate(); epsilon=null;
+			threads[0].nStrings=1;
+			threads[0].nStringsNotExtended=1;
+			threads[0].nShortStringsNotExtended=0;
+			nExtended=0;
+		}
 
 		// Launching all threads
 		for (i=0; i<Constants.N_THREADS; i++) threads[i].start();
@@ -363,7 +1195,291 @@ public class SubstringIterator {
 			e.printStackTrace();
 			System.exit(1);
 		}
-		for (i=0; i<Constants.N_THREADS; i++) threads[i].deallocate();
+		idleTimes = new long[Constants.N_THREADS];
+		nExtendedByThread = new long[Constants.N_THREADS];
+		for (i=0; i<Constants.N_THREADS; i++) {
+			nExtended+=threads[i].nExtended;
+			idleTimes[i]=threads[i].idleTime;
+			nExtendedByThread[i]=threads[i].nExtended;
+			threads[i].deallocate();
+		}
+	}
+
+
+	/**
+	 * Assigns the seeds built by $buildSeeds$ to the $seeds$ deques of $threads$ before
+	 * the threads start: in order of decreasing $Substring.estimatedCost$, to the thread
+	 * with smallest total cost so far \cite{graham1969bounds}. Every thread takes its
+	 * largest seeds first.
+	 *
+	 * @param threads assumes $alphabetLength>1$ and
+	 * $Constants.MAX_STRING_LENGTH_FOR_SPLIT>0$, otherwise $run$ does not seed.
+	 * @return the number of substrings extended.
+	 */
+	private final long seed(SubstringIteratorThread[] threads) {
+		final int nThreads = threads.length;
+		int i, j, minLoad;
+		double[] load;
+		int[] owner;
+		long[] out = new long[1];
+		SubtreeRecord[] seeds = buildSeeds(nThreads,out);
+
+		load = new double[nThreads];
+		owner = new int[seeds.length];
+		for (i=0; i<seeds.length; i++) {
+			minLoad=0;
+			for (j=1; j<nThreads; j++) {
+				if (load[j]<load[minLoad]) minLoad=j;
+			}
+			owner[i]=minLoad;
+			load[minLoad]+=seeds[i].cost;
+		}
+		for (i=seeds.length-1; i>=0; i--) threads[owner[i]].seeds.push(seeds[i]);
+		return out[0];
+	}
+
+
+	/**
+	 * Explores sequentially, with $extendLeft$, all the substrings of length less than
+	 * $k$, where $k$ is the smallest integer such that $alphabetLength^k$ is at least
+	 * $Constants.SEEDS_PER_THREAD$ times $nThreads$, or
+	 * $Constants.MAX_STRING_LENGTH_FOR_SPLIT$ if smaller (see $seedLength$). The substrings
+	 * of length $k$ that should be extended become $SubtreeRecord$s, i.e. seeds, which
+	 * are distributed by $seed$ to threads and by $runTasks$ to tasks.
+	 *
+	 * Remark: $k$ is capped because a thread can steal from the stack of a seed only the
+	 * substrings of length at most $Constants.MAX_STRING_LENGTH_FOR_SPLIT$: longer seeds
+	 * would make every seeded stack impossible to steal from, and threads that run out
+	 * of seeds would stay idle. With many threads there can thus be fewer than
+	 * $Constants.SEEDS_PER_THREAD$ seeds per thread, and balance relies on stealing.
+	 *
+	 * @param nThreads assumes $alphabetLength>1$ and
+	 * $Constants.MAX_STRING_LENGTH_FOR_SPLIT>0$;
+	 * @param out output array: cell 0 contains the number of substrings extended;
+	 * @return the seeds, sorted by decreasing $Substring.estimatedCost$.
+	 */
+	private final SubtreeRecord[] buildSeeds(int nThreads, long[] out) {
+		final long minSeeds = ((long)Constants.SEEDS_PER_THREAD)*nThreads;
+		final int k = seedLength(alphabetLength,minSeeds);
+		int i, n, nSeeds;
+		long nStringsNotExtended, nExtended, address, backupPointer;
+		long[] newAddresses = new long[alphabetLength+1];
+		SubtreeRecord[] seeds, newSeeds;
+		Workspace workspace = new Workspace();
+		Stream stack = new Stream(Constants.LONGS_PER_REGION);
+		RigidStream characterStack = new RigidStream(log2alphabetLength,Constants.LONGS_PER_REGION_CHARACTERSTACK);
+		SimpleStream pointerStack = new SimpleStream(Constants.LONGS_PER_REGION_POINTERSTACK);
+		Substring[] cache = new Substring[Constants.CACHE_SIZE];
+		Substring w = SUBSTRING_CLASS.getInstance();
+		Substring epsilon = SUBSTRING_CLASS.getEpsilon(C);
+
+		for (i=0; i<Constants.CACHE_SIZE; i++) cache[i]=SUBSTRING_CLASS.getInstance();
+		epsilon.push(stack,null);
+		stack.setPosition(0);
+		epsilon.deallocate(); epsilon=null;
+		nStringsNotExtended=1; nExtended=0;
+		seeds = new SubtreeRecord[(int)Math.min(minSeeds,Math.pow(alphabetLength,k))];
+		nSeeds=0;
+		while (nStringsNotExtended>0) {
+			workspace.extendLeft(stack,characterStack,pointerStack,cache);
+			nStringsNotExtended+=workspace.out[1];
+			nExtended+=workspace.out[3];
+			if (workspace.out[3]==0 || workspace.w.length!=k-1) continue;
+
+			// Moving all the left-extensions of $workspace.w$, which have length $k$, to
+			// $seeds$, and marking them as stolen, so that $extendLeft$ discards them.
+			n=(int)workspace.out[1]+1;
+			backupPointer=stack.getPosition();
+			address=backupPointer;
+			for (i=n-1; i>=0; i--) {
+				newAddresses[i]=address;
+				stack.setPosition(address);
+				w.read(stack,null,true,true,true);
+				address=w.previousAddress;
+			}
+			for (i=0; i<n; i++) {
+				if (nSeeds==seeds.length) {
+					newSeeds = new SubtreeRecord[seeds.length<<1];
+					System.arraycopy(seeds,0,newSeeds,0,nSeeds);
+					seeds=newSeeds;
+				}
+				seeds[nSeeds] = new SubtreeRecord(stack,characterStack,pointerStack,cache,newAddresses[i],w);
+				seeds[nSeeds].cost=w.estimatedCost();
+				nSeeds++;
+				stack.setPosition(newAddresses[i]);
+				w.read(stack,null,true,true,true);
+				w.markAsStolen(stack);
+			}
+			stack.setPosition(backupPointer);
+			nStringsNotExtended-=n;
+		}
+
+		stack.deallocate(); characterStack.deallocate(); pointerStack.deallocate();
+		for (i=0; i<Constants.CACHE_SIZE; i++) cache[i].deallocate();
+		w.deallocate();
+		Arrays.sort(seeds,0,nSeeds);
+		out[0]=nExtended;
+		return nSeeds==seeds.length?seeds:Arrays.copyOf(seeds,nSeeds);
+	}
+
+
+	/**
+	 * @return the length $k$ of the seeds built by $seed$: the smallest $k \geq 1$ such
+	 * that $alphabetLength^k \geq minSeeds$, or $Constants.MAX_STRING_LENGTH_FOR_SPLIT$
+	 * if smaller.
+	 */
+	public static final int seedLength(int alphabetLength, long minSeeds) {
+		int k = 1;
+		long nStrings = alphabetLength;
+		while (nStrings<minSeeds && k<Constants.MAX_STRING_LENGTH_FOR_SPLIT) {
+			k++;
+			nStrings*=alphabetLength;
+		}
+		return k;
+	}
+
+
+	/**
+	 * Alternative to the threads of $run$, used iff $Constants.TASK_TRAVERSAL$ is true:
+	 * the trie is explored by $SubtreeTask$s in a $ForkJoinPool$ with
+	 * $Constants.N_THREADS$ workers, which performs work stealing and detects
+	 * termination. Seeds are built as in $run$ (see $buildSeeds$), and the root task
+	 * forks one task per seed, in order of decreasing $Substring.estimatedCost$: since
+	 * idle workers steal the oldest tasks first, the largest seeds start first. Without
+	 * seeds, the root task contains $\epsilon$. The run ends when the root task and all
+	 * the tasks forked from it, recursively, have completed.
+	 */
+	private final void runTasks() {
+		final AtomicLong extended = new AtomicLong();
+		final ForkJoinPool pool = new ForkJoinPool(Constants.N_THREADS);
+		final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+			protected Workspace initialValue() { return new Workspace(); }
+		};
+		long[] out;
+		SubtreeTask root = new SubtreeTask(null,workspaces,extended);
+
+		if (Constants.N_THREADS>1 && Constants.SEEDS_PER_THREAD>0 && alphabetLength>1 && Constants.MAX_STRING_LENGTH_FOR_SPLIT>0) {
+			out = new long[1];
+			root.seeds=buildSeeds(Constants.N_THREADS,out);
+			extended.set(out[0]);
+		}
+		else {
+			// Initializing the stack of $root$ with $\epsilon$, as in $run$.
+			Substring epsilon = SUBSTRING_CLASS.getEpsilon(C);
+			epsilon.push(root.stack,null);
+			root.stack.setPosition(0);
+			epsilon.deallocate(); epsilon=null;
+			root.nStrings=1;
+			root.nStringsNotExtended=1;
+			root.nShortStringsNotExtended=0;
+		}
+
+		pool.invoke(root);
+		pool.shutdown();
+		nExtended=extended.get();
+		idleTimes=null;
+		nExtendedByThread=null;
+	}
+
+
+	/**
+	 * @return the number of substrings extended by the last call to $run$.
+	 */
+	public final long nExtended() {
+		return nExtended;
+	}
+
+
+	/**
+	 * @return for each $SubstringIteratorThread$ of the last call to $run$, the time (in
+	 * nanoseconds) in which its stack was empty; NULL if the last call used tasks.
+	 */
+	public final long[] idleTimes() {
+		return idleTimes;
+	}
+
+
+	/**
+	 * @return for each $SubstringIteratorThread$ of the last call to $run$, the number of
+	 * substrings it extended; NULL if the last call used tasks.
+	 */
+	public final long[] nExtendedByThread() {
+		return nExtendedByThread;
+	}
+
+
+	/**
+	 * Termination detection for $SubstringIteratorThread$s. A thread whose stack is empty,
+	 * and which has failed to steal from all other threads, declares itself idle and
+	 * waits. A thread that has work that can be stolen wakes up one idle thread per idle
+	 * thread that has not been woken up yet, and an awakened thread tries to steal again.
+	 * The traversal ends when all threads are idle: since work is created only by
+	 * threads that are not idle, and since a thread is idle only when its stack is empty,
+	 * at that point all stacks are empty.
+	 *
+	 * Remark: a thread that becomes idle right after a donor has checked $nIdle$ misses
+	 * that signal, but the donor checks $nIdle$ again after its next extension, as long
+	 * as it has work that can be stolen.
+	 */
+	private static class IdleThreads {
+		private final int nThreads;
+		private volatile int nIdle;  // Written only inside $synchronized$ blocks
+		private int nSignals;  // Number of idle threads that have been woken up, but that have not resumed yet
+		private boolean done;
+
+		public IdleThreads(int nThreads) {
+			this.nThreads=nThreads;
+			nIdle=0; nSignals=0;
+			done=false;
+		}
+
+		/**
+		 * Called by a thread whose stack is empty, and which has failed to steal.
+		 *
+		 * @return TRUE if the thread should try to steal again, FALSE if the traversal is
+		 * over.
+		 */
+		public synchronized boolean await() {
+			nIdle++;
+			if (nIdle==nThreads) {
+				done=true;
+				notifyAll();
+				return false;
+			}
+			while (!done && nSignals==0) {
+				try { wait(); }
+				catch(InterruptedException e) {
+					e.printStackTrace();
+					System.exit(1);
+				}
+			}
+			if (done) return false;
+			nSignals--;
+			nIdle--;
+			return true;
+		}
+
+		/**
+		 * @return TRUE if some thread might be idle. Takes no lock.
+		 */
+		public final boolean isAnyIdle() {
+			return nIdle>0;
+		}
+
+
+		/**
+		 * Called by a thread that has work that can be stolen. Takes no lock if no thread
+		 * is idle.
+		 */
+		public final void signal() {
+			if (nIdle==0) return;
+			synchronized(this) {
+				if (nIdle>nSignals) {
+					nSignals++;
+					notify();
+				}
+			}
+		}
 	}
 
 
@@ -383,21 +1499,29 @@ public class SubstringIterator {
 	 *
 	 * Remark: A simple lower bound on the size of the donor stack up to the prefix
 	 * threshold tries to limit cases in which splitting the stack is slower than having
-	 * it processed by the donor itself. We use this simple strategy because this engine
-	 * is general-purpose, so we cannot estimate exploration time (we might add a
-	 * corresponding method to $Substring$ and force subclasses to extend it: we leave
-	 * this to future extensions).
+	 * it processed by the donor itself. By default, donors and split points are chosen
+	 * by the number of short substrings that have not been extended. Each $Substring$
+	 * class also estimates its exploration time (see $Substring.estimatedCost$), and
+	 * $Constants.COST_BASED_STEALING$ chooses them by the sum of such estimates instead;
+	 * this is disabled by default, since the current estimates balanced the load worse
+	 * than counting in the $balance$ benchmark.
 	 *
 	 * Remark: Another possible improvement described in \cite{rao1987parallel} consists
 	 * in avoiding the synchronization with the donor thread if the donor is working
-	 * deeply enough with respect to the split prefix. Once again, we can't implement this
-	 * approach in a general-purpose engine, because we cannot estimate expansion time.
+	 * deeply enough with respect to the split prefix. We don't implement this test,
+	 * since it would need an estimate of the time the donor takes to reach the split
+	 * prefix, and $Substring.estimatedCost$ is not accurate enough. Instead, if
+	 * $Constants.LOCK_FREE_STEALING$ is true, synchronization with the donor is avoided
+	 * altogether: while another thread is idle, short substrings are published in a
+	 * lock-free deque, and they are stolen one at a time (see $StealableSubstrings$).
 	 *
 	 * Remark: We choose not to precompute a large, static set of fine-grained, fixed-size
 	 * workpackets, as described in \cite{reinefeld1994work}, because we want to use as
 	 * little space as possible -- voluntarily paying the smaller space with the workload
 	 * imbalance and communication overheads that come from dynamic workpackets of
-	 * variable size.
+	 * variable size. We just precompute $Constants.SEEDS_PER_THREAD$ workpackets per
+	 * thread, of variable size, so that threads do not start by stealing from a single
+	 * thread (see $seed$).
 	 */
 	protected class SubstringIteratorThread extends Thread {
 		/**
@@ -410,12 +1534,19 @@ public class SubstringIterator {
 		protected long nStrings;  // Total number of strings in $stack$
 		protected long nStringsNotExtended;  // Number of strings in $stack$ that have not been extended
 		protected long nShortStringsNotExtended;  // Number of strings in $stack$ that have not been extended, and that have length in $[1..MAX_STRING_LENGTH_FOR_SPLIT]$.
+		protected double shortWork;  // Sum of $Substring.estimatedCost$ over the strings counted by $nShortStringsNotExtended$
+		protected long nExtended;  // Number of strings extended by this thread
+		protected long idleTime;  // Time in which $stack$ was empty (in nanoseconds)
+		private Workspace workspace;
+		private StealableSubstrings stealable;  // NULL iff $stealWork$ is used
+		protected WorkStealingDeque<SubtreeRecord> seeds;  // Assigned by $seed$
 		private boolean isAlive;  // Flags a dead thread
 		private SubstringIteratorThread[] threads;  // Pointers to all threads
 		private final int nThreads;  // Number of threads in $threads$
 		private final int threadID;  // Position of this thread in $threads$
 		private AtomicInteger donorGenerator;  // Global generator of donor pointers
 		private CountDownLatch latch;  // Global barrier
+		private IdleThreads idleThreads;  // Global termination detection
 		private XorShiftStarRandom random;
 
 		/*
@@ -428,18 +1559,21 @@ public class SubstringIterator {
 		private long newStack_previousSubstringAddress;
 
 
-		public SubstringIteratorThread(SubstringIteratorThread[] threads, int threadID, AtomicInteger donorGenerator, CountDownLatch latch) {
+		public SubstringIteratorThread(SubstringIteratorThread[] threads, int threadID, AtomicInteger donorGenerator, CountDownLatch latch, IdleThreads idleThreads) {
 			this.threads=threads;
 			nThreads=threads.length;
 			this.threadID=threadID;
 			this.donorGenerator=donorGenerator;
 			this.latch=latch;
+			this.idleThreads=idleThreads;
 			stack = new Stream(Constants.LONGS_PER_REGION);
 			characterStack = new RigidStream(log2alphabetLength,Constants.LONGS_PER_REGION_CHARACTERSTACK);
 			pointerStack = new SimpleStream(Constants.LONGS_PER_REGION_POINTERSTACK);
 			cache = new Substring[Constants.CACHE_SIZE];
 			for (int i=0; i<Constants.CACHE_SIZE; i++) cache[i]=SUBSTRING_CLASS.getInstance();
 			random = new XorShiftStarRandom();
+			if (Constants.LOCK_FREE_STEALING && nThreads>1) stealable = new StealableSubstrings();
+			seeds = new WorkStealingDeque<SubtreeRecord>();
 		}
 
 
@@ -452,53 +1586,213 @@ public class SubstringIterator {
 				cache[i]=null;
 			}
 			cache=null;
+			workspace=null;
 			threads=null;
+			idleThreads=null;
 			donor=null;
 			donorStack=null;
+			stealable=null;
+			seeds=null;
 		}
 
 
 		public void run() {
-			int i;
-			Substring[] leftExtensions = new Substring[alphabetLength+1];
-			for (i=0; i<alphabetLength+1; i++) leftExtensions[i]=SUBSTRING_CLASS.getInstance();
-			final int maxPositions = SUBSTRING_CLASS.MAX_INTERVALS<<1;
-			Position[] positions = new Position[maxPositions];
-			for (i=0; i<maxPositions; i++) positions[i] = new Position();
-			long[][] multirankStack = new long[alphabetLength-1][1+maxPositions];
-			long[][] multirankOutput = new long[alphabetLength][maxPositions];
-			long[] multirankOnes = new long[maxPositions];
-			long[] extendLeftOutput = new long[3];
-			int[] extensionBuffer = new int[alphabetLength+1];
-			for (i=0; i<=alphabetLength; i++) extensionBuffer[i]=-1;
-			boolean[] shouldBeExtendedLeft = new boolean[alphabetLength+1];
-			for (i=0; i<=alphabetLength; i++) shouldBeExtendedLeft[i]=false;
-			Substring w = SUBSTRING_CLASS.getInstance();
+			workspace = new Workspace();
+			workspace.stealable=stealable;
 
 			isAlive=true;
-			if (Constants.N_THREADS>1 && nStringsNotExtended==0) stealWork();
-			while (nStringsNotExtended>0) {
+			do {
 				// Exhausting the current stack
-				while (true) {
-					synchronized(this) {
-						if (nStringsNotExtended>0) {
-							extendLeft(stack,characterStack,pointerStack,w,leftExtensions,positions,multirankStack,multirankOutput,multirankOnes,Constants.MAX_STRING_LENGTH_FOR_SPLIT,extendLeftOutput,extensionBuffer,shouldBeExtendedLeft,cache);
-							nStrings+=extendLeftOutput[0];
-							nStringsNotExtended+=extendLeftOutput[1];
-							nShortStringsNotExtended+=extendLeftOutput[2];
+				if (stealable!=null) exhaustLockFree();
+				else {
+					while (true) {
+						synchronized(this) {
+							if (nStringsNotExtended>0) {
+								workspace.extendLeft(stack,characterStack,pointerStack,cache);
+								nStrings+=workspace.out[0];
+								nStringsNotExtended+=workspace.out[1];
+								nShortStringsNotExtended+=workspace.out[2];
+								shortWork+=workspace.work[0];
+								nExtended+=workspace.out[3];
+							}
+							else break;
 						}
-						else break;
+						if (nShortStringsNotExtended>=Constants.DONOR_STACK_LOWERBOUND || seeds.size()>0) idleThreads.signal();
 					}
 				}
-				// Trying to get a new stack
-				if (Constants.N_THREADS>1) stealWork();
 			}
-			// Terminating if unable to steal work
+			while (takeSeed() || (Constants.N_THREADS>1 && getWork()));
+			// Terminating when all stacks are empty
 			isAlive=false;
 			latch.countDown();
 
 java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
-System.out.println(sdf.format(new java.util.Date())+"> thread "+this+" ends");
+System.out.println(sdf.format(new java.util.Date())+"> thread "+this+" ends, idle for "+(idleTime/1000000)+" ms");
+		}
+
+
+		/**
+		 * Replaces the empty stacks of this thread with its largest remaining seed.
+		 *
+		 * @return FALSE iff no seed is left.
+		 */
+		private final boolean takeSeed() {
+			final SubtreeRecord record = seeds.take();
+			if (record==null) return false;
+			load(record);
+			return true;
+		}
+
+
+		/**
+		 * Steals the smallest remaining seed of the thread with most seeds.
+		 *
+		 * @return FALSE iff no seed is left in other threads.
+		 */
+		private final boolean stealSeed() {
+			int j, donorID;
+			long size, maxSize;
+			SubtreeRecord record;
+
+			while (true) {
+				maxSize=0; donorID=-1;
+				for (j=0; j<nThreads; j++) {
+					if (j==threadID) continue;
+					size=threads[j].seeds.size();
+					if (size>maxSize) {
+						maxSize=size;
+						donorID=j;
+					}
+				}
+				if (donorID==-1) return false;
+				record=threads[donorID].seeds.steal();
+				if (record!=null) {
+					load(record);
+					return true;
+				}
+			}
+		}
+
+
+		/**
+		 * Gets a new stack with $stealSeed$, $stealWork$ or $stealRecord$, waiting in
+		 * $idleThreads$ whenever no other thread has work that can be stolen.
+		 *
+		 * @return FALSE iff the stacks of all threads are empty.
+		 */
+		private final boolean getWork() {
+			final long time = System.nanoTime();
+			boolean out;
+
+			while (true) {
+				if (stealSeed() || (stealable!=null?stealRecord():stealWork())) {
+					out=true;
+					break;
+				}
+				if (!idleThreads.await()) {
+					out=false;
+					break;
+				}
+			}
+			idleTime+=System.nanoTime()-time;
+			return out;
+		}
+
+
+		/**
+		 * Variant of the inner loop of $run$, used iff $Constants.LOCK_FREE_STEALING$ is
+		 * true: the thread never locks its stacks, it publishes short substrings of its
+		 * stack in $stealable$ only while another thread is idle and nothing it published
+		 * is left, and it gets a new stack with $stealRecord$.
+		 */
+		private final void exhaustLockFree() {
+			while (nStringsNotExtended>0) {
+				workspace.extendLeft(stack,characterStack,pointerStack,cache);
+				nStrings+=workspace.out[0];
+				nStringsNotExtended+=workspace.out[1];
+				nShortStringsNotExtended+=workspace.out[2];
+				shortWork+=workspace.work[0];
+				nExtended+=workspace.out[3];
+				if (stealable.deque.size()==0 && idleThreads.isAnyIdle()) stealable.publish(stack,characterStack,pointerStack,cache);
+				if (stealable.deque.size()>0 || seeds.size()>0) idleThreads.signal();
+			}
+		}
+
+
+		/**
+		 * Lock-free version of $stealWork$: pops the oldest record from the $stealable$
+		 * deque of the thread with most estimated work (or with most records, if
+		 * $Constants.COST_BASED_STEALING$ is false), and replaces the stacks of this thread
+		 * with it. The donor keeps working during the whole process, and it discovers
+		 * that the substring has been stolen only when it tries to extend it.
+		 *
+		 * @return FALSE if no record could be stolen in $nThreads-1$ attempts.
+		 */
+		private final boolean stealRecord() {
+			int j, d, donorID;
+			double size, maxSize;
+			SubtreeRecord record;
+
+			for (d=1; d<nThreads; d++) {
+				// Sizes are measured without synchronization: this is just an
+				// approximation.
+				maxSize=Double.NEGATIVE_INFINITY; donorID=-1;
+				for (j=0; j<nThreads; j++) {
+					if (j==threadID || threads[j].stealable.deque.size()==0) continue;
+					size=Constants.COST_BASED_STEALING?threads[j].shortWork:threads[j].stealable.deque.size();
+					if (size>maxSize) {
+						maxSize=size;
+						donorID=j;
+					}
+				}
+				if (donorID==-1) break;
+				record=threads[donorID].stealable.deque.steal();
+				if (record!=null) {
+					load(record);
+					return true;
+				}
+			}
+			return false;
+		}
+
+
+		/**
+		 * Replaces the stacks of this thread with a copy of $record$. Since the copy is
+		 * built by pushing the substrings of $record$ in the same order onto an empty
+		 * $stack$, the addresses in the copy are those in $record$. The substring that has
+		 * not been extended is not published again.
+		 */
+		private final void load(SubtreeRecord record) {
+			long i, previous;
+			Substring w = workspace.w;
+
+			stack.clear(false);  // Avoids reallocation
+			characterStack.clear(false);
+			pointerStack.clear(false);
+			nStrings=0; previous=0;
+			record.stack.setPosition(0);
+			for (i=0; i<record.nSubstrings; i++) {
+				w.read(record.stack,null,false,true,false);
+				w.previousAddress=previous;
+				w.push(stack,null);  // Not altering the cache
+				nStrings++;
+				if (w.hasBeenExtended && w.length>0) {
+					characterStack.push(record.characterStack.getElementAt(w.length-1));
+					pointerStack.push(w.address);
+				}
+				previous=w.address;
+			}
+			stack.setPosition(previous);
+			nStringsNotExtended=1;
+			if (w.length<=Constants.MAX_STRING_LENGTH_FOR_SPLIT) {  // Seeds can be longer
+				nShortStringsNotExtended=1;
+				shortWork=w.estimatedCost();
+			}
+			else {
+				nShortStringsNotExtended=0;
+				shortWork=0;
+			}
+			for (i=0; i<Constants.CACHE_SIZE; i++) record.cache[(int)i].clone(cache[(int)i]);
 		}
 
 
@@ -507,85 +1801,94 @@ System.out.println(sdf.format(new java.util.Date())+"> thread "+this+" ends");
 		 * otherwise another thread could start using $this$ as a donor before copying is
 		 * complete.
 		 * Remark: the procedure avoids reallocating memory.
+		 * Remark: if $Constants.COST_BASED_STEALING$ is true, the size of a thread is its
+		 * $shortWork$, and the receiver copies substrings that have not been extended
+		 * until it has copied half of the $shortWork$ of the donor, leaving at least one
+		 * to the donor. Otherwise, the size of a thread is its $nShortStringsNotExtended$,
+		 * and the receiver copies half of them.
+		 *
+		 * @return FALSE if no donor could be found in one round over all threads.
 		 */
-		private final void stealWork() {
+		private final boolean stealWork() {
 			int i, j, d, tmp;
-			long copied, toBeCopied, backupPointer, cumulativeSize, maxSize, value;
+			long copied, toBeCopied, backupPointer, cumulativeSize;
+			double maxSize, value, workToBeCopied;
 			int[] threadIDs = new int[nThreads];
-			long[] threadSize = new long[nThreads];
-			long[] tmpArray = new long[nThreads];
+			double[] threadSize = new double[nThreads];
+			double[] tmpArray = new double[nThreads];
 			Substring w = SUBSTRING_CLASS.getInstance();
 			for (i=0; i<nThreads; i++) threadIDs[i]=i;
 			threadIDs[0]=threadID; threadIDs[threadID]=0;
 
-			// Trying $N_STEALING_ATTEMPTS$ times before giving up
-			for (i=0; i<Constants.N_STEALING_ATTEMPTS; i++) {
-				for (d=1; d<nThreads; d++) {
-					// Measuring the size of each thread outside mutual exclusion:
-					// this is just an approximation.
-					cumulativeSize=0;
-					maxSize=0;
-					for (j=0; j<nThreads; j++) {
-						threadSize[j]=threads[j].nShortStringsNotExtended;
-						if (threadSize[j]>maxSize) maxSize=threadSize[j];
-						cumulativeSize+=threadSize[j];
-					}
-					if (cumulativeSize>=nThreads) {
-						System.arraycopy(threadSize,0,tmpArray,0,nThreads);
-						Arrays.sort(tmpArray);
-						do {
-							value=tmpArray[nThreads-1-(nThreads>>2>0?random.nextInt(nThreads>>2):0)];  // Randomly sampling among the top $nThreads/4$ threads
-							for (j=0; j<nThreads; j++) {
-								if (threadSize[j]==value) break;
-							}
+			for (d=1; d<nThreads; d++) {
+				// Measuring the size of each thread outside mutual exclusion:
+				// this is just an approximation.
+				cumulativeSize=0;
+				maxSize=0;
+				for (j=0; j<nThreads; j++) {
+					threadSize[j]=Constants.COST_BASED_STEALING?threads[j].shortWork:threads[j].nShortStringsNotExtended;
+					if (threadSize[j]>maxSize) maxSize=threadSize[j];
+					cumulativeSize+=threads[j].nShortStringsNotExtended;
+				}
+				if (cumulativeSize>=nThreads) {
+					System.arraycopy(threadSize,0,tmpArray,0,nThreads);
+					Arrays.sort(tmpArray);
+					do {
+						value=tmpArray[nThreads-1-(nThreads>>2>0?random.nextInt(nThreads>>2):0)];  // Randomly sampling among the top $nThreads/4$ threads
+						for (j=0; j<nThreads; j++) {
+							if (threadSize[j]==value) break;
 						}
-						while (j==threadID);
 					}
-					else {
-						// Randomly choosing a thread
-						j=d+random.nextInt(nThreads-d);
-						if (j!=d) {
-							tmp=threadIDs[d]; threadIDs[d]=threadIDs[j]; threadIDs[j]=tmp;
-						}
-						j=threadIDs[d];
+					while (j==threadID);
+				}
+				else {
+					// Randomly choosing a thread
+					j=d+random.nextInt(nThreads-d);
+					if (j!=d) {
+						tmp=threadIDs[d]; threadIDs[d]=threadIDs[j]; threadIDs[j]=tmp;
 					}
-					donor=threads[j];
-					synchronized(donor) {
-						if (donor.isAlive && donor.nShortStringsNotExtended>=Constants.DONOR_STACK_LOWERBOUND) {
-							synchronized(this) {
-								donorStack=donor.stack;
-								donorStackLength=donorStack.nBits();
-								donorCharacterStack=donor.characterStack;
-								stack.clear(false);  // Avoids reallocation
-								characterStack.clear(false);
-								pointerStack.clear(false);
-								nStrings=0;
-								nStringsNotExtended=0;
-								nShortStringsNotExtended=0;
-								newStack_previousSubstringAddress=0;
+					j=threadIDs[d];
+				}
+				donor=threads[j];
+				synchronized(donor) {
+					if (donor.isAlive && donor.nShortStringsNotExtended>=Constants.DONOR_STACK_LOWERBOUND) {
+						synchronized(this) {
+							donorStack=donor.stack;
+							donorStackLength=donorStack.nBits();
+							donorCharacterStack=donor.characterStack;
+							stack.clear(false);  // Avoids reallocation
+							characterStack.clear(false);
+							pointerStack.clear(false);
+							nStrings=0;
+							nStringsNotExtended=0;
+							nShortStringsNotExtended=0;
+							shortWork=0;
+							newStack_previousSubstringAddress=0;
+							if (Constants.COST_BASED_STEALING) {
+								toBeCopied=donor.nShortStringsNotExtended-1;
+								workToBeCopied=donor.shortWork/2;
+							}
+							else {
 								toBeCopied=donor.nShortStringsNotExtended>>1;
-								copied=0;
-								backupPointer=donorStack.getPosition();
-								donorStack.setPosition(0);
-								while (copied<toBeCopied) {
-									w.read(donorStack,null,false,true,false);
-									if (!w.hasBeenExtended && !w.hasBeenStolen) copied++;
-									if (!w.hasBeenStolen) copy(w);
-								}
-								stack.setPosition(newStack_previousSubstringAddress);
-								donorStack.setPosition(backupPointer);
-								for (j=0; j<Constants.CACHE_SIZE; j++) donor.cache[j].clone(cache[j]);
-								return;
+								workToBeCopied=Double.POSITIVE_INFINITY;
+							}
+							copied=0;
+							backupPointer=donorStack.getPosition();
+							donorStack.setPosition(0);
+							while (copied<toBeCopied && (copied==0 || shortWork<workToBeCopied)) {
+								w.read(donorStack,null,false,true,false);
+								if (!w.hasBeenExtended && !w.hasBeenStolen) copied++;
+								if (!w.hasBeenStolen) copy(w);
 							}
+							stack.setPosition(newStack_previousSubstringAddress);
+							donorStack.setPosition(backupPointer);
+							for (j=0; j<Constants.CACHE_SIZE; j++) donor.cache[j].clone(cache[j]);
+							return true;
 						}
 					}
 				}
-				try { Thread.sleep(random.nextLong(Constants.MAX_WAITING_TIME)); }
-				catch(InterruptedException e) {
-					e.printStackTrace();
-					System.exit(1);
-				}
 			}
+			return false;
 		}
 
 
@@ -596,10 +1899,15 @@ System.out.println(sdf.format(new java.util.Date())+"> thread "+this+" ends");
 		 * out and discarded by $extendLeft$.
 		 */
 		private final void copy(Substring w) {
+			final double cost;
+
 			if (!w.hasBeenExtended) {
 				w.markAsStolen(donorStack);
+				cost=w.estimatedCost();
 				donor.nStringsNotExtended--;
 				donor.nShortStringsNotExtended--;
+				donor.shortWork-=cost;
+				shortWork+=cost;
 			}
 			w.previousAddress=newStack_previousSubstringAddress;
 			w.push(stack,null);  // Not altering the cache
@@ -619,4 +1927,193 @@ System.out.println(sdf.format(new java.util.Date())+"> thread "+this+" ends");
 
 	}  // SubstringIteratorThread
 
-}
\ No newline at end of file
+
+	/**
+	 * A subtree of the trie of the reverse of $s$, with the stacks that describe it in the
+	 * format of $SubstringIteratorThread$: i.e. the substrings that have not been
+	 * extended yet, with all their extended ancestors. A task explores its stacks by
+	 * repeatedly invoking $extendLeft$, without any lock. If the queue of tasks of its
+	 * worker is empty, i.e. if there is no pending task that idle workers could steal,
+	 * and if its stacks contain at least $Constants.DONOR_STACK_LOWERBOUND$ short
+	 * substrings that have not been extended, the task moves half of them (or half of
+	 * their estimated cost, if $Constants.COST_BASED_STEALING$ is true), all at the
+	 * bottom of the stacks, to a new task, which it forks. Thus, deep subtrees stay in
+	 * the compact encoding of $Stream$, and only shallow subtrees are handed off.
+	 *
+	 * Remark: the new stacks are built as $stealWork$ builds the stacks of a receiver,
+	 * but by the owner of the stacks, so neither the owner nor the receiver is stalled.
+	 *
+	 * Remark: as in $CountedCompleter$, a task completes when its own exploration and
+	 * all the tasks split from it have completed.
+	 */
+	private class SubtreeTask extends CountedCompleter<Void> {
+		private static final long serialVersionUID = 1L;
+		protected Stream stack;
+		protected RigidStream characterStack;
+		protected SimpleStream pointerStack;
+		protected Substring[] cache;
+		protected long nStrings, nStringsNotExtended, nShortStringsNotExtended;  // As in $SubstringIteratorThread$
+		protected double shortWork;  // As in $SubstringIteratorThread$
+		protected SubtreeRecord[] seeds;  // Forked by $compute$ before exploring the stacks, if not NULL
+		private final ThreadLocal<Workspace> workspaces;  // Temporary space of each worker
+		private final AtomicLong extended;  // Number of strings extended by all tasks
+
+		public SubtreeTask(SubtreeTask parent, ThreadLocal<Workspace> workspaces, AtomicLong extended) {
+			super(parent);
+			this.workspaces=workspaces;
+			this.extended=extended;
+			stack = new Stream(Constants.LONGS_PER_REGION);
+			characterStack = new RigidStream(log2alphabetLength,Constants.LONGS_PER_REGION_CHARACTERSTACK);
+			pointerStack = new SimpleStream(Constants.LONGS_PER_REGION_POINTERSTACK);
+			cache = new Substring[Constants.CACHE_SIZE];
+			for (int i=0; i<Constants.CACHE_SIZE; i++) cache[i]=SUBSTRING_CLASS.getInstance();
+		}
+
+		public void compute() {
+			long nExtended = 0;
+			Workspace workspace;
+
+			try {
+				workspace=workspaces.get();
+				if (seeds!=null) forkSeeds(workspace.w);
+				while (nStringsNotExtended>0) {
+					workspace.extendLeft(stack,characterStack,pointerStack,cache);
+					nStrings+=workspace.out[0];
+					nStringsNotExtended+=workspace.out[1];
+					nShortStringsNotExtended+=workspace.out[2];
+					shortWork+=workspace.work[0];
+					nExtended+=workspace.out[3];
+					if (Constants.N_THREADS>1 && nShortStringsNotExtended>=Constants.DONOR_STACK_LOWERBOUND && ForkJoinTask.getQueuedTaskCount()==0) split(workspace.w);
+				}
+				extended.addAndGet(nExtended);
+				deallocate();
+			}
+			catch (Throwable e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			tryComplete();
+		}
+
+		/**
+		 * Forks one task per seed, in the order of $seeds$, and releases $seeds$.
+		 *
+		 * @param w temporary, reused container.
+		 */
+		private final void forkSeeds(Substring w) {
+			SubtreeTask task;
+
+			for (int i=0; i<seeds.length; i++) {
+				addToPendingCount(1);
+				task = new SubtreeTask(this,workspaces,extended);
+				task.load(seeds[i],w);
+				seeds[i]=null;
+				task.fork();
+			}
+			seeds=null;
+		}
+
+		/**
+		 * Initializes the empty stacks of this task with a copy of $record$, like
+		 * $SubstringIteratorThread.load$.
+		 *
+		 * @param w temporary, reused container.
+		 */
+		private final void load(SubtreeRecord record, Substring w) {
+			long i, previous;
+
+			nStrings=0; previous=0;
+			record.stack.setPosition(0);
+			for (i=0; i<record.nSubstrings; i++) {
+				w.read(record.stack,null,false,true,false);
+				w.previousAddress=previous;
+				w.push(stack,null);  // Not altering the cache
+				nStrings++;
+				if (w.hasBeenExtended && w.length>0) {
+					characterStack.push(record.characterStack.getElementAt(w.length-1));
+					pointerStack.push(w.address);
+				}
+				previous=w.address;
+			}
+			stack.setPosition(previous);
+			nStringsNotExtended=1;
+			if (w.length<=Constants.MAX_STRING_LENGTH_FOR_SPLIT) {  // Seeds can be longer
+				nShortStringsNotExtended=1;
+				shortWork=w.estimatedCost();
+			}
+			else {
+				nShortStringsNotExtended=0;
+				shortWork=0;
+			}
+			for (i=0; i<Constants.CACHE_SIZE; i++) record.cache[(int)i].clone(cache[(int)i]);
+		}
+
+		/**
+		 * Moves to a new task the first half of the short substrings in $stack$ that
+		 * have not been extended, or, if $Constants.COST_BASED_STEALING$ is true, the
+		 * first ones whose $Substring.estimatedCost$ adds up to half of $shortWork$ (as
+		 * in $SubstringIteratorThread.stealWork$), with all the extended substrings
+		 * before them, and forks the new task. Moved substrings are marked as stolen in
+		 * $stack$, so they will be popped out and discarded by $extendLeft$.
+		 *
+		 * @param w temporary, reused container.
+		 */
+		private final void split(Substring w) {
+			final long toBeCopied = Constants.COST_BASED_STEALING?nShortStringsNotExtended-1:nShortStringsNotExtended>>1;
+			final double workToBeCopied = Constants.COST_BASED_STEALING?shortWork/2:Double.POSITIVE_INFINITY;
+			final long backupPointer = stack.getPosition();
+			long copied, previous;
+			double cost;
+			SubtreeTask task;
+
+			if (toBeCopied==0) return;
+			addToPendingCount(1);
+			task = new SubtreeTask(this,workspaces,extended);
+			copied=0; previous=0;
+			stack.setPosition(0);
+			while (copied<toBeCopied && (copied==0 || task.shortWork<workToBeCopied)) {
+				w.read(stack,null,false,true,false);
+				if (w.hasBeenStolen) continue;
+				if (!w.hasBeenExtended) {
+					w.markAsStolen(stack);
+					cost=w.estimatedCost();
+					nStringsNotExtended--;
+					nShortStringsNotExtended--;
+					shortWork-=cost;
+					task.shortWork+=cost;
+					copied++;
+				}
+				w.previousAddress=previous;
+				w.push(task.stack,null);  // Not altering the cache
+				task.nStrings++;
+				if (w.hasBeenExtended) {
+					if (w.length>0) {
+						task.characterStack.push(characterStack.getElementAt(w.length-1));
+						task.pointerStack.push(w.address);
+					}
+				}
+				else {
+					task.nStringsNotExtended++;
+					task.nShortStringsNotExtended++;
+				}
+				previous=w.address;
+			}
+			task.stack.setPosition(previous);
+			stack.setPosition(backupPointer);
+			for (int i=0; i<Constants.CACHE_SIZE; i++) cache[i].clone(task.cache[i]);
+			task.fork();
+		}
+
+		private final void deallocate() {
+			stack.deallocate(); stack=null;
+			characterStack.deallocate(); characterStack=null;
+			pointerStack.deallocate(); pointerStack=null;
+			for (int i=0; i<Constants.CACHE_SIZE; i++) {
+				cache[i].deallocate();
+				cache[i]=null;
+			}
+			cache=null;
+		}
+	}
+
+}
@@ -1,3 +1,13 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.CountDownLatch;
@@ -30,6 +40,79 @@ public class Suffixes {
 	}
 
 
+	/**
+	 * Like $sort(array,string,random)$, but if $array$ contains more than
+	 * $Constants.PARALLEL_QUICKSORT_THRESHOLD$ elements, the partitions of $quicksort$
+	 * larger than the threshold are sorted by distinct tasks of $pool$, so that idle
+	 * workers of $pool$ can steal them. If the caller is itself a worker of $pool$, it
+	 * sorts in its own thread and it joins the forked tasks as a worker, rather than
+	 * waiting for another worker. Since two partitions might share a long of a
+	 * packed $IntArray$, in this case $array$ is first copied to an array with 64 bits
+	 * per element, which is copied back at the end.
+	 * Bits used in addition to the input: $128*array.length()$ in the parallel case.
+	 *
+	 * @param pool can be null, in which case the procedure is sequential.
+	 */
+	public static final void sort(IntArray array, IntArray string, XorShiftStarRandom random, ForkJoinPool pool) {
+		final long nElements = array.length();
+		long i;
+		IntArray cache, wideArray;
+		QuicksortTask task;
+
+		if (pool==null || nElements<=Constants.PARALLEL_QUICKSORT_THRESHOLD) {
+			sort(array,string,random);
+			return;
+		}
+		if (array.bitsPerInt==64) wideArray=array;
+		else {
+			wideArray = new IntArray(nElements,64,true);
+			for (i=0; i<nElements; i++) wideArray.setElementAt(i,array.getElementAt(i));
+		}
+		cache = new IntArray(nElements,64,true);
+		for (i=0; i<nElements; i++) cache.setElementAt(i,string.load63(wideArray.getElementAt(i)<<string.log2BitsPerInt));
+		task = new QuicksortTask(wideArray,0,nElements,0,0,string,cache,Constants.QUICKSORT_HEAPSORT_SCALE*Utils.log2(nElements),Constants.STOP_QUICKSORT_AT_SIZE,new XorShiftStarRandom(random.nextLong()));
+		if (ForkJoinTask.getPool()==pool) task.invoke();
+		else pool.invoke(task);
+		if (wideArray!=array) {
+			for (i=0; i<nElements; i++) array.setElementAt(i,wideArray.getElementAt(i));
+			wideArray.deallocate();
+		}
+		cache=null;
+	}
+
+
+	/**
+	 * A call to $quicksort$ executed by a $ForkJoinPool$. The task completes only after
+	 * all the tasks it forked have completed.
+	 */
+	private static class QuicksortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final IntArray array, string, cache;
+		private final long firstSuffix, nSuffixes, bitDepth;
+		private final int recursionDepth, quicksortHeapsortDepth, stopQuicksortAtSize;
+		private final XorShiftStarRandom random;
+
+		public QuicksortTask(IntArray array, long firstSuffix, long nSuffixes, long bitDepth, int recursionDepth, IntArray string, IntArray cache, int quicksortHeapsortDepth, int stopQuicksortAtSize, XorShiftStarRandom random) {
+			this.array=array;
+			this.firstSuffix=firstSuffix;
+			this.nSuffixes=nSuffixes;
+			this.bitDepth=bitDepth;
+			this.recursionDepth=recursionDepth;
+			this.string=string;
+			this.cache=cache;
+			this.quicksortHeapsortDepth=quicksortHeapsortDepth;
+			this.stopQuicksortAtSize=stopQuicksortAtSize;
+			this.random=random;
+		}
+
+		protected void compute() {
+			ArrayList<QuicksortTask> forked = new ArrayList<QuicksortTask>();
+			quicksort(array,firstSuffix,nSuffixes,bitDepth,recursionDepth,string,cache,quicksortHeapsortDepth,stopQuicksortAtSize,random,forked);
+			for (int i=forked.size()-1; i>=0; i--) forked.get(i).join();
+		}
+	}
+
+
 	/**
 	 * Sorts the interval of $array$ that starts at $firstSuffix$ and ends at
 	 * $firstSuffix+nSuffixes-1$ in lexicographic order, assuming that its elements are
@@ -60,6 +143,19 @@ public class Suffixes {
 	 * @param random random number generator.
 	 */
 	public static final void quicksort(IntArray array, long firstSuffix, long nSuffixes, long bitDepth, int recursionDepth, IntArray string, IntArray cache, int quicksortHeapsortDepth, int stopQuicksortAtSize, XorShiftStarRandom random) {
+		quicksort(array,firstSuffix,nSuffixes,bitDepth,recursionDepth,string,cache,quicksortHeapsortDepth,stopQuicksortAtSize,random,null);
+	}
+
+
+	/**
+	 * @param forked if not null, the procedure is assumed to run inside a $QuicksortTask$:
+	 * the smaller and larger partitions of size greater than
+	 * $Constants.PARALLEL_QUICKSORT_THRESHOLD$ are forked as new tasks, which are
+	 * appended to $forked$ and must be joined by the caller. $array$ is assumed to use
+	 * 64 bits per element.
+	 */
+	private static final void quicksort(IntArray array, long firstSuffix, long nSuffixes, long bitDepth, int recursionDepth, IntArray string, IntArray cache, int quicksortHeapsortDepth, int stopQuicksortAtSize, XorShiftStarRandom random, ArrayList<QuicksortTask> forked) {
+		QuicksortTask task;
 		boolean pivotSuffixOut;
 		int r, rankSmaller, rankLarger;
 		long a, b, c, d, i, diff, pivotIndex, pivotSuffix, otherSuffix, size;
@@ -146,9 +242,12 @@ public class Suffixes {
 						for (i=0; i<diff; i++) cache.setElementAt(firstSuffix+i,cache.getElementAt(firstSuffix+b-diff+i));
 						if (size>stopQuicksortAtSize) {
 							if (recursionDepth+1==quicksortHeapsortDepth) heapSort(array,firstSuffix,size,string,cache);
-							else {
-								quicksort(array,firstSuffix,size,bitDepth,recursionDepth+1,string,cache,quicksortHeapsortDepth,stopQuicksortAtSize,random);
+							else if (forked!=null && size>Constants.PARALLEL_QUICKSORT_THRESHOLD) {
+								task = new QuicksortTask(array,firstSuffix,size,bitDepth,recursionDepth+1,string,cache,quicksortHeapsortDepth,stopQuicksortAtSize,new XorShiftStarRandom(random.nextLong()));
+								task.fork();
+								forked.add(task);
 							}
+							else quicksort(array,firstSuffix,size,bitDepth,recursionDepth+1,string,cache,quicksortHeapsortDepth,stopQuicksortAtSize,random,forked);
 						}
 						else insertionSort(array,firstSuffix,size,string,cache);
 					}
@@ -165,9 +264,12 @@ public class Suffixes {
 						for (i=0; i<diff; i++) cache.setElementAt(firstSuffix+nSuffixes-diff+i,cache.getElementAt(firstSuffix+b+i));
 						if (size>stopQuicksortAtSize) {
 							if (recursionDepth+1==quicksortHeapsortDepth) heapSort(array,firstSuffix+nSuffixes-size,size,string,cache);
-							else {
-								quicksort(array,firstSuffix+nSuffixes-size,size,bitDepth,recursionDepth+1,string,cache,quicksortHeapsortDepth,stopQuicksortAtSize,random);
+							else if (forked!=null && size>Constants.PARALLEL_QUICKSORT_THRESHOLD) {
+								task = new QuicksortTask(array,firstSuffix+nSuffixes-size,size,bitDepth,recursionDepth+1,string,cache,quicksortHeapsortDepth,stopQuicksortAtSize,new XorShiftStarRandom(random.nextLong()));
+								task.fork();
+								forked.add(task);
 							}
+							else quicksort(array,firstSuffix+nSuffixes-size,size,bitDepth,recursionDepth+1,string,cache,quicksortHeapsortDepth,stopQuicksortAtSize,random,forked);
 						}
 						else insertionSort(array,firstSuffix+nSuffixes-size,size,string,cache);
 					}
@@ -632,20 +734,31 @@ public class Suffixes {
 	 * Otherwise, the full BWT of $string$ is not kept in memory as an array of integers,
 	 * and instead:
 	 * 1. the output is stored in array $waveletTrees$ as a sequence of approximately
-	 * $string.length()/blockSize$ Huffman-shaped wavelet trees, built on the
-	 * corresponding blocks of the BWT; character $#$ is not used to build such wavelet
-	 * trees;
+	 * $string.length()/blockSize$ $BWTBlock$s, built on the corresponding blocks of the
+	 * BWT with $BWTBlock.ADAPTIVE$; character $#$ is not used to build such blocks;
 	 * 2. $blockStarts$ is filled with the starting position of each block in sorted
 	 * order in the BWT;
-	 * 3. $blockBoundaries$ is set to a vector of $string.length()+1$ bits which flags
-	 * with a one each value $blockStarts[i]$ with $i>0$;
+	 * 3. if not null, $blockBoundaries$ is set to a vector of $string.length()+1$ bits
+	 * which flags with a one each value $blockStarts[i]$ with $i>0$ ($SubstringIterator$
+	 * uses $BlockLookup$ instead);
 	 * 4. $localBlockCounts$ stores the number of characters in each block, excluding $#$.
 	 *
+	 * Remark: the suffixes of each block are not collected by scanning the whole string
+	 * once per block with $intervalOfSuffixes$: rather, $MeasureBWTBlockThread$ stores
+	 * the block of every suffix, and a single scan distributes suffixes to per-block
+	 * buckets (see $SuffixBuckets$), so that each sorting thread reads just its own
+	 * bucket. This takes $O(stringLength)$ time rather than
+	 * $O(stringLength*nBlocks)$.
+	 *
+	 * Remark: if $blockwiseBWT_useSAIS$ holds, the splitters are not sampled, and blocks
+	 * are instead cut from the suffix array of the whole string built by $SAIS$.
+	 *
 	 * Remark: for a detailed description of the space requirements of this procedure,
 	 * see $blockwiseBWT_getBlockSize$.
 	 *
 	 * Remark: we assume that the number of blocks is at most $Integer.MAX_VALUE$, and
-	 * that all input containers related to blocks have space for at least four blocks.
+	 * that all input containers related to blocks have space for at least four blocks,
+	 * and for at least $blockwiseBWT_maxBlocks$ blocks.
 	 *
 	 * @param blockSize maximum number of suffixes in a block;
 	 * @param sharp used iff $bwt==null$; $sharp[0]$: position of the sharp sign in
@@ -653,112 +766,312 @@ public class Suffixes {
 	 * $sharp[2]$: distance of the sharp sign from the beginning of block $sharp[1]$;
 	 * @return the position of the sharp sign in the BWT of $string$.
 	 */
-	public static final long blockwiseBWT(IntArray string, int[] alphabet, int alphabetLength, int log2alphabetLength, long blockSize, IntArray bwt, HuffmanWaveletTree[] waveletTrees, IntArray blockStarts, IntArray blockBoundaries, IntArray[] localBlockCounts, long[] sharp) {
+	public static final long blockwiseBWT(IntArray string, int[] alphabet, int alphabetLength, int log2alphabetLength, long blockSize, IntArray bwt, BWTBlock[] waveletTrees, IntArray blockStarts, IntArray blockBoundaries, IntArray[] localBlockCounts, long[] sharp) {
+		return blockwiseBWT(string,alphabet,alphabetLength,log2alphabetLength,blockSize,bwt,waveletTrees,blockStarts,blockBoundaries,localBlockCounts,sharp,null);
+	}
+
+
+	/**
+	 * Like $blockwiseBWT$, but the number of threads and the location of the buckets are
+	 * taken from $plan$ rather than from $Constants$, blocks are represented as specified
+	 * by $plan.blockType$ rather than as chosen by $BWTBlock.ADAPTIVE$, the number of
+	 * threads that build blocks is adapted to the largest block, and the peak memory of
+	 * every phase is recorded in $plan$.
+	 *
+	 * @param plan if null, the procedure behaves like $blockwiseBWT$;
+	 * @param blockSize ignored if $plan!=null$.
+	 */
+	public static final long blockwiseBWT(IntArray string, int[] alphabet, int alphabetLength, int log2alphabetLength, long blockSize, IntArray bwt, BWTBlock[] waveletTrees, IntArray blockStarts, IntArray blockBoundaries, IntArray[] localBlockCounts, long[] sharp, ConstructionPlan plan) {
+		return blockwiseBWT(string,alphabet,alphabetLength,log2alphabetLength,blockSize,bwt,waveletTrees,blockStarts,blockBoundaries,localBlockCounts,sharp,plan,null);
+	}
+
+
+	/**
+	 * External-memory variant of $blockwiseBWT$ with $bwt==null$: every wavelet tree is
+	 * written to $treeFile$ as soon as it and all the trees before it have been built,
+	 * and then it is released, so that at most $2*nThreads$ wavelet trees are in memory
+	 * at any time. Buckets of suffixes, and the block of every suffix during the
+	 * measurement of splitters, are always kept in temporary files. $string$ is accessed
+	 * only through $IntArray.readCell$, thus it can be a view of a memory-mapped file
+	 * (see $IndexFile.readMappedIntArray$), and the heap can be smaller than the string.
+	 * At the end, every element of $waveletTrees$ is null.
+	 *
+	 * Blocks are assigned to threads in increasing order, and a thread must acquire a
+	 * permit of a semaphore with $2*nThreads$ permits before taking a new block; the
+	 * permit is released only after the block has been written. Thus a thread can be
+	 * at most $2*nThreads$ blocks ahead of the writer, and the writer never waits for
+	 * a block that has not been assigned.
+	 *
+	 * @param treeFile if not null, the procedure writes to it the number of blocks,
+	 * followed by each wavelet tree in block order, in the format of
+	 * $SubstringIterator.store$; if null, the procedure behaves like
+	 * $blockwiseBWT(...,plan)$.
+	 */
+	public static final long blockwiseBWT(IntArray string, int[] alphabet, int alphabetLength, int log2alphabetLength, long blockSize, IntArray bwt, BWTBlock[] waveletTrees, IntArray blockStarts, IntArray blockBoundaries, IntArray[] localBlockCounts, long[] sharp, ConstructionPlan plan, IndexFile treeFile) {
 		final int log2stringLength, log2stringLengthPlusOne;
-		int i, j, nSplitters, nBits;
-		long splitter, currentBlock, cumulativeSize, blockStart, maxBlockSize;
+		final boolean bucketsInMemory, useSAIS;
+		final int blockType;
+		int i, round, nThreads, nSplitters, nBlocks;
+		long p, b, first, last, currentBlock, cumulativeSize, blockStart, maxBlockSize;
 		final long stringLength;
+		int[] blockMap;  // Final block that contains each block induced by the initial set of splitters
+		int[] suffixArray;  // Used iff $useSAIS$
+		long[] bucketSizes;
 		IntArray binarySearchCache;
 		IntArray splitters_byPosition;  // Initial set of splitters, sorted by position in the string.
 		IntArray splitters_bySuffix;  // Initial set of splitters, sorted lexicographically.
 		IntArray splitters;  // Final set of splitters, sorted lexicographically.
-		IntArray[] lcpArrays;
+		SuffixBlocks suffixBlocks;  // Block induced by the initial set of splitters that contains each suffix
+		IntArray chunk;  // Buffer for reading $suffixBlocks$
+		IntArray newSplitters;  // Splitters added by a refinement round
+		SuffixBuckets buckets;
+		ForkJoinPool pool;
 		AtomicInteger intGenerator;  // Atomic generator of integers
-		AtomicLong longGenerator;  // Atomic generator of longs
 		AtomicInteger sharpBlock;
 		AtomicLong sharpPosition, sharpOffset;
 		CountDownLatch latch;  // Barrier
-		AtomicLong[] blockSizes;  // Atomic counters used for measuring the size of blocks in parallel
+		CountDownLatch[] blockLatches;  // Used iff $treeFile!=null$: released when each block has been built.
+		Semaphore window;  // Used iff $treeFile!=null$
+		long[] blockSizes;  // Number of suffixes in each block induced by the initial set of splitters
 		stringLength=string.length();
 		log2stringLength=Utils.log2(stringLength);
 		log2stringLengthPlusOne=Utils.log2(stringLength+1);
 		XorShiftStarRandom random = new XorShiftStarRandom();
+		if (plan!=null) {
+			blockSize=plan.blockSize;
+			nThreads=plan.nThreads;
+			bucketsInMemory=treeFile==null&&plan.bucketsInMemory();
+			blockType=plan.blockType;
+			useSAIS=plan.useSAIS;
+			plan.start();
+			plan.startPhase(ConstructionPlan.PHASE_SPLITTERS);
+		}
+		else {
+			nThreads=Constants.N_THREADS;
+			bucketsInMemory=treeFile==null&&(Constants.BUCKETS_LOCATION==1||(Constants.BUCKETS_LOCATION==0&&((stringLength*log2stringLength)>>>3)<=Constants.MAX_MEMORY));
+			blockType=BWTBlock.ADAPTIVE;
+			useSAIS=blockwiseBWT_useSAIS(stringLength,Constants.MAX_MEMORY);
+		}
 
-		splitters_byPosition=buildSplitters(stringLength,log2stringLength,blockSize,random);
-		nSplitters=(int)( splitters_byPosition.length() );
-		splitters_bySuffix=splitters_byPosition.clone();
-		sort(splitters_bySuffix,string,random);
-
-		// Measuring the size of the blocks induced by splitters
-		binarySearchCache=buildBinarySearchCache(splitters_bySuffix,string);
-		blockSizes = new AtomicLong[nSplitters+1];
-		for (i=0; i<=nSplitters; i++) blockSizes[i] = new AtomicLong();
-		longGenerator = new AtomicLong();
-		latch = new CountDownLatch(Constants.N_THREADS);
-		for (i=0; i<Constants.N_THREADS; i++) new MeasureBWTBlockThread(blockSizes,longGenerator,latch,splitters_bySuffix,splitters_byPosition,binarySearchCache,string).start();
-		try { latch.await(); }
-		catch(InterruptedException e) {
-			e.printStackTrace();
-			System.exit(1);
+		if (useSAIS) {
+			// Cutting into blocks of $blockSize$ suffixes the suffix array of the whole
+			// string. The last block contains between 2 and $blockSize+1$ suffixes.
+			suffixArray=SAIS.buildSuffixArray(string,alphabetLength);
+			nBlocks=(int)( Utils.divideAndRoundUp(stringLength,blockSize) );
+			splitters = new IntArray(nBlocks,log2stringLength);
+			if (blockStarts==null) blockStarts = new IntArray(nBlocks,log2stringLengthPlusOne,false);
+			else blockStarts.clear();
+			bucketSizes = new long[nBlocks];
+			for (i=0; i<nBlocks-1; i++) {
+				blockStarts.push(i*blockSize);
+				splitters.push(suffixArray[(int)((i+1)*blockSize-1)]);
+				bucketSizes[i]=blockSize-1;
+			}
+			blockStarts.push((nBlocks-1)*blockSize);
+			bucketSizes[nBlocks-1]=stringLength+1-(nBlocks-1)*blockSize;
+			bucketSizes[0]--;  // Suffix $#$
+			maxBlockSize=Math.max(blockSize,stringLength+1-(nBlocks-1)*blockSize);
+			if (plan!=null) {
+				plan.endPhase(ConstructionPlan.PHASE_SPLITTERS);
+				plan.startPhase(ConstructionPlan.PHASE_DISTRIBUTION);
+			}
+			buckets=null;
+			try {
+				buckets = new SuffixBuckets(bucketSizes,log2stringLength,treeFile==null);
+				for (p=1; p<=stringLength; p++) {
+					b=Math.min(p/blockSize,nBlocks-1);
+					if (b<nBlocks-1 && p==(b+1)*blockSize-1) continue;  // Splitter
+					buckets.add((int)b,suffixArray[(int)p]);
+				}
+				buckets.close();
+			}
+			catch(IOException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			buckets.sorted=true;
+			suffixArray=null; bucketSizes=null;
+			nSplitters=nBlocks-1;
 		}
-		splitters_byPosition.deallocate(); splitters_byPosition=null;
-		binarySearchCache.deallocate(); binarySearchCache=null; longGenerator=null;
-		blockSizes[0].incrementAndGet();  // Adding suffix $#$, which is not counted by $MeasureBWTBlockThread$
-
-		// Merging adjacent blocks greedily and sequentially. Existing blocks larger than
-		// $blockSize$ are not refined. At the end of this process, the first block
-		// has the form $[..y]$, the last block has the form $(x..$, and all
-		// the other blocks have the form $(x..y]$, where $x$ and $y$ are splitters.
-		splitters = new IntArray(nSplitters,log2stringLength);
-		if (blockStarts==null) blockStarts = new IntArray(nSplitters+1,log2stringLengthPlusOne,false);
-		else blockStarts.clear();
-		i=1; cumulativeSize=blockSizes[0].get()+1; blockStart=0; maxBlockSize=0;
-		while (i<=nSplitters) {
-			currentBlock=blockSizes[i].get();
-			if (cumulativeSize+currentBlock+(i<nSplitters?1:0)>blockSize) {
-				splitters.push(splitters_bySuffix.getElementAt(i-1));
+		else {
+			// Oversampling splitters as in sample sort: the greedy merge below is then
+			// able to place block boundaries close to multiples of $blockSize$.
+			splitters_byPosition=buildSplitters(stringLength,log2stringLength,Math.max(blockSize/Constants.SPLITTER_OVERSAMPLING,1),random);
+			splitters_bySuffix=null; suffixBlocks=null; blockSizes=null;
+			nSplitters=0;
+			try {
+				for (round=0; ; round++) {
+					nSplitters=(int)( splitters_byPosition.length() );
+					splitters_bySuffix=splitters_byPosition.clone();
+					sort(splitters_bySuffix,string,random);
+
+					// Measuring the size of the blocks induced by splitters, and remembering
+					// the block of each suffix. In external memory, the blocks of suffixes
+					// are kept in a temporary file like the buckets.
+					binarySearchCache=buildBinarySearchCache(splitters_bySuffix,string);
+					suffixBlocks = new SuffixBlocks(stringLength,Utils.bitsToEncode(nSplitters+1),treeFile==null);
+					blockSizes=blockwiseBWT_measureBlocks(string,splitters_bySuffix,splitters_byPosition,binarySearchCache,suffixBlocks,nThreads);
+					binarySearchCache.deallocate(); binarySearchCache=null;
+
+					// Refining blocks that are still larger than $blockSize$
+					if (round==Constants.MAX_SPLITTER_REFINEMENTS) break;
+					newSplitters=refineSplitters(blockSizes,suffixBlocks,blockSize,log2stringLength,random);
+					if (newSplitters==null) break;
+					splitters_byPosition=IntArray.merge(splitters_byPosition,newSplitters);
+					newSplitters.deallocate(); newSplitters=null;
+					splitters_bySuffix.deallocate(); splitters_bySuffix=null;
+					suffixBlocks.deallocate(); suffixBlocks=null;
+				}
+			}
+			catch(IOException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			splitters_byPosition.deallocate(); splitters_byPosition=null;
+			blockSizes[0]++;  // Adding suffix $#$, which is not counted by $MeasureBWTBlockThread$
+
+			// Merging adjacent blocks greedily and sequentially. Blocks larger than
+			// $blockSize$ can survive only after $Constants.MAX_SPLITTER_REFINEMENTS$
+			// refinements. At the end of this process, the first block
+			// has the form $[..y]$, the last block has the form $(x..$, and all
+			// the other blocks have the form $(x..y]$, where $x$ and $y$ are splitters.
+			splitters = new IntArray(nSplitters,log2stringLength);
+			if (blockStarts==null) blockStarts = new IntArray(nSplitters+1,log2stringLengthPlusOne,false);
+			else blockStarts.clear();
+			blockMap = new int[nSplitters+1];
+			i=1; cumulativeSize=blockSizes[0]+1; blockStart=0; maxBlockSize=0; nBlocks=0;
+			while (i<=nSplitters) {
+				currentBlock=blockSizes[i];
+				if (cumulativeSize+currentBlock+(i<nSplitters?1:0)>blockSize) {
+					splitters.push(splitters_bySuffix.getElementAt(i-1));
+					blockStarts.push(blockStart);
+					blockStart+=cumulativeSize;
+					if (cumulativeSize>maxBlockSize) maxBlockSize=cumulativeSize;
+					cumulativeSize=currentBlock+(i<nSplitters?1:0);
+					nBlocks++;
+				}
+				else cumulativeSize+=currentBlock+(i<nSplitters?1:0);
+				blockMap[i]=nBlocks;
+				i++;
+			}
+			if (blockStart<=stringLength) {  // Closing last block
 				blockStarts.push(blockStart);
-				blockStart+=cumulativeSize;
 				if (cumulativeSize>maxBlockSize) maxBlockSize=cumulativeSize;
-				cumulativeSize=currentBlock+(i<nSplitters?1:0);
 			}
-			else cumulativeSize+=currentBlock+(i<nSplitters?1:0);
-			i++;
+			if (plan!=null) {
+				plan.endPhase(ConstructionPlan.PHASE_SPLITTERS);
+				plan.startPhase(ConstructionPlan.PHASE_DISTRIBUTION);
+			}
+
+			// Distributing suffixes to final blocks, with a single scan of the assignment
+			// computed by $MeasureBWTBlockThread$. A bucket contains neither $#$, nor the
+			// final splitter that closes its block, nor the preceding final splitter, but it
+			// contains every initial splitter that was merged inside its block.
+			bucketSizes = new long[nBlocks+1];
+			for (i=0; i<=nSplitters; i++) bucketSizes[blockMap[i]]+=blockSizes[i];
+			bucketSizes[0]--;
+			for (i=0; i<nSplitters; i++) {
+				if (blockMap[i]==blockMap[i+1]) bucketSizes[blockMap[i]]++;
+			}
+			blockSizes=null;
+			buckets=null;
+			try {
+				buckets = new SuffixBuckets(bucketSizes,log2stringLength,bucketsInMemory);
+				chunk=suffixBlocks.newChunk();
+				for (first=0; first<stringLength; first+=SuffixBlocks.CHUNK) {
+					suffixBlocks.read(first,chunk);
+					last=Math.min(first+SuffixBlocks.CHUNK,stringLength);
+					for (p=first; p<last; p++) {
+						b=chunk.getElementAt(p-first);
+						if (b<=nSplitters) buckets.add(blockMap[(int)b],p);
+					}
+				}
+				chunk=null;
+				for (i=0; i<nSplitters; i++) {
+					if (blockMap[i]==blockMap[i+1]) buckets.add(blockMap[i],splitters_bySuffix.getElementAt(i));
+				}
+				buckets.close();
+				suffixBlocks.deallocate(); suffixBlocks=null;
+			}
+			catch(IOException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			splitters_bySuffix.deallocate(); splitters_bySuffix=null;
+			bucketSizes=null; blockMap=null;
+			nSplitters=nBlocks;
 		}
-		if (blockStart<=stringLength) {  // Closing last block
-			blockStarts.push(blockStart);
-			if (cumulativeSize>maxBlockSize) maxBlockSize=cumulativeSize;
+		if (plan!=null) {
+			plan.endPhase(ConstructionPlan.PHASE_DISTRIBUTION);
+			plan.setMaxBlockSize(maxBlockSize);
+			nThreads=plan.nBlockThreads;
+			plan.startPhase(ConstructionPlan.PHASE_BLOCKS);
 		}
-		nSplitters=(int)( splitters.length() );
-		blockSizes=null;
-		splitters_bySuffix.deallocate(); splitters_bySuffix=null;
-		if (bwt==null) {
+		if (bwt==null && blockBoundaries!=null) {
 			for (i=0; i<=nSplitters; i++) {
 				blockBoundaries.setElementFromRightAt(blockStarts.getElementAt(i),1);  // $Rank9$, used on $blockBoundaries$, stores bits from right to left.
 			}
 		}
 
-		// Building the BWT block by block
-		lcpArrays = new IntArray[nSplitters];
-		nBits=log2stringLength<<1;  // The left-shift is necessary to guarantee that there is at least one bit for the sign in each LCP array
-		for (i=0; i<nSplitters; i++) {
-			splitter=splitters.getElementAt(i);
-			lcpArrays[i] = new IntArray(Constants.DISTINGUISHING_PREFIX+1,nBits);
-			buildLCPArray(splitter,string,lcpArrays[i]);
-		}
+		// Building the BWT block by block. The builders of blocks run on the $nThreads$
+		// workers of $pool$, and blocks larger than $Constants.PARALLEL_QUICKSORT_THRESHOLD$
+		// are sorted by tasks of the same pool, so that workers that have no block left
+		// help sorting the largest blocks, without creating more than $nThreads$ threads.
+		pool = new ForkJoinPool(nThreads);
 		intGenerator = new AtomicInteger();
 		latch = new CountDownLatch(nSplitters+1);
 		sharpPosition = new AtomicLong();
 		sharpBlock=null;
 		sharpOffset=null;
+		blockLatches=null; window=null;
+		if (treeFile!=null) {
+			blockLatches = new CountDownLatch[nSplitters+1];
+			for (i=0; i<=nSplitters; i++) blockLatches[i] = new CountDownLatch(1);
+			window = new Semaphore(nThreads<<1);
+		}
 		if (bwt!=null) {
-			for (i=0; i<Constants.N_THREADS; i++) new SortBWTBlockThread(intGenerator,sharpPosition,splitters,lcpArrays,string,bwt,blockStarts,latch,maxBlockSize,log2alphabetLength).start();
+			for (i=0; i<nThreads; i++) pool.execute(new SortBWTBlockThread(intGenerator,sharpPosition,splitters,buckets,nThreads>1?pool:null,string,bwt,blockStarts,latch,maxBlockSize,log2alphabetLength));
 		}
 		else {
 			sharpBlock = new AtomicInteger();
 			sharpOffset = new AtomicLong();
-			for (i=0; i<Constants.N_THREADS; i++) new WaveletBWTBlockThread(intGenerator,sharpPosition,sharpBlock,sharpOffset,splitters,lcpArrays,string,blockStarts,waveletTrees,localBlockCounts,latch,maxBlockSize,alphabet,alphabetLength,log2alphabetLength).start();
+			for (i=0; i<nThreads; i++) pool.execute(new WaveletBWTBlockThread(intGenerator,sharpPosition,sharpBlock,sharpOffset,splitters,buckets,nThreads>1?pool:null,string,blockStarts,waveletTrees,localBlockCounts,latch,blockLatches,window,maxBlockSize,alphabet,alphabetLength,log2alphabetLength,blockType));
+		}
+		if (treeFile!=null) {
+			try {
+				treeFile.writeLong(nSplitters+1);
+				for (i=0; i<=nSplitters; i++) {
+					blockLatches[i].await();
+					if (waveletTrees[i]==null) treeFile.writeLong(0);
+					else {
+						treeFile.writeLong(1);
+						waveletTrees[i].write(treeFile);
+						waveletTrees[i]=null;
+					}
+					blockLatches[i]=null;
+					window.release();
+				}
+			}
+			catch(Exception e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			blockLatches=null; window=null;
 		}
 		try { latch.await(); }
 		catch(InterruptedException e) {
 			e.printStackTrace();
 			System.exit(1);
 		}
-		for (i=0; i<nSplitters; i++) {
-			lcpArrays[i].deallocate();
-			lcpArrays[i]=null;
+		try { buckets.deallocate(); }
+		catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1);
 		}
-		lcpArrays=null;
+		buckets=null;
+		pool.shutdown();
+		pool=null;
+		if (plan!=null) plan.endPhase(ConstructionPlan.PHASE_BLOCKS);
 		splitters.deallocate(); splitters=null;
 		intGenerator=null; latch=null;
 		if (bwt==null) {
@@ -770,6 +1083,115 @@ public class Suffixes {
 	}
 
 
+	/**
+	 * Measures in parallel the number of suffixes of $string$ in each block induced by
+	 * $splitters_bySuffix$ (splitters excluded, artificial suffix $#$ excluded), and
+	 * stores in $suffixBlocks$ the block of every suffix, or
+	 * $splitters_bySuffix.length()+1$ if the suffix is a splitter. Each thread counts
+	 * into its own histogram, and histograms are merged only once at the end.
+	 *
+	 * @param suffixBlocks array of $string.length()$ elements of at least
+	 * $Utils.bitsToEncode(splitters_bySuffix.length()+1)$ bits each, already filled;
+	 * @param nThreads number of measuring threads;
+	 * @return an array of $splitters_bySuffix.length()+1$ block sizes.
+	 */
+	public static final long[] blockwiseBWT_measureBlocks(IntArray string, IntArray splitters_bySuffix, IntArray splitters_byPosition, IntArray binarySearchCache, IntArray suffixBlocks, int nThreads) {
+		return blockwiseBWT_measureBlocks(string,splitters_bySuffix,splitters_byPosition,binarySearchCache,new SuffixBlocks(suffixBlocks),nThreads);
+	}
+
+
+	private static final long[] blockwiseBWT_measureBlocks(IntArray string, IntArray splitters_bySuffix, IntArray splitters_byPosition, IntArray binarySearchCache, SuffixBlocks suffixBlocks, int nThreads) {
+		final int nSplitters = (int)( splitters_bySuffix.length() );
+		int i, j;
+		long[] out, threadSizes;
+		AtomicLong chunkGenerator = new AtomicLong();
+		CountDownLatch latch = new CountDownLatch(nThreads);
+		MeasureBWTBlockThread[] threads = new MeasureBWTBlockThread[nThreads];
+		for (i=0; i<nThreads; i++) {
+			threads[i] = new MeasureBWTBlockThread(suffixBlocks,chunkGenerator,latch,splitters_bySuffix,splitters_byPosition,binarySearchCache,string);
+			threads[i].start();
+		}
+		try { latch.await(); }
+		catch(InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		out = new long[nSplitters+1];
+		for (i=0; i<nThreads; i++) {
+			threadSizes=threads[i].blockSizes;
+			for (j=0; j<=nSplitters; j++) out[j]+=threadSizes[j];
+			threads[i]=null;
+		}
+		return out;
+	}
+
+
+	/**
+	 * Draws new splitters inside every block induced by the current splitters whose
+	 * size (including its right splitter and, for block 0, suffix $#$) exceeds
+	 * $blockSize$. A block of size $x$ receives
+	 * $Constants.SPLITTER_OVERSAMPLING*\ceil{x/blockSize}$ new splitters (at most $x$),
+	 * chosen uniformly at random among its suffixes by reservoir sampling in a single
+	 * scan of $suffixBlocks$.
+	 *
+	 * @param blockSizes sizes computed by $blockwiseBWT_measureBlocks$;
+	 * @param suffixBlocks block assignment computed by $blockwiseBWT_measureBlocks$;
+	 * @return the new splitters sorted by position, or null if no block exceeds
+	 * $blockSize$.
+	 */
+	private static final IntArray refineSplitters(long[] blockSizes, SuffixBlocks suffixBlocks, long blockSize, int log2stringLength, XorShiftStarRandom random) throws IOException {
+		final int nBlocks = blockSizes.length;
+		final long stringLength = suffixBlocks.length();
+		int i, j, nLarge;
+		long p, b, size, nSamples, first, last;
+		IntArray chunk;
+		int[] largeBlock;  // Index of each block in $samples$, or -1 if the block is not large.
+		long[] seen;
+		long[][] samples;
+		IntArray out;
+
+		largeBlock = new int[nBlocks];
+		nLarge=0;
+		for (i=0; i<nBlocks; i++) {
+			if (blockSizes[i]+(i==0?1:0)+(i<nBlocks-1?1:0)>blockSize) largeBlock[i]=nLarge++;
+			else largeBlock[i]=-1;
+		}
+		if (nLarge==0) return null;
+		samples = new long[nLarge][];
+		seen = new long[nLarge];
+		nSamples=0;
+		for (i=0; i<nBlocks; i++) {
+			if (largeBlock[i]==-1) continue;
+			size=Math.min(blockSizes[i],Constants.SPLITTER_OVERSAMPLING*Utils.divideAndRoundUp(blockSizes[i],blockSize));
+			samples[largeBlock[i]] = new long[(int)size];
+			nSamples+=size;
+		}
+		chunk=suffixBlocks.newChunk();
+		for (first=0; first<stringLength; first+=SuffixBlocks.CHUNK) {
+			suffixBlocks.read(first,chunk);
+			last=Math.min(first+SuffixBlocks.CHUNK,stringLength);
+			for (p=first; p<last; p++) {
+				b=chunk.getElementAt(p-first);
+				if (b>=nBlocks || largeBlock[(int)b]==-1) continue;
+				j=largeBlock[(int)b];
+				if (seen[j]<samples[j].length) samples[j][(int)seen[j]]=p;
+				else {
+					size=random.nextLong(seen[j]+1);
+					if (size<samples[j].length) samples[j][(int)size]=p;
+				}
+				seen[j]++;
+			}
+		}
+		out = new IntArray(nSamples,log2stringLength);
+		for (i=0; i<nLarge; i++) {
+			for (j=0; j<samples[i].length; j++) out.push(samples[i][j]);
+			samples[i]=null;
+		}
+		out.heapSort(0,nSamples);
+		return out;
+	}
+
+
 	/**
 	 * @return a set of distinct, $\approx \ceil{stringLength/blockSize}-1$, random
      * splitters of the suffixes of a string $s$ (not of $s \cdot #$). Such splitters
@@ -777,7 +1199,7 @@ public class Suffixes {
      * $Integer.MAX_VALUE$ (an upper bound required to address an array in Java), and they
      * are sorted by position in $s$.
 	 */
-	private static IntArray buildSplitters(long stringLength, int log2stringLength, long blockSize, XorShiftStarRandom random) {
+	public static final IntArray buildSplitters(long stringLength, int log2stringLength, long blockSize, XorShiftStarRandom random) {
 		int i, nSplitters;
 		long ns, splitter, firstSplitter, secondSplitter, lastSplitter;
 		IntArray splitters, distinctSplitters;
@@ -867,70 +1289,111 @@ public class Suffixes {
 
 
 	/**
-	 * Thread used by procedure $blockwiseBWT$ to measure in parallel the number of
-	 * suffixes between two consecutive splitters in the BWT (splitters excluded,
-	 * artificial suffix $#$ excluded).
+	 * Thread used by procedure $blockwiseBWT_measureBlocks$ to measure in parallel the
+	 * number of suffixes between two consecutive splitters in the BWT (splitters
+	 * excluded, artificial suffix $#$ excluded), and to store in $suffixBlocks$ the block
+	 * of every suffix.
+	 *
+	 * Threads claim chunks of $SuffixBlocks.CHUNK$ consecutive suffixes with a single
+	 * atomic operation, they count into a private histogram, and they assign the blocks
+	 * of a chunk in a private buffer that is written to $suffixBlocks$ at once, so that
+	 * no shared variable is written per suffix. Splitters are discarded by sweeping
+	 * $splitters_byPosition$ in parallel with the chunk, rather than by a binary search
+	 * per suffix.
 	 */
 	private static class MeasureBWTBlockThread extends Thread {
 		private IntArray splitters_byPosition;  // For discarding suffixes that correspond to splitters
 		private IntArray splitters_bySuffix;  // For assigning suffixes to blocks
 		private IntArray binarySearchCache, string;
+		private SuffixBlocks suffixBlocks;
 		private CountDownLatch latch;
-		private AtomicLong suffixGenerator;
-		private AtomicLong[] blockSizes;
-		private int nSplitters;
+		private AtomicLong chunkGenerator;
+		protected long[] blockSizes;  // Read by $blockwiseBWT_measureBlocks$ after $latch$ has been released
 
-		public MeasureBWTBlockThread(AtomicLong[] blockSizes, AtomicLong suffixGenerator, CountDownLatch latch, IntArray splitters_bySuffix, IntArray splitters_byPosition, IntArray binarySearchCache, IntArray string) {
-			this.blockSizes=blockSizes;
-			this.suffixGenerator=suffixGenerator;
+		public MeasureBWTBlockThread(SuffixBlocks suffixBlocks, AtomicLong chunkGenerator, CountDownLatch latch, IntArray splitters_bySuffix, IntArray splitters_byPosition, IntArray binarySearchCache, IntArray string) {
+			this.suffixBlocks=suffixBlocks;
+			this.chunkGenerator=chunkGenerator;
 			this.latch=latch;
 			this.splitters_bySuffix=splitters_bySuffix;
 			this.splitters_byPosition=splitters_byPosition;
 			this.binarySearchCache=binarySearchCache;
 			this.string=string;
+			blockSizes = new long[(int)(splitters_bySuffix.length())+1];
 		}
 
 		public void run() {
-			int nSplitters;
-			long suffix, stringLength;
-			stringLength=string.length();
-			nSplitters=(int)( splitters_bySuffix.length() );
+			final int nSplitters = (int)( splitters_bySuffix.length() );
+			final long stringLength = string.length();
+			int block, nextSplitter, left, right, mid;
+			long suffix, first, last, nextSplitterPosition;
+			IntArray chunk = suffixBlocks.newChunk();
 			while (true) {
-				suffix=suffixGenerator.getAndIncrement();
-				if (suffix>=stringLength) {
+				first=chunkGenerator.getAndAdd(SuffixBlocks.CHUNK);
+				if (first>=stringLength) {
 					latch.countDown();
 					return;
 				}
-				if (splitters_byPosition.binarySearch(suffix,0,nSplitters-1)<0) blockSizes[assignSuffixToBlock(suffix,splitters_bySuffix,binarySearchCache,string)].incrementAndGet();
+				last=Math.min(first+SuffixBlocks.CHUNK,stringLength);
+
+				// First splitter at position $\geq first$
+				left=0; right=nSplitters;
+				while (left<right) {
+					mid=(left+right)>>>1;
+					if (splitters_byPosition.getElementAt(mid)<first) left=mid+1;
+					else right=mid;
+				}
+				nextSplitter=left;
+				nextSplitterPosition=nextSplitter<nSplitters?splitters_byPosition.getElementAt(nextSplitter):stringLength;
+
+				for (suffix=first; suffix<last; suffix++) {
+					if (suffix==nextSplitterPosition) {
+						chunk.setElementAt(suffix-first,nSplitters+1);
+						nextSplitter++;
+						nextSplitterPosition=nextSplitter<nSplitters?splitters_byPosition.getElementAt(nextSplitter):stringLength;
+						continue;
+					}
+					block=assignSuffixToBlock(suffix,splitters_bySuffix,binarySearchCache,string);
+					blockSizes[block]++;
+					chunk.setElementAt(suffix-first,block);
+				}
+				try { suffixBlocks.write(first,chunk); }
+				catch(IOException e) {
+					e.printStackTrace();
+					System.exit(1);
+				}
 			}
 		}
 	}
 
 
 	/**
-	 * Thread used by procedure $blockwiseBWT$ to collect and sort the suffixes in BWT
-	 * blocks in parallel. To limit the time spent in critical regions, the thread builds
+	 * Job run by every worker of the pool of $blockwiseBWT$ to load and sort the suffixes
+	 * in BWT blocks in parallel. To limit the time spent in critical regions, the job builds
 	 * its own BWT block in a local array of $maxBlockSize$ entries, and it copies it to
 	 * the global BWT using the bitparallel procedure $IntArray.pasteAtPointer$.
 	 */
-	private static class SortBWTBlockThread extends Thread {
+	private static class SortBWTBlockThread implements Runnable {
 		private final long stringLength, maxBlockSize;
 		private final int log2stringLength, log2alphabetLength;
 		private AtomicInteger splitterGenerator;
 		private AtomicLong sharpPosition;
 		private IntArray splitters, string, bwt, blockStarts;
 		private CountDownLatch latch;
-		private IntArray[] lcpArrays;
+		private SuffixBuckets buckets;
+		private ForkJoinPool pool;
 
 		/**
 		 * @param splitters contains a number of splitters that can be represented as an
-		 * $int$.
+		 * $int$;
+		 * @param pool the pool that runs this object, used for sorting large blocks in
+		 * parallel; can be null.
 		 */
-		public SortBWTBlockThread(AtomicInteger splitterGenerator, AtomicLong sharpPosition, IntArray splitters, IntArray[] lcpArrays, IntArray string, IntArray bwt, IntArray blockStarts, CountDownLatch latch, long maxBlockSize, int log2alphabetLength) {
+		public SortBWTBlockThread(AtomicInteger splitterGenerator, AtomicLong sharpPosition, IntArray splitters, SuffixBuckets buckets, ForkJoinPool pool, IntArray string, IntArray bwt, IntArray blockStarts, CountDownLatch latch, long maxBlockSize, int log2alphabetLength) {
 			this.splitterGenerator=splitterGenerator;
 			this.sharpPosition=sharpPosition;
 			this.splitters=splitters;
-			this.lcpArrays=lcpArrays;
+			this.buckets=buckets;
+			this.pool=pool;
 			this.string=string;
 			stringLength=string.length();
 			log2stringLength=Utils.log2(stringLength);
@@ -954,11 +1417,13 @@ public class Suffixes {
 
 				// Building suffix array block
 				if (rightSplitter!=nSplitters) rightSplitterSuffix=splitters.getElementAt(rightSplitter);
-				if (rightSplitter==0) intervalOfSuffixes(-1,rightSplitterSuffix,null,lcpArrays[rightSplitter],string,suffixArrayBlock);
-				else if (rightSplitter==nSplitters) intervalOfSuffixes(splitters.getElementAt(rightSplitter-1),-1,lcpArrays[rightSplitter-1],null,string,suffixArrayBlock);
-				else intervalOfSuffixes(splitters.getElementAt(rightSplitter-1),rightSplitterSuffix,lcpArrays[rightSplitter-1],lcpArrays[rightSplitter],string,suffixArrayBlock);
+				try { buckets.load(rightSplitter,suffixArrayBlock); }
+				catch(IOException e) {
+					e.printStackTrace();
+					System.exit(1);
+				}
 				blockLength=suffixArrayBlock.length();
-				sort(suffixArrayBlock,string,random);
+				if (!buckets.sorted) sort(suffixArrayBlock,string,random,pool);
 
 				// Building local BWT block
 				blockStart=blockStarts.getElementAt(rightSplitter);
@@ -1005,34 +1470,46 @@ public class Suffixes {
 
 
 	/**
-	 * Thread used by procedure $blockwiseBWT$ to build the Huffman-shaped wavelet tree of
-	 * BWT blocks in parallel. This thread is largely isomorphic to $SortBWTBlockThread$,
-	 * with the following exception: character $#$ (or a substitute of it inside the
-	 * alphabet) is not explicitly inserted in the block that contains it, which is thus
-	 * one character shorter.
+	 * Job run by every worker of the pool of $blockwiseBWT$ to build the representation of
+	 * BWT blocks in parallel (see $BWTBlock$). This job is largely isomorphic to
+	 * $SortBWTBlockThread$, with the following exception: character $#$ (or a substitute
+	 * of it inside the alphabet) is not explicitly inserted in the block that contains
+	 * it, which is thus one character shorter.
 	 */
-	private static class WaveletBWTBlockThread extends Thread {
+	private static class WaveletBWTBlockThread implements Runnable {
 		private final long maxBlockSize, stringLength;
-		private final int log2stringLength, alphabetLength, log2alphabetLength;
+		private final int log2stringLength, alphabetLength, log2alphabetLength, blockType;
 		private int[] alphabet;
 		private AtomicLong sharpPosition, sharpOffset;
 		private AtomicInteger splitterGenerator, sharpBlock;
 		private IntArray splitters, string, bwt, blockStarts;
 		private CountDownLatch latch;
-		private IntArray[] lcpArrays, localBlockCounts;
-		private HuffmanWaveletTree[] waveletTrees;
+		private CountDownLatch[] blockLatches;
+		private Semaphore window;
+		private IntArray[] localBlockCounts;
+		private SuffixBuckets buckets;
+		private ForkJoinPool pool;
+		private BWTBlock[] waveletTrees;
 
 		/**
 		 * @param splitters contains a number of splitters that can be represented as an
-		 * $int$.
+		 * $int$;
+		 * @param pool the pool that runs this object, used for sorting large blocks in
+		 * parallel; can be null;
+		 * @param blockLatches if not null, $blockLatches[i]$ is released when block $i$
+		 * has been built;
+		 * @param window if not null, a permit is acquired before taking a new block, and
+		 * it is released by the consumer of $blockLatches$;
+		 * @param blockType representation of every block, see $BWTBlock.build$.
 		 */
-		public WaveletBWTBlockThread(AtomicInteger splitterGenerator, AtomicLong sharpPosition, AtomicInteger sharpBlock, AtomicLong sharpOffset, IntArray splitters, IntArray[] lcpArrays, IntArray string, IntArray blockStarts, HuffmanWaveletTree[] waveletTrees, IntArray[] localBlockCounts, CountDownLatch latch, long maxBlockSize, int[] alphabet, int alphabetLength, int log2alphabetLength) {
+		public WaveletBWTBlockThread(AtomicInteger splitterGenerator, AtomicLong sharpPosition, AtomicInteger sharpBlock, AtomicLong sharpOffset, IntArray splitters, SuffixBuckets buckets, ForkJoinPool pool, IntArray string, IntArray blockStarts, BWTBlock[] waveletTrees, IntArray[] localBlockCounts, CountDownLatch latch, CountDownLatch[] blockLatches, Semaphore window, long maxBlockSize, int[] alphabet, int alphabetLength, int log2alphabetLength, int blockType) {
 			this.splitterGenerator=splitterGenerator;
 			this.sharpPosition=sharpPosition;
 			this.sharpBlock=sharpBlock;
 			this.sharpOffset=sharpOffset;
 			this.splitters=splitters;
-			this.lcpArrays=lcpArrays;
+			this.buckets=buckets;
+			this.pool=pool;
 			this.string=string;
 			stringLength=string.length();
 			log2stringLength=Utils.log2(stringLength);
@@ -1040,10 +1517,13 @@ public class Suffixes {
 			this.waveletTrees=waveletTrees;
 			this.localBlockCounts=localBlockCounts;
 			this.latch=latch;
+			this.blockLatches=blockLatches;
+			this.window=window;
 			this.maxBlockSize=maxBlockSize;
 			this.alphabet=alphabet;
 			this.alphabetLength=alphabetLength;
 			this.log2alphabetLength=log2alphabetLength;
+			this.blockType=blockType;
 		}
 
 		public void run() {
@@ -1057,16 +1537,28 @@ public class Suffixes {
 			IntArray bwtBlock = new IntArray(maxBlockSize+2,log2alphabetLength);  // In the worst case, a suffix array block can be augmented with two additional characters.
 			XorShiftStarRandom random = new XorShiftStarRandom();
 			while (true) {
+				if (window!=null) {
+					try { window.acquire(); }
+					catch(InterruptedException e) {
+						e.printStackTrace();
+						System.exit(1);
+					}
+				}
 				rightSplitter=splitterGenerator.getAndIncrement();
-				if (rightSplitter>nSplitters) break;
+				if (rightSplitter>nSplitters) {
+					if (window!=null) window.release();
+					break;
+				}
 
 				// Building the suffix array block
 				if (rightSplitter!=nSplitters) rightSplitterSuffix=splitters.getElementAt(rightSplitter);
-				if (rightSplitter==0) intervalOfSuffixes(-1,rightSplitterSuffix,null,lcpArrays[rightSplitter],string,suffixArrayBlock);
-				else if (rightSplitter==nSplitters) intervalOfSuffixes(splitters.getElementAt(rightSplitter-1),-1,lcpArrays[rightSplitter-1],null,string,suffixArrayBlock);
-				else intervalOfSuffixes(splitters.getElementAt(rightSplitter-1),rightSplitterSuffix,lcpArrays[rightSplitter-1],lcpArrays[rightSplitter],string,suffixArrayBlock);
+				try { buckets.load(rightSplitter,suffixArrayBlock); }
+				catch(IOException e) {
+					e.printStackTrace();
+					System.exit(1);
+				}
 				blockLength=suffixArrayBlock.length();
-				if (blockLength>0) sort(suffixArrayBlock,string,random);
+				if (blockLength>0 && !buckets.sorted) sort(suffixArrayBlock,string,random,pool);
 
 				// Building the local BWT block. Not building the BWT
 				// block explicitly would produce cache misses both while counting the
@@ -1114,11 +1606,12 @@ public class Suffixes {
 					pointer++;
 				}
 				if (bwtBlockLength==0) {  // Skipping blocks with no BWT character
+					if (blockLatches!=null) blockLatches[rightSplitter].countDown();
 					latch.countDown();
 					continue;
 				}
 
-				// Building a wavelet tree on the effective alphabet of the BWT block
+				// Building the representation of the BWT block on its effective alphabet
 				effectiveAlphabetLength=0;
 				for (i=0; i<alphabetLength; i++) {
 					if (localBlockCounts[rightSplitter].getElementAt(i)!=0) effectiveAlphabetLength++;
@@ -1133,7 +1626,8 @@ public class Suffixes {
 						effectiveCounts.push(count);
 					}
 				}
-				waveletTrees[rightSplitter] = new HuffmanWaveletTree(bwtBlock,effectiveAlphabet,effectiveCounts);
+				waveletTrees[rightSplitter]=BWTBlock.build(bwtBlock,effectiveAlphabet,effectiveCounts,blockType);
+				if (blockLatches!=null) blockLatches[rightSplitter].countDown();
 				latch.countDown();
 			}
 			suffixArrayBlock.deallocate(); suffixArrayBlock=null;
@@ -1142,28 +1636,317 @@ public class Suffixes {
 	}
 
 
+	/**
+	 * Number of suffixes in a chunk of $SuffixBlocks$ (used also by $ConstructionPlan$).
+	 */
+	protected static final int SUFFIX_BLOCKS_CHUNK = 1<<12;
+
+
+	/**
+	 * The block of every suffix computed by $MeasureBWTBlockThread$, packed either in
+	 * memory or in a temporary file, and accessed only by chunks of $CHUNK$ consecutive
+	 * suffixes: threads write distinct chunks concurrently, and chunks are read back in
+	 * order by $refineSplitters$ and by the distribution of $blockwiseBWT$.
+	 *
+	 * Remark: since $CHUNK$ is a multiple of 64, every chunk starts at a long of the
+	 * packed representation, thus writing or reading a chunk is a copy of its longs, and
+	 * the file contains exactly the longs of the packed array.
+	 */
+	private static class SuffixBlocks {
+		protected static final int CHUNK = SUFFIX_BLOCKS_CHUNK;
+		private final long length;
+		private final int bitsPerBlock, log2BitsPerBlock;
+		private IntArray blocks;  // Used iff the blocks are kept in memory
+		private File path;
+		private RandomAccessFile file;
+		private FileChannel channel;
+
+		/**
+		 * @param inMemory TRUE: blocks are kept in a packed array of $bitsPerBlock$ bits
+		 * per suffix; FALSE: blocks are kept in a temporary file.
+		 */
+		public SuffixBlocks(long length, int bitsPerBlock, boolean inMemory) throws IOException {
+			this.length=length;
+			this.bitsPerBlock=Utils.closestPowerOfTwo(bitsPerBlock);
+			log2BitsPerBlock=Integer.numberOfTrailingZeros(this.bitsPerBlock);
+			if (inMemory) blocks = new IntArray(length,bitsPerBlock,true);
+			else {
+				path=File.createTempFile("blocks",".tmp");
+				path.deleteOnExit();
+				file = new RandomAccessFile(path,"rw");
+				file.setLength((((length<<log2BitsPerBlock)+63)>>>6)<<3);
+				channel=file.getChannel();
+			}
+		}
+
+
+		/**
+		 * Uses $blocks$, an array of $length$ elements, as the in-memory representation.
+		 */
+		public SuffixBlocks(IntArray blocks) {
+			length=blocks.length();
+			bitsPerBlock=blocks.bitsPerInt;
+			log2BitsPerBlock=blocks.log2BitsPerInt;
+			this.blocks=blocks;
+		}
+
+
+		public final long length() {
+			return length;
+		}
+
+
+		/**
+		 * @return a buffer for $write$ and $read$.
+		 */
+		public final IntArray newChunk() {
+			return new IntArray(CHUNK,bitsPerBlock,true);
+		}
+
+
+		/**
+		 * Number of longs of the chunk that starts at suffix $first$.
+		 */
+		private final int nLongs(long first) {
+			final long n = Math.min(CHUNK,length-first);
+			return (int)( ((n<<log2BitsPerBlock)+63)>>>6 );
+		}
+
+
+		/**
+		 * Stores $chunk$ as the blocks of the suffixes in
+		 * $[first..\min\{first+CHUNK,length\})$. Can be called by several threads
+		 * concurrently, with distinct values of $first$.
+		 *
+		 * @param first a multiple of $CHUNK$.
+		 */
+		public final void write(long first, IntArray chunk) throws IOException {
+			final int nLongs = nLongs(first);
+			final long cell = (first<<log2BitsPerBlock)>>>6;
+			long position;
+			ByteBuffer buffer;
+			if (blocks!=null) {
+				System.arraycopy(chunk.array,0,blocks.array,(int)cell,nLongs);
+				return;
+			}
+			buffer=ByteBuffer.allocate(nLongs<<3);
+			buffer.asLongBuffer().put(chunk.array,0,nLongs);
+			position=cell<<3;
+			while (buffer.hasRemaining()) position+=channel.write(buffer,position);
+		}
+
+
+		/**
+		 * Inverse of $write$.
+		 */
+		public final void read(long first, IntArray chunk) throws IOException {
+			final int nLongs = nLongs(first);
+			final long cell = (first<<log2BitsPerBlock)>>>6;
+			long position;
+			ByteBuffer buffer;
+			if (blocks!=null) {
+				System.arraycopy(blocks.array,(int)cell,chunk.array,0,nLongs);
+				return;
+			}
+			buffer=ByteBuffer.allocate(nLongs<<3);
+			position=cell<<3;
+			while (buffer.hasRemaining()) position+=channel.read(buffer,position);
+			buffer.flip();
+			buffer.asLongBuffer().get(chunk.array,0,nLongs);
+		}
+
+
+		public final void deallocate() throws IOException {
+			if (blocks!=null) {
+				blocks.deallocate();
+				blocks=null;
+				return;
+			}
+			channel.close(); channel=null;
+			file.close(); file=null;
+			path.delete(); path=null;
+		}
+	}
+
+
+	/**
+	 * Number of longs in the write buffer of each bucket of $SuffixBuckets$ (used also
+	 * by $ConstructionPlan$).
+	 */
+	protected static final int BUCKET_BUFFER_LONGS = 1<<9;
+
+
+	/**
+	 * The buckets of suffixes built by $blockwiseBWT$, one per final block, stored
+	 * contiguously in the order of blocks either in a packed array or in a temporary file
+	 * with one long per suffix. Suffixes are appended by a single thread with $add$, and
+	 * after $close$ the buckets can be loaded by several threads concurrently.
+	 *
+	 * Remark: in the file representation, every bucket has its own write buffer, and it
+	 * is flushed to its own region of the file with a positional write, thus the cost of
+	 * the distribution is one sequential scan of the string plus
+	 * $8*stringLength/(8*BUFFER_LONGS)$ random writes.
+	 */
+	private static class SuffixBuckets {
+		private static final int BUFFER_LONGS = BUCKET_BUFFER_LONGS;
+		private final long[] bucketStarts;  // $bucketStarts[i]$: position of the first suffix of bucket $i$; $bucketStarts[nBuckets]$: total number of suffixes.
+		private long[] bucketEnds;  // First free position of each bucket
+		private IntArray suffixes;  // Used iff the buckets are kept in memory
+		private File path;
+		private RandomAccessFile file;
+		private FileChannel channel;
+		private ByteBuffer[] buffers;
+		public boolean sorted;  // TRUE iff suffixes were added to each bucket in lexicographic order
+
+		/**
+		 * @param bucketSizes number of suffixes that will be added to each bucket;
+		 * @param inMemory TRUE: buckets are kept in a packed array of
+		 * $log2stringLength$ bits per suffix; FALSE: buckets are kept in a temporary file.
+		 */
+		public SuffixBuckets(long[] bucketSizes, int log2stringLength, boolean inMemory) throws IOException {
+			final int nBuckets = bucketSizes.length;
+			bucketStarts = new long[nBuckets+1];
+			bucketEnds = new long[nBuckets];
+			for (int i=0; i<nBuckets; i++) {
+				bucketEnds[i]=bucketStarts[i];
+				bucketStarts[i+1]=bucketStarts[i]+bucketSizes[i];
+			}
+			if (inMemory) suffixes = new IntArray(bucketStarts[nBuckets],log2stringLength,true);
+			else {
+				path=File.createTempFile("buckets",".tmp");
+				path.deleteOnExit();
+				file = new RandomAccessFile(path,"rw");
+				file.setLength(bucketStarts[nBuckets]<<3);
+				channel=file.getChannel();
+				buffers = new ByteBuffer[nBuckets];
+			}
+		}
+
+
+		public final void add(int bucket, long suffix) throws IOException {
+			if (suffixes!=null) {
+				suffixes.setElementAt(bucketEnds[bucket]++,suffix);
+				return;
+			}
+			if (buffers[bucket]==null) buffers[bucket]=ByteBuffer.allocate(BUFFER_LONGS<<3);
+			buffers[bucket].putLong(suffix);
+			if (!buffers[bucket].hasRemaining()) flush(bucket);
+		}
+
+
+		private final void flush(int bucket) throws IOException {
+			final ByteBuffer buffer = buffers[bucket];
+			long position = bucketEnds[bucket]<<3;
+			buffer.flip();
+			while (buffer.hasRemaining()) position+=channel.write(buffer,position);
+			bucketEnds[bucket]=position>>>3;
+			buffer.clear();
+		}
+
+
+		/**
+		 * Flushes all pending writes. Must be called before $load$.
+		 */
+		public final void close() throws IOException {
+			if (buffers==null) return;
+			for (int i=0; i<buffers.length; i++) {
+				if (buffers[i]!=null) {
+					flush(i);
+					buffers[i]=null;
+				}
+			}
+			buffers=null;
+		}
+
+
+		/**
+		 * Clears $out$ and appends to it the suffixes in $bucket$. Can be called by
+		 * several threads concurrently.
+		 */
+		public final void load(int bucket, IntArray out) throws IOException {
+			final long first = bucketStarts[bucket];
+			final long last = bucketStarts[bucket+1];
+			long i, position;
+			ByteBuffer buffer;
+			out.clear();
+			if (suffixes!=null) {
+				for (i=first; i<last; i++) out.push(suffixes.getElementAt(i));
+				return;
+			}
+			buffer=ByteBuffer.allocate(BUFFER_LONGS<<3);
+			position=first<<3;
+			while (position<(last<<3)) {
+				buffer.clear();
+				buffer.limit((int)Math.min(buffer.capacity(),(last<<3)-position));
+				while (buffer.hasRemaining()) position+=channel.read(buffer,position);
+				buffer.flip();
+				while (buffer.hasRemaining()) out.push(buffer.getLong());
+			}
+		}
+
+
+		public final void deallocate() throws IOException {
+			if (suffixes!=null) {
+				suffixes.deallocate();
+				suffixes=null;
+				return;
+			}
+			channel.close(); channel=null;
+			file.close(); file=null;
+			path.delete(); path=null;
+		}
+	}
+
+
+	/**
+	 * @return TRUE iff $blockwiseBWT$ should cut blocks from the suffix array of the
+	 * whole string built by $SAIS$, i.e. iff $Constants.SUFFIX_SORTING=1$, the string is
+	 * short enough for an array of $int$s, and the suffix array and the types of the
+	 * suffixes ($33*(stringLength+1)$ bits) fit in $budget$ bytes. Otherwise blocks are
+	 * sorted one by one, and construction stays within the budget.
+	 */
+	public static final boolean blockwiseBWT_useSAIS(long stringLength, long budget) {
+		return Constants.SUFFIX_SORTING==1 && stringLength<Integer.MAX_VALUE && ((33*(stringLength+1))>>>3)<=budget;
+	}
+
+
+	/**
+	 * @return an upper bound on the number of blocks built by $blockwiseBWT$ with
+	 * $blockSize$. Since blocks are merged greedily, the sum of the sizes of any two
+	 * consecutive blocks is greater than $blockSize$.
+	 */
+	public static final long blockwiseBWT_maxBlocks(long stringLength, long blockSize) {
+		return (Utils.divideAndRoundUp(stringLength+1,blockSize)<<1)+1;
+	}
+
+
 	/**
 	 * @return the number of suffixes to be put in a block of $blockwiseBWT$, given that
 	 * the maximum memory available to $blockwiseBWT$ is $availableMemory$ bits, and that
 	 * the maximum number of threads available to $blockwiseBWT$ is $nThreads$.
+	 *
+	 * Remark: the formula does not include the $stringLength*\log_{2}(nSplitters+2)$
+	 * bits of $suffixBlocks$, which depend only logarithmically on $blockSize$, nor the
+	 * buckets of suffixes, which are kept in memory only if their
+	 * $stringLength*log2stringLength$ bits fit in $MAX_MEMORY$ bytes (see
+	 * $Constants.BUCKETS_LOCATION$).
 	 */
 	public static final long blockwiseBWT_getBlockSize(long stringLength, int log2stringLength, int log2alphabetLength) {
 		/*
-		availableMemory = 2*(stringLength/blockSize)*log2stringLength +  // $binarySearchCache$
-					        (stringLength/blockSize)*log2stringLength +  // $splitters_byPosition$
-					        (stringLength/blockSize)*log2stringLength +  // $splitters_bySuffix$
+		availableMemory = 2*k*(stringLength/blockSize)*log2stringLength +  // $binarySearchCache$
+					        k*(stringLength/blockSize)*log2stringLength +  // $splitters_byPosition$
+					        k*(stringLength/blockSize)*log2stringLength +  // $splitters_bySuffix$
 					        (stringLength/blockSize)*log2stringLength +  // $splitters$
 					        (stringLength/blockSize)*log2stringLength +  // $blockStarts$
-					        (stringLength/blockSize)*(DISTINGUISHING_PREFIX+1)*log2stringLength +  // $lcpArrays$
-					        (stringLength/blockSize)*32 +  // $blockSizes$
+					        nThreads*k*(stringLength/blockSize)*64 +  // $blockSizes$ of each thread
 						    nThreads*blockSize*log2stringLength +  // $suffixArrayBlock$
 						    nThreads*blockSize*log2alphabetLength;  // $bwtBlock$
 		*/
 		long availableMemory = Constants.MAX_MEMORY<<3;
-		long c = 2*stringLength*log2stringLength +
-			 	 4*stringLength*log2stringLength +
-				 stringLength*(Constants.DISTINGUISHING_PREFIX+1)*log2stringLength +
-				 stringLength*32;
+		final int k = Constants.SPLITTER_OVERSAMPLING;  // Splitters added by refinement rounds are not counted
+		long c = 4*k*stringLength*log2stringLength +
+			 	 2*stringLength*log2stringLength +
+				 Constants.N_THREADS*k*stringLength*64;
 		int a = Constants.N_THREADS*(log2stringLength+log2alphabetLength);
 		double delta = availableMemory*availableMemory-4*a*c;
 		long out = (long)((availableMemory+Math.sqrt(delta))/(2*a));
@@ -16,7 +16,7 @@ public class TestDrive {
 		int i, j, stringLength, maxLength;
 		int l, iterations;
 		long time;
-		String path;
+		String path, indexPath;
 		IntArray string = null;
 		IntArray outputString = new IntArray(1000,2);
 		TestBernoulliSubstring w;
@@ -27,19 +27,38 @@ public class TestDrive {
 		path="NC_021658.fna";
 		stringLength=14782125;  // (file,length,nLines): (dna.50MB,52427710,?), (NC_021658.fna,14782125,211174)
 
-		// Initializing
+		// Initializing. The BWT index is built once and stored in $indexPath$, and it is
+		// loaded from there by all subsequent runs, until $path$ changes.
 		int[] alphabet = new int[] {0,1,2,3};
-		try { string=Utils.loadDNA(path,stringLength,1000); }
+		indexPath=path+".index";
+		iterator=null;
+		try {
+			if (IndexFile.isUpToDate(indexPath,path)) {
+				stringLength=(int)IndexFile.stringLength(indexPath);
+				w = new TestBernoulliSubstring(alphabet.length,Utils.log2(alphabet.length),Utils.bitsToEncode(alphabet.length),stringLength+1,Utils.log2(stringLength+1),Utils.bitsToEncode(stringLength+1),outputString);
+				time=System.currentTimeMillis();
+				iterator=SubstringIterator.load(indexPath,w);
+				System.out.println("loading time: "+((double)(System.currentTimeMillis()-time))/1000+"s, length="+stringLength);
+			}
+			else {
+				string=Utils.loadDNA(path,stringLength,1000);
+				stringLength=(int)string.length();
+//Utils.shuffle(string);
+				w = new TestBernoulliSubstring(alphabet.length,Utils.log2(alphabet.length),Utils.bitsToEncode(alphabet.length),stringLength+1,Utils.log2(stringLength+1),Utils.bitsToEncode(stringLength+1),outputString);
+				time=System.currentTimeMillis();
+				iterator = new SubstringIterator(string,alphabet,alphabet.length,w);
+				System.out.println("construction time: "+((double)(System.currentTimeMillis()-time))/1000+"s, length="+stringLength);
+				try { iterator.store(indexPath,path); }
+				catch(IOException e) {
+					// The index is just a cache: the run goes on with $iterator$.
+					System.err.println("Could not store the index in "+indexPath+": "+e);
+				}
+			}
+		}
 		catch(IOException e) {
 			e.printStackTrace();
 			System.exit(1);
 		}
-		stringLength=(int)string.length();
-//Utils.shuffle(string);
-		w = new TestBernoulliSubstring(alphabet.length,Utils.log2(alphabet.length),Utils.bitsToEncode(alphabet.length),stringLength+1,Utils.log2(stringLength+1),Utils.bitsToEncode(stringLength+1),outputString);
-		time=System.currentTimeMillis();
-		iterator = new SubstringIterator(string,alphabet,alphabet.length,w);
-		System.out.println("construction time: "+((double)(System.currentTimeMillis()-time))/1000+"s, length="+stringLength);
 
 		// Running
 		Constants.N_THREADS=Integer.parseInt(args[0]);
@@ -1,9 +1,14 @@
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.File;
+import java.io.FileOutputStream;
 
 
 public class Tests {
@@ -143,7 +148,113 @@ public class Tests {
 			System.exit(1);
 		}
 		else System.out.println("TestMinimalAbsentWord \t\t\t [   OK   ]");
-*/		// Testing $BernoulliSubstring$
+*/		// Testing $Rank9$ variants and $SimpleSelect$
+		if (!test_interleavedRank9()) {
+			System.err.println("InterleavedRank9 \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("InterleavedRank9 \t\t\t [   OK   ]");
+		if (!test_rrrBitVector()) {
+			System.err.println("RRRBitVector \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("RRRBitVector \t\t\t [   OK   ]");
+		if (!test_batchedRank()) {
+			System.err.println("Batched rank \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("Batched rank \t\t\t [   OK   ]");
+		if (!test_simpleSelect()) {
+			System.err.println("SimpleSelect \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("SimpleSelect \t\t\t [   OK   ]");
+		// Testing $BlockLookup$
+		if (!test_blockLookup()) {
+			System.err.println("BlockLookup \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("BlockLookup \t\t\t [   OK   ]");
+		// Testing $WorkStealingDeque$
+		if (!test_workStealingDeque()) {
+			System.err.println("WorkStealingDeque \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("WorkStealingDeque \t\t\t [   OK   ]");
+		// Testing representations of BWT blocks
+		if (!test_DNABlock()) {
+			System.err.println("DNABlock \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("DNABlock \t\t\t [   OK   ]");
+		if (!test_waveletMatrix()) {
+			System.err.println("WaveletMatrix \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("WaveletMatrix \t\t\t [   OK   ]");
+		if (!test_blockTypes()) {
+			System.err.println("BWTBlock types \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("BWTBlock types \t\t\t [   OK   ]");
+		// Testing the construction of the BWT
+		if (!test_parallelSort()) {
+			System.err.println("Suffixes.sort (parallel) \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("Suffixes.sort (parallel) \t\t\t [   OK   ]");
+		if (!test_SAIS()) {
+			System.err.println("SAIS.buildSuffixArray \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("SAIS.buildSuffixArray \t\t\t [   OK   ]");
+		if (!test_splitterRefinement()) {
+			System.err.println("Suffixes.refineSplitters \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("Suffixes.refineSplitters \t\t\t [   OK   ]");
+		if (!test_constructionPlan()) {
+			System.err.println("ConstructionPlan \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("ConstructionPlan \t\t\t [   OK   ]");
+
+		// Testing traversal under frequent stealing
+		if (!test_stealing()) {
+			System.err.println("Stealing \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("Stealing \t\t\t [   OK   ]");
+		// Testing seeding with many threads
+		if (!test_seeding()) {
+			System.err.println("Seeding \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("Seeding \t\t\t [   OK   ]");
+
+		// Testing $IndexFile$
+		if (!test_indexFile()) {
+			System.err.println("IndexFile \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("IndexFile \t\t\t [   OK   ]");
+		if (!test_buildIndex()) {
+			System.err.println("SubstringIterator.buildIndex \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("SubstringIterator.buildIndex \t\t\t [   OK   ]");
+		if (!test_appendAndRebuild()) {
+			System.err.println("SubstringIterator.appendAndRebuild \t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("SubstringIterator.appendAndRebuild \t\t [   OK   ]");
+		// Testing $FastaLoader$
+		if (!test_fastaLoader()) {
+			System.err.println("FastaLoader \t\t\t [ FAILED ]");
+			System.exit(1);
+		}
+		else System.out.println("FastaLoader \t\t\t [   OK   ]");
+		// Testing $BernoulliSubstring$
 		if (!test_BernoulliSubstring()) {
 			System.err.println("BernoulliSubstring \t\t\t [ FAILED ]");
 			System.exit(1);
@@ -380,6 +491,7 @@ public class Tests {
 			// Running $SubstringIterator$
 			Constants.N_THREADS=2;
 			Constants.MAX_MEMORY=10;
+			Constants.HEAP_FRACTION=0;
 			iteratorSubstrings = new HashSet<String>();
 			iterator = new SubstringIterator(string,alphabet,4,new TestMinimalAbsentWord(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString));
 			System.out.print("(");
@@ -527,6 +639,7 @@ System.out.println();
 			// Running $SubstringIterator$
 			Constants.N_THREADS=2;
 			Constants.MAX_MEMORY=10;
+			Constants.HEAP_FRACTION=0;
 			iteratorSubstrings = new HashSet<String>();
 			iterator = new SubstringIterator(string,alphabet,4,new TestBernoulliSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString));
 			System.out.print("(");
@@ -681,6 +794,7 @@ System.out.println("string.length()="+string.length()+" string: "+stringString+"
 			// Running $SubstringIterator$
 			Constants.N_THREADS=2;
 			Constants.MAX_MEMORY=10;
+			Constants.HEAP_FRACTION=0;
 			iteratorSubstringsWithBorder = new HashSet<StringWithBorder>();
 			iterator = new SubstringIterator(string,alphabet,4,new TestBorderSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString));
 			System.out.print("(");
@@ -1032,6 +1146,10 @@ if (str.equals("000")) {
 	private static final boolean test_rightMaximalSubstring() {
 		final int STRING_LENGTH = 100;
 		final int N_ITERATIONS = 100;
+		final int SEEDS_PER_THREAD = Constants.SEEDS_PER_THREAD;
+		final boolean TASK_TRAVERSAL = Constants.TASK_TRAVERSAL;
+		final boolean LOCK_FREE_STEALING = Constants.LOCK_FREE_STEALING;
+		final boolean COST_BASED_STEALING = Constants.COST_BASED_STEALING;
 		int i, j, k, c, sharpPosition;
 		int[] alphabet = new int[] {0,1,2,3};
 		String stringString = new String();
@@ -1094,6 +1212,11 @@ System.out.println();
 			// Running $SubstringIterator$
 			Constants.N_THREADS=2;
 			Constants.MAX_MEMORY=10;
+			Constants.HEAP_FRACTION=0;
+			Constants.TASK_TRAVERSAL=(i%4)>=2;
+			Constants.LOCK_FREE_STEALING=(i%4)==1;
+			Constants.COST_BASED_STEALING=(i%8)<4;
+			Constants.SEEDS_PER_THREAD=(i%16)<8?16:0;
 			iteratorSubstrings = new HashSet<String>();
 			iterator = new SubstringIterator(string,alphabet,4,new TestRightMaximalSubstring(4,Utils.log2(4),Utils.bitsToEncode(2),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString));
 			System.out.print("(");
@@ -1126,6 +1249,10 @@ System.out.println();
 			}
 		}
 
+		Constants.TASK_TRAVERSAL=TASK_TRAVERSAL;
+		Constants.LOCK_FREE_STEALING=LOCK_FREE_STEALING;
+		Constants.COST_BASED_STEALING=COST_BASED_STEALING;
+		Constants.SEEDS_PER_THREAD=SEEDS_PER_THREAD;
 		return true;
 	}
 
@@ -1199,6 +1326,10 @@ if (str.equals("31313") || str.equals("1313") || str.equals("313") || str.equals
 	private static final boolean test_substringIterator() {
 		final int STRING_LENGTH = 100;
 		final int N_ITERATIONS = 100;
+		final int SEEDS_PER_THREAD = Constants.SEEDS_PER_THREAD;
+		final boolean TASK_TRAVERSAL = Constants.TASK_TRAVERSAL;
+		final boolean LOCK_FREE_STEALING = Constants.LOCK_FREE_STEALING;
+		final boolean COST_BASED_STEALING = Constants.COST_BASED_STEALING;
 		int i, j, k, c, sharpPosition;
 		int[] alphabet = new int[] {0,1,2,3};
 		String stringString = new String();
@@ -1239,6 +1370,7 @@ if (str.equals("31313") || str.equals("1313") || str.equals("313") || str.equals
 /*			// Running $SubstringIterator$ with one thread
 			Constants.N_THREADS=1;
 			Constants.MAX_MEMORY=10;
+			Constants.HEAP_FRACTION=0;
 			iteratorSubstrings = new HashSet<String>();
 			iterator = new SubstringIterator(string,alphabet,4,new TestSubstring(4,2,STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),stringString));
 			iterator.run();
@@ -1272,8 +1404,13 @@ if (str.equals("31313") || str.equals("1313") || str.equals("313") || str.equals
 			// Running $SubstringIterator$ with multiple threads
 			Constants.N_THREADS=2;
 			Constants.MAX_MEMORY=10;
+			Constants.HEAP_FRACTION=0;
+			Constants.TASK_TRAVERSAL=(i%4)>=2;
+			Constants.LOCK_FREE_STEALING=(i%4)==1;
+			Constants.COST_BASED_STEALING=(i%8)<4;
+			Constants.SEEDS_PER_THREAD=(i%16)<8?16:0;
 			iteratorSubstrings = new HashSet<String>();
-			iterator = new SubstringIterator(string,alphabet,4,new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString));
+			iterator = new SubstringIterator(string,alphabet,4,new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString),i%BWTBlock.N_TYPES);
 			System.out.print("(");
 			iterator.run();
 			System.out.print(")");
@@ -1283,6 +1420,10 @@ if (str.equals("31313") || str.equals("1313") || str.equals("313") || str.equals
 //System.out.println("SubstringIterator enumeration completed: ");
 //for (int x=0; x<iteratorSubstringsArray.length; x++) System.out.println(iteratorSubstringsArray[x]);
 			// Tests
+			if ((iterator.idleTimes()==null)!=Constants.TASK_TRAVERSAL || (iterator.idleTimes()!=null && iterator.idleTimes().length!=Constants.N_THREADS)) {
+				System.out.println("Error in SubstringIterator with two threads: wrong idle times.");
+				return false;
+			}
 			if (iteratorSubstrings.size()!=trueSubstrings.size()) {
 				System.out.println("Error in SubstringIterator with two threads: correct total substrings="+trueSubstrings.size()+" enumerated="+iteratorSubstrings.size());
 				System.out.println("string: "+stringString);
@@ -1304,6 +1445,486 @@ if (str.equals("31313") || str.equals("1313") || str.equals("313") || str.equals
 			}
 		}
 
+		Constants.TASK_TRAVERSAL=TASK_TRAVERSAL;
+		Constants.LOCK_FREE_STEALING=LOCK_FREE_STEALING;
+		Constants.COST_BASED_STEALING=COST_BASED_STEALING;
+		Constants.SEEDS_PER_THREAD=SEEDS_PER_THREAD;
+		return true;
+	}
+
+
+	/**
+	 * Checks traversal when stacks are stolen often: all the work starts on one thread
+	 * ($Constants.SEEDS_PER_THREAD=0$), every thread can donate
+	 * ($Constants.DONOR_STACK_LOWERBOUND=1$), and the number of threads is large.
+	 */
+	private static final boolean test_stealing() {
+		final int STRING_LENGTH = 300;
+		final int N_ITERATIONS = 40;
+		final int N_THREADS = Constants.N_THREADS;
+		final int DONOR_STACK_LOWERBOUND = Constants.DONOR_STACK_LOWERBOUND;
+		final int SEEDS_PER_THREAD = Constants.SEEDS_PER_THREAD;
+		final boolean TASK_TRAVERSAL = Constants.TASK_TRAVERSAL;
+		final boolean LOCK_FREE_STEALING = Constants.LOCK_FREE_STEALING;
+		int i, j, k, c;
+		long nStolen;
+		int[] alphabet = new int[] {0,1,2,3};
+		long[] nExtendedByThread;
+		String stringString;
+		IntArray string;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		SubstringIterator iterator;
+		HashSet<String> trueSubstrings;
+
+		string = new IntArray(STRING_LENGTH,2,false);
+		nStolen=0;
+		for (i=0; i<N_ITERATIONS; i++) {
+			stringString="";
+			string.clear();
+			for (j=0; j<STRING_LENGTH; j++) {
+				c=random.nextInt(i%2==0?2:4);
+				stringString+=""+c;
+				string.push(c);
+			}
+			trueSubstrings = new HashSet<String>();
+			for (j=0; j<STRING_LENGTH; j++) {
+				for (k=j+1; k<=STRING_LENGTH; k++) trueSubstrings.add(stringString.substring(j,k));
+			}
+			for (k=1; k<=STRING_LENGTH; k++) trueSubstrings.add("#"+stringString.substring(0,k));
+			trueSubstrings.add("#");
+
+			Constants.N_THREADS=8<<(i%3);
+			Constants.MAX_MEMORY=10;
+			Constants.HEAP_FRACTION=0;
+			Constants.TASK_TRAVERSAL=false;
+			Constants.LOCK_FREE_STEALING=(i%4)>=2;
+			Constants.DONOR_STACK_LOWERBOUND=1;
+			Constants.SEEDS_PER_THREAD=0;
+			iteratorSubstrings = new HashSet<String>();
+			iterator = new SubstringIterator(string,alphabet,4,new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString));
+			System.out.print("(");
+			iterator.run();
+			System.out.print(")");
+			nExtendedByThread=iterator.nExtendedByThread();
+			for (j=1; j<nExtendedByThread.length; j++) nStolen+=nExtendedByThread[j];
+			if (!iteratorSubstrings.equals(trueSubstrings)) {
+				System.out.println("Error in traversal with "+Constants.N_THREADS+" threads: correct total substrings="+trueSubstrings.size()+" enumerated="+iteratorSubstrings.size());
+				System.out.println("string: "+stringString);
+				return false;
+			}
+		}
+		if (nStolen==0) {
+			System.out.println("Error in traversal: no thread other than the first one extended a substring, so no stack has been stolen.");
+			return false;
+		}
+
+		Constants.N_THREADS=N_THREADS;
+		Constants.DONOR_STACK_LOWERBOUND=DONOR_STACK_LOWERBOUND;
+		Constants.SEEDS_PER_THREAD=SEEDS_PER_THREAD;
+		Constants.TASK_TRAVERSAL=TASK_TRAVERSAL;
+		Constants.LOCK_FREE_STEALING=LOCK_FREE_STEALING;
+		return true;
+	}
+
+	/**
+	 * Checks that $SubstringIterator.seed$ builds seeds of length at most
+	 * $Constants.MAX_STRING_LENGTH_FOR_SPLIT$, so that seeded stacks can be stolen from,
+	 * even with enough threads to require longer seeds on DNA. The length of the seeds
+	 * must also be computed in finite time on an alphabet of one character. Seeded
+	 * traversals are checked both with threads and with tasks, splitting by count and
+	 * by cost.
+	 */
+	private static final boolean test_seeding() {
+		final int STRING_LENGTH = 200;
+		final int N_ITERATIONS = 12;
+		final int N_THREADS = Constants.N_THREADS;
+		final int SEEDS_PER_THREAD = Constants.SEEDS_PER_THREAD;
+		final boolean LOCK_FREE_STEALING = Constants.LOCK_FREE_STEALING;
+		final boolean TASK_TRAVERSAL = Constants.TASK_TRAVERSAL;
+		final boolean COST_BASED_STEALING = Constants.COST_BASED_STEALING;
+		int i, j, k, c;
+		int[] alphabet = new int[] {0,1,2,3};
+		String stringString;
+		IntArray string;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		SubstringIterator iterator;
+		HashSet<String> trueSubstrings;
+
+		// Seed lengths
+		if (SubstringIterator.seedLength(4,16*2)!=3) {
+			System.out.println("Error in seedLength: wrong length with 2 threads: "+SubstringIterator.seedLength(4,16*2));
+			return false;
+		}
+		j=(int)Math.pow(4,Constants.MAX_STRING_LENGTH_FOR_SPLIT)/16+1;  // Threads that need seeds longer than the limit
+		if (SubstringIterator.seedLength(4,16L*j)!=Constants.MAX_STRING_LENGTH_FOR_SPLIT) {
+			System.out.println("Error in seedLength: length "+SubstringIterator.seedLength(4,16L*j)+" with "+j+" threads, greater than MAX_STRING_LENGTH_FOR_SPLIT="+Constants.MAX_STRING_LENGTH_FOR_SPLIT);
+			return false;
+		}
+		if (SubstringIterator.seedLength(1,16*2)!=Constants.MAX_STRING_LENGTH_FOR_SPLIT) {
+			System.out.println("Error in seedLength: wrong length on an alphabet of one character: "+SubstringIterator.seedLength(1,16*2));
+			return false;
+		}
+
+		// Traversals with many threads
+		string = new IntArray(STRING_LENGTH,2,false);
+		for (i=0; i<N_ITERATIONS; i++) {
+			stringString="";
+			string.clear();
+			for (j=0; j<STRING_LENGTH; j++) {
+				c=random.nextInt(4);
+				stringString+=""+c;
+				string.push(c);
+			}
+			trueSubstrings = new HashSet<String>();
+			for (j=0; j<STRING_LENGTH; j++) {
+				for (k=j+1; k<=STRING_LENGTH; k++) trueSubstrings.add(stringString.substring(j,k));
+			}
+			for (k=1; k<=STRING_LENGTH; k++) trueSubstrings.add("#"+stringString.substring(0,k));
+			trueSubstrings.add("#");
+
+			Constants.N_THREADS=(int)Math.pow(4,Constants.MAX_STRING_LENGTH_FOR_SPLIT)/16+1+(i%2)*15;
+			Constants.MAX_MEMORY=10;
+			Constants.HEAP_FRACTION=0;
+			Constants.LOCK_FREE_STEALING=(i%4)>=2;
+			Constants.TASK_TRAVERSAL=i>=8;
+			Constants.COST_BASED_STEALING=(i%3)==2;
+			Constants.SEEDS_PER_THREAD=16;
+			iteratorSubstrings = new HashSet<String>();
+			iterator = new SubstringIterator(string,alphabet,4,new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString));
+			System.out.print("(");
+			iterator.run();
+			System.out.print(")");
+			if (!iteratorSubstrings.equals(trueSubstrings)) {
+				System.out.println("Error in SubstringIterator with "+Constants.N_THREADS+" seeded "+(Constants.TASK_TRAVERSAL?"workers":"threads")+": correct total substrings="+trueSubstrings.size()+" enumerated="+iteratorSubstrings.size());
+				System.out.println("string: "+stringString);
+				return false;
+			}
+		}
+
+		Constants.N_THREADS=N_THREADS;
+		Constants.SEEDS_PER_THREAD=SEEDS_PER_THREAD;
+		Constants.LOCK_FREE_STEALING=LOCK_FREE_STEALING;
+		Constants.TASK_TRAVERSAL=TASK_TRAVERSAL;
+		Constants.COST_BASED_STEALING=COST_BASED_STEALING;
+		return true;
+	}
+
+
+	/**
+	 * Checks that an iterator loaded by $SubstringIterator.load$ enumerates the same
+	 * substrings as the iterator that was stored by $SubstringIterator.store$, and that
+	 * $IndexFile.isUpToDate$ detects a change in the source file.
+	 */
+	private static final boolean test_indexFile() {
+		final int STRING_LENGTH = 100;
+		final int N_ITERATIONS = 100;
+		int i, j, c;
+		int[] alphabet = new int[] {0,1,2,3};
+		String stringString;
+		HashSet<String> builtSubstrings;
+		IntArray string;
+		File file, source;
+		FileOutputStream stream;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		SubstringIterator iterator;
+
+		string = new IntArray(STRING_LENGTH,2,false);
+		Constants.N_THREADS=1;
+		Constants.MAX_MEMORY=10;
+		Constants.HEAP_FRACTION=0;
+		try {
+			file=File.createTempFile("test_indexFile",".index");
+			file.deleteOnExit();
+			source=File.createTempFile("test_indexFile",".txt");
+			source.deleteOnExit();
+			for (i=0; i<N_ITERATIONS; i++) {
+				Constants.RANK_LAYOUT=(i>>1)&1;
+				Constants.RRR_MAX_SIZE_RATIO=(i>>2)%2==1?Double.MAX_VALUE:0.5;  // Forcing compression
+				stringString="";
+				string.clear();
+				for (j=0; j<STRING_LENGTH; j++) {
+					c=random.nextInt(4);
+					stringString+=""+c;
+					string.push(c);
+				}
+				iteratorSubstrings = new HashSet<String>();
+				iterator = new SubstringIterator(string,alphabet,4,new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString),i%BWTBlock.N_TYPES);
+				iterator.run();
+				builtSubstrings=iteratorSubstrings;
+				stream = new FileOutputStream(source);
+				stream.write(stringString.getBytes());
+				stream.close();
+				iterator.store(file.getPath(),source.getPath());
+				if (IndexFile.stringLength(file.getPath())!=STRING_LENGTH) {
+					System.err.println("Error in IndexFile: wrong string length in the header");
+					return false;
+				}
+				if (!IndexFile.isUpToDate(file.getPath(),source.getPath())) {
+					System.err.println("Error in IndexFile: the index is not up to date with its source");
+					return false;
+				}
+				stream = new FileOutputStream(source,true);
+				stream.write('0');
+				stream.close();
+				if (IndexFile.isUpToDate(file.getPath(),source.getPath())) {
+					System.err.println("Error in IndexFile: the index is up to date with a modified source");
+					return false;
+				}
+				iteratorSubstrings = new HashSet<String>();
+				iterator=SubstringIterator.load(file.getPath(),new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString));
+				iterator.run();
+				if (!iteratorSubstrings.equals(builtSubstrings)) {
+					System.err.println("Error in IndexFile: the loaded iterator enumerated "+iteratorSubstrings.size()+" substrings, the built iterator enumerated "+builtSubstrings.size());
+					System.err.println("string: "+stringString);
+					return false;
+				}
+
+				// A failed $store$ leaves the iterator usable
+				if (i==0) {
+					try {
+						iterator.store(file.getPath()+File.separator+"index",source.getPath());  // The parent is not a directory
+						System.err.println("Error in IndexFile: storing into a file did not fail");
+						return false;
+					}
+					catch(IOException e) { }
+					iteratorSubstrings = new HashSet<String>();
+					iterator.run();
+					if (!iteratorSubstrings.equals(builtSubstrings)) {
+						System.err.println("Error in IndexFile: the iterator enumerated "+iteratorSubstrings.size()+" substrings after a failed store, instead of "+builtSubstrings.size());
+						return false;
+					}
+				}
+			}
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		Constants.RANK_LAYOUT=0;
+		Constants.RRR_MAX_SIZE_RATIO=0.5;
+		return true;
+	}
+
+
+	/**
+	 * Checks that an index built in external memory, from a string in the heap or from a
+	 * memory-mapped string, enumerates the same substrings as an index built in memory.
+	 */
+	private static final boolean test_buildIndex() {
+		final int STRING_LENGTH = 100;
+		final int N_ITERATIONS = 100;
+		int i, j, c;
+		int[] alphabet = new int[] {0,1,2,3};
+		String stringString;
+		HashSet<String> builtSubstrings;
+		IntArray string;
+		File file, textFile;
+		IndexFile text;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		SubstringIterator iterator;
+
+		string = new IntArray(STRING_LENGTH,2,false);
+		Constants.MAX_MEMORY=10;
+		Constants.HEAP_FRACTION=0;
+		try {
+			file=File.createTempFile("test_buildIndex",".index");
+			file.deleteOnExit();
+			textFile=File.createTempFile("test_buildIndex",".text");
+			textFile.deleteOnExit();
+			for (i=0; i<N_ITERATIONS; i++) {
+				Constants.N_THREADS=1+(i&1);
+				stringString="";
+				string.clear();
+				for (j=0; j<STRING_LENGTH; j++) {
+					c=random.nextInt(4);
+					stringString+=""+c;
+					string.push(c);
+				}
+				iteratorSubstrings = new HashSet<String>();
+				iterator = new SubstringIterator(string,alphabet,4,new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString));
+				iterator.run();
+				builtSubstrings=iteratorSubstrings;
+				if ((i&2)==0) SubstringIterator.buildIndex(string,alphabet,4,file.getPath(),null);
+				else {
+					text=IndexFile.create(textFile.getPath(),STRING_LENGTH,null);
+					string.write(text);
+					text.close();
+					SubstringIterator.buildIndex(textFile.getPath(),alphabet,4,file.getPath(),null);
+				}
+				iteratorSubstrings = new HashSet<String>();
+				iterator=SubstringIterator.load(file.getPath(),new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),STRING_LENGTH+1,Utils.log2(STRING_LENGTH+1),Utils.bitsToEncode(STRING_LENGTH+1),stringString));
+				iterator.run();
+				if (!iteratorSubstrings.equals(builtSubstrings)) {
+					System.err.println("Error in buildIndex: the external index enumerated "+iteratorSubstrings.size()+" substrings, the in-memory index enumerated "+builtSubstrings.size());
+					System.err.println("string: "+stringString);
+					return false;
+				}
+			}
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Loads random multi-FASTA files, whose headers contain DNA characters and whose
+	 * sequences contain lowercase characters, $N$s and carriage returns, with several
+	 * chunk sizes and numbers of threads, so that chunks start inside headers and
+	 * inside sequence lines. Checks also the packed file written by $FastaLoader.pack$.
+	 */
+	private static final boolean test_fastaLoader() {
+		final int N_ITERATIONS = 200;
+		final int MAX_SEQUENCES = 5;
+		final int MAX_LINE_LENGTH = 80;
+		final String HEADER_CHARACTERS = "acgtACGT |_.0123456789";
+		final String SEQUENCE_CHARACTERS = "acgtACGTnN\r";
+		int i, j, k, c, nThreads, chunkBytes, nSequences, lineLength, length;
+		StringBuilder fasta, expected;
+		IntArray string;
+		File file, textFile;
+		FileOutputStream stream;
+		IndexFile indexFile;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		try {
+			file=File.createTempFile("test_fastaLoader",".fasta");
+			file.deleteOnExit();
+			textFile=File.createTempFile("test_fastaLoader",".text");
+			textFile.deleteOnExit();
+			for (i=0; i<N_ITERATIONS; i++) {
+				fasta = new StringBuilder(); expected = new StringBuilder();
+				nSequences=random.nextInt(MAX_SEQUENCES+1);
+				for (j=0; j<nSequences; j++) {
+					if (j>0 || random.nextInt(4)!=0) {
+						fasta.append('>');
+						length=random.nextInt(MAX_LINE_LENGTH);
+						for (k=0; k<length; k++) fasta.append(HEADER_CHARACTERS.charAt(random.nextInt(HEADER_CHARACTERS.length())));
+						fasta.append('\n');
+					}
+					lineLength=1+random.nextInt(MAX_LINE_LENGTH);
+					length=random.nextInt(MAX_LINE_LENGTH*10);
+					for (k=0; k<length; k++) {
+						c=SEQUENCE_CHARACTERS.charAt(random.nextInt(SEQUENCE_CHARACTERS.length()));
+						fasta.append((char)c);
+						if ("aA".indexOf(c)>=0) expected.append('0');
+						else if ("cC".indexOf(c)>=0) expected.append('1');
+						else if ("gG".indexOf(c)>=0) expected.append('2');
+						else if ("tT".indexOf(c)>=0) expected.append('3');
+						if (k%lineLength==lineLength-1 || k==length-1) fasta.append('\n');
+					}
+				}
+				stream = new FileOutputStream(file);
+				stream.write(fasta.toString().getBytes("US-ASCII"));
+				stream.close();
+				for (nThreads=1; nThreads<=3; nThreads++) {
+					for (chunkBytes=1; chunkBytes<=1024; chunkBytes<<=1) {
+						string=FastaLoader.load(file.getPath(),nThreads,chunkBytes);
+						if (string.length()!=expected.length()) {
+							System.err.println("Error in FastaLoader: wrong length "+string.length()+" (expected "+expected.length()+") with nThreads="+nThreads+" chunkBytes="+chunkBytes);
+							System.err.println(fasta);
+							return false;
+						}
+						for (k=0; k<expected.length(); k++) {
+							if (string.getElementAt(k)!=expected.charAt(k)-'0') {
+								System.err.println("Error in FastaLoader: wrong character at position "+k+" with nThreads="+nThreads+" chunkBytes="+chunkBytes);
+								System.err.println(fasta);
+								return false;
+							}
+						}
+						FastaLoader.pack(file.getPath(),textFile.getPath(),nThreads,chunkBytes);
+						indexFile=IndexFile.open(textFile.getPath());
+						if (indexFile.readLong()!=expected.length()) {
+							System.err.println("Error in FastaLoader.pack: wrong length in the header with nThreads="+nThreads+" chunkBytes="+chunkBytes);
+							System.err.println(fasta);
+							return false;
+						}
+						string=indexFile.readMappedIntArray();
+						indexFile.close();
+						if (string.length()!=expected.length()) {
+							System.err.println("Error in FastaLoader.pack: wrong length "+string.length()+" (expected "+expected.length()+") with nThreads="+nThreads+" chunkBytes="+chunkBytes);
+							System.err.println(fasta);
+							return false;
+						}
+						for (k=0; k<expected.length(); k++) {
+							if (string.getElementAt(k)!=expected.charAt(k)-'0') {
+								System.err.println("Error in FastaLoader.pack: wrong character at position "+k+" with nThreads="+nThreads+" chunkBytes="+chunkBytes);
+								System.err.println(fasta);
+								return false;
+							}
+						}
+					}
+				}
+			}
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Checks that appending new strings to an index, one after the other, enumerates
+	 * the same substrings as building the index of their concatenation from scratch.
+	 * Half of the strings are binary, so that long suffixes of the old string repeat.
+	 */
+	private static final boolean test_appendAndRebuild() {
+		final int STRING_LENGTH = 60;
+		final int MAX_NEW_LENGTH = 40;
+		final int N_MERGES = 3;
+		final int N_ITERATIONS = 200;
+		int i, j, k, c, length, newLength;
+		int[] alphabet = new int[] {0,1,2,3};
+		String stringString, newString;
+		HashSet<String> builtSubstrings;
+		IntArray string, concatenation;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		SubstringIterator iterator, mergedIterator;
+
+		Constants.MAX_MEMORY=10;
+		Constants.HEAP_FRACTION=0;
+		for (i=0; i<N_ITERATIONS; i++) {
+			Constants.N_THREADS=1+(i&1);
+			stringString="";
+			string = new IntArray(STRING_LENGTH,2,false);
+			for (j=0; j<STRING_LENGTH; j++) {
+				c=random.nextInt((i&2)==0?4:2);
+				stringString+=""+c;
+				string.push(c);
+			}
+			length=STRING_LENGTH;
+			mergedIterator = new SubstringIterator(string,alphabet,4,new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),length+1,Utils.log2(length+1),Utils.bitsToEncode(length+1),stringString),i%BWTBlock.N_TYPES);
+			for (k=0; k<N_MERGES; k++) {
+				newLength=1+random.nextInt(MAX_NEW_LENGTH);
+				newString="";
+				string = new IntArray(newLength,2,false);
+				for (j=0; j<newLength; j++) {
+					c=random.nextInt((i&2)==0?4:2);
+					newString+=""+c;
+					string.push(c);
+				}
+				stringString=stringString+newString;
+				length+=newLength;
+				mergedIterator.appendAndRebuild(string,new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),length+1,Utils.log2(length+1),Utils.bitsToEncode(length+1),stringString));
+				concatenation = new IntArray(length,2,false);
+				for (j=0; j<length; j++) concatenation.push(stringString.charAt(j)-'0');
+				iteratorSubstrings = new HashSet<String>();
+				iterator = new SubstringIterator(concatenation,alphabet,4,new TestSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),length+1,Utils.log2(length+1),Utils.bitsToEncode(length+1),stringString));
+				iterator.run();
+				builtSubstrings=iteratorSubstrings;
+				iteratorSubstrings = new HashSet<String>();
+				mergedIterator.run();
+				if (!iteratorSubstrings.equals(builtSubstrings)) {
+					System.err.println("Error in appendAndRebuild: the updated index enumerated "+iteratorSubstrings.size()+" substrings, the built index enumerated "+builtSubstrings.size());
+					System.err.println("string: "+stringString+" (appended suffix: "+newString+")");
+					return false;
+				}
+			}
+		}
 		return true;
 	}
 
@@ -1566,6 +2187,8 @@ if (str.equals("31313") || str.equals("1313") || str.equals("313") || str.equals
 		ones = new long[N_POSITIONS];
 		trueOutput = new long[fullAlphabet.length][N_POSITIONS];
 		for (i=0; i<N_ITERATIONS; i++) {
+			Constants.RANK_LAYOUT=i&1;
+			Constants.RRR_MAX_SIZE_RATIO=i%3==2?Double.MAX_VALUE:0.5;  // Forcing compression
 			string.clear();
 			for (j=0; j<alphabet.length; j++) counts.setElementAt(j,0);
 			for (j=0; j<STRING_LENGTH; j++) {
@@ -1611,39 +2234,455 @@ if (str.equals("31313") || str.equals("1313") || str.equals("313") || str.equals
 					}
 				}
 			}
+
+			// Testing $select$
+			tree.buildSelect();
+			for (c=0; c<alphabet.length; c++) {
+				p=0;
+				for (j=0; j<STRING_LENGTH; j++) {
+					if (string.getElementAt(j)!=alphabet[c]) continue;
+					if (tree.select(alphabet[c],p)!=j) {
+						System.err.println("Error in select("+alphabet[c]+","+p+"): true="+j+" computed="+tree.select(alphabet[c],p));
+						return false;
+					}
+					p++;
+				}
+			}
 		}
+		Constants.RANK_LAYOUT=0;
+		Constants.RRR_MAX_SIZE_RATIO=0.5;
 		return true;
 	}
 
 
-	private static final boolean test_blockwiseBWT() {
-		final int STRING_LENGTH = 10;
-		final int N_ITERATIONS = 100000;
-		final int BLOCK_SIZE = 2;
-		final int N_THREADS = 2;
-		int N_BLOCKS = (int)(Utils.divideAndRoundUp(STRING_LENGTH,BLOCK_SIZE));
-		if (N_BLOCKS<4) N_BLOCKS=4;
-		//System.err.println("N_BLOCKS="+N_BLOCKS);
-		int i, j, sharpPosition1, sharpPosition2, suffix;
-		int[] alphabet = new int[] {0,1,2,3};
-		long[] sharp;
-		IntArray string, bwt, suffixes, blockStarts, bitVector;
+	/**
+	 * Compares $access$, $multirank$ and $sparseMultirank$ of $WaveletMatrix$ to a trivial
+	 * scan, on random strings over random subsets of large alphabets, and compares
+	 * $sparseMultirank$ of $HuffmanWaveletTree$ (the default implementation) as well.
+	 * Positions are sorted and clustered, so that some characters do not occur between
+	 * the first and the last position.
+	 */
+	private static final boolean test_waveletMatrix() {
+		final int N_ITERATIONS = 200;
+		final int MAX_STRING_LENGTH = 3000;
+		final int MAX_ALPHABET_LENGTH = 300;
+		final int N_POSITIONS = 16;
+		int i, j, k, c, p, n, length, fullAlphabetLength, effectiveAlphabetLength, type;
+		int[] alphabet, characters;
+		long[] ones, positions;
+		long[][] stack, output, trueOutput;
+		IntArray string, counts;
+		BWTBlock block;
 		XorShiftStarRandom random = new XorShiftStarRandom();
-		Rank9 blockBoundaries;
-		HuffmanWaveletTree[] waveletTrees;
-		IntArray[] localBlockCounts;
-		suffixes = new IntArray(STRING_LENGTH,Utils.log2(STRING_LENGTH),false);
-		for (i=0; i<STRING_LENGTH; i++) suffixes.push(i);
 
 		for (i=0; i<N_ITERATIONS; i++) {
-			string = new IntArray(STRING_LENGTH,2,false);
-			for (j=0; j<STRING_LENGTH; j++) string.push(random.nextInt(4));
-			bwt = new IntArray(STRING_LENGTH+1,2,true);
-
-			// Checking $SortBWTBlockThread$
-			sharpPosition1=(int)(Suffixes.blockwiseBWT(string,alphabet,4,2,BLOCK_SIZE,bwt,null,null,null,null,null));
-			Suffixes.sort(suffixes,string,random);
-			for (j=0; j<STRING_LENGTH; j++) {
+			Constants.RANK_LAYOUT=i&1;
+			fullAlphabetLength=1+random.nextInt(MAX_ALPHABET_LENGTH);
+			effectiveAlphabetLength=1+random.nextInt(fullAlphabetLength);
+			length=effectiveAlphabetLength+random.nextInt(MAX_STRING_LENGTH);
+			alphabet = new int[effectiveAlphabetLength];
+			k=0;
+			for (c=0; c<fullAlphabetLength && k<effectiveAlphabetLength; c++) {
+				if (random.nextInt(fullAlphabetLength-c)<effectiveAlphabetLength-k) alphabet[k++]=c;
+			}
+			string = new IntArray(length,Utils.bitsToEncode(fullAlphabetLength),false);
+			counts = new IntArray(effectiveAlphabetLength,Utils.bitsToEncode(length),true);
+			for (j=0; j<length; j++) {
+				c=j<effectiveAlphabetLength?j:random.nextInt(effectiveAlphabetLength);  // Every character occurs
+				string.push(alphabet[c]);
+				counts.incrementElementAt(c);
+			}
+			trueOutput = new long[fullAlphabetLength][N_POSITIONS];
+			output = new long[fullAlphabetLength][N_POSITIONS];
+			stack = new long[BWTBlock.multirankStackRows(fullAlphabetLength)][1+N_POSITIONS];
+			ones = new long[N_POSITIONS];
+			characters = new int[fullAlphabetLength];
+			positions = new long[N_POSITIONS];
+			p=random.nextInt(length+1);
+			for (j=0; j<N_POSITIONS; j++) positions[j]=Math.min(p+random.nextInt(8),length);
+			Arrays.sort(positions);
+			for (j=0; j<N_POSITIONS; j++) {
+				for (k=0; k<positions[j]; k++) trueOutput[(int)string.getElementAt(k)][j]++;
+			}
+			for (type=0; type<=1; type++) {
+				block=type==0?new WaveletMatrix(string,alphabet):new HuffmanWaveletTree(string,alphabet,counts);
+				if (type==0) {
+					for (j=0; j<length; j++) {
+						if (block.access(j)!=string.getElementAt(j)) {
+							System.err.println("Error in access at position "+j);
+							return false;
+						}
+					}
+					for (c=0; c<fullAlphabetLength; c++) {
+						for (j=0; j<N_POSITIONS; j++) output[c][j]=0;
+					}
+					System.arraycopy(positions,0,stack[0],1,N_POSITIONS);
+					block.multirank(fullAlphabetLength,N_POSITIONS,stack,output,ones);
+					for (c=0; c<fullAlphabetLength; c++) {
+						for (j=0; j<N_POSITIONS; j++) {
+							if (output[c][j]!=trueOutput[c][j]) {
+								System.err.println("Error in multirank, character="+c+" position="+positions[j]+": true="+trueOutput[c][j]+" computed="+output[c][j]);
+								return false;
+							}
+						}
+					}
+				}
+				System.arraycopy(positions,0,stack[0],1,N_POSITIONS);
+				n=block.sparseMultirank(fullAlphabetLength,N_POSITIONS,stack,characters,output,ones);
+				k=0;
+				for (c=0; c<fullAlphabetLength; c++) {
+					if (trueOutput[c][N_POSITIONS-1]==trueOutput[c][0]) continue;
+					if (k>=n || characters[k]!=c) {
+						System.err.println("Error in sparseMultirank of block type "+block.type()+": character "+c+" not reported");
+						return false;
+					}
+					for (j=0; j<N_POSITIONS; j++) {
+						if (output[k][j]!=trueOutput[c][j]) {
+							System.err.println("Error in sparseMultirank of block type "+block.type()+", character="+c+" position="+positions[j]+": true="+trueOutput[c][j]+" computed="+output[k][j]);
+							return false;
+						}
+					}
+					k++;
+				}
+				if (k!=n) {
+					System.err.println("Error in sparseMultirank of block type "+block.type()+": "+n+" characters reported, "+k+" expected");
+					return false;
+				}
+			}
+		}
+		Constants.RANK_LAYOUT=0;
+		return true;
+	}
+
+
+	/**
+	 * Compares $access$, $multirank$ and $sparseMultirank$ of every representation built
+	 * by $BWTBlock.build$, including $BWTBlock.ADAPTIVE$, to a trivial scan, on strings
+	 * with runs of random length, and checks the representation chosen for a single run
+	 * and for few long runs.
+	 */
+	private static final boolean test_blockTypes() {
+		final int N_ITERATIONS = 200;
+		final int MAX_STRING_LENGTH = 3000;
+		final int MAX_ALPHABET_LENGTH = 20;
+		final int N_POSITIONS = 16;
+		int i, j, k, c, p, n, length, fullAlphabetLength, effectiveAlphabetLength, maxRun, type;
+		int[] alphabet, characters;
+		long[] ones, positions;
+		long[][] stack, output, trueOutput;
+		IntArray string, counts;
+		BWTBlock block;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		for (i=0; i<N_ITERATIONS; i++) {
+			length=1+random.nextInt(MAX_STRING_LENGTH);
+			fullAlphabetLength=1+random.nextInt(MAX_ALPHABET_LENGTH);
+			effectiveAlphabetLength=1+random.nextInt(Math.min(fullAlphabetLength,length));
+			alphabet = new int[effectiveAlphabetLength];
+			k=0;
+			for (c=0; c<fullAlphabetLength && k<effectiveAlphabetLength; c++) {
+				if (random.nextInt(fullAlphabetLength-c)<effectiveAlphabetLength-k) alphabet[k++]=c;
+			}
+			maxRun=1+random.nextInt(i%2==0?4:500);
+			string = new IntArray(length,Utils.bitsToEncode(fullAlphabetLength),false);
+			counts = new IntArray(effectiveAlphabetLength,Utils.bitsToEncode(length),true);
+			c=0;
+			for (j=0; j<length; j++) {
+				if (j<effectiveAlphabetLength) c=j;  // Every character occurs
+				else if (random.nextInt(maxRun)==0) c=random.nextInt(effectiveAlphabetLength);
+				string.push(alphabet[c]);
+				counts.incrementElementAt(c);
+			}
+			trueOutput = new long[fullAlphabetLength][N_POSITIONS];
+			output = new long[fullAlphabetLength][N_POSITIONS];
+			stack = new long[BWTBlock.multirankStackRows(fullAlphabetLength)][1+N_POSITIONS];
+			ones = new long[N_POSITIONS];
+			characters = new int[fullAlphabetLength];
+			positions = new long[N_POSITIONS];
+			p=random.nextInt(length+1);
+			for (j=0; j<N_POSITIONS; j++) positions[j]=i%3==0?random.nextInt(length+1):Math.min(p+random.nextInt(8),length);
+			Arrays.sort(positions);
+			for (j=0; j<N_POSITIONS; j++) {
+				for (k=0; k<positions[j]; k++) trueOutput[(int)string.getElementAt(k)][j]++;
+			}
+			for (type=BWTBlock.ADAPTIVE; type<BWTBlock.N_TYPES; type++) {
+				block=BWTBlock.build(string,alphabet,counts,type);
+				for (j=0; j<length; j++) {
+					if (block.access(j)!=string.getElementAt(j)) {
+						System.err.println("Error in access of block type "+block.type()+" at position "+j);
+						return false;
+					}
+				}
+				for (c=0; c<fullAlphabetLength; c++) {
+					for (j=0; j<N_POSITIONS; j++) output[c][j]=0;
+				}
+				System.arraycopy(positions,0,stack[0],1,N_POSITIONS);
+				block.multirank(fullAlphabetLength,N_POSITIONS,stack,output,ones);
+				for (c=0; c<fullAlphabetLength; c++) {
+					for (j=0; j<N_POSITIONS; j++) {
+						if (output[c][j]!=trueOutput[c][j]) {
+							System.err.println("Error in multirank of block type "+block.type()+", character="+c+" position="+positions[j]+": true="+trueOutput[c][j]+" computed="+output[c][j]);
+							return false;
+						}
+					}
+				}
+				System.arraycopy(positions,0,stack[0],1,N_POSITIONS);
+				n=block.sparseMultirank(fullAlphabetLength,N_POSITIONS,stack,characters,output,ones);
+				k=0;
+				for (c=0; c<fullAlphabetLength; c++) {
+					if (trueOutput[c][N_POSITIONS-1]==trueOutput[c][0]) continue;
+					if (k>=n || characters[k]!=c) {
+						System.err.println("Error in sparseMultirank of block type "+block.type()+": character "+c+" not reported");
+						return false;
+					}
+					for (j=0; j<N_POSITIONS; j++) {
+						if (output[k][j]!=trueOutput[c][j]) {
+							System.err.println("Error in sparseMultirank of block type "+block.type()+", character="+c+" position="+positions[j]+": true="+trueOutput[c][j]+" computed="+output[k][j]);
+							return false;
+						}
+					}
+					k++;
+				}
+				if (k!=n) {
+					System.err.println("Error in sparseMultirank of block type "+block.type()+": "+n+" characters reported, "+k+" expected");
+					return false;
+				}
+			}
+		}
+
+		// Representations chosen for a single run and for few long runs
+		length=100000;
+		string = new IntArray(length,2,false);
+		for (j=0; j<length; j++) string.push(2);
+		counts = new IntArray(1,Utils.bitsToEncode(length),false);
+		counts.push(length);
+		if (BWTBlock.chooseType(string,new int[] {2},counts)!=BWTBlock.SINGLE_SYMBOL) {
+			System.err.println("A single run is not represented as a single-symbol block");
+			return false;
+		}
+		string.clear();
+		counts = new IntArray(4,Utils.bitsToEncode(length),true);
+		for (j=0; j<length; j++) {
+			c=(j/1000)&3;
+			string.push(c);
+			counts.incrementElementAt(c);
+		}
+		if (BWTBlock.chooseType(string,new int[] {0,1,2,3},counts)!=BWTBlock.RUN_LENGTH) {
+			System.err.println("Few long runs are not represented as a run-length block");
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Compares $access$ and $multirank$ of $DNABlock$ to a trivial scan, on strings of
+	 * random length that span several lines, with and without character 3.
+	 */
+	private static final boolean test_DNABlock() {
+		final int MAX_STRING_LENGTH = 5000;
+		final int N_ITERATIONS = 100;
+		final int N_POSITIONS = 1000;
+		int i, j, c, p, stringLength, alphabetLength, fullAlphabetLength;
+		long[] ones;
+		long[][] stack, output, trueOutput;
+		IntArray string;
+		DNABlock block;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		string = new IntArray(MAX_STRING_LENGTH,2,false);
+		stack = new long[3][1+N_POSITIONS];
+		output = new long[4][N_POSITIONS];
+		ones = new long[N_POSITIONS];
+		trueOutput = new long[4][N_POSITIONS];
+		for (i=0; i<N_ITERATIONS; i++) {
+			stringLength=random.nextInt(MAX_STRING_LENGTH+1);
+			alphabetLength=3+(i&1);
+			fullAlphabetLength=alphabetLength+random.nextInt(5-alphabetLength);
+			string.clear();
+			for (j=0; j<stringLength; j++) string.push(random.nextInt(alphabetLength));
+			block = new DNABlock(string);
+
+			// Testing $access$
+			for (j=0; j<stringLength; j++) {
+				if (block.access(j)!=string.getElementAt(j)) {
+					System.err.println("Error in DNABlock.access at position "+j+": true="+string.getElementAt(j)+" estimated="+block.access(j));
+					return false;
+				}
+			}
+
+			// Testing $multirank$
+			for (p=0; p<N_POSITIONS; p++) stack[0][1+p]=random.nextInt(stringLength+1);
+			for (c=0; c<4; c++) {
+				for (p=0; p<N_POSITIONS; p++) { output[c][p]=0; trueOutput[c][p]=0; }
+			}
+			block.multirank(fullAlphabetLength,N_POSITIONS,stack,output,ones);
+			for (p=0; p<N_POSITIONS; p++) {
+				for (j=0; j<stack[0][1+p]; j++) trueOutput[(int)(string.getElementAt(j))][p]++;
+			}
+			for (c=0; c<fullAlphabetLength; c++) {
+				for (p=0; p<N_POSITIONS; p++) {
+					if (output[c][p]!=trueOutput[c][p]) {
+						System.err.println("Error in DNABlock.multirank, character="+c+" position="+stack[0][1+p]+": true="+trueOutput[c][p]+" estimated="+output[c][p]);
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Checks that no block built by $blockwiseBWT$ is larger than $blockSize$, on strings
+	 * that are concatenations of mutated copies of a short random string.
+	 */
+	private static final boolean test_splitterRefinement() {
+		final int STRING_LENGTH = 5000;
+		final int N_ITERATIONS = 50;
+		final int BLOCK_SIZE = 100;
+		final int N_BLOCKS = (int)(Suffixes.blockwiseBWT_maxBlocks(STRING_LENGTH,BLOCK_SIZE));
+		int i, j, period, nBlocks;
+		long size;
+		int[] alphabet = new int[] {0,1,2,3};
+		long[] sharp;
+		IntArray string, blockStarts, bitVector;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		BWTBlock[] waveletTrees;
+		IntArray[] localBlockCounts;
+
+		for (i=0; i<N_ITERATIONS; i++) {
+			period=1+random.nextInt(50);
+			string = new IntArray(STRING_LENGTH,2,false);
+			for (j=0; j<period; j++) string.push(1+random.nextInt(3));
+			for (j=period; j<STRING_LENGTH; j++) {
+				if (random.nextInt(100)==0) string.push(1+random.nextInt(3));
+				else string.push(string.getElementAt(j-period));
+			}
+			bitVector = new IntArray(STRING_LENGTH+1,1,true);
+			waveletTrees = new BWTBlock[N_BLOCKS];
+			blockStarts = new IntArray(N_BLOCKS,Utils.log2(STRING_LENGTH+1),true);
+			localBlockCounts = new IntArray[N_BLOCKS];
+			sharp = new long[3];
+			Suffixes.blockwiseBWT(string,alphabet,4,2,BLOCK_SIZE,null,waveletTrees,blockStarts,bitVector,localBlockCounts,sharp);
+			nBlocks=(int)blockStarts.length();
+			for (j=0; j<nBlocks; j++) {
+				size=(j==nBlocks-1?STRING_LENGTH+1:blockStarts.getElementAt(j+1))-blockStarts.getElementAt(j);
+				if (size>BLOCK_SIZE) {
+					System.err.println("Block "+j+" of "+nBlocks+" has size "+size+" > "+BLOCK_SIZE+" (period="+period+")");
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Checks that the plan respects its budget and the bound on the block size, and
+	 * that $blockwiseBWT$ with a plan builds the same BWT as without.
+	 */
+	private static final boolean test_constructionPlan() {
+		final int STRING_LENGTH = 20000;
+		final int N_ITERATIONS = 20;
+		final long[] BUDGETS = new long[] {20000,100000,1000000};
+		final double heapFraction = Constants.HEAP_FRACTION;
+		final long maxMemory = Constants.MAX_MEMORY;
+		int i, j, k, sharpPosition1, sharpPosition2;
+		int[] alphabet = new int[] {0,1,2,3};
+		IntArray string, bwt1, bwt2;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		ConstructionPlan plan;
+
+		Constants.HEAP_FRACTION=0;
+		for (i=0; i<N_ITERATIONS; i++) {
+			string = new IntArray(STRING_LENGTH,2,false);
+			for (j=0; j<STRING_LENGTH; j++) string.push(random.nextInt(4));
+			for (k=0; k<BUDGETS.length; k++) {
+				Constants.MAX_MEMORY=BUDGETS[k];
+				Constants.N_THREADS=1+(i%3);
+				Constants.SUFFIX_SORTING=i&1;
+				plan=ConstructionPlan.build(STRING_LENGTH,2);
+				if (plan.useSAIS && (Constants.SUFFIX_SORTING!=1 || plan.predicted[ConstructionPlan.PHASE_SPLITTERS]>plan.budget || plan.predicted[ConstructionPlan.PHASE_DISTRIBUTION]>plan.budget)) {
+					System.err.println("The plan uses SAIS outside the budget: budget="+plan.budget+" predicted="+plan.predicted[ConstructionPlan.PHASE_SPLITTERS]+","+plan.predicted[ConstructionPlan.PHASE_DISTRIBUTION]);
+					return false;
+				}
+				if (Constants.SUFFIX_SORTING==1 && k==BUDGETS.length-1 && !plan.useSAIS) {
+					System.err.println("The plan does not use SAIS although it fits: budget="+plan.budget);
+					return false;
+				}
+				if (plan.budget!=BUDGETS[k] || plan.nThreads<1 || plan.nThreads>Constants.N_THREADS) {
+					System.err.println("Invalid plan: budget="+plan.budget+" nThreads="+plan.nThreads);
+					return false;
+				}
+				if (plan.blockSize>Utils.divideAndRoundUp(STRING_LENGTH+1,plan.nThreads) && plan.blockSize>2) {
+					System.err.println("Block size "+plan.blockSize+" larger than (n+1)/nThreads");
+					return false;
+				}
+				if (plan.blockSize>Suffixes.blockwiseBWT_getBlockSize(STRING_LENGTH,Utils.log2(STRING_LENGTH),2)) {
+					System.err.println("Block size "+plan.blockSize+" larger than the static block size");
+					return false;
+				}
+				bwt1 = new IntArray(STRING_LENGTH+1,2,true);
+				bwt2 = new IntArray(STRING_LENGTH+1,2,true);
+				sharpPosition1=(int)(Suffixes.blockwiseBWT(string,alphabet,4,2,plan.blockSize,bwt1,null,null,null,null,null));
+				sharpPosition2=(int)(Suffixes.blockwiseBWT(string,alphabet,4,2,0,bwt2,null,null,null,null,null,plan));
+				if (sharpPosition1!=sharpPosition2) {
+					System.err.println("Different sharp positions: "+sharpPosition1+" != "+sharpPosition2);
+					return false;
+				}
+				for (j=0; j<=STRING_LENGTH; j++) {
+					if (j!=sharpPosition1 && bwt1.getElementAt(j)!=bwt2.getElementAt(j)) {
+						System.err.println("Different BWTs at position "+j);
+						return false;
+					}
+				}
+				if (plan.nBlockThreads<1 || plan.nBlockThreads>plan.nThreads) {
+					System.err.println("Invalid number of block threads: "+plan.nBlockThreads);
+					return false;
+				}
+			}
+		}
+		Constants.HEAP_FRACTION=heapFraction;
+		Constants.MAX_MEMORY=maxMemory;
+		Constants.SUFFIX_SORTING=0;
+		return true;
+	}
+
+
+	private static final boolean test_blockwiseBWT() {
+		final int STRING_LENGTH = 10;
+		final int N_ITERATIONS = 100000;
+		final int BLOCK_SIZE = 2;
+		final int N_THREADS = 2;
+		final int THRESHOLD = Constants.PARALLEL_QUICKSORT_THRESHOLD;
+		int N_BLOCKS = (int)(Suffixes.blockwiseBWT_maxBlocks(STRING_LENGTH,BLOCK_SIZE));
+		if (N_BLOCKS<4) N_BLOCKS=4;
+		//System.err.println("N_BLOCKS="+N_BLOCKS);
+		int i, j, sharpPosition1, sharpPosition2, suffix;
+		int[] alphabet = new int[] {0,1,2,3};
+		long[] sharp;
+		IntArray string, bwt, suffixes, blockStarts, bitVector;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		Rank9 blockBoundaries;
+		BWTBlock[] waveletTrees;
+		IntArray[] localBlockCounts;
+		suffixes = new IntArray(STRING_LENGTH,Utils.log2(STRING_LENGTH),false);
+		for (i=0; i<STRING_LENGTH; i++) suffixes.push(i);
+
+		for (i=0; i<N_ITERATIONS; i++) {
+			string = new IntArray(STRING_LENGTH,2,false);
+			for (j=0; j<STRING_LENGTH; j++) string.push(random.nextInt(4));
+			bwt = new IntArray(STRING_LENGTH+1,2,true);
+			Constants.BUCKETS_LOCATION=(i&1023)==0?2:1;  // Temporary files are slow to create
+			Constants.SUFFIX_SORTING=i&1;
+			Constants.N_THREADS=N_THREADS;
+			Constants.PARALLEL_QUICKSORT_THRESHOLD=(i&2)==0?1:THRESHOLD;  // Forking sorting tasks from the workers of the pool
+
+			// Checking $SortBWTBlockThread$
+			sharpPosition1=(int)(Suffixes.blockwiseBWT(string,alphabet,4,2,BLOCK_SIZE,bwt,null,null,null,null,null));
+			Suffixes.sort(suffixes,string,random);
+			for (j=0; j<STRING_LENGTH; j++) {
 				suffix=(int)(suffixes.getElementAt(j));
 				if (suffix==0) {
 					if (sharpPosition1!=j+1) {
@@ -1661,7 +2700,7 @@ if (str.equals("31313") || str.equals("1313") || str.equals("313") || str.equals
 
 			// Checking $WaveletBWTBlockThread$
 			bitVector = new IntArray(STRING_LENGTH+1,1,true);
-			waveletTrees = new HuffmanWaveletTree[N_BLOCKS];
+			waveletTrees = new BWTBlock[N_BLOCKS];
 			blockStarts = new IntArray(N_BLOCKS,Utils.log2(STRING_LENGTH),true);
 			sharp = new long[3];
 			localBlockCounts = new IntArray[N_BLOCKS];
@@ -1777,6 +2816,9 @@ if (str.equals("31313") || str.equals("1313") || str.equals("313") || str.equals
 				}
 			}
 		}
+		Constants.BUCKETS_LOCATION=0;
+		Constants.SUFFIX_SORTING=0;
+		Constants.PARALLEL_QUICKSORT_THRESHOLD=THRESHOLD;
 		return true;
 	}
 
@@ -2277,6 +3319,403 @@ if (str.equals("31313") || str.equals("1313") || str.equals("313") || str.equals
 	}
 
 
+	/**
+	 * Compares $InterleavedRank9$ to $Rank9$ and to a trivial count, on random
+	 * bitvectors of random length and density, at every position including the length.
+	 */
+	private static final boolean test_interleavedRank9() {
+		final int N_ITERATIONS = 1000;
+		final int MAX_LENGTH = 3000;
+		int i, j, length, bit;
+		long ones;
+		double density;
+		IntArray bitVector;
+		Rank9 rank9;
+		InterleavedRank9 interleaved;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		for (i=0; i<N_ITERATIONS; i++) {
+			length=random.nextInt(MAX_LENGTH+1);
+			density=random.nextDouble();
+			bitVector = new IntArray(length,1,false);
+			for (j=0; j<length; j++) bitVector.pushFromRight(random.nextDouble()<density?1:0);
+			rank9 = new Rank9(bitVector);
+			interleaved = new InterleavedRank9(bitVector);
+			ones=0;
+			for (j=0; j<=length; j++) {
+				if (interleaved.rank(j)!=ones || rank9.rank(j)!=ones) {
+					System.err.println("Error in rank at position "+j+" of "+length+": true="+ones+" Rank9="+rank9.rank(j)+" InterleavedRank9="+interleaved.rank(j));
+					return false;
+				}
+				if (j==length) break;
+				bit=rank9.getBit(j);
+				if (interleaved.getBit(j)!=bit) {
+					System.err.println("Error in getBit at position "+j+" of "+length);
+					return false;
+				}
+				ones+=bit;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Compares $RRRBitVector$ to $Rank9$ at every position, in $rank$, $getBit$ and
+	 * $getWord$, and checks $SimpleSelect$ over it, on random bitvectors of random length
+	 * and density, and on bitvectors made of runs of random length.
+	 */
+	private static final boolean test_rrrBitVector() {
+		final int N_ITERATIONS = 1000;
+		final int MAX_LENGTH = 5000;
+		final int MAX_RUN_LENGTH = 200;
+		int i, j, k, length, bit, run;
+		double density;
+		IntArray bitVector;
+		Rank9 rank9;
+		RRRBitVector rrr;
+		SimpleSelect select;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		for (i=0; i<N_ITERATIONS; i++) {
+			length=random.nextInt(MAX_LENGTH+1);
+			bitVector = new IntArray(length,1,false);
+			if ((i&1)==0) {
+				density=random.nextDouble();
+				for (j=0; j<length; j++) bitVector.pushFromRight(random.nextDouble()<density?1:0);
+			}
+			else {
+				bit=0; j=0;
+				while (j<length) {
+					run=1+random.nextInt(MAX_RUN_LENGTH);
+					for (k=0; k<run && j<length; k++, j++) bitVector.pushFromRight(bit);
+					bit=1-bit;
+				}
+			}
+			rank9 = new Rank9(bitVector);
+			rrr = new RRRBitVector(bitVector);
+			if (RRRBitVector.estimateBits(bitVector)>rrr.sizeInBits()) {
+				System.err.println("Wrong size estimate: "+RRRBitVector.estimateBits(bitVector)+" > "+rrr.sizeInBits());
+				return false;
+			}
+			for (j=0; j<=length; j++) {
+				if (rrr.rank(j)!=rank9.rank(j)) {
+					System.err.println("Error in rank at position "+j+" of "+length+": true="+rank9.rank(j)+" computed="+rrr.rank(j));
+					return false;
+				}
+				if (j<length && rrr.getBit(j)!=rank9.getBit(j)) {
+					System.err.println("Error in getBit at position "+j+" of "+length);
+					return false;
+				}
+			}
+			for (j=0; j<(length+63)/64; j++) {
+				if (rrr.getWord(j)!=(j<(length-1)/64?rank9.getWord(j):rank9.getWord(j)&((length&63)==0?-1L:(1L<<(length&63))-1))) {
+					System.err.println("Error in getWord "+j+" of length "+length);
+					return false;
+				}
+			}
+			select = new SimpleSelect(rrr,true);
+			for (j=0, k=0; j<length; j++) {
+				if (rank9.getBit(j)==0) continue;
+				if (select.select(k)!=j) {
+					System.err.println("Error in select("+k+") over RRRBitVector: true="+j+" computed="+select.select(k));
+					return false;
+				}
+				k++;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Compares $BlockLookup$ to a trivial scan, on random block starts with block sizes
+	 * that range from one position to a large fraction of the BWT.
+	 */
+	private static final boolean test_blockLookup() {
+		final int N_ITERATIONS = 500;
+		final int MAX_BWT_LENGTH = 5000;
+		int i, b, nBlocks, maxBlockSize;
+		long p, bwtLength, start;
+		IntArray blockStarts;
+		BlockLookup lookup;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		for (i=0; i<N_ITERATIONS; i++) {
+			bwtLength=1+random.nextInt(MAX_BWT_LENGTH);
+			maxBlockSize=1+random.nextInt((int)bwtLength);
+			blockStarts = new IntArray(bwtLength+1,Utils.bitsToEncode(bwtLength),false);
+			start=0;
+			while (start<bwtLength) {
+				blockStarts.push(start);
+				start+=1+random.nextInt(i%2==0?maxBlockSize:Math.max(maxBlockSize>>4,1));
+			}
+			nBlocks=(int)blockStarts.length();
+			lookup = new BlockLookup(blockStarts,bwtLength);
+			b=0;
+			for (p=0; p<=bwtLength; p++) {
+				while (b+1<nBlocks && blockStarts.getElementAt(b+1)<=p) b++;
+				if (lookup.block(p)!=b) {
+					System.err.println("Error at position "+p+" of a BWT of length "+bwtLength+" with "+nBlocks+" blocks: true="+b+" computed="+lookup.block(p));
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Compares $RankDataStructure.rank(positions,...)$ to $rank$ on every layout, with
+	 * $RankKernel.VECTOR$ if it is available.
+	 */
+	private static final boolean test_batchedRank() {
+		final int N_ITERATIONS = 200;
+		final int MAX_LENGTH = 100000;
+		final int MAX_POSITIONS = 100;
+		final double[] DENSITIES = new double[] {0.5,0.99,0.02,0.001};
+		int i, j, length, nPositions;
+		double density;
+		long[] positions, out;
+		IntArray bitVector;
+		RankDataStructure[] ranks;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		positions = new long[1+MAX_POSITIONS];
+		out = new long[MAX_POSITIONS];
+		for (i=0; i<N_ITERATIONS; i++) {
+			length=random.nextInt(MAX_LENGTH+1);
+			density=DENSITIES[random.nextInt(DENSITIES.length)];
+			bitVector = new IntArray(length,1,false);
+			for (j=0; j<length; j++) bitVector.pushFromRight(random.nextDouble()<density?1:0);
+			ranks = new RankDataStructure[] {new Rank9(bitVector),new InterleavedRank9(bitVector),new RRRBitVector(bitVector)};
+			nPositions=random.nextInt(MAX_POSITIONS+1);
+			for (j=1; j<=nPositions; j++) positions[j]=random.nextInt(length+1);
+			Arrays.sort(positions,1,nPositions+1);
+			for (RankDataStructure rank : ranks) {
+				rank.rank(positions,1,nPositions,out);
+				for (j=0; j<nPositions; j++) {
+					if (out[j]!=rank.rank(positions[1+j])) {
+						System.err.println("Error in batched rank of layout "+rank.type()+" (vector kernel: "+(RankKernel.VECTOR!=null)+"), length="+length+": position="+positions[1+j]+" true="+rank.rank(positions[1+j])+" computed="+out[j]);
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * The owner of a $WorkStealingDeque$ pushes and takes random numbers of elements,
+	 * while other threads steal: every element must be removed exactly once.
+	 */
+	private static final boolean test_workStealingDeque() {
+		final int N_ITERATIONS = 20;
+		final int N_ELEMENTS = 200000;
+		final int N_THIEVES = 3;
+		int i, j, k, next, burst;
+		Integer element;
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicIntegerArray removed = new AtomicIntegerArray(N_ELEMENTS);
+		final WorkStealingDeque<Integer> deque = new WorkStealingDeque<Integer>();
+		Thread[] thieves = new Thread[N_THIEVES];
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		for (i=0; i<N_ITERATIONS; i++) {
+			for (j=0; j<N_ELEMENTS; j++) removed.set(j,0);
+			done.set(false);
+			for (j=0; j<N_THIEVES; j++) {
+				thieves[j] = new Thread() {
+					public void run() {
+						Integer e;
+						while (!done.get()) {
+							e=deque.steal();
+							if (e!=null) removed.incrementAndGet(e.intValue());
+						}
+					}
+				};
+				thieves[j].start();
+			}
+			next=0;
+			while (next<N_ELEMENTS) {
+				burst=Math.min(1+random.nextInt(100),N_ELEMENTS-next);
+				for (k=0; k<burst; k++) deque.push(Integer.valueOf(next++));
+				burst=random.nextInt(100);
+				for (k=0; k<burst; k++) {
+					element=deque.take();
+					if (element==null) break;
+					removed.incrementAndGet(element.intValue());
+				}
+			}
+			while (deque.size()>0) {
+				element=deque.take();
+				if (element!=null) removed.incrementAndGet(element.intValue());
+			}
+			done.set(true);
+			try { for (j=0; j<N_THIEVES; j++) thieves[j].join(); }
+			catch (InterruptedException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			for (j=0; j<N_ELEMENTS; j++) {
+				if (removed.get(j)!=1) {
+					System.err.println("Element "+j+" removed "+removed.get(j)+" times");
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Compares $SimpleSelect$ to a trivial scan, selecting both ones and zeros, with both
+	 * rank layouts, on random bitvectors whose densities range from dense to very sparse,
+	 * and on bitvectors made of sparse clusters of ones, so that all kinds of blocks and
+	 * groups are used.
+	 */
+	private static final boolean test_simpleSelect() {
+		final int N_ITERATIONS = 200;
+		final int MAX_LENGTH = 300000;
+		final double[] DENSITIES = new double[] {0.5,0.99,0.02,0.001,0.0001};
+		int i, j, k, length, bit, nSelected;
+		double density;
+		long[] positions;
+		IntArray bitVector;
+		RankDataStructure rank;
+		SimpleSelect select;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		positions = new long[MAX_LENGTH];
+		for (i=0; i<N_ITERATIONS; i++) {
+			length=random.nextInt(MAX_LENGTH+1);
+			density=DENSITIES[random.nextInt(DENSITIES.length)];
+			bitVector = new IntArray(length,1,false);
+			if ((i&3)==3) {
+				// Clusters of ones
+				for (j=0; j<length; j++) bitVector.pushFromRight(random.nextDouble()<density && (j&4095)<64?1:0);
+			}
+			else {
+				for (j=0; j<length; j++) bitVector.pushFromRight(random.nextDouble()<density?1:0);
+			}
+			Constants.RANK_LAYOUT=(i>>>2)&1;
+			rank=RankDataStructure.build(bitVector);
+			for (bit=0; bit<=1; bit++) {
+				select = new SimpleSelect(rank,bit==1);
+				nSelected=0;
+				for (j=0; j<length; j++) {
+					if (rank.getBit(j)==bit) positions[nSelected++]=j;
+				}
+				if (select.count!=nSelected) {
+					System.err.println("Wrong number of selected bits: "+select.count+" != "+nSelected);
+					return false;
+				}
+				for (k=0; k<nSelected; k++) {
+					if (select.select(k)!=positions[k]) {
+						System.err.println("Error in select("+k+") of bit "+bit+", length="+length+" density="+density+": true="+positions[k]+" computed="+select.select(k));
+						return false;
+					}
+				}
+			}
+		}
+		Constants.RANK_LAYOUT=0;
+		return true;
+	}
+
+
+	/**
+	 * Checks $SAIS.buildSuffixArray$ with naive suffix comparisons, on random strings
+	 * and on periodic strings, of random length and on random alphabets. Periodic
+	 * strings are not compared to $Suffixes.sort$, which assumes that $string$ is not
+	 * highly repetitive.
+	 */
+	private static final boolean test_SAIS() {
+		final int N_ITERATIONS = 2000;
+		final int MAX_STRING_LENGTH = 1000;
+		int i, j, stringLength, alphabetLength, period;
+		long x, y;
+		int[] suffixArray;
+		boolean[] found;
+		IntArray string;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+
+		for (i=0; i<N_ITERATIONS; i++) {
+			stringLength=1+random.nextInt(MAX_STRING_LENGTH);
+			alphabetLength=1+random.nextInt(16);
+			string = new IntArray(stringLength,Utils.log2(alphabetLength+1));
+			if ((i&1)==0) {
+				for (j=0; j<stringLength; j++) string.push(random.nextInt(alphabetLength));
+			}
+			else {
+				period=1+random.nextInt(10);
+				for (j=0; j<period && j<stringLength; j++) string.push(random.nextInt(alphabetLength));
+				for (j=period; j<stringLength; j++) string.push(string.getElementAt(j-period));
+			}
+			suffixArray=SAIS.buildSuffixArray(string,alphabetLength);
+			if (suffixArray.length!=stringLength+1 || suffixArray[0]!=stringLength) {
+				System.err.println("Wrong first element or length of the suffix array");
+				return false;
+			}
+			found = new boolean[stringLength+1];
+			for (j=0; j<=stringLength; j++) {
+				if (suffixArray[j]<0 || suffixArray[j]>stringLength || found[suffixArray[j]]) {
+					System.err.println("The suffix array is not a permutation");
+					return false;
+				}
+				found[suffixArray[j]]=true;
+			}
+			for (j=1; j<stringLength; j++) {
+				x=suffixArray[j]; y=suffixArray[j+1];
+				while (x<stringLength && y<stringLength && string.getElementAt(x)==string.getElementAt(y)) { x++; y++; }
+				if (x<stringLength && (y==stringLength || string.getElementAt(x)>string.getElementAt(y))) {
+					System.err.println("Suffixes at positions "+j+","+(j+1)+" of the suffix array are not in order (alphabetLength="+alphabetLength+")");
+					string.print(); System.err.println();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Compares the parallel and the sequential versions of $Suffixes.sort$, with a
+	 * threshold small enough to fork many tasks.
+	 */
+	private static final boolean test_parallelSort() {
+		final int N_ITERATIONS = 20;
+		final int STRING_LENGTH = 20000;
+		final int THRESHOLD = Constants.PARALLEL_QUICKSORT_THRESHOLD;
+		int i, j;
+		IntArray string, suffixes_sequential, suffixes_parallel;
+		XorShiftStarRandom random = new XorShiftStarRandom();
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		Constants.PARALLEL_QUICKSORT_THRESHOLD=64;
+		for (i=0; i<N_ITERATIONS; i++) {
+			string = new IntArray(STRING_LENGTH,2,false);
+			for (j=0; j<STRING_LENGTH; j++) string.push(random.nextInt(4));
+			suffixes_sequential = new IntArray(STRING_LENGTH,Utils.log2(STRING_LENGTH));
+			for (j=0; j<STRING_LENGTH; j++) suffixes_sequential.push(j);
+			suffixes_parallel=suffixes_sequential.clone();
+			Suffixes.sort(suffixes_sequential,string,random);
+			Suffixes.sort(suffixes_parallel,string,random,pool);
+			for (j=0; j<STRING_LENGTH; j++) {
+				if (suffixes_parallel.getElementAt(j)!=suffixes_sequential.getElementAt(j)) {
+					System.err.println("Parallel sort differs from sequential sort at position "+j);
+					Constants.PARALLEL_QUICKSORT_THRESHOLD=THRESHOLD;
+					pool.shutdown();
+					return false;
+				}
+			}
+		}
+		Constants.PARALLEL_QUICKSORT_THRESHOLD=THRESHOLD;
+		pool.shutdown();
+		return true;
+	}
+
+
 	private static final boolean test_sort() {
 		final int N_RANDOM_STRINGS = 100;
 		final int STRING_LENGTH = 1000;
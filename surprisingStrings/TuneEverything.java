@@ -17,7 +17,7 @@ public class TuneEverything {
 		double min;
 		double[] measurements;
 		double[][] matrix;
-		String path;
+		String path, indexPath;
 		IntArray string=null;
 		BernoulliSubstring w;
 		SubstringIterator iterator;
@@ -32,17 +32,33 @@ public class TuneEverything {
 		bw.write("availableProcessors="+Runtime.getRuntime().availableProcessors()+" (but using "+nThreads+")\n");
 		bw.flush();
 
-		// Building $SubstringIterator$
+		// Building $SubstringIterator$, or loading it from $indexPath$ if it has already
+		// been built by a previous run from the current version of $path$.
 		int[] alphabet = new int[] {0,1,2,3};
-		try { string=Utils.loadDNA(path,stringLength,1000); }
-		catch(IOException e) {
-			e.printStackTrace();
-			System.exit(1);
+		indexPath=path+".index";
+		if (IndexFile.isUpToDate(indexPath,path)) {
+			stringLength=(int)IndexFile.stringLength(indexPath);
+			w = new BernoulliSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),stringLength+1,Utils.log2(stringLength+1),Utils.bitsToEncode(stringLength+1));
+			time=System.currentTimeMillis();
+			iterator=SubstringIterator.load(indexPath,w);
+			bw.write("loading time: "+(System.currentTimeMillis()-time)+"\n");
+		}
+		else {
+			try { string=Utils.loadDNA(path,stringLength,1000); }
+			catch(IOException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			w = new BernoulliSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),string.length()+1,Utils.log2(string.length()+1),Utils.bitsToEncode(string.length()+1));
+			time=System.currentTimeMillis();
+			iterator = new SubstringIterator(string,alphabet,alphabet.length,w);
+			bw.write("construction time: "+(System.currentTimeMillis()-time)+"\n");
+			try { iterator.store(indexPath,path); }
+			catch(IOException e) {
+				// The index is just a cache: the run goes on with $iterator$.
+				System.err.println("Could not store the index in "+indexPath+": "+e);
+			}
 		}
-		w = new BernoulliSubstring(4,Utils.log2(4),Utils.bitsToEncode(4),string.length()+1,Utils.log2(string.length()+1),Utils.bitsToEncode(string.length()+1));
-		time=System.currentTimeMillis();
-		iterator = new SubstringIterator(string,alphabet,alphabet.length,w);
-		bw.write("construction time: "+(System.currentTimeMillis()-time)+"\n");
 		bw.flush();
 		Constants.N_THREADS=nThreads;
 
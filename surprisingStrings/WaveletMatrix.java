@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import java.io.IOException;
+
+/**
+ * Wavelet matrix \cite{claude2012wavelet} of a BWT block, for large alphabets (e.g.
+ * proteins or bytes), where the wavelet tree with pointers of $HuffmanWaveletTree$
+ * wastes space and $multirank$ must touch every character of the alphabet.
+ *
+ * Every character is replaced by its position in $alphabet$, encoded with
+ * $nLevels=\lceil\log_2|alphabet|\rceil$ bits, which preserves the lexicographic order.
+ * Level $l$ stores bit $nLevels-1-l$ (from the right) of the code of every character, in
+ * the order induced by a stable partition of the characters by the bits of the previous
+ * levels: zeros before ones. $zeros[l]$ is the number of zeros in level $l$. A node of
+ * the implicit wavelet tree is an interval of a level, and a position $p$ in a node
+ * that starts at $s$ maps to $rank0(p)$ in the zero child, which starts at $rank0(s)$,
+ * and to $zeros[l]+rank1(p)$ in the one child, which starts at $zeros[l]+rank1(s)$.
+ *
+ * Remark: $sparseMultirank$ visits just the nodes whose intervals between the first and
+ * the last position are nonempty, thus its cost is proportional to the number of
+ * distinct characters in such interval, times $nLevels$, rather than to $|alphabet|$.
+ */
+public class WaveletMatrix extends BWTBlock {
+
+	/**
+	 * The symbols that occur in the block, sorted lexicographically.
+	 */
+	private final int[] alphabet;
+	private final int nLevels;
+	private final long[] zeros;
+	private RankDataStructure[] levels;
+
+
+	/**
+	 * @param alphabet only the distinct symbols that occur in $string$, sorted
+	 * lexicographically.
+	 */
+	public WaveletMatrix(IntArray string, int[] alphabet) {
+		final long stringLength = string.length();
+		int i, l, code;
+		long il;
+		int[] codes, nextCodes, tmp;
+		IntArray bitVector;
+
+		this.alphabet=alphabet;
+		nLevels=alphabet.length==1?0:Utils.bitsToEncode(alphabet.length-1);
+		zeros = new long[nLevels];
+		levels = new RankDataStructure[nLevels];
+		if (nLevels==0) return;
+		codes = new int[(int)stringLength];
+		for (il=0; il<stringLength; il++) codes[(int)il]=Arrays.binarySearch(alphabet,(int)string.getElementAt(il));
+		nextCodes = new int[(int)stringLength];
+		for (l=0; l<nLevels; l++) {
+			bitVector = new IntArray(stringLength,1,false);
+			for (i=0; i<stringLength; i++) {
+				if ((codes[i]&(1<<(nLevels-1-l)))==0) {
+					bitVector.pushFromRight(0);  // $RankDataStructure$ reads bits from right to left
+					nextCodes[(int)zeros[l]]=codes[i];
+					zeros[l]++;
+				}
+				else bitVector.pushFromRight(1);  // $RankDataStructure$ reads bits from right to left
+			}
+			code=(int)zeros[l];
+			for (i=0; i<stringLength; i++) {
+				if ((codes[i]&(1<<(nLevels-1-l)))!=0) nextCodes[code++]=codes[i];
+			}
+			levels[l]=RankDataStructure.build(bitVector);
+			bitVector=null;
+			tmp=codes; codes=nextCodes; nextCodes=tmp;
+		}
+	}
+
+
+	/**
+	 * Used by $readData$.
+	 */
+	private WaveletMatrix(int[] alphabet, long[] zeros) {
+		this.alphabet=alphabet;
+		this.zeros=zeros;
+		nLevels=zeros.length;
+	}
+
+
+	public final int type() {
+		return WAVELET_MATRIX;
+	}
+
+
+	/**
+	 * Appends to $file$ the alphabet, the number of zeros and the rank data structure of
+	 * every level.
+	 */
+	protected final void writeData(IndexFile file) throws IOException {
+		file.writeIntArray(alphabet);
+		file.writeLongArray(zeros);
+		for (int l=0; l<nLevels; l++) levels[l].write(file);
+	}
+
+
+	/**
+	 * Inverse of $writeData$.
+	 */
+	public static final WaveletMatrix readData(IndexFile file) throws IOException {
+		final int[] alphabet = file.readIntArray();
+		WaveletMatrix out = new WaveletMatrix(alphabet,file.readLongArray());
+		out.levels = new RankDataStructure[out.nLevels];
+		for (int l=0; l<out.nLevels; l++) out.levels[l]=RankDataStructure.read(file);
+		return out;
+	}
+
+
+	public final int access(long position) {
+		int l, code;
+		code=0;
+		for (l=0; l<nLevels; l++) {
+			if (levels[l].getBit(position)==0) {
+				position-=levels[l].rank(position);
+				code<<=1;
+			}
+			else {
+				position=zeros[l]+levels[l].rank(position);
+				code=(code<<1)|1;
+			}
+		}
+		return alphabet[code];
+	}
+
+
+	/**
+	 * Visits every leaf of the wavelet matrix. The start of each node is kept in column
+	 * 0 of $stack$, thus $stack$ must have at least $nLevels+1$ rows, and $ones$ is not
+	 * used.
+	 */
+	public final void multirank(int fullAlphabetLength, int nPositions, long[][] stack, long[][] output, long[] ones) {
+		int j;
+		if (nLevels==0) {
+			for (j=0; j<nPositions; j++) output[alphabet[0]][j]=stack[0][j+1];
+			return;
+		}
+		stack[0][0]=0;
+		visit(0,0,nPositions,stack,null,output,0,false);
+	}
+
+
+	/**
+	 * Visits only the nodes whose interval between the first and the last position is
+	 * nonempty. $stack$ must have at least $nLevels+1$ rows, and $ones$ is not used.
+	 */
+	public final int sparseMultirank(int fullAlphabetLength, int nPositions, long[][] stack, int[] characters, long[][] output, long[] ones) {
+		int j;
+		if (nLevels==0) {
+			if (stack[0][nPositions]==stack[0][1]) return 0;
+			characters[0]=alphabet[0];
+			for (j=0; j<nPositions; j++) output[0][j]=stack[0][j+1];
+			return 1;
+		}
+		stack[0][0]=0;
+		return visit(0,0,nPositions,stack,characters,output,0,true);
+	}
+
+
+	/**
+	 * Depth-first visit of the subtree of the node at level $level$ with code prefix
+	 * $code$, whose start and positions are in row $level$ of $stack$. The zero child
+	 * is written to row $level+1$, and the one child is derived from it after the zero
+	 * child has been visited, since row $level+1$ is not altered by the descendants of
+	 * the zero child.
+	 *
+	 * @param characters NULL: writes the ranks of the leaves to $output[alphabet[code]]$;
+	 * otherwise writes them to row $nReported$ of $output$, and the character to
+	 * $characters$;
+	 * @param prune TRUE: skips the nodes whose first and last position coincide;
+	 * @return the number of characters reported so far.
+	 */
+	private final int visit(int level, int code, int nPositions, long[][] stack, int[] characters, long[][] output, int nReported, boolean prune) {
+		final long[] row = stack[level];
+		final long[] nextRow;
+		final long nZeros;
+		final RankDataStructure bits;
+		int j;
+
+		if (prune && row[nPositions]==row[1]) return nReported;
+		if (level==nLevels) {
+			if (code>=alphabet.length) return nReported;
+			if (characters==null) {
+				for (j=0; j<nPositions; j++) output[alphabet[code]][j]=row[j+1]-row[0];
+				return nReported;
+			}
+			characters[nReported]=alphabet[code];
+			for (j=0; j<nPositions; j++) output[nReported][j]=row[j+1]-row[0];
+			return nReported+1;
+		}
+		nextRow=stack[level+1];
+		bits=levels[level];
+		for (j=0; j<=nPositions; j++) nextRow[j]=row[j]-bits.rank(row[j]);
+		nReported=visit(level+1,code<<1,nPositions,stack,characters,output,nReported,prune);
+		nZeros=zeros[level];
+		for (j=0; j<=nPositions; j++) nextRow[j]=nZeros+row[j]-nextRow[j];
+		return visit(level+1,(code<<1)|1,nPositions,stack,characters,output,nReported,prune);
+	}
+
+}
@@ -0,0 +1,116 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free work-stealing deque \cite{chase2005dynamic}: the owner thread pushes and
+ * takes elements at the bottom, without atomic instructions except when it competes
+ * with thieves for the last element, and any other thread steals the element at the
+ * top with a CAS. The circular array doubles when full, and it never shrinks.
+ *
+ * Remark: $bottom$ is volatile, thus the write of an element by $push$ happens-before
+ * the read of $bottom$ by a thief that reads the element. The volatile write of $bottom$
+ * in $take$, followed by the volatile read of $top$, provides the store-load ordering
+ * required by the algorithm.
+ *
+ * Remark: the slot of an element is cleared by the thread that removes it, so that the
+ * deque does not keep removed elements reachable. A thief clears its slot with a CAS,
+ * which fails if the slot already holds another element. An element that is stolen
+ * while $grow$ copies the array can stay in the new array until its slot is reused.
+ */
+public class WorkStealingDeque<E> {
+
+	private static final int INITIAL_CAPACITY = 32;
+
+	private volatile AtomicReferenceArray<E> array;
+	private volatile long bottom;
+	private final AtomicLong top;
+
+
+	public WorkStealingDeque() {
+		array = new AtomicReferenceArray<E>(INITIAL_CAPACITY);
+		bottom=0;
+		top = new AtomicLong();
+	}
+
+
+	/**
+	 * @return an estimate of the number of elements in the deque, which can be called by
+	 * any thread.
+	 */
+	public final long size() {
+		return Math.max(bottom-top.get(),0);
+	}
+
+
+	/**
+	 * Appends $element$ at the bottom. To be called only by the owner.
+	 */
+	public final void push(E element) {
+		final long b = bottom;
+		final long t = top.get();
+		AtomicReferenceArray<E> a = array;
+		if (b-t>=a.length()-1) a=grow(a,b,t);
+		a.lazySet((int)(b&(a.length()-1)),element);
+		bottom=b+1;
+	}
+
+
+	private final AtomicReferenceArray<E> grow(AtomicReferenceArray<E> a, long b, long t) {
+		AtomicReferenceArray<E> out = new AtomicReferenceArray<E>(a.length()<<1);
+		for (long i=t; i<b; i++) out.lazySet((int)(i&(out.length()-1)),a.get((int)(i&(a.length()-1))));
+		array=out;
+		return out;
+	}
+
+
+	/**
+	 * Removes the element at the bottom. To be called only by the owner.
+	 *
+	 * @return NULL if the deque is empty, or if a thief has stolen the last element.
+	 */
+	public final E take() {
+		final long b = bottom-1;
+		final AtomicReferenceArray<E> a = array;
+		final int slot = (int)(b&(a.length()-1));
+		final long t;
+		E out;
+
+		bottom=b;
+		t=top.get();
+		if (t>b) {
+			bottom=b+1;
+			return null;
+		}
+		out=a.get(slot);
+		if (t==b) {
+			if (!top.compareAndSet(t,t+1)) out=null;
+			bottom=b+1;
+		}
+		if (out!=null) a.lazySet(slot,null);
+		return out;
+	}
+
+
+	/**
+	 * Removes the element at the top. Can be called by any thread.
+	 *
+	 * @return NULL if the deque is empty, or if another thread has removed the element
+	 * at the top concurrently.
+	 */
+	public final E steal() {
+		final long t = top.get();
+		final long b = bottom;
+		final AtomicReferenceArray<E> a;
+		final int slot;
+		final E out;
+
+		if (t>=b) return null;
+		a=array;
+		slot=(int)(t&(a.length()-1));
+		out=a.get(slot);
+		if (out==null || !top.compareAndSet(t,t+1)) return null;
+		a.compareAndSet(slot,out,null);
+		return out;
+	}
+
+}
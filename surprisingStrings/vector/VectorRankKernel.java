@@ -0,0 +1,76 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * $RankKernel$ based on the Vector API of the JDK, with the preferred vector size of
+ * the machine. For every group of $nLanes()$ positions, the words of the bitvector and
+ * the counts of $Rank9$ are gathered into vectors, and the rank formula of $Rank9$ is
+ * evaluated on all lanes at once. The popcount is computed with the bitwise algorithm
+ * in \cite{vigna2008broadword}, since the API of JDK 17 has no lanewise popcount.
+ * Positions that do not fill a group are ranked with scalar code.
+ *
+ * Remark: this class must be compiled and run with $--add-modules jdk.incubator.vector$,
+ * and the classes in the parent directory must be in the classpath (see README).
+ */
+public class VectorRankKernel extends RankKernel {
+
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+	private static final int N_LANES = SPECIES.length();
+
+
+	public final int nLanes() {
+		return N_LANES;
+	}
+
+
+	public final void rank9(long[] bits, long[] count, long lastOne, long numOnes, long[] positions, int first, int nPositions, long[] out) {
+		final int last = nPositions-N_LANES;
+		int i, j, word;
+		long pos;
+		int[] words = new int[N_LANES];
+		int[] blocks = new int[N_LANES];
+		int[] relativeBlocks = new int[N_LANES];  // Gathering from $count$ with array offset 1 made the C2 code of JDK 17.0.9 crash
+		LongVector p, offset, relative, x;
+
+		for (i=0; i<=last; i+=N_LANES) {
+			for (j=0; j<N_LANES; j++) {
+				pos=positions[first+i+j];
+				word=pos>lastOne?0:(int)(pos>>>6);  // Lanes after $lastOne$ are overwritten below
+				words[j]=word;
+				blocks[j]=(word>>>2)&~1;
+				relativeBlocks[j]=blocks[j]+1;
+			}
+			p=LongVector.fromArray(SPECIES,positions,first+i);
+			offset=p.lanewise(VectorOperators.LSHR,6).and(7).sub(1);
+			offset=offset.add(offset.lanewise(VectorOperators.LSHR,60).and(8));
+			relative=LongVector.fromArray(SPECIES,count,0,relativeBlocks,0);
+			relative=relative.lanewise(VectorOperators.LSHR,offset.lanewise(VectorOperators.LSHL,3).add(offset)).and(0x1FF);
+			x=LongVector.fromArray(SPECIES,bits,0,words,0);
+			x=x.and(LongVector.broadcast(SPECIES,1L).lanewise(VectorOperators.LSHL,p.and(63)).sub(1));
+			x=x.sub(x.lanewise(VectorOperators.LSHR,1).and(0x5555555555555555L));
+			x=x.and(0x3333333333333333L).add(x.lanewise(VectorOperators.LSHR,2).and(0x3333333333333333L));
+			x=x.add(x.lanewise(VectorOperators.LSHR,4)).and(0x0F0F0F0F0F0F0F0FL);
+			x=x.add(x.lanewise(VectorOperators.LSHR,8));
+			x=x.add(x.lanewise(VectorOperators.LSHR,16));
+			x=x.add(x.lanewise(VectorOperators.LSHR,32)).and(0x7F);
+			x=x.add(relative).add(LongVector.fromArray(SPECIES,count,0,blocks,0));
+			x=x.blend(numOnes,p.compare(VectorOperators.GT,lastOne));
+			x.intoArray(out,i);
+		}
+		for (; i<nPositions; i++) out[i]=rank9(bits,count,lastOne,numOnes,positions[first+i]);
+	}
+
+
+	/**
+	 * Scalar version, identical to $Rank9.rank$.
+	 */
+	private static final long rank9(long[] bits, long[] count, long lastOne, long numOnes, long pos) {
+		if (pos>lastOne) return numOnes;
+		final int word = (int)(pos>>>6);
+		final int block = (word>>>2)&~1;
+		final int offset = (word&7)-1;
+		return count[block]+(count[block+1]>>>(offset+(offset>>>28&8))*9&0x1FF)+Long.bitCount(bits[word]&((1L<<(pos&63))-1));
+	}
+
+}